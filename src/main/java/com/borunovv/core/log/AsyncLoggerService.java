@@ -3,6 +3,7 @@ package com.borunovv.core.log;
 import com.borunovv.core.log.db.dao.LoggerDao;
 import com.borunovv.core.log.db.model.LogEntry;
 import com.borunovv.core.log.db.service.LogLevelService;
+import com.borunovv.core.server.nio.core.util.CountedConcurrentQueue;
 import com.borunovv.core.service.AbstractProducer;
 import com.borunovv.core.service.IConsumer;
 import org.apache.commons.lang.exception.ExceptionUtils;
@@ -13,7 +14,6 @@ import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -27,8 +27,8 @@ public class AsyncLoggerService extends AbstractProducer<List<LogEntry>> {
     private AtomicBoolean isStarted = new AtomicBoolean(false);
     private volatile boolean isStopRequested = false;
     private long lastSaveTime = 0;
-    private volatile int maxQueueSize;
-    private ConcurrentLinkedQueue<LogEntry> queue = new ConcurrentLinkedQueue<>();
+    // Размер за O(1): put() проверяет его на каждую запись (и в цикле, пока очередь полна).
+    private CountedConcurrentQueue<LogEntry> queue = new CountedConcurrentQueue<>();
     private AtomicLong counter = new AtomicLong(0);
 
     @PostConstruct
@@ -161,7 +161,6 @@ public class AsyncLoggerService extends AbstractProducer<List<LogEntry>> {
                 return;
             }
 
-            maxQueueSize = Math.max(maxQueueSize, queue.size());
             List<LogEntry> batch = new ArrayList<>(MAX_BATCH_SIZE);
 
             for (int i = 0; i < MAX_BATCH_SIZE; ++i) {
@@ -0,0 +1,242 @@
+package com.borunovv.core.server.nio.core.buffer;
+
+import com.borunovv.core.log.Loggable;
+import com.borunovv.core.util.Assert;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Пул буферов для ввода/вывода сессий (один на реактор).
+ * Размеры - степени двойки от minBufferSize до maxBufferSize (классы размеров), по свободному списку на класс.
+ * Буферы больше maxBufferSize выдаются, но в пул не возвращаются.
+ * <p>
+ * Учитывает выданные буферы: возврат чужого или уже возвращенного буфера - ошибка (логируется и считается),
+ * не возвращенные на момент закрытия пула - утечка.
+ * Суммарный объем свободных буферов в пуле ограничен maxPooledBytes, лишнее отдается GC.
+ */
+public class ByteBufferPool extends Loggable {
+
+    private final Config config;
+    private final int minSizeShift;
+    private final ArrayDeque<ByteBuffer>[] freeLists;
+    // Выданные буферы -> время выдачи.
+    private final Map<ByteBuffer, Long> outstanding = new IdentityHashMap<>();
+
+    private long pooledBytes = 0;
+    private long outstandingBytes = 0;
+    private long maxOutstandingBytes = 0;
+    private long maxPooledBytesReached = 0;
+    private long allocatedCount = 0;
+    private long reusedCount = 0;
+    private long droppedCount = 0;
+    private long badReleaseCount = 0;
+
+    public ByteBufferPool(Config config) {
+        Assert.isTrue(config != null, "config is null");
+        this.config = config;
+        this.minSizeShift = Integer.numberOfTrailingZeros(config.getMinBufferSize());
+        int classesCount = Integer.numberOfTrailingZeros(config.getMaxBufferSize()) - minSizeShift + 1;
+        this.freeLists = newFreeLists(classesCount);
+        for (int i = 0; i < classesCount; ++i) {
+            freeLists[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Вернет очищенный буфер емкостью не меньше minCapacity (округляется до степени двойки).
+     */
+    public synchronized ByteBuffer acquire(int minCapacity) {
+        Assert.isTrue(minCapacity > 0, "Bad minCapacity: " + minCapacity);
+
+        ByteBuffer buffer = null;
+        int sizeClass = getSizeClass(minCapacity);
+        if (sizeClass >= 0) {
+            buffer = freeLists[sizeClass].pollFirst();
+            if (buffer != null) {
+                pooledBytes -= buffer.capacity();
+                reusedCount++;
+            } else {
+                buffer = allocate(getClassSize(sizeClass));
+            }
+        } else {
+            // Слишком большой для пула - выдаем ровно сколько просят.
+            buffer = allocate(minCapacity);
+        }
+
+        buffer.clear();
+        outstanding.put(buffer, System.currentTimeMillis());
+        outstandingBytes += buffer.capacity();
+        maxOutstandingBytes = Math.max(maxOutstandingBytes, outstandingBytes);
+        return buffer;
+    }
+
+    /**
+     * Возвращает буфер в пул. После возврата пользоваться буфером нельзя.
+     */
+    public synchronized void release(ByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        if (outstanding.remove(buffer) == null) {
+            badReleaseCount++;
+            logger.error("ByteBufferPool: release of not acquired (or already released) buffer: " + buffer,
+                    new IllegalStateException("Bad buffer release"));
+            return;
+        }
+        outstandingBytes -= buffer.capacity();
+
+        int capacity = buffer.capacity();
+        boolean isPoolable = Integer.bitCount(capacity) == 1
+                && capacity >= config.getMinBufferSize()
+                && capacity <= config.getMaxBufferSize();
+
+        if (isPoolable && pooledBytes + capacity <= config.getMaxPooledBytes()) {
+            freeLists[getSizeClass(capacity)].addFirst(buffer);
+            pooledBytes += capacity;
+            maxPooledBytesReached = Math.max(maxPooledBytesReached, pooledBytes);
+        } else {
+            droppedCount++;
+        }
+    }
+
+    // Кол-во выданных и не возвращенных буферов, выданных раньше, чем olderThanMs назад.
+    public synchronized int getOutstandingCount(long olderThanMs) {
+        long threshold = System.currentTimeMillis() - olderThanMs;
+        int count = 0;
+        for (Long acquireTime : outstanding.values()) {
+            if (acquireTime <= threshold) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public synchronized int getOutstandingCount() {
+        return outstanding.size();
+    }
+
+    public synchronized long getOutstandingBytes() {
+        return outstandingBytes;
+    }
+
+    public synchronized long getPooledBytes() {
+        return pooledBytes;
+    }
+
+    public synchronized long getBadReleaseCount() {
+        return badReleaseCount;
+    }
+
+    /**
+     * Освобождает пул. Не возвращенные к этому моменту буферы считаются утечкой (логируем).
+     * Вернет кол-во утекших буферов.
+     */
+    public synchronized int close() {
+        int leaked = outstanding.size();
+        if (leaked > 0) {
+            logger.error("ByteBufferPool: " + leaked + " buffer(s) leaked (" + outstandingBytes + " bytes)");
+        }
+        for (ArrayDeque<ByteBuffer> freeList : freeLists) {
+            freeList.clear();
+        }
+        outstanding.clear();
+        outstandingBytes = 0;
+        pooledBytes = 0;
+        return leaked;
+    }
+
+    public Config getConfig() {
+        return config;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "buffers: in use: " + outstanding.size() + " (" + outstandingBytes + " bytes, max " + maxOutstandingBytes + ")"
+                + ", pooled: " + pooledBytes + " bytes (max " + maxPooledBytesReached + ")"
+                + ", allocated: " + allocatedCount
+                + ", reused: " + reusedCount
+                + ", dropped: " + droppedCount
+                + ", bad releases: " + badReleaseCount;
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        allocatedCount++;
+        return config.isDirect() ?
+                ByteBuffer.allocateDirect(capacity) :
+                ByteBuffer.allocate(capacity);
+    }
+
+    // Вернет индекс класса размеров или -1, если буфер такого размера в пуле не держим.
+    private int getSizeClass(int capacity) {
+        if (capacity > config.getMaxBufferSize()) {
+            return -1;
+        }
+        if (capacity <= config.getMinBufferSize()) {
+            return 0;
+        }
+        int shift = 32 - Integer.numberOfLeadingZeros(capacity - 1); // ceil(log2(capacity))
+        return shift - minSizeShift;
+    }
+
+    private int getClassSize(int sizeClass) {
+        return 1 << (sizeClass + minSizeShift);
+    }
+
+    // Массив параметризованного типа напрямую не создать.
+    @SuppressWarnings("unchecked")
+    private static ArrayDeque<ByteBuffer>[] newFreeLists(int count) {
+        return (ArrayDeque<ByteBuffer>[]) new ArrayDeque<?>[count];
+    }
+
+
+    public static class Config {
+        // Минимальный и максимальный размеры буфера в пуле (степени двойки).
+        private int minBufferSize;
+        private int maxBufferSize;
+
+        // Сколько байт свободных буферов можно держать в пуле.
+        private long maxPooledBytes;
+
+        // Direct-буферы (вне кучи): чтение/запись в сокет без промежуточного копирования внутри JDK.
+        private boolean direct;
+
+        public Config(int minBufferSize, int maxBufferSize, long maxPooledBytes, boolean direct) {
+            Assert.isTrue(minBufferSize > 0 && Integer.bitCount(minBufferSize) == 1,
+                    "minBufferSize must be a power of 2: " + minBufferSize);
+            Assert.isTrue(maxBufferSize >= minBufferSize && Integer.bitCount(maxBufferSize) == 1,
+                    "maxBufferSize must be a power of 2 and >= minBufferSize: " + maxBufferSize);
+            Assert.isTrue(maxPooledBytes >= 0, "Bad maxPooledBytes: " + maxPooledBytes);
+
+            this.minBufferSize = minBufferSize;
+            this.maxBufferSize = maxBufferSize;
+            this.maxPooledBytes = maxPooledBytes;
+            this.direct = direct;
+        }
+
+        public int getMinBufferSize() {
+            return minBufferSize;
+        }
+
+        public int getMaxBufferSize() {
+            return maxBufferSize;
+        }
+
+        public long getMaxPooledBytes() {
+            return maxPooledBytes;
+        }
+
+        public boolean isDirect() {
+            return direct;
+        }
+
+        @Override
+        public String toString() {
+            return "buffer pool: " + minBufferSize + ".." + maxBufferSize + " bytes"
+                    + ", max pooled: " + maxPooledBytes + " bytes"
+                    + ", direct: " + direct;
+        }
+    }
+}
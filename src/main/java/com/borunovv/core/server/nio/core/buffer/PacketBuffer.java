@@ -0,0 +1,79 @@
+package com.borunovv.core.server.nio.core.buffer;
+
+import com.borunovv.core.server.nio.core.service.MemoryBudget;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Буфер принятого пакета. SessionReader не копирует пакет, а отдает свой рабочий буфер во владение
+ * тому, кто разбирает пакет (парсер, дальше - сообщение).
+ * Данные пакета - байты [0, length) буфера. Владелец обязан вызвать release(), после этого
+ * буфер возвращается в пул реактора и данными пользоваться нельзя.
+ * release() можно вызывать из любого потока и несколько раз.
+ * Пока пакет не освобожден, его буфер числится за сессией в бюджете памяти (если он есть).
+ */
+public class PacketBuffer {
+
+    private final ByteBuffer buffer;
+    private final int length;
+    // null - буфер не из пула.
+    private final ByteBufferPool pool;
+    // Счет сессии в бюджете памяти, на котором числится буфер (null - без бюджета).
+    private final MemoryBudget.Account memoryAccount;
+    private final AtomicBoolean released = new AtomicBoolean(false);
+
+    public PacketBuffer(ByteBuffer buffer, int length, ByteBufferPool pool) {
+        this(buffer, length, pool, null);
+    }
+
+    public PacketBuffer(ByteBuffer buffer, int length, ByteBufferPool pool, MemoryBudget.Account memoryAccount) {
+        this.buffer = buffer;
+        this.length = length;
+        this.pool = pool;
+        this.memoryAccount = memoryAccount;
+    }
+
+    // Байты пакета (только для чтения), position = 0, limit = length.
+    public ByteBuffer getData() {
+        return getData(0, length);
+    }
+
+    // Байты [offset, offset + len) пакета (только для чтения), position = 0, limit = len.
+    public ByteBuffer getData(int offset, int len) {
+        if (released.get()) {
+            throw new IllegalStateException("Packet buffer already released");
+        }
+        if (offset < 0 || len < 0 || offset + len > length) {
+            throw new IndexOutOfBoundsException("offset: " + offset + ", len: " + len + ", packet length: " + length);
+        }
+        ByteBuffer view = buffer.asReadOnlyBuffer();
+        view.limit(offset + len);
+        view.position(offset);
+        return view.slice();
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public boolean isReleased() {
+        return released.get();
+    }
+
+    public void release() {
+        if (released.compareAndSet(false, true)) {
+            if (memoryAccount != null) {
+                memoryAccount.release(buffer.capacity());
+            }
+            if (pool != null) {
+                pool.release(buffer);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PacketBuffer{length: " + length + (isReleased() ? ", released" : "") + "}";
+    }
+}
@@ -1,19 +1,41 @@
 package com.borunovv.core.server.nio.core.cooldown;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicBoolean;
-
-
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Отложенные уведомления (cooldown). Один поток на все отложенные элементы, спит в DelayQueue.take() до ближайшего срока:
+ * в простое не просыпается вовсе, а срабатывает без лишнего джиттера (не ждет очередного sleep(1)).
+ * <p>
+ * Элементы можно группировать по ключу (например, по сессии): пока у ключа есть ожидающая пачка,
+ * новые элементы добавляются в нее (в порядке постановки) и срабатывают вместе с ней - один таймер на ключ.
+ * Пачку ключа можно отменить (cancel), например, когда сессия закрылась.
+ */
 public class CooldownAsyncNotifier<T> {
 
-    private CooldownQueue<Wrapper<T>> queue = new CooldownQueue<>();
+    private CooldownQueue<Batch<T>> queue = new CooldownQueue<>();
+    private final ConcurrentMap<Object, Batch<T>> batchesByKey = new ConcurrentHashMap<>();
     private AtomicBoolean started = new AtomicBoolean(false);
     private AtomicBoolean threadStopped = new AtomicBoolean(true);
+    private volatile Thread thread;
+
+    // Метрики.
+    private final AtomicInteger pendingItems = new AtomicInteger();
+    private final LongAdder firedCount = new LongAdder();
+    private final LongAdder coalescedCount = new LongAdder();
+    private final LongAdder cancelledCount = new LongAdder();
 
 
     public void start() {
         if (started.compareAndSet(false, true)) {
             threadStopped.set(false);
-            new Thread(() -> {
+            thread = new Thread(() -> {
                 try {
                     while (started.get()) {
                         doIteration();
@@ -21,12 +43,15 @@ public class CooldownAsyncNotifier<T> {
                 } finally {
                     threadStopped.set(true);
                 }
-            }).start();
+            }, "cooldown-notifier");
+            thread.setDaemon(true);
+            thread.start();
         }
     }
 
     public void stop() {
         if (started.compareAndSet(true, false)) {
+            thread.interrupt();
             while (!threadStopped.get()) {
                 try {
                     Thread.sleep(1);
@@ -35,58 +60,116 @@ public class CooldownAsyncNotifier<T> {
                     break;
                 }
             }
+            thread = null;
         }
     }
 
     public void put(T item, long cooldownDelayMilliseconds, CooldownListener<T> listener) {
+        put(null, item, cooldownDelayMilliseconds, listener);
+    }
+
+    /**
+     * Если у ключа уже есть ожидающая пачка - элемент добавится в нее и сработает в ее срок,
+     * иначе заводится новая пачка со сроком cooldownDelayMilliseconds. key == null - без группировки.
+     */
+    public void put(Object key, T item, long cooldownDelayMilliseconds, CooldownListener<T> listener) {
         if (!started.get()) {
             throw new IllegalStateException("Notifier not started. Use start() method before put()");
         }
 
-        queue.put(new Wrapper<>(item, listener),
-                cooldownDelayMilliseconds);
+        pendingItems.incrementAndGet();
+        if (key == null) {
+            queue.put(new Batch<>(null, item, listener), cooldownDelayMilliseconds);
+            return;
+        }
+
+        while (true) {
+            Batch<T> batch = batchesByKey.get(key);
+            if (batch == null) {
+                batch = new Batch<>(key, item, listener);
+                if (batchesByKey.putIfAbsent(key, batch) == null) {
+                    queue.put(batch, cooldownDelayMilliseconds);
+                    return;
+                }
+            } else if (batch.add(item, listener)) {
+                coalescedCount.increment();
+                return;
+            } else {
+                // Пачка уже сработала или отменена, но еще не убрана из карты.
+                batchesByKey.remove(key, batch);
+            }
+        }
+    }
+
+    /**
+     * Отменяет ожидающую пачку ключа. Вернет отмененные элементы (их дальнейшая судьба - на вызывающем).
+     */
+    public List<T> cancel(Object key) {
+        Batch<T> batch = key != null ?
+                batchesByKey.remove(key) :
+                null;
+        List<T> items = batch != null ?
+                batch.close() :
+                Collections.emptyList();
+        if (!items.isEmpty()) {
+            pendingItems.addAndGet(-items.size());
+            cancelledCount.add(items.size());
+        }
+        return items;
     }
 
+    // Сколько элементов ждут срока.
     public int size() {
-        return queue.size();
+        return pendingItems.get();
     }
 
     public void clear() {
         queue.clear();
+        batchesByKey.clear();
+        pendingItems.set(0);
     }
 
     public boolean isEmpty() {
-        return queue.isEmpty();
+        return size() == 0;
+    }
+
+    public String getStats() {
+        return "scheduled: " + size() + " (" + queue.size() + " timers, " + batchesByKey.size() + " keys)"
+                + ", fired: " + firedCount.sum()
+                + ", coalesced: " + coalescedCount.sum()
+                + ", cancelled: " + cancelledCount.sum();
     }
 
     private void doIteration() {
-        Wrapper<T> wrapper = null;
+        Batch<T> batch;
         try {
-            wrapper = queue.poll();
-            if (wrapper != null) {
-                wrapper.listener.onCooldownFinished(wrapper.item);
-            } else {
-                waitNext();
-            }
-        } catch (Exception e) {
-            try {
-                if (wrapper != null) {
-                    wrapper.listener.onCooldownError(e);
-                }
-            } catch (Exception e2) {
-                e2.printStackTrace();
-            }
+            batch = queue.take();
+        } catch (InterruptedException e) {
+            // stop()
+            return;
+        }
+
+        if (batch.key != null) {
+            batchesByKey.remove(batch.key, batch);
+        }
+        List<Wrapper<T>> wrappers = batch.closeWrappers();
+        // Пустая - значит, пачку отменили.
+        pendingItems.addAndGet(-wrappers.size());
+        for (Wrapper<T> wrapper : wrappers) {
+            fire(wrapper);
         }
     }
 
-    private void waitNext() {
+    private void fire(Wrapper<T> wrapper) {
         try {
-            while (started.get() && queue.getMinDelayToNextItem() != 0) {
-                Thread.sleep(1);
+            firedCount.increment();
+            wrapper.listener.onCooldownFinished(wrapper.item);
+        } catch (Exception e) {
+            try {
+                wrapper.listener.onCooldownError(e);
+            } catch (Exception e2) {
+                e2.printStackTrace();
             }
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-            Thread.currentThread().interrupt();
         }
     }
 
@@ -100,5 +183,44 @@ public class CooldownAsyncNotifier<T> {
             this.listener = listener;
         }
     }
-}
 
+    // Элементы одного ключа, срабатывающие вместе.
+    private static class Batch<Q> {
+        final Object key;
+        private List<Wrapper<Q>> wrappers = new ArrayList<>(1);
+        private boolean closed;
+
+        Batch(Object key, Q item, CooldownListener<Q> listener) {
+            this.key = key;
+            wrappers.add(new Wrapper<>(item, listener));
+        }
+
+        synchronized boolean add(Q item, CooldownListener<Q> listener) {
+            if (closed) {
+                return false;
+            }
+            wrappers.add(new Wrapper<>(item, listener));
+            return true;
+        }
+
+        // Закрывает пачку для добавления, вернет накопленное (пусто, если уже закрыта).
+        synchronized List<Wrapper<Q>> closeWrappers() {
+            if (closed) {
+                return Collections.emptyList();
+            }
+            closed = true;
+            List<Wrapper<Q>> result = wrappers;
+            wrappers = null;
+            return result;
+        }
+
+        List<Q> close() {
+            List<Wrapper<Q>> closedWrappers = closeWrappers();
+            List<Q> items = new ArrayList<>(closedWrappers.size());
+            for (Wrapper<Q> wrapper : closedWrappers) {
+                items.add(wrapper.item);
+            }
+            return items;
+        }
+    }
+}
@@ -19,11 +19,11 @@ public class CooldownQueue<T> {
                 null;
     }
 
-    public long getMinDelayToNextItem() {
-        ItemWrapper<T> next = queue.peek();
-        return next != null ?
-                Math.max(0, next.getDelay(TimeUnit.MILLISECONDS)) :
-                -1;
+    /**
+     * Ждет (не крутясь), пока у первого элемента не истечет задержка.
+     */
+    public T take() throws InterruptedException {
+        return queue.take().item;
     }
 
     public int size() {
@@ -41,21 +41,22 @@ public class CooldownQueue<T> {
 
     private static class ItemWrapper<Q> implements Delayed {
         public final Q item;
-        private final long startTimeMs;
+        // По nanoTime: монотонное, не зависит от перевода системных часов.
+        private final long deadlineNanos;
 
         ItemWrapper(Q item, long cooldownMillisecondsFromNow) {
             this.item = item;
-            this.startTimeMs = System.currentTimeMillis() + cooldownMillisecondsFromNow;
+            this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(cooldownMillisecondsFromNow);
         }
 
         @Override
         public long getDelay(TimeUnit unit) {
-            return unit.convert(startTimeMs - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+            return unit.convert(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
         }
 
         @Override
         public int compareTo(Delayed o) {
-            return Long.compare(this.startTimeMs, ((ItemWrapper<Q>) o).startTimeMs);
+            return Long.compare(this.deadlineNanos, ((ItemWrapper<Q>) o).deadlineNanos);
         }
     }
 }
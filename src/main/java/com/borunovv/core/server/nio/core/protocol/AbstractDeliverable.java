@@ -16,6 +16,8 @@ public abstract class AbstractDeliverable implements IDeliverable {
     private volatile long startDeliveryTime = 0;
     // Время фактической доставки клиенту / или доставки в сервис от клиента.
     private volatile long endDeliveryTime = 0;
+    // Время постановки в очередь диспетчера (ожидание в очередях сессии сюда не входит).
+    private volatile long queuedTime = 0;
     // Кол-во байт, переданной или полученной из сети при получении/передаче данного сообщения.
     // Нужно для учета сетевого трафика.
     private int deliverySizeInBytes = 0;
@@ -57,6 +59,16 @@ public abstract class AbstractDeliverable implements IDeliverable {
         return this.endDeliveryTime;
     }
 
+    @Override
+    public void setQueuedTime(long time) {
+        this.queuedTime = time;
+    }
+
+    @Override
+    public long getQueuedTime() {
+        return queuedTime;
+    }
+
     @Override
     public int incrementDeliveryAttemptsCount() {
         return processAttemptsCount.incrementAndGet();
@@ -35,4 +35,8 @@ public abstract class AbstractMessage extends AbstractDeliverable implements IMe
     public boolean isResponse() {
         return messageIsResponse;
     }
+
+    @Override
+    public void release() {
+    }
 }
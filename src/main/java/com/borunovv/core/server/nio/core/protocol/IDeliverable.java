@@ -13,6 +13,9 @@ public interface IDeliverable {
     long getStartDeliveryTime();
     long getEndDeliveryTime();
     long getDeliveryTime();
+    // Когда поставлено в очередь диспетчера (с последней попытки). По нему считается ожидание в очереди.
+    void setQueuedTime(long time);
+    long getQueuedTime();
     void setDeliverySizeInBytes(int sizeInBytes);
     int getDeliverySizeInBytes();
 
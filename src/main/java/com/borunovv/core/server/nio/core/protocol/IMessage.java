@@ -8,4 +8,9 @@ public interface IMessage extends IDeliverable {
     IMessage getLinkedMessage();
 
     boolean isResponse();
+
+    // Освобождает ресурсы, взятые сообщением у сессии (например, буфер тела входящего запроса).
+    // Диспетчер вызывает после обработки входящего сообщения (или если оно отброшено),
+    // так что данные тела доступны только на время IMessageProcessor.processInputMessage().
+    void release();
 }
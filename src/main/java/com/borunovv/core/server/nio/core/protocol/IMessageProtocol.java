@@ -1,9 +1,5 @@
 package com.borunovv.core.server.nio.core.protocol;
 
-import com.borunovv.core.server.nio.core.session.ISession;
-
-import java.nio.ByteBuffer;
-
 public interface IMessageProtocol {
 
     int getMaxPacketSize();
@@ -14,8 +10,8 @@ public interface IMessageProtocol {
 
     int getMeaningRequestInactivityTimeoutSeconds();
 
-    int checkPacket(ByteBuffer buffer);
+    // Парсер входящих пакетов, свой для каждой сессии.
+    IPacketParser createPacketParser();
 
-    IMessage unmarshall(ISession session, byte[] data, int length);
     byte[] marshall(IMessage msg);
 }
@@ -0,0 +1,42 @@
+package com.borunovv.core.server.nio.core.protocol;
+
+import com.borunovv.core.server.nio.core.buffer.PacketBuffer;
+import com.borunovv.core.server.nio.core.session.ISession;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Разбор входящих пакетов одной сессии (создается протоколом на каждую сессию).
+ * Помнит, что уже разобрано в рабочем буфере, чтобы после очередного чтения из сокета
+ * не разбирать накопленные байты заново.
+ * Вызывается только из потока реактора сессии.
+ */
+public interface IPacketParser {
+
+    // buffer - рабочий буфер сессии в режиме записи, данные - [0, position).
+    // Между вызовами данные только дописываются в конец (буфер может смениться на больший с теми же данными).
+    // Вернет длину первого целого пакета или <= 0, если пакет еще не дочитан.
+    int checkPacket(ByteBuffer buffer);
+
+    // packet - пакет, длину которого только что вернул checkPacket. Переходит во владение парсера:
+    // он либо освобождает буфер сразу, либо оставляет его сообщению (тогда освободит IMessage.release()).
+    // После вызова парсер готов к разбору следующего пакета.
+    IMessage unmarshall(ISession session, PacketBuffer packet);
+
+    // Забыть недоразобранный пакет (например, при закрытии сессии).
+    void reset();
+
+    // Полная длина недочитанного пакета, если она уже известна (например, из заголовка), иначе -1.
+    // По ней сразу выделяется буфер нужного размера, а слишком большой пакет отвергается, не дочитываясь.
+    default int getExpectedPacketLength() {
+        return -1;
+    }
+
+    // Сервер отказывается дочитывать текущий пакет: tooLarge - больше максимального размера пакета,
+    // иначе - на него не хватает памяти сервера. Парсер забывает пакет.
+    // Вернет ответ клиенту (после его отправки соединение закрывается) или null - закрыть сразу.
+    default IMessage rejectPacket(ISession session, boolean tooLarge) {
+        reset();
+        return null;
+    }
+}
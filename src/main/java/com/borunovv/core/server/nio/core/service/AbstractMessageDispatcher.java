@@ -0,0 +1,306 @@
+package com.borunovv.core.server.nio.core.service;
+
+import com.borunovv.core.log.Loggable;
+import com.borunovv.core.server.nio.core.cooldown.CooldownAsyncNotifier;
+import com.borunovv.core.server.nio.core.cooldown.CooldownListener;
+import com.borunovv.core.server.nio.core.protocol.IMessage;
+import com.borunovv.core.server.nio.core.session.ISession;
+import com.borunovv.core.server.nio.core.session.ISessionListener;
+import com.borunovv.core.server.nio.core.session.SessionEvent;
+import com.borunovv.core.util.Assert;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Общее для диспетчеров: колбэки об отправке, повторные отправки через cooldown, сброс входящих
+ * по времени ожидания (CoDelLoadShedder) и обратное давление на реакторы (isSaturated() с гистерезисом).
+ * При перегрузке перестают читаться только сессии, поставившие в очередь больше своей доли (isSaturatedBy()),
+ * а ждущие места в очереди узнают о разгрузке по сигналу (notifyWhenDrained()), без опроса.
+ * Наследник отвечает за очереди входящих и исходящих.
+ */
+@ThreadSafe
+public abstract class AbstractMessageDispatcher extends Loggable implements IMessageDispatcher, CooldownListener<IMessage> {
+
+    // Пороги заполненности очередей (в % от лимита) для обратного давления на реакторы:
+    // выше верхнего - перегружены (сессии перестают читать), ниже нижнего - снова в норме.
+    private static final int SATURATION_HIGH_WATERMARK_PERCENT = 80;
+    private static final int SATURATION_LOW_WATERMARK_PERCENT = 50;
+
+    protected final ConcurrentMessageDispatcher.Config config;
+    private ConcurrentMessageProcessor<Runnable> callbackTaskProcessor; // Для колбэков - нотификаций об отправке сообщений
+    private CooldownAsyncNotifier<IMessage> cooldownMessageProcessor;   // Для повторных отправок.
+    private volatile CoDelLoadShedder loadShedder;                       // Сброс входящих при перегрузке (или null).
+
+    private volatile boolean saturated = false;
+    private final LongAdder saturationsCount = new LongAdder();
+    private final LongAdder inputQueueFullCount = new LongAdder();
+
+    // Входящие в очередях: всего и у скольких сессий (доля сессии - всего / сессий).
+    private final AtomicInteger queuedInputCount = new AtomicInteger(0);
+    private final AtomicInteger queuedInputSessions = new AtomicInteger(0);
+    // Ждут разгрузки (isSaturated() == false). Срабатывают один раз.
+    private final ConcurrentLinkedQueue<Runnable> drainListeners = new ConcurrentLinkedQueue<>();
+
+    protected AbstractMessageDispatcher(ConcurrentMessageDispatcher.Config config) {
+        Assert.isTrue(config != null, "config is null");
+        this.config = config;
+    }
+
+    // Заполнены ли очереди (хотя бы одна) больше чем на percent % от лимита. false, если диспетчер не запущен.
+    protected abstract boolean isQueueAbove(int percent);
+
+    // Исходящее после cooldown-а (а также при переполнении cooldown-а или отключении сессии).
+    protected abstract void queueRetriedOutputMessage(IMessage msg);
+
+    @Override
+    public boolean isSaturated() {
+        // Гистерезис: чтобы сессии не дергали OP_READ туда-сюда на каждом сообщении около порога.
+        if (!saturated) {
+            if (isQueueAbove(SATURATION_HIGH_WATERMARK_PERCENT)) {
+                saturated = true;
+                saturationsCount.increment();
+            }
+        } else if (!isQueueAbove(SATURATION_LOW_WATERMARK_PERCENT)) {
+            saturated = false;
+        }
+        return saturated;
+    }
+
+    @Override
+    public boolean isSaturatedBy(ISession session) {
+        int own = session.getDispatcherQueueSize();
+        return own > 0
+                && isSaturated()
+                && (long) own * queuedInputSessions.get() >= queuedInputCount.get();
+    }
+
+    @Override
+    public void notifyWhenDrained(Runnable listener) {
+        Assert.isTrue(listener != null, "listener is null");
+        drainListeners.add(listener);
+        // Очередь входящих опустела, пока добавляли: разбирать ее больше некому, проверяем сами.
+        // Иначе проверит рабочий поток, взяв следующее сообщение.
+        if (queuedInputCount.get() == 0) {
+            checkDrained();
+        }
+    }
+
+    // Вызывать после выемки из очередей: разгрузились - будим ждущих.
+    protected void checkDrained() {
+        if (!drainListeners.isEmpty() && !isSaturated()) {
+            Runnable listener;
+            while ((listener = drainListeners.poll()) != null) {
+                try {
+                    listener.run();
+                } catch (Exception e) {
+                    logger.error("Error in dispatcher drain listener.", e);
+                }
+            }
+        }
+    }
+
+    // Входящее ставится в очередь (вызывать до постановки, при неудаче - onInputMessageDequeued()).
+    protected void onInputMessageQueued(IMessage msg) {
+        msg.setQueuedTime(System.currentTimeMillis());
+        queuedInputCount.incrementAndGet();
+        ISession session = msg.getSession();
+        if (session != null && session.onInputMessageQueued() == 1) {
+            queuedInputSessions.incrementAndGet();
+        }
+    }
+
+    // Входящее покинуло очередь: взято в обработку, отвергнуто или не поместилось.
+    protected void onInputMessageDequeued(IMessage msg) {
+        queuedInputCount.decrementAndGet();
+        ISession session = msg.getSession();
+        if (session != null && session.onInputMessageDequeued() == 0) {
+            queuedInputSessions.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void queueOutputMessage(IMessage msg, long cooldownMilliseconds) {
+        if (cooldownMessageProcessor.size() < config.getOutputQueueSize()) {
+            // Повторы одной сессии - одним таймером (и порядок сообщений сохраняется).
+            cooldownMessageProcessor.put(msg.getSession(), msg, cooldownMilliseconds, this);
+        } else {
+            queueRetriedOutputMessage(msg);
+        }
+    }
+
+    @Override
+    public void onCooldownFinished(IMessage msg) {
+        queueRetriedOutputMessage(msg);
+    }
+
+    @Override
+    public void onCooldownError(Throwable error) {
+        logger.error("Error inside cooldown notifier", error);
+    }
+
+    @Override
+    public void queueRunnableTask(Runnable callbackRunner) {
+        if (callbackTaskProcessor == null) {
+            throw new IllegalStateException("Dispatcher not started.");
+        }
+        callbackTaskProcessor.queue(callbackRunner);
+    }
+
+    @Override
+    public void queueSessionEvent(final SessionEvent sessionEvent) {
+        Assert.isTrue(sessionEvent != null, "Bad session event: null");
+        CooldownAsyncNotifier<IMessage> cooldown = cooldownMessageProcessor;
+        if (sessionEvent.getType() == SessionEvent.Type.CLIENT_DISCONNECTED && cooldown != null) {
+            // Не ждем конца cooldown-а: сессия закрыта, процессор сразу уведомит отправителей о недоставке.
+            for (IMessage msg : cooldown.cancel(sessionEvent.getSession())) {
+                queueRetriedOutputMessage(msg);
+            }
+        }
+
+        // Асинхронно уведомляем если надо
+        if (config.getMessageProcessor() != null
+                && config.getMessageProcessor() instanceof ISessionListener) {
+            final ISessionListener listener = (ISessionListener) config.getMessageProcessor();
+            queueRunnableTask(() -> listener.onSessionEvent(sessionEvent));
+        }
+    }
+
+    @Override
+    public void onMessageSent(IMessage msg) {
+        msg.setEndDeliveryTime(System.currentTimeMillis());
+    }
+
+    @Override
+    public void onMessageSentFailed(IMessage msg, Throwable cause) {
+        logger.error("Dispatcher: failed to send message. " + msg, cause);
+    }
+
+    // Запуск общих частей: до очередей наследника (те могут сразу понадобиться колбэки и cooldown).
+    protected void startCommon() {
+        loadShedder = config.getShedTargetDelayMs() > 0 ?
+                new CoDelLoadShedder(config.getShedTargetDelayMs(), config.getShedIntervalMs()) :
+                null;
+
+        cooldownMessageProcessor = new CooldownAsyncNotifier<>();
+        cooldownMessageProcessor.start();
+
+        callbackTaskProcessor = new ConcurrentMessageProcessor<>(
+                config.getCallbackWorkerThreads(), // Кол-во рабочих потоков на обработку колбэков.
+                config.getCallbackQueueSize(),     // Макс. размер очереди колбэков.
+                config.getCallbackQueueTimeoutSeconds() * 1000, // Макс. таймаут ожидания переполненной очереди.
+                new RunnableTaskHandler(),         // Обработчик колбэков.
+                config.getWaitStrategy());         // Как ждать пустой/полной очереди.
+        callbackTaskProcessor.start();
+    }
+
+    protected boolean isCommonStarted() {
+        return callbackTaskProcessor != null && cooldownMessageProcessor != null;
+    }
+
+    // Cooldown останавливаем до очередей наследника (чтобы не досылал в них), колбэки - после.
+    protected void stopCooldown() {
+        cooldownMessageProcessor.stop();
+    }
+
+    protected void stopCommon() {
+        callbackTaskProcessor.stop();
+        callbackTaskProcessor = null;
+        cooldownMessageProcessor = null;
+    }
+
+    // Входящее из очереди: обрабатываем или сразу отказываем (слишком долго ждало в очереди). Потом освобождаем.
+    protected void handleInputMessage(IMessage message) {
+        onInputMessageDequeued(message);
+        checkDrained();
+
+        long now = System.currentTimeMillis();
+        CoDelLoadShedder shedder = loadShedder;
+        boolean shed = shedder != null && shedder.shouldShed(message, now);
+
+        // Для статистики.
+        message.setEndDeliveryTime(now);
+
+        try {
+            if (shed) {
+                config.getMessageProcessor().onInputMessageShed(message);
+            } else {
+                config.getMessageProcessor().processInputMessage(message);
+            }
+        } finally {
+            message.release();
+        }
+    }
+
+    // Входящее не попало в очередь (переполнена и не дождались места).
+    protected void rejectInputMessage(IMessage message) {
+        onInputMessageDequeued(message);
+        checkDrained();
+
+        message.setEndDeliveryTime(System.currentTimeMillis());
+        try {
+            config.getMessageProcessor().onInputMessageReject(message);
+        } finally {
+            message.release();
+        }
+    }
+
+    protected void processOutputMessageNow(IMessage msg) {
+        try {
+            config.getMessageProcessor().processOutputMessage(msg);
+        } catch (Exception e) {
+            config.getMessageProcessor().onOutputMessageError(msg, e);
+        }
+    }
+
+    // tryQueueInputMessage() не нашел места в очереди.
+    protected void onInputQueueFull() {
+        inputQueueFullCount.increment();
+    }
+
+    // ", saturated: .., input queue full: .."
+    protected String getSaturationStats() {
+        return ", saturated: " + saturated + " (" + saturationsCount.sum() + " times)"
+                + ", input queue full: " + inputQueueFullCount.sum() + " times";
+    }
+
+    // Сброс входящих и cooldown (в конце статистики: cooldown - с новой строки).
+    protected String getSheddingAndCooldownStats() {
+        CoDelLoadShedder shedder = loadShedder;
+        CooldownAsyncNotifier<IMessage> cooldown = cooldownMessageProcessor;
+        return (shedder != null ?
+                ", shed: " + shedder.getShedCount() + (shedder.isOverloaded(System.currentTimeMillis()) ? " (overloaded)" : "") :
+                "")
+                + (cooldown != null ?
+                "\ncooldown " + cooldown.getStats() :
+                "");
+    }
+
+    private class RunnableTaskHandler implements IMessageHandler<Runnable> {
+        @Override
+        public void handle(Runnable task) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                logger.error("Error while running message callback.", e);
+            }
+        }
+
+        @Override
+        public void onReject(Runnable task) {
+            logger.error("Rejected running message callback.");
+        }
+
+        @Override
+        public void onError(Runnable task, Exception cause) {
+            logger.error("Error while running message callback.", cause);
+        }
+
+        @Override
+        public void onError(Exception cause) {
+            logger.error("Error while running message callback.", cause);
+        }
+    }
+}
@@ -84,6 +84,12 @@ public abstract class AbstractMessageProcessor extends Loggable implements IMess
                 + message.getSession().getClientRemoteAddress() + ", message: " + message);
     }
 
+    @Override
+    public void onInputMessageShed(IMessage message) {
+        logger.trace("MessageDispatcher: shed input message (waited in queue too long): "
+                + message.getSession().getClientRemoteAddress() + ", message: " + message);
+    }
+
     @Override
     public void onInputMessageError(IMessage message, Exception cause) {
         logger.error("MessageDispatcher: input message error: "
@@ -106,6 +106,10 @@ abstract class AbstractNIOThread extends Loggable {
             }
         });
         t.setPriority(getThreadPriority());
+        String threadName = getThreadName();
+        if (threadName != null) {
+            t.setName(threadName);
+        }
         t.start();
     }
 
@@ -116,6 +120,12 @@ abstract class AbstractNIOThread extends Loggable {
     }
 
 
+    // Шаблонный метод. Переопределяется в потомках.
+    // Вернет имя потока (null - имя по умолчанию).
+    protected String getThreadName() {
+        return null;
+    }
+
     // Шаблонный метод.
     // Переопределяется в потомках.
     // Вызывается в отдельном потоке перед входом в цикл итераций: while(!stopRequested).
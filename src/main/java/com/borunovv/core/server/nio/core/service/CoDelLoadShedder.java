@@ -0,0 +1,86 @@
+package com.borunovv.core.server.nio.core.service;
+
+import com.borunovv.core.server.nio.core.protocol.IMessage;
+import com.borunovv.core.util.Assert;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Сброс входящих по времени ожидания в очереди (по мотивам CoDel).
+ * Решение принимаем, когда рабочий поток достал сообщение: смотрим, сколько оно пролежало в очереди.
+ * <p>
+ * Пока хоть одно сообщение за последний interval дождалось обработки быстрее targetDelay,
+ * очередь считаем нормальной (просто всплеск) и сбрасываем только пролежавшие дольше interval.
+ * Если же за весь interval ни одно не уложилось в targetDelay - очередь стоячая (перегрузка):
+ * сбрасываем все, что ждало дольше targetDelay. Очередь быстро рассасывается,
+ * а принятые запросы ждут не больше targetDelay (в перегрузке) или interval (во всплеске).
+ */
+@ThreadSafe
+public class CoDelLoadShedder {
+
+    private final long targetDelayMs;
+    private final long intervalMs;
+
+    // Когда последний раз сообщение дождалось обработки быстрее targetDelay.
+    private volatile long lastBelowTargetTime;
+
+    private final LongAdder shedCount = new LongAdder();
+
+    public CoDelLoadShedder(long targetDelayMs, long intervalMs) {
+        Assert.isTrue(targetDelayMs > 0, "Bad targetDelayMs: " + targetDelayMs);
+        Assert.isTrue(intervalMs >= targetDelayMs, "intervalMs must be >= targetDelayMs");
+        this.targetDelayMs = targetDelayMs;
+        this.intervalMs = intervalMs;
+        this.lastBelowTargetTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Вернет true, если сообщение, прождавшее в очереди queueDelayMs, надо сбросить.
+     */
+    public boolean shouldShed(long queueDelayMs, long now) {
+        if (queueDelayMs < targetDelayMs) {
+            // Гонка между потоками здесь не страшна: время только чуть сдвинется.
+            lastBelowTargetTime = now;
+            return false;
+        }
+        long maxDelayMs = isOverloaded(now) ?
+                targetDelayMs :
+                intervalMs;
+        if (queueDelayMs > maxDelayMs) {
+            shedCount.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * То же по сообщению: в очереди оно с момента постановки в диспетчер (queuedTime). Ожидание в очередях
+     * сессии (последовательные запросы, не влезшие в диспетчер) не в счет - там рабочие потоки не виноваты.
+     */
+    public boolean shouldShed(IMessage message, long now) {
+        long queuedTime = message.getQueuedTime();
+        return queuedTime > 0 && shouldShed(now - queuedTime, now);
+    }
+
+    public boolean isOverloaded(long now) {
+        return now - lastBelowTargetTime > intervalMs;
+    }
+
+    public long getShedCount() {
+        return shedCount.sum();
+    }
+
+    public long getTargetDelayMs() {
+        return targetDelayMs;
+    }
+
+    public long getIntervalMs() {
+        return intervalMs;
+    }
+
+    @Override
+    public String toString() {
+        return "target " + targetDelayMs + " ms, interval " + intervalMs + " ms";
+    }
+}
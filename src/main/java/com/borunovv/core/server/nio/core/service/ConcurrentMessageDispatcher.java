@@ -1,26 +1,26 @@
 package com.borunovv.core.server.nio.core.service;
 
-import com.borunovv.core.log.Loggable;
-import com.borunovv.core.server.nio.core.cooldown.CooldownAsyncNotifier;
-import com.borunovv.core.server.nio.core.cooldown.CooldownListener;
 import com.borunovv.core.server.nio.core.protocol.IMessage;
-import com.borunovv.core.server.nio.core.session.ISessionListener;
-import com.borunovv.core.server.nio.core.session.SessionEvent;
+import com.borunovv.core.server.nio.core.util.MpmcRingQueue;
+import com.borunovv.core.server.nio.core.util.VirtualThreads;
 import com.borunovv.core.util.Assert;
 
 import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
 @ThreadSafe
-public class ConcurrentMessageDispatcher extends Loggable implements IMessageDispatcher, CooldownListener<IMessage> {
+public class ConcurrentMessageDispatcher extends AbstractMessageDispatcher {
 
-    private Config config;
-    private ConcurrentMessageProcessor<IMessage> inputMessageProcessor;
-    private ConcurrentMessageProcessor<IMessage> outputMessageProcessor;
-    private ConcurrentMessageProcessor<Runnable> callbackTaskProcessor; // Для колбэков - нотификаций об отправке сообщений
-    private CooldownAsyncNotifier<IMessage> cooldownMessageProcessor;   // Для повторных отправок.
+    private ITaskProcessor<IMessage> inputMessageProcessor;
+    private ITaskProcessor<IMessage> outputMessageProcessor;
+
+    private final LongAdder directOutputCount = new LongAdder();
 
     public ConcurrentMessageDispatcher(Config config) {
-        this.config = config;
+        super(config);
     }
 
     @Override
@@ -33,6 +33,8 @@ public class ConcurrentMessageDispatcher extends Loggable implements IMessageDis
             msg.setStartDeliveryTime(System.currentTimeMillis());
         }
 
+        // Не поместится - processor сам отдаст в onReject() (и отметит выемку).
+        onInputMessageQueued(msg);
         boolean queued = inputMessageProcessor.queue(msg);
 
         if (!queued) {
@@ -41,76 +43,79 @@ public class ConcurrentMessageDispatcher extends Loggable implements IMessageDis
     }
 
     @Override
-    public void queueOutputMessage(IMessage msg) {
-        if (outputMessageProcessor == null) {
+    public boolean tryQueueInputMessage(IMessage msg) {
+        ITaskProcessor<IMessage> processor = inputMessageProcessor;
+        if (processor == null) {
             throw new IllegalStateException("Dispatcher not started.");
         }
+
         if (msg.getStartDeliveryTime() == 0) {
             msg.setStartDeliveryTime(System.currentTimeMillis());
         }
-        boolean queued = outputMessageProcessor.queue(msg);
 
-        if (queued) {
-            logger.trace("Dispatcher: queued message. " + msg);
-        } else {
-            logger.error("Dispatcher: failed to queue output message. " + msg);
-        }
-    }
-
-    @Override
-    public void queueOutputMessage(IMessage msg, long cooldownMilliseconds) {
-        if (cooldownMessageProcessor.size() < config.getOutputQueueSize()) {
-            cooldownMessageProcessor.put(msg, cooldownMilliseconds, this);
-        } else {
-            queueOutputMessage(msg);
+        onInputMessageQueued(msg);
+        boolean queued = processor.tryQueue(msg);
+        if (!queued) {
+            onInputMessageDequeued(msg);
+            onInputQueueFull();
         }
+        return queued;
     }
 
     @Override
-    public void onCooldownFinished(IMessage msg) {
-        queueOutputMessage(msg);
+    protected boolean isQueueAbove(int percent) {
+        ITaskProcessor<IMessage> input = inputMessageProcessor;
+        ITaskProcessor<IMessage> output = outputMessageProcessor;
+        return input != null && output != null
+                && (isAboveWatermark(input, percent) || isAboveWatermark(output, percent));
     }
 
-    @Override
-    public void onCooldownError(Throwable error) {
-        logger.error("Error inside cooldown notifier", error);
+    private static boolean isAboveWatermark(ITaskProcessor<?> processor, int percent) {
+        return processor.getQueueSize() * 100L > (long) processor.getQueueLimit() * percent;
     }
 
-
     @Override
-    public void queueRunnableTask(Runnable callbackRunner) {
-        if (callbackTaskProcessor == null) {
+    public void queueOutputMessage(IMessage msg) {
+        if (outputMessageProcessor == null) {
             throw new IllegalStateException("Dispatcher not started.");
         }
-        callbackTaskProcessor.queue(callbackRunner);
+        if (msg.getStartDeliveryTime() == 0) {
+            msg.setStartDeliveryTime(System.currentTimeMillis());
+        }
+        if (config.isDirectOutput()) {
+            // Прямо в этом потоке (обычно - рабочем, который сформировал ответ): сериализация и в очередь сессии.
+            directOutputCount.increment();
+            processOutputMessageNow(msg);
+        } else {
+            queueToOutputProcessor(msg);
+        }
     }
 
-    @Override
-    public void queueSessionEvent(final SessionEvent sessionEvent) {
-        Assert.isTrue(sessionEvent != null, "Bad session event: null");
-        // Асинхронно уведомляем если надо
-        if (config.getMessageProcessor() != null
-                && config.getMessageProcessor() instanceof ISessionListener) {
-            final ISessionListener listener = (ISessionListener) config.getMessageProcessor();
-            queueRunnableTask(() -> listener.onSessionEvent(sessionEvent));
+    private void queueToOutputProcessor(IMessage msg) {
+        ITaskProcessor<IMessage> processor = outputMessageProcessor;
+        if (processor == null) {
+            throw new IllegalStateException("Dispatcher not started.");
         }
-    }
+        boolean queued = processor.queue(msg);
 
-    @Override
-    public void onMessageSent(IMessage msg) {
-        msg.setEndDeliveryTime(System.currentTimeMillis());
+        if (queued) {
+            logger.trace("Dispatcher: queued message. " + msg);
+        } else {
+            logger.error("Dispatcher: failed to queue output message. " + msg);
+        }
     }
 
+    // Повторные отправки - всегда через пул исходящих, даже при directOutput
+    // (не задерживаем поток cooldown-а и не повторяем отправку тут же, без паузы).
     @Override
-    public void onMessageSentFailed(IMessage msg, Throwable cause) {
-        logger.error("Dispatcher: failed to send message. " + msg, cause);
+    protected void queueRetriedOutputMessage(IMessage msg) {
+        queueToOutputProcessor(msg);
     }
 
     @Override
     public void start() {
-        startCooldownMessageProcessor();
+        startCommon();
         startOutputMessageProcessor();
-        startCallbackTaskProcessor();
         startInputMessageProcessor();
 
         logger.trace("Dispatcher: started (" + config.getInputWorkerThreads() + " worker threads)");
@@ -120,78 +125,146 @@ public class ConcurrentMessageDispatcher extends Loggable implements IMessageDis
     public void stop() {
         if (inputMessageProcessor != null
                 && outputMessageProcessor != null
-                && callbackTaskProcessor != null
-                && cooldownMessageProcessor != null) {
+                && isCommonStarted()) {
 
-            cooldownMessageProcessor.stop();
+            stopCooldown();
             inputMessageProcessor.stop();
             outputMessageProcessor.stop();
-            callbackTaskProcessor.stop();
+            stopCommon();
 
-            cooldownMessageProcessor = null;
             inputMessageProcessor = null;
             outputMessageProcessor = null;
-            callbackTaskProcessor = null;
 
             logger.trace("MessageDispatcher: stopped.");
         }
     }
 
-    private void startCooldownMessageProcessor() {
-        cooldownMessageProcessor = new CooldownAsyncNotifier<>();
-        cooldownMessageProcessor.start();
+    private void startInputMessageProcessor() {
+        if (config.getInputLanes() != null) {
+            // Полосы с взвешенной очередностью (для входящих - чтобы тяжелые запросы не душили легкие).
+            inputMessageProcessor = config.getVirtualThreadsConcurrency() > 0 ?
+                    new LaneScheduledMessageProcessor<>(
+                            config.getVirtualThreadsConcurrency(), // Сколько сообщений обрабатывается одновременно.
+                            config.getInputLanes(),
+                            config.getInputQueueTimeoutSeconds() * 1000,
+                            new InputMessageHandler(),
+                            config.getWaitStrategy(),
+                            createVirtualThreadExecutorFactory()) :
+                    new LaneScheduledMessageProcessor<>(
+                            config.getInputWorkerThreads(),
+                            config.getInputMaxWorkerThreads(), // До скольки пул может вырасти под нагрузкой.
+                            config.getInputLanes(),
+                            config.getInputQueueTimeoutSeconds() * 1000,
+                            new InputMessageHandler(),
+                            config.getWaitStrategy());
+            inputMessageProcessor.start();
+            return;
+        }
+        if (config.getVirtualThreadsConcurrency() > 0) {
+            startInputMessageProcessorOnVirtualThreads();
+            return;
+        }
+        inputMessageProcessor = config.isWorkStealing() ?
+                new WorkStealingMessageProcessor<>(
+                        config.getInputWorkerThreads(),
+                        config.getInputQueueSize(),
+                        config.getInputQueueTimeoutSeconds() * 1000,
+                        new InputMessageHandler()) :
+                new ConcurrentMessageProcessor<>(
+                        config.getInputWorkerThreads(), // Кол-во рабочих потоков на выгребание сообщений
+                        config.getInputMaxWorkerThreads(), // До скольки пул может вырасти под нагрузкой.
+                        config.getInputQueueSize(),     // Макс. размер очереди входящих сообщений.
+                        config.getInputQueueTimeoutSeconds() * 1000, // Макс. таймаут ожидания переполненной очереди.
+                        new InputMessageHandler(),      // Обработчик входящих сообщений.
+                        config.getWaitStrategy());      // Как ждать пустой/полной очереди.
+        inputMessageProcessor.start();
     }
 
-    private void startInputMessageProcessor() {
+    // Каждое входящее сообщение - в своем виртуальном потоке, одновременно не больше virtualThreadsConcurrency
+    // (по размеру пула соединений к БД: больше все равно будут ждать соединения).
+    // На JVM без виртуальных потоков - обычные потоки с тем же ограничением.
+    private void startInputMessageProcessorOnVirtualThreads() {
         inputMessageProcessor = new ConcurrentMessageProcessor<>(
-                config.getInputWorkerThreads(), // Кол-во рабочих потоков на выгребание сообщений
-                config.getInputQueueSize(),     // Макс. размер очереди входящих сообщений.
-                config.getInputQueueTimeoutSeconds() * 1000, // Макс. таймаут ожидания переполненной очереди.
-                new InputMessageHandler());     // Обработчик входящих сообщений.
+                config.getVirtualThreadsConcurrency(), // Сколько сообщений обрабатывается одновременно.
+                config.getInputQueueSize(),
+                config.getInputQueueTimeoutSeconds() * 1000,
+                new InputMessageHandler(),
+                config.getWaitStrategy(),
+                createVirtualThreadExecutorFactory());
         inputMessageProcessor.start();
     }
 
+    private Supplier<ExecutorService> createVirtualThreadExecutorFactory() {
+        boolean virtual = VirtualThreads.isSupported();
+        if (!virtual) {
+            logger.warn("Dispatcher: virtual threads are not supported by JVM "
+                    + System.getProperty("java.version") + ", using platform thread per message.");
+        }
+        return () -> virtual ?
+                VirtualThreads.newVirtualThreadPerTaskExecutor() :
+                Executors.newCachedThreadPool();
+    }
+
     private void startOutputMessageProcessor() {
-        outputMessageProcessor = new ConcurrentMessageProcessor<>(
-                config.getOutputWorkerThreads(), // Кол-во рабочих потоков на отправку исходящих сообщений.
-                config.getOutputQueueSize(),     // Макс. размер очереди исходящих сообщений.
-                config.getOutputQueueTimeoutSeconds() * 1000, // Макс. таймаут ожидания переполненной очереди.
-                new OutputMessageHandler());     // Обработчик исходящих сообщений.
+        outputMessageProcessor = config.isWorkStealing() ?
+                new WorkStealingMessageProcessor<>(
+                        config.getOutputWorkerThreads(),
+                        config.getOutputQueueSize(),
+                        config.getOutputQueueTimeoutSeconds() * 1000,
+                        new OutputMessageHandler()) :
+                new ConcurrentMessageProcessor<>(
+                        config.getOutputWorkerThreads(), // Кол-во рабочих потоков на отправку исходящих сообщений.
+                        config.getOutputMaxWorkerThreads(), // До скольки пул может вырасти под нагрузкой.
+                        config.getOutputQueueSize(),     // Макс. размер очереди исходящих сообщений.
+                        config.getOutputQueueTimeoutSeconds() * 1000, // Макс. таймаут ожидания переполненной очереди.
+                        new OutputMessageHandler(),      // Обработчик исходящих сообщений.
+                        config.getWaitStrategy());       // Как ждать пустой/полной очереди.
         outputMessageProcessor.start();
     }
 
-    private void startCallbackTaskProcessor() {
-        callbackTaskProcessor = new ConcurrentMessageProcessor<>(
-                config.getCallbackWorkerThreads(), // Кол-во рабочих потоков на обработку колбэков.
-                config.getCallbackQueueSize(),     // Макс. размер очереди колбэков.
-                config.getCallbackQueueTimeoutSeconds() * 1000, // Макс. таймаут ожидания переполненной очереди.
-                new RunnableTaskHandler());        // Обработчик колбэков.
-        callbackTaskProcessor.start();
+    @Override
+    public String getStats() {
+        ITaskProcessor<IMessage> input = inputMessageProcessor;
+        ITaskProcessor<IMessage> output = outputMessageProcessor;
+        return "Dispatcher: input queue: " + (input != null ? input.getQueueSize() + "/" + input.getQueueLimit() : "-")
+                + (config.getVirtualThreadsConcurrency() > 0 && input != null ?
+                        ", input in progress: " + input.getActiveTaskCount() + "/" + input.getMaxConcurrentTasks() :
+                        "")
+                + ", output queue: " + (output != null ? output.getQueueSize() + "/" + output.getQueueLimit() : "-")
+                + getSaturationStats()
+                + (config.isDirectOutput() ? ", direct output: " + directOutputCount.sum() : "")
+                + getSheddingAndCooldownStats()
+                + getWorkerPoolStats("input", input)
+                + getWorkerPoolStats("output", output)
+                + (input instanceof LaneScheduledMessageProcessor ?
+                        "\n" + ((LaneScheduledMessageProcessor<?>) input).getStats() :
+                        "");
+    }
+
+    private static String getWorkerPoolStats(String name, ITaskProcessor<?> processor) {
+        if (processor instanceof ConcurrentMessageProcessor && ((ConcurrentMessageProcessor<?>) processor).isAdaptive()) {
+            return "\n" + name + " " + ((ConcurrentMessageProcessor<?>) processor).getStats();
+        }
+        if (processor instanceof LaneScheduledMessageProcessor && ((LaneScheduledMessageProcessor<?>) processor).isAdaptive()) {
+            return "\n" + name + " " + ((LaneScheduledMessageProcessor<?>) processor).getWorkerPoolStats();
+        }
+        return "";
     }
 
     @Override
     public String toString() {
-        return config != null ?
-                config.toString() :
-                super.toString();
+        return config.toString();
     }
 
     private class InputMessageHandler implements IMessageHandler<IMessage> {
         @Override
-        @SuppressWarnings("unchecked")
         public void handle(IMessage message) {
-            // Для статистики.
-            message.setEndDeliveryTime(System.currentTimeMillis());
-
-            // Отправляем сообщение на обработку.
-            config.getMessageProcessor()
-                    .processInputMessage(message);
+            handleInputMessage(message);
         }
 
         @Override
         public void onReject(IMessage message) {
-            message.setEndDeliveryTime(System.currentTimeMillis());
-            config.getMessageProcessor().onInputMessageReject(message);
+            rejectInputMessage(message);
         }
 
         @Override
@@ -210,6 +283,7 @@ public class ConcurrentMessageDispatcher extends Loggable implements IMessageDis
         @Override
         @SuppressWarnings("unchecked")
         public void handle(IMessage message) {
+            checkDrained();
             config.getMessageProcessor()
                     .processOutputMessage(message);
         }
@@ -230,32 +304,6 @@ public class ConcurrentMessageDispatcher extends Loggable implements IMessageDis
         }
     }
 
-    private class RunnableTaskHandler implements IMessageHandler<Runnable> {
-        @Override
-        public void handle(Runnable task) {
-            try {
-                task.run();
-            } catch (Exception e) {
-                logger.error("Error while running message callback.", e);
-            }
-        }
-
-        @Override
-        public void onReject(Runnable task) {
-            logger.error("Rejected running message callback.");
-        }
-
-        @Override
-        public void onError(Runnable task, Exception cause) {
-            logger.error("Error while running message callback.", cause);
-        }
-
-        @Override
-        public void onError(Exception cause) {
-            logger.error("Error while running message callback.", cause);
-        }
-    }
-
     public static class Config {
         // Кол-во рабочих потоков на выгребание и обработку входящих сообщений.
         private int inputWorkerThreads;
@@ -292,6 +340,37 @@ public class ConcurrentMessageDispatcher extends Loggable implements IMessageDis
         // Обработчик единичных сообщений.
         private IMessageProcessor messageProcessor;
 
+        // Как рабочие потоки ждут задач (и как ждет добавляющий, если очередь полна).
+        private MpmcRingQueue.WaitStrategy waitStrategy;
+
+        // Если > 0, входящие сообщения обрабатываются каждое в своем виртуальном потоке (вместо inputWorkerThreads),
+        // но не больше стольких одновременно. 0 - обычный пул из inputWorkerThreads потоков.
+        private int virtualThreadsConcurrency;
+
+        // Рабочие пулы входящих/исходящих - ForkJoinPool с очередями на поток и воровством задач
+        // (WorkStealingMessageProcessor) вместо одной общей очереди.
+        private boolean workStealing;
+
+        // Если задано - входящие раскладываются по полосам (у каждой своя очередь и вес) вместо одной общей очереди
+        // (inputQueueSize тогда не используется). Имеет приоритет над workStealing для входящих;
+        // с virtualThreadsConcurrency > 0 задачи из полос выполняются каждая в своем виртуальном потоке.
+        private PriorityLanes<IMessage> inputLanes;
+
+        // Если > 0 - сбрасываем входящие, прождавшие в очереди дольше (см. CoDelLoadShedder):
+        // обработчику вместо processInputMessage придет onInputMessageShed.
+        private int shedTargetDelayMs;
+        private int shedIntervalMs;
+
+        // Если больше inputWorkerThreads (outputWorkerThreads) - пул меняет размер по нагрузке в этих пределах
+        // (см. WorkerPoolSizer). Для обычного пула и полос (не work stealing и не виртуальные потоки).
+        private int inputMaxWorkerThreads;
+        private int outputMaxWorkerThreads;
+
+        // queueOutputMessage() обрабатывает сообщение сразу в вызывающем потоке (сериализация и очередь сессии),
+        // без передачи в пул исходящих. Пул остается для повторных отправок после cooldown.
+        private boolean directOutput;
+
+        // Дополнительные настройки (ожидание, виртуальные потоки, полосы и т.д.) - через set*(), по умолчанию выключены.
         public Config(int inputWorkerThreads,
                       int inputQueueSize,
                       int inputQueueTimeoutSeconds,
@@ -316,6 +395,55 @@ public class ConcurrentMessageDispatcher extends Loggable implements IMessageDis
             this.callbackQueueTimeoutSeconds = callbackQueueTimeoutSeconds;
 
             this.messageProcessor = messageProcessor;
+            this.waitStrategy = MpmcRingQueue.WaitStrategy.PARK;
+        }
+
+        public Config setWaitStrategy(MpmcRingQueue.WaitStrategy waitStrategy) {
+            Assert.isTrue(waitStrategy != null, "waitStrategy is null");
+            this.waitStrategy = waitStrategy;
+            return this;
+        }
+
+        public Config setVirtualThreadsConcurrency(int virtualThreadsConcurrency) {
+            Assert.isTrue(virtualThreadsConcurrency >= 0, "Bad virtualThreadsConcurrency: " + virtualThreadsConcurrency);
+            this.virtualThreadsConcurrency = virtualThreadsConcurrency;
+            return this;
+        }
+
+        public Config setWorkStealing(boolean workStealing) {
+            this.workStealing = workStealing;
+            return this;
+        }
+
+        // null - одна общая очередь входящих.
+        public Config setInputLanes(PriorityLanes<IMessage> inputLanes) {
+            this.inputLanes = inputLanes;
+            return this;
+        }
+
+        // targetDelayMs = 0 - не сбрасывать.
+        public Config setLoadShedding(int targetDelayMs, int intervalMs) {
+            Assert.isTrue(targetDelayMs >= 0, "Bad load shedding targetDelayMs: " + targetDelayMs);
+            Assert.isTrue(targetDelayMs == 0 || intervalMs >= targetDelayMs,
+                    "Bad load shedding intervalMs: " + intervalMs + " (must be >= targetDelayMs)");
+            this.shedTargetDelayMs = targetDelayMs;
+            this.shedIntervalMs = intervalMs;
+            return this;
+        }
+
+        public Config setInputMaxWorkerThreads(int inputMaxWorkerThreads) {
+            this.inputMaxWorkerThreads = inputMaxWorkerThreads;
+            return this;
+        }
+
+        public Config setOutputMaxWorkerThreads(int outputMaxWorkerThreads) {
+            this.outputMaxWorkerThreads = outputMaxWorkerThreads;
+            return this;
+        }
+
+        public Config setDirectOutput(boolean directOutput) {
+            this.directOutput = directOutput;
+            return this;
         }
 
         public int getInputWorkerThreads() {
@@ -358,18 +486,64 @@ public class ConcurrentMessageDispatcher extends Loggable implements IMessageDis
             return messageProcessor;
         }
 
+        public MpmcRingQueue.WaitStrategy getWaitStrategy() {
+            return waitStrategy;
+        }
+
+        public int getVirtualThreadsConcurrency() {
+            return virtualThreadsConcurrency;
+        }
+
+        public boolean isWorkStealing() {
+            return workStealing;
+        }
+
+        public PriorityLanes<IMessage> getInputLanes() {
+            return inputLanes;
+        }
+
+        public int getShedTargetDelayMs() {
+            return shedTargetDelayMs;
+        }
+
+        public int getShedIntervalMs() {
+            return shedIntervalMs;
+        }
+
+        public int getInputMaxWorkerThreads() {
+            return Math.max(inputWorkerThreads, inputMaxWorkerThreads);
+        }
+
+        public int getOutputMaxWorkerThreads() {
+            return Math.max(outputWorkerThreads, outputMaxWorkerThreads);
+        }
+
+        public boolean isDirectOutput() {
+            return directOutput;
+        }
+
         @Override
         public String toString() {
             return "Message dispatcher config:\n"
-                    + "  input worker threads: " + inputWorkerThreads + "\n"
+                    + "  input worker threads: " + inputWorkerThreads
+                    + (inputMaxWorkerThreads > inputWorkerThreads ? ".." + inputMaxWorkerThreads : "") + "\n"
                     + "  input queue size: " + inputQueueSize + "\n"
                     + "  input queue timeout: " + inputQueueTimeoutSeconds + " sec.\n"
-                    + "  output worker threads: " + outputWorkerThreads + "\n"
+                    + "  output worker threads: " + outputWorkerThreads
+                    + (outputMaxWorkerThreads > outputWorkerThreads ? ".." + outputMaxWorkerThreads : "") + "\n"
                     + "  output queue size: " + outputQueueSize + "\n"
                     + "  output queue timeout: " + outputQueueTimeoutSeconds + " sec.\n"
                     + "  callback worker threads: " + callbackWorkerThreads + "\n"
                     + "  callback queue size: " + callbackQueueSize + "\n"
-                    + "  callback queue timeout: " + callbackQueueTimeoutSeconds + " sec.";
+                    + "  callback queue timeout: " + callbackQueueTimeoutSeconds + " sec.\n"
+                    + "  wait strategy: " + waitStrategy + "\n"
+                    + "  virtual threads concurrency: " + (virtualThreadsConcurrency > 0 ? virtualThreadsConcurrency : "off") + "\n"
+                    + "  work stealing: " + workStealing + "\n"
+                    + "  direct output: " + directOutput + "\n"
+                    + "  input lanes: " + (inputLanes != null ? inputLanes : "off") + "\n"
+                    + "  load shedding: " + (shedTargetDelayMs > 0 ?
+                    "target " + shedTargetDelayMs + " ms, interval " + shedIntervalMs + " ms" :
+                    "off");
         }
     }
 }
@@ -1,108 +1,373 @@
 package com.borunovv.core.server.nio.core.service;
 
-import com.borunovv.core.server.nio.core.util.StoppableSleep;
+import com.borunovv.core.log.Loggable;
+import com.borunovv.core.server.nio.core.util.MpmcRingQueue;
 import com.borunovv.core.util.Assert;
 import org.apache.http.annotation.ThreadSafe;
 
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
+/**
+ * Очередь задач + пул рабочих потоков.
+ * Очередь - ограниченное кольцо (MpmcRingQueue): свободные рабочие потоки паркуются и будятся
+ * при добавлении задачи, а не опрашивают очередь со сном.
+ * Если очередь полна, queue() так же паркуется до освобождения места (но не дольше queueAddTaskWaitTimeoutMs).
+ * <p>
+ * Второй режим - "поток на задачу": единственный рабочий поток выгребает очередь и запускает каждую задачу
+ * в отдельном потоке из taskExecutorFactory (например, виртуальном), но не больше maxConcurrentTasks одновременно.
+ * Удобно для обработчиков, которые в основном ждут (БД): ожидание не занимает поток из маленького пула.
+ * <p>
+ * Если задан диапазон [minWorkerThreads, maxWorkerThreads], пул меняет размер на ходу:
+ * раз в SIZING_PERIOD_MS WorkerPoolSizer смотрит на очередь, загрузку потоков и время обработки,
+ * лишние потоки завершаются сами после очередной задачи (или ожидания), недостающие - добавляются.
+ */
 @ThreadSafe
-public class ConcurrentMessageProcessor<T> {
+public class ConcurrentMessageProcessor<T> extends Loggable implements ITaskProcessor<T> {
+
+    // Как долго рабочий поток спит без сигнала, прежде чем перепроверить флаг остановки.
+    private static final long WORKER_POLL_TIMEOUT_MS = 100;
+
+    // Период пересчета размера пула.
+    static final long SIZING_PERIOD_MS = 200;
 
     private int workerThreadsCount;
     private int taskQueueLimit;
     private long queueAddTaskWaitTimeoutMs;
 
     private volatile ExecutorService executor;
-    private final ConcurrentLinkedQueue<T> taskQueue = new ConcurrentLinkedQueue<>();
+    // Режим "поток на задачу" (иначе null).
+    private final Supplier<ExecutorService> taskExecutorFactory;
+    private volatile ExecutorService taskExecutor;
+    private final Semaphore concurrencyLimit;
+    private int maxConcurrentTasks;
+    private final MpmcRingQueue<T> taskQueue;
     private final IMessageHandler<T> messageHandler;
 
     private volatile boolean stopRequested = false;
 
+    // Меняющийся размер пула (иначе null).
+    private final WorkerPoolSizer sizer;
+    private volatile ScheduledExecutorService sizingExecutor;
+    // Сколько потоков должно быть и сколько сейчас работает (лишние завершаются сами).
+    private volatile int targetWorkers;
+    private final AtomicInteger liveWorkers = new AtomicInteger(0);
+    // Замеры для пересчета размера.
+    private final WorkerPoolMeter meter = new WorkerPoolMeter();
+
 
     public ConcurrentMessageProcessor(int workerThreadsCount,
                                       int taskQueueLimit,
                                       long queueAddTaskWaitTimeoutMs,
                                       IMessageHandler<T> messageHandler) {
+        this(workerThreadsCount, taskQueueLimit, queueAddTaskWaitTimeoutMs, messageHandler,
+                MpmcRingQueue.WaitStrategy.PARK);
+    }
+
+    public ConcurrentMessageProcessor(int workerThreadsCount,
+                                      int taskQueueLimit,
+                                      long queueAddTaskWaitTimeoutMs,
+                                      IMessageHandler<T> messageHandler,
+                                      MpmcRingQueue.WaitStrategy waitStrategy) {
         Assert.isTrue(workerThreadsCount > 0, "workerThreadsCount must be > 0");
         Assert.isTrue(taskQueueLimit > 0, "taskQueueLimit must be > 0");
         Assert.isTrue(queueAddTaskWaitTimeoutMs > 0, "queueAddTaskWaitTimeoutMs must be > 0");
         Assert.isTrue(messageHandler != null, "messageHandler is null");
+        Assert.isTrue(waitStrategy != null, "waitStrategy is null");
 
         this.workerThreadsCount = workerThreadsCount;
         this.taskQueueLimit = taskQueueLimit;
         this.queueAddTaskWaitTimeoutMs = queueAddTaskWaitTimeoutMs;
         this.messageHandler = messageHandler;
+        this.taskQueue = new MpmcRingQueue<>(taskQueueLimit, waitStrategy);
+        this.taskExecutorFactory = null;
+        this.concurrencyLimit = null;
+        this.sizer = null;
+        this.targetWorkers = workerThreadsCount;
+    }
+
+    // Пул от minWorkerThreads до maxWorkerThreads потоков, размер подбирается по нагрузке.
+    public ConcurrentMessageProcessor(int minWorkerThreads,
+                                      int maxWorkerThreads,
+                                      int taskQueueLimit,
+                                      long queueAddTaskWaitTimeoutMs,
+                                      IMessageHandler<T> messageHandler,
+                                      MpmcRingQueue.WaitStrategy waitStrategy) {
+        Assert.isTrue(minWorkerThreads > 0, "minWorkerThreads must be > 0");
+        Assert.isTrue(maxWorkerThreads >= minWorkerThreads, "maxWorkerThreads must be >= minWorkerThreads");
+        Assert.isTrue(taskQueueLimit > 0, "taskQueueLimit must be > 0");
+        Assert.isTrue(queueAddTaskWaitTimeoutMs > 0, "queueAddTaskWaitTimeoutMs must be > 0");
+        Assert.isTrue(messageHandler != null, "messageHandler is null");
+        Assert.isTrue(waitStrategy != null, "waitStrategy is null");
+
+        this.workerThreadsCount = minWorkerThreads;
+        this.taskQueueLimit = taskQueueLimit;
+        this.queueAddTaskWaitTimeoutMs = queueAddTaskWaitTimeoutMs;
+        this.messageHandler = messageHandler;
+        this.taskQueue = new MpmcRingQueue<>(taskQueueLimit, waitStrategy);
+        this.taskExecutorFactory = null;
+        this.concurrencyLimit = null;
+        this.sizer = maxWorkerThreads > minWorkerThreads ?
+                new WorkerPoolSizer(minWorkerThreads, maxWorkerThreads) :
+                null;
+        this.targetWorkers = minWorkerThreads;
+    }
+
+    // Режим "поток на задачу".
+    public ConcurrentMessageProcessor(int maxConcurrentTasks,
+                                      int taskQueueLimit,
+                                      long queueAddTaskWaitTimeoutMs,
+                                      IMessageHandler<T> messageHandler,
+                                      MpmcRingQueue.WaitStrategy waitStrategy,
+                                      Supplier<ExecutorService> taskExecutorFactory) {
+        Assert.isTrue(maxConcurrentTasks > 0, "maxConcurrentTasks must be > 0");
+        Assert.isTrue(taskQueueLimit > 0, "taskQueueLimit must be > 0");
+        Assert.isTrue(queueAddTaskWaitTimeoutMs > 0, "queueAddTaskWaitTimeoutMs must be > 0");
+        Assert.isTrue(messageHandler != null, "messageHandler is null");
+        Assert.isTrue(waitStrategy != null, "waitStrategy is null");
+        Assert.isTrue(taskExecutorFactory != null, "taskExecutorFactory is null");
+
+        this.workerThreadsCount = 1;
+        this.taskQueueLimit = taskQueueLimit;
+        this.queueAddTaskWaitTimeoutMs = queueAddTaskWaitTimeoutMs;
+        this.messageHandler = messageHandler;
+        this.taskQueue = new MpmcRingQueue<>(taskQueueLimit, waitStrategy);
+        this.taskExecutorFactory = taskExecutorFactory;
+        this.maxConcurrentTasks = maxConcurrentTasks;
+        this.concurrencyLimit = new Semaphore(maxConcurrentTasks);
+        this.sizer = null;
+        this.targetWorkers = 1;
     }
 
+    @Override
     public boolean queue(T task) {
         Assert.isTrue(task != null, "task is null");
 
-        long startWait = System.currentTimeMillis();
-        while (taskQueue.size() >= taskQueueLimit && !stopRequested) {
-            stoppableWaitTimeout(10);
-            if (System.currentTimeMillis() - startWait >= queueAddTaskWaitTimeoutMs) {
-                messageHandler.onReject(task);
-                return false;
-            }
+        boolean added;
+        try {
+            added = taskQueue.offer(task, queueAddTaskWaitTimeoutMs, () -> stopRequested);
+        } catch (InterruptedException e) {
+            messageHandler.onError(e);
+            Thread.currentThread().interrupt();
+            added = false;
         }
-        taskQueue.add(task);
 
-        return true;
+        if (!added) {
+            messageHandler.onReject(task);
+        }
+        return added;
+    }
+
+    /**
+     * Добавить без ожидания (для потоков, которым блокироваться нельзя, например реактора).
+     * Если очередь полна, вернет false (onReject при этом не вызывается - задача остается у вызывающего).
+     */
+    @Override
+    public boolean tryQueue(T task) {
+        Assert.isTrue(task != null, "task is null");
+        return taskQueue.offer(task);
     }
 
+    @Override
     public void stop() {
+        if (sizingExecutor != null) {
+            sizingExecutor.shutdownNow();
+            sizingExecutor = null;
+        }
         if (executor != null) {
             stopRequested = true;
             executor.shutdown();
             while (!executor.isTerminated()) {
+                taskQueue.wakeUpAll();
                 sleep(10);
             }
-            stopRequested = false;
             executor = null;
+
+            if (taskExecutor != null) {
+                // Дожидаемся уже запущенных задач.
+                taskExecutor.shutdown();
+                while (!taskExecutor.isTerminated()) {
+                    sleep(10);
+                }
+                taskExecutor = null;
+            }
+            stopRequested = false;
         }
     }
 
+    @Override
     public void start() {
         stop();
 
-        executor = Executors.newFixedThreadPool(workerThreadsCount);
+        if (taskExecutorFactory != null) {
+            taskExecutor = taskExecutorFactory.get();
+        }
+        targetWorkers = workerThreadsCount;
+        liveWorkers.set(workerThreadsCount);
+        executor = sizer != null ?
+                Executors.newCachedThreadPool() :
+                Executors.newFixedThreadPool(workerThreadsCount);
         for (int i = 0; i < workerThreadsCount; ++i) {
             executor.submit(new Worker());
         }
+
+        if (sizer != null) {
+            meter.reset();
+            sizingExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "worker-pool-sizer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            sizingExecutor.scheduleAtFixedRate(this::resize, SIZING_PERIOD_MS, SIZING_PERIOD_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Раз в период: замеры за период -> решение WorkerPoolSizer -> добавляем потоки или просим лишние завершиться.
+    private void resize() {
+        try {
+            int workers = targetWorkers;
+            int queueSize = taskQueue.size();
+            int newWorkers = meter.decide(sizer, workers, queueSize);
+            if (newWorkers != workers) {
+                setWorkers(newWorkers);
+                logger.info(String.format("Worker pool (%s) resized: %d -> %d threads [%d..%d] (queue: %d/%d, %s)",
+                        messageHandler.getClass().getSimpleName(),
+                        workers, newWorkers, sizer.getMinWorkers(), sizer.getMaxWorkers(),
+                        queueSize, taskQueueLimit, meter.getLastMeasures()));
+            }
+        } catch (Exception e) {
+            messageHandler.onError(e);
+        }
+    }
+
+    private void setWorkers(int workers) {
+        int previous = targetWorkers;
+        targetWorkers = workers;
+        if (workers > previous) {
+            ExecutorService currentExecutor = executor;
+            while (liveWorkers.get() < workers && currentExecutor != null && !stopRequested) {
+                liveWorkers.incrementAndGet();
+                try {
+                    currentExecutor.submit(new Worker());
+                } catch (RejectedExecutionException e) {
+                    liveWorkers.decrementAndGet();
+                    return;
+                }
+            }
+        }
+        // Лишние сами завершатся (см. Worker.retireIfRedundant).
     }
 
+    @Override
     public int getQueueSize() {
         return taskQueue.size();
     }
 
+    @Override
+    public int getQueueLimit() {
+        return taskQueueLimit;
+    }
 
-    private class Worker implements Runnable {
-        private int timeoutToWait;
+    // Сколько задач выполняется прямо сейчас (только для режима "поток на задачу", иначе 0).
+    @Override
+    public int getActiveTaskCount() {
+        return concurrencyLimit != null ?
+                maxConcurrentTasks - concurrencyLimit.availablePermits() :
+                0;
+    }
+
+    @Override
+    public int getMaxConcurrentTasks() {
+        return concurrencyLimit != null ?
+                maxConcurrentTasks :
+                targetWorkers;
+    }
 
+    public boolean isAdaptive() {
+        return sizer != null;
+    }
+
+    // Размер пула и замеры последнего пересчета.
+    public String getStats() {
+        return sizer != null ?
+                meter.getStats(liveWorkers.get(), sizer) :
+                "workers: " + workerThreadsCount;
+    }
+
+
+    private class Worker implements Runnable {
         @Override
         public void run() {
             while (!stopRequested) {
-                T task = taskQueue.poll();
+                T task = pollTask();
                 if (task != null) {
-                    // В очереди что-то есть, обработаем..
-                    timeoutToWait = 0; // Сброс таймаута ожидания.
-                    processTask(task);
-                } else {
-                    // Очередь пуста. Прогрессивный таймаут ожидания.
-                    progressiveSleep();
+                    if (taskExecutor != null) {
+                        startTask(task);
+                    } else {
+                        processTask(task);
+                    }
+                }
+                if (sizer != null && retireIfRedundant()) {
+                    return;
                 }
             }
         }
 
-        private void progressiveSleep() {
-            stoppableWaitTimeout(timeoutToWait);
-            timeoutToWait = Math.min(100, timeoutToWait + 1);
+        // Пул уменьшили: поток завершается, если живых больше нужного.
+        private boolean retireIfRedundant() {
+            int live = liveWorkers.get();
+            return live > targetWorkers && liveWorkers.compareAndSet(live, live - 1);
+        }
+
+        // Ждем задачу (паркуясь), пока не появится или не попросят остановиться.
+        private T pollTask() {
+            try {
+                return taskQueue.poll(WORKER_POLL_TIMEOUT_MS, () -> stopRequested);
+            } catch (InterruptedException e) {
+                messageHandler.onError(e);
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+
+        // Ждем свободного места под задачу и запускаем ее в отдельном потоке.
+        private void startTask(T task) {
+            try {
+                while (!concurrencyLimit.tryAcquire(WORKER_POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    if (stopRequested) {
+                        messageHandler.onReject(task);
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                messageHandler.onError(e);
+                messageHandler.onReject(task);
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            try {
+                taskExecutor.execute(() -> {
+                    try {
+                        processTask(task);
+                    } finally {
+                        concurrencyLimit.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                concurrencyLimit.release();
+                messageHandler.onReject(task);
+            }
         }
 
         private void processTask(T task) {
+            long start = sizer != null ? meter.onTaskStarted() : 0;
             try {
                 messageHandler.handle(task);
             } catch (Exception e) {
@@ -111,6 +376,10 @@ public class ConcurrentMessageProcessor<T> {
                 } catch (Exception e2) {
                     e2.printStackTrace(System.err);
                 }
+            } finally {
+                if (sizer != null) {
+                    meter.onTaskFinished(start);
+                }
             }
         }
     }
@@ -122,13 +391,4 @@ public class ConcurrentMessageProcessor<T> {
             Thread.currentThread().interrupt();
         }
     }
-
-    private void stoppableWaitTimeout(int ms) {
-        try {
-            StoppableSleep.sleep(ms, () -> stopRequested);
-        } catch (InterruptedException e) {
-            messageHandler.onError(e);
-            Thread.currentThread().interrupt();
-        }
-    }
 }
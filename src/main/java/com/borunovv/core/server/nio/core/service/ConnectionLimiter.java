@@ -0,0 +1,161 @@
+package com.borunovv.core.server.nio.core.service;
+
+import com.borunovv.core.log.Loggable;
+import com.borunovv.core.server.nio.core.util.LogRateLimiter;
+import com.borunovv.core.server.nio.core.util.LongCountMap;
+import com.borunovv.core.util.Assert;
+import com.borunovv.core.util.IOUtils;
+import com.borunovv.core.util.IPUtils;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Допуск соединений: не больше maxConnections всего и maxConnectionsPerIp с одного IP
+ * (чтобы один клиент не выел дескрипторы и память реакторов). 0 - без ограничения.
+ * <p>
+ * Проверка при приеме соединения - за O(1): общий счетчик атомарный, счетчики по IP (ключ - IP в виде long,
+ * см. IPUtils.toLong) разбиты на полосы со своей блокировкой. Отвергнутое соединение сразу закрывается
+ * сбросом (RST, без TIME_WAIT на сервере), в лог - не чаще раза в секунду.
+ * <p>
+ * Каждому успешному tryAcquire() должен соответствовать ровно один release() - при закрытии соединения.
+ */
+@ThreadSafe
+public class ConnectionLimiter extends Loggable {
+
+    private static final int STRIPES = 16;
+    private static final long LOG_INTERVAL_MS = 1000;
+
+    private final int maxConnections;
+    private final int maxConnectionsPerIp;
+
+    private final AtomicInteger connections = new AtomicInteger(0);
+    private final LongCountMap[] connectionsByIp = new LongCountMap[STRIPES];
+
+    private final LongAdder rejectedGlobal = new LongAdder();
+    private final LongAdder rejectedPerIp = new LongAdder();
+    private final LogRateLimiter rejectLog = new LogRateLimiter(LOG_INTERVAL_MS);
+
+    public ConnectionLimiter(int maxConnections, int maxConnectionsPerIp) {
+        Assert.isTrue(maxConnections >= 0, "Bad maxConnections: " + maxConnections);
+        Assert.isTrue(maxConnectionsPerIp >= 0, "Bad maxConnectionsPerIp: " + maxConnectionsPerIp);
+        this.maxConnections = maxConnections;
+        this.maxConnectionsPerIp = maxConnectionsPerIp;
+        for (int i = 0; i < STRIPES; ++i) {
+            connectionsByIp[i] = new LongCountMap();
+        }
+    }
+
+    /**
+     * Ключ соединения для tryAcquire()/release(). Считать, пока канал открыт (потом адрес не узнать).
+     */
+    public static long getKey(SocketChannel client) {
+        try {
+            SocketAddress address = client.getRemoteAddress();
+            return address instanceof InetSocketAddress && ((InetSocketAddress) address).getAddress() != null ?
+                    IPUtils.toLong(((InetSocketAddress) address).getAddress()) :
+                    0;
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    public boolean tryAcquire(long key) {
+        if (connections.incrementAndGet() > maxConnections && maxConnections > 0) {
+            connections.decrementAndGet();
+            rejectedGlobal.increment();
+            return false;
+        }
+
+        LongCountMap stripe = getStripe(key);
+        synchronized (stripe) {
+            if (maxConnectionsPerIp == 0 || stripe.get(key) < maxConnectionsPerIp) {
+                stripe.increment(key);
+                return true;
+            }
+        }
+        connections.decrementAndGet();
+        rejectedPerIp.increment();
+        return false;
+    }
+
+    public void release(long key) {
+        LongCountMap stripe = getStripe(key);
+        int count;
+        synchronized (stripe) {
+            count = stripe.decrement(key);
+        }
+        if (count >= 0) {
+            connections.decrementAndGet();
+        } else {
+            logger.error("ConnectionLimiter: release without acquire, key: " + key);
+        }
+    }
+
+    /**
+     * Допуск только что принятого соединения. Если нельзя - соединение сразу закрывается, вернет false.
+     */
+    public boolean admit(SocketChannel client) {
+        if (tryAcquire(getKey(client))) {
+            return true;
+        }
+        reject(client);
+        return false;
+    }
+
+    public int getConnectionsCount() {
+        return connections.get();
+    }
+
+    public int getConnectionsCount(long key) {
+        LongCountMap stripe = getStripe(key);
+        synchronized (stripe) {
+            return stripe.get(key);
+        }
+    }
+
+    public long getRejectedCount() {
+        return rejectedGlobal.sum() + rejectedPerIp.sum();
+    }
+
+    public String getStats() {
+        int ips = 0;
+        for (LongCountMap stripe : connectionsByIp) {
+            synchronized (stripe) {
+                ips += stripe.size();
+            }
+        }
+        return "Connections: " + connections.get() + "/" + (maxConnections > 0 ? maxConnections : "-")
+                + " from " + ips + " IPs (max per IP: " + (maxConnectionsPerIp > 0 ? maxConnectionsPerIp : "-") + ")"
+                + ", rejected: " + rejectedGlobal.sum() + " by total limit, " + rejectedPerIp.sum() + " by IP limit";
+    }
+
+    private void reject(SocketChannel client) {
+        long suppressed = rejectLog.tryLog(System.currentTimeMillis());
+        if (suppressed >= 0) {
+            String address;
+            try {
+                address = String.valueOf(client.getRemoteAddress());
+            } catch (Exception e) {
+                address = "undefined";
+            }
+            logger.warn("ConnectionLimiter: connection rejected (limit reached), IP: " + address
+                    + (suppressed > 0 ? " (and " + suppressed + " more since last report)" : "")
+                    + ". " + getStats());
+        }
+        try {
+            // Сбросом (RST): не оставляем на сервере соединение в TIME_WAIT.
+            client.socket().setSoLinger(true, 0);
+        } catch (Exception ignore) {
+        }
+        IOUtils.close(client);
+    }
+
+    private LongCountMap getStripe(long key) {
+        return connectionsByIp[(int) ((key ^ (key >>> 32)) & (STRIPES - 1))];
+    }
+}
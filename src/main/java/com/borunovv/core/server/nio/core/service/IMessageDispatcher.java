@@ -1,6 +1,7 @@
 package com.borunovv.core.server.nio.core.service;
 
 import com.borunovv.core.server.nio.core.protocol.IMessage;
+import com.borunovv.core.server.nio.core.session.ISession;
 import com.borunovv.core.server.nio.core.session.SessionEvent;
 
 public interface IMessageDispatcher {
@@ -9,6 +10,14 @@ public interface IMessageDispatcher {
     void stop();
 
     void queueInputMessage(IMessage msg);
+    // Без ожидания (для реактора). Вернет false, если очередь полна - сообщение остается у вызывающего.
+    boolean tryQueueInputMessage(IMessage msg);
+    // Очереди диспетчера заполнены выше нормы: сессиям стоит перестать читать клиентов, пока не разгрузятся.
+    boolean isSaturated();
+    // Перегружены, и сессия поставила в очередь не меньше своей доли: ее стоит перестать читать.
+    boolean isSaturatedBy(ISession session);
+    // Однократно вызовет listener (в любом потоке), когда очереди разгрузятся (isSaturated() == false).
+    void notifyWhenDrained(Runnable listener);
     void queueOutputMessage(IMessage msg);
     void queueOutputMessage(IMessage msg, long delayMilliseconds);
     void queueRunnableTask(Runnable runnable);
@@ -16,4 +25,7 @@ public interface IMessageDispatcher {
     void queueSessionEvent(SessionEvent sessionEvent);
     void onMessageSent(IMessage msg);
     void onMessageSentFailed(IMessage msg, Throwable cause);
+
+    // Состояние очередей (для мониторинга).
+    String getStats();
 }
@@ -9,6 +9,8 @@ public interface IMessageProcessor {
     void processOutputMessage(IMessage msg);
 
     void onInputMessageReject(IMessage message);
+    // Сообщение слишком долго ждало в очереди и сброшено без обработки (см. CoDelLoadShedder).
+    void onInputMessageShed(IMessage message);
     void onInputMessageError(IMessage message, Exception cause);
     void onInputMessageError(Exception cause);
 
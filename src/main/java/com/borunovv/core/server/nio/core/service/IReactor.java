@@ -0,0 +1,22 @@
+package com.borunovv.core.server.nio.core.service;
+
+import com.borunovv.core.server.nio.core.buffer.ByteBufferPool;
+
+import java.nio.channels.SelectionKey;
+
+/**
+ * R/W поток (реактор), обслуживающий сессию.
+ * Через него сессия из чужих потоков просит обработать себя в потоке реактора
+ * (пересчитать флаги селектора, закрыться и т.п.).
+ */
+public interface IReactor {
+    // Потокобезопасно. Сессия будет обработана (onHeartBit) на ближайшей итерации реактора.
+    void requestUpdate(SelectionKey key);
+    // Потокобезопасные счетчики ввода/вывода реактора.
+    ReactorStats getStats();
+    // Пул буферов реактора для ввода/вывода его сессий.
+    ByteBufferPool getBufferPool();
+    // Грубые часы реактора: время, снятое после последнего select() (отстает не больше чем на итерацию).
+    // Для сессий в потоке реактора - дешевле System.currentTimeMillis() на каждый пакет.
+    long currentTimeMillis();
+}
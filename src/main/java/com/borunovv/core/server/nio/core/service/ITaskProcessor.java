@@ -0,0 +1,21 @@
+package com.borunovv.core.server.nio.core.service;
+
+/**
+ * Очередь задач + рабочие потоки, обрабатывающие их через IMessageHandler.
+ */
+public interface ITaskProcessor<T> {
+
+    void start();
+    void stop();
+
+    // Ждет места в очереди (ограниченно). Если не дождался - onReject() и false.
+    boolean queue(T task);
+    // Без ожидания. Если места нет - false (onReject не вызывается, задача остается у вызывающего).
+    boolean tryQueue(T task);
+
+    int getQueueSize();
+    int getQueueLimit();
+    // Сколько задач обрабатывается прямо сейчас (если известно, иначе 0) и сколько может одновременно.
+    int getActiveTaskCount();
+    int getMaxConcurrentTasks();
+}
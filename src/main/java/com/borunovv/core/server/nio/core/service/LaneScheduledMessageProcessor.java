@@ -0,0 +1,508 @@
+package com.borunovv.core.server.nio.core.service;
+
+import com.borunovv.core.log.Loggable;
+import com.borunovv.core.server.nio.core.util.MpmcRingQueue;
+import com.borunovv.core.util.Assert;
+import org.apache.http.annotation.ThreadSafe;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Пул рабочих потоков над несколькими полосами (lanes), у каждой - своя ограниченная очередь.
+ * Тяжелые запросы не занимают очередь легких: если забита одна полоса, остальные принимают задачи как обычно.
+ * <p>
+ * Свободный рабочий поток выбирает полосу взвешенным круговым обходом (smooth weighted round-robin)
+ * среди непустых: при загрузке всех полос полоса с весом w получает w / sum(w) выборок,
+ * а пустые полосы свою долю не держат - она достается остальным.
+ * У каждого рабочего потока свои счетчики обхода, так что выбор полосы ни с кем не синхронизируется.
+ * <p>
+ * По каждой полосе копим время ожидания в очереди и время обработки.
+ * <p>
+ * Если задан диапазон [minWorkerThreads, maxWorkerThreads], пул меняет размер по нагрузке, как
+ * ConcurrentMessageProcessor: очередь - сумма полос, лишние потоки завершаются сами, недостающие добавляются.
+ * <p>
+ * Режим "поток на задачу" (taskExecutorFactory, например виртуальные потоки): полосу выбирает один поток,
+ * когда есть свободное место (не больше maxConcurrentTasks одновременно), а сама задача выполняется
+ * в отдельном потоке. Веса полос при этом делят места под задачи.
+ */
+@ThreadSafe
+public class LaneScheduledMessageProcessor<T> extends Loggable implements ITaskProcessor<T> {
+
+    // Как долго рабочий поток спит без сигнала, прежде чем перепроверить флаг остановки.
+    private static final long WORKER_POLL_TIMEOUT_MS = 100;
+
+    private final int workerThreadsCount;
+    private final long queueAddTaskWaitTimeoutMs;
+    private final IMessageHandler<T> messageHandler;
+    private final PriorityLanes.IMessageClassifier<T> classifier;
+
+    private final Lane[] lanes;
+    private final int[] weights;
+    private final int totalQueueLimit;
+    // Кол-во задач во всех полосах: рабочий поток берет разрешение и только потом ищет задачу.
+    private final Semaphore queuedTasks = new Semaphore(0);
+    // Замеры обработки (и для пересчета размера пула).
+    private final WorkerPoolMeter meter = new WorkerPoolMeter();
+
+    private volatile ExecutorService executor;
+    private volatile boolean stopRequested = false;
+
+    // Меняющийся размер пула (иначе null).
+    private final WorkerPoolSizer sizer;
+    private volatile ScheduledExecutorService sizingExecutor;
+    // Сколько потоков должно быть и сколько сейчас работает (лишние завершаются сами).
+    private volatile int targetWorkers;
+    private final AtomicInteger liveWorkers = new AtomicInteger(0);
+
+    // Режим "поток на задачу" (иначе null).
+    private final Supplier<ExecutorService> taskExecutorFactory;
+    private volatile ExecutorService taskExecutor;
+    private final Semaphore concurrencyLimit;
+    private final int maxConcurrentTasks;
+
+    public LaneScheduledMessageProcessor(int workerThreadsCount,
+                                         PriorityLanes<T> priorityLanes,
+                                         long queueAddTaskWaitTimeoutMs,
+                                         IMessageHandler<T> messageHandler,
+                                         MpmcRingQueue.WaitStrategy waitStrategy) {
+        this(workerThreadsCount, workerThreadsCount, priorityLanes, queueAddTaskWaitTimeoutMs, messageHandler,
+                waitStrategy);
+    }
+
+    // Пул от minWorkerThreads до maxWorkerThreads потоков, размер подбирается по нагрузке.
+    public LaneScheduledMessageProcessor(int minWorkerThreads,
+                                         int maxWorkerThreads,
+                                         PriorityLanes<T> priorityLanes,
+                                         long queueAddTaskWaitTimeoutMs,
+                                         IMessageHandler<T> messageHandler,
+                                         MpmcRingQueue.WaitStrategy waitStrategy) {
+        this(minWorkerThreads, maxWorkerThreads, priorityLanes, queueAddTaskWaitTimeoutMs, messageHandler,
+                waitStrategy, null, 0);
+    }
+
+    // Режим "поток на задачу".
+    public LaneScheduledMessageProcessor(int maxConcurrentTasks,
+                                         PriorityLanes<T> priorityLanes,
+                                         long queueAddTaskWaitTimeoutMs,
+                                         IMessageHandler<T> messageHandler,
+                                         MpmcRingQueue.WaitStrategy waitStrategy,
+                                         Supplier<ExecutorService> taskExecutorFactory) {
+        this(1, 1, priorityLanes, queueAddTaskWaitTimeoutMs, messageHandler,
+                waitStrategy, taskExecutorFactory, maxConcurrentTasks);
+        Assert.isTrue(taskExecutorFactory != null, "taskExecutorFactory is null");
+    }
+
+    private LaneScheduledMessageProcessor(int minWorkerThreads,
+                                          int maxWorkerThreads,
+                                          PriorityLanes<T> priorityLanes,
+                                          long queueAddTaskWaitTimeoutMs,
+                                          IMessageHandler<T> messageHandler,
+                                          MpmcRingQueue.WaitStrategy waitStrategy,
+                                          Supplier<ExecutorService> taskExecutorFactory,
+                                          int maxConcurrentTasks) {
+        Assert.isTrue(minWorkerThreads > 0, "minWorkerThreads must be > 0");
+        Assert.isTrue(maxWorkerThreads >= minWorkerThreads, "maxWorkerThreads must be >= minWorkerThreads");
+        Assert.isTrue(priorityLanes != null, "priorityLanes is null");
+        Assert.isTrue(queueAddTaskWaitTimeoutMs > 0, "queueAddTaskWaitTimeoutMs must be > 0");
+        Assert.isTrue(messageHandler != null, "messageHandler is null");
+        Assert.isTrue(waitStrategy != null, "waitStrategy is null");
+        Assert.isTrue(taskExecutorFactory == null || maxConcurrentTasks > 0, "maxConcurrentTasks must be > 0");
+
+        this.workerThreadsCount = minWorkerThreads;
+        this.sizer = maxWorkerThreads > minWorkerThreads ?
+                new WorkerPoolSizer(minWorkerThreads, maxWorkerThreads) :
+                null;
+        this.targetWorkers = minWorkerThreads;
+        this.taskExecutorFactory = taskExecutorFactory;
+        this.maxConcurrentTasks = maxConcurrentTasks;
+        this.concurrencyLimit = taskExecutorFactory != null ?
+                new Semaphore(maxConcurrentTasks) :
+                null;
+        this.queueAddTaskWaitTimeoutMs = queueAddTaskWaitTimeoutMs;
+        this.messageHandler = messageHandler;
+        this.classifier = priorityLanes.getClassifier();
+
+        List<PriorityLanes.Lane> laneConfigs = priorityLanes.getLanes();
+        this.lanes = new Lane[laneConfigs.size()];
+        this.weights = new int[laneConfigs.size()];
+        int limit = 0;
+        for (int i = 0; i < lanes.length; ++i) {
+            lanes[i] = new Lane(laneConfigs.get(i), waitStrategy);
+            weights[i] = laneConfigs.get(i).getWeight();
+            limit += laneConfigs.get(i).getQueueSize();
+        }
+        this.totalQueueLimit = limit;
+    }
+
+    @Override
+    public boolean queue(T task) {
+        Assert.isTrue(task != null, "task is null");
+
+        Lane lane = getLane(task);
+        boolean added;
+        try {
+            added = lane.queue.offer(new Entry<>(task), queueAddTaskWaitTimeoutMs, () -> stopRequested);
+        } catch (InterruptedException e) {
+            messageHandler.onError(e);
+            Thread.currentThread().interrupt();
+            added = false;
+        }
+
+        if (added) {
+            queuedTasks.release();
+        } else {
+            lane.rejected.increment();
+            messageHandler.onReject(task);
+        }
+        return added;
+    }
+
+    @Override
+    public boolean tryQueue(T task) {
+        Assert.isTrue(task != null, "task is null");
+
+        Lane lane = getLane(task);
+        if (lane.queue.offer(new Entry<>(task))) {
+            queuedTasks.release();
+            return true;
+        }
+        lane.rejected.increment();
+        return false;
+    }
+
+    @Override
+    public void start() {
+        stop();
+
+        if (taskExecutorFactory != null) {
+            taskExecutor = taskExecutorFactory.get();
+        }
+        targetWorkers = workerThreadsCount;
+        liveWorkers.set(workerThreadsCount);
+        executor = sizer != null ?
+                Executors.newCachedThreadPool() :
+                Executors.newFixedThreadPool(workerThreadsCount);
+        for (int i = 0; i < workerThreadsCount; ++i) {
+            executor.submit(new Worker());
+        }
+
+        if (sizer != null) {
+            meter.reset();
+            sizingExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "lane-worker-pool-sizer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            sizingExecutor.scheduleAtFixedRate(this::resize,
+                    ConcurrentMessageProcessor.SIZING_PERIOD_MS,
+                    ConcurrentMessageProcessor.SIZING_PERIOD_MS,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Раз в период: замеры за период -> решение WorkerPoolSizer -> добавляем потоки или просим лишние завершиться.
+    private void resize() {
+        try {
+            int workers = targetWorkers;
+            int queueSize = getQueueSize();
+            int newWorkers = meter.decide(sizer, workers, queueSize);
+            if (newWorkers != workers) {
+                setWorkers(newWorkers);
+                logger.info(String.format("Lane worker pool (%s) resized: %d -> %d threads [%d..%d] (queue: %d/%d, %s)",
+                        messageHandler.getClass().getSimpleName(),
+                        workers, newWorkers, sizer.getMinWorkers(), sizer.getMaxWorkers(),
+                        queueSize, totalQueueLimit, meter.getLastMeasures()));
+            }
+        } catch (Exception e) {
+            messageHandler.onError(e);
+        }
+    }
+
+    private void setWorkers(int workers) {
+        int previous = targetWorkers;
+        targetWorkers = workers;
+        if (workers > previous) {
+            ExecutorService currentExecutor = executor;
+            while (liveWorkers.get() < workers && currentExecutor != null && !stopRequested) {
+                liveWorkers.incrementAndGet();
+                try {
+                    currentExecutor.submit(new Worker());
+                } catch (RejectedExecutionException e) {
+                    liveWorkers.decrementAndGet();
+                    return;
+                }
+            }
+        }
+        // Лишние сами завершатся (см. Worker.retireIfRedundant).
+    }
+
+    @Override
+    public void stop() {
+        if (sizingExecutor != null) {
+            sizingExecutor.shutdownNow();
+            sizingExecutor = null;
+        }
+        if (executor != null) {
+            stopRequested = true;
+            executor.shutdown();
+            while (!executor.isTerminated()) {
+                for (Lane lane : lanes) {
+                    lane.queue.wakeUpAll();
+                }
+                sleep(10);
+            }
+            executor = null;
+
+            if (taskExecutor != null) {
+                // Дожидаемся уже запущенных задач.
+                taskExecutor.shutdown();
+                while (!taskExecutor.isTerminated()) {
+                    sleep(10);
+                }
+                taskExecutor = null;
+            }
+            stopRequested = false;
+        }
+    }
+
+    @Override
+    public int getQueueSize() {
+        int size = 0;
+        for (Lane lane : lanes) {
+            size += lane.queue.size();
+        }
+        return size;
+    }
+
+    @Override
+    public int getQueueLimit() {
+        return totalQueueLimit;
+    }
+
+    @Override
+    public int getActiveTaskCount() {
+        return meter.getActiveTasks();
+    }
+
+    @Override
+    public int getMaxConcurrentTasks() {
+        return concurrencyLimit != null ?
+                maxConcurrentTasks :
+                targetWorkers;
+    }
+
+    public boolean isAdaptive() {
+        return sizer != null;
+    }
+
+    // Размер пула и замеры последнего пересчета.
+    public String getWorkerPoolStats() {
+        return sizer != null ?
+                meter.getStats(liveWorkers.get(), sizer) :
+                "workers: " + workerThreadsCount;
+    }
+
+    public String getStats() {
+        StringBuilder sb = new StringBuilder();
+        for (Lane lane : lanes) {
+            long processed = lane.processed.sum();
+            sb.append(sb.length() > 0 ? "\n" : "")
+                    .append("Lane '").append(lane.config.getName()).append("' (weight ").append(lane.config.getWeight())
+                    .append("): queue: ").append(lane.queue.size()).append("/").append(lane.config.getQueueSize())
+                    .append(", processed: ").append(processed)
+                    .append(", rejected: ").append(lane.rejected.sum())
+                    .append(String.format(", wait avg/max: %.2f/%.2f ms, service avg/max: %.2f/%.2f ms",
+                            average(lane.waitNanos.sum(), processed), lane.maxWaitNanos.get() / 1e6,
+                            average(lane.serviceNanos.sum(), processed), lane.maxServiceNanos.get() / 1e6));
+        }
+        return sb.toString();
+    }
+
+    private Lane getLane(T task) {
+        int index = classifier.classify(task);
+        return index >= 0 && index < lanes.length ?
+                lanes[index] :
+                lanes[0];
+    }
+
+    private static double average(long totalNanos, long count) {
+        return count > 0 ? totalNanos / 1e6 / count : 0;
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    private void sleep(int ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    private static final class Entry<T> {
+        final T task;
+        final long queuedTime = System.nanoTime();
+
+        Entry(T task) {
+            this.task = task;
+        }
+    }
+
+    private static final class Lane {
+        final PriorityLanes.Lane config;
+        final MpmcRingQueue<Entry<?>> queue;
+
+        final LongAdder processed = new LongAdder();
+        final LongAdder rejected = new LongAdder();
+        final LongAdder waitNanos = new LongAdder();
+        final LongAdder serviceNanos = new LongAdder();
+        final AtomicLong maxWaitNanos = new AtomicLong();
+        final AtomicLong maxServiceNanos = new AtomicLong();
+
+        Lane(PriorityLanes.Lane config, MpmcRingQueue.WaitStrategy waitStrategy) {
+            this.config = config;
+            this.queue = new MpmcRingQueue<>(config.getQueueSize(), waitStrategy);
+        }
+    }
+
+    private class Worker implements Runnable {
+        // Текущие веса обхода (smooth weighted round-robin), свои у каждого потока.
+        private final long[] credits = new long[lanes.length];
+
+        @Override
+        public void run() {
+            while (!stopRequested) {
+                try {
+                    if (queuedTasks.tryAcquire(WORKER_POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                        if (concurrencyLimit == null || acquireConcurrency()) {
+                            takeAndProcess();
+                        } else {
+                            // Остановка: задача остается в полосе.
+                            queuedTasks.release();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    messageHandler.onError(e);
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (sizer != null && retireIfRedundant()) {
+                    return;
+                }
+            }
+        }
+
+        // Пул уменьшили: поток завершается, если живых больше нужного (задачу он сейчас не держит).
+        private boolean retireIfRedundant() {
+            int live = liveWorkers.get();
+            return live > targetWorkers && liveWorkers.compareAndSet(live, live - 1);
+        }
+
+        // Режим "поток на задачу": полосу выбираем, только когда есть место под задачу, - иначе веса не работают.
+        private boolean acquireConcurrency() throws InterruptedException {
+            while (!concurrencyLimit.tryAcquire(WORKER_POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                if (stopRequested) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Разрешение уже взято: хотя бы одна задача в полосах - наша.
+        @SuppressWarnings("unchecked")
+        private void takeAndProcess() {
+            while (true) {
+                int index = chooseLane();
+                if (index >= 0) {
+                    Lane lane = lanes[index];
+                    Entry<T> entry = (Entry<T>) lane.queue.poll();
+                    if (entry != null) {
+                        if (taskExecutor != null) {
+                            startTask(lane, entry);
+                        } else {
+                            process(lane, entry);
+                        }
+                        return;
+                    }
+                }
+                // Задачу из выбранной полосы забрал другой поток, но наша ждет в другой полосе.
+                Thread.yield();
+            }
+        }
+
+        private int chooseLane() {
+            int best = -1;
+            long totalWeight = 0;
+            for (int i = 0; i < lanes.length; ++i) {
+                if (!lanes[i].queue.isEmpty()) {
+                    credits[i] += weights[i];
+                    totalWeight += weights[i];
+                    if (best < 0 || credits[i] > credits[best]) {
+                        best = i;
+                    }
+                } else {
+                    // Опустевшая полоса не копит очередь на потом.
+                    credits[i] = 0;
+                }
+            }
+            if (best >= 0) {
+                credits[best] -= totalWeight;
+            }
+            return best;
+        }
+
+        // Место под задачу уже взято.
+        private void startTask(Lane lane, Entry<T> entry) {
+            try {
+                taskExecutor.execute(() -> {
+                    try {
+                        process(lane, entry);
+                    } finally {
+                        concurrencyLimit.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                concurrencyLimit.release();
+                lane.rejected.increment();
+                messageHandler.onReject(entry.task);
+            }
+        }
+
+        private void process(Lane lane, Entry<T> entry) {
+            long start = meter.onTaskStarted();
+            long wait = start - entry.queuedTime;
+            try {
+                messageHandler.handle(entry.task);
+            } catch (Exception e) {
+                try {
+                    messageHandler.onError(entry.task, e);
+                } catch (Exception e2) {
+                    e2.printStackTrace(System.err);
+                }
+            } finally {
+                long service = meter.onTaskFinished(start);
+                lane.processed.increment();
+                lane.waitNanos.add(wait);
+                lane.serviceNanos.add(service);
+                updateMax(lane.maxWaitNanos, wait);
+                updateMax(lane.maxServiceNanos, service);
+            }
+        }
+    }
+}
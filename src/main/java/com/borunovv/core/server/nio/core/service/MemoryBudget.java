@@ -0,0 +1,197 @@
+package com.borunovv.core.server.nio.core.service;
+
+import com.borunovv.core.util.Assert;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Общий на сервер бюджет памяти под буферы сессий: недочитанные запросы (рабочий буфер чтения может
+ * дорасти до максимального размера пакета) и очереди ответов на отправку. Без него несколько сотен
+ * медленных клиентов (долго шлют большие запросы или медленно читают ответы) выедают всю кучу.
+ * <p>
+ * У каждой сессии свой счет (Account): ему засчитываются байты при росте буферов и постановке ответов
+ * в очередь, списываются - при освобождении и отправке. Общая сумма - в LongAdder (счетчик с полосами:
+ * реакторы и рабочие потоки не бьются за одну ячейку).
+ * <p>
+ * Когда бюджет превышен, самые крупные потребители (больше среднего на сессию и не меньше
+ * LARGE_CONSUMER_MIN_BYTES) перестают читаться, а запрос, которому по заголовку (Content-Length)
+ * не хватит места, отвергается до чтения тела (см. SessionReader).
+ */
+@ThreadSafe
+public class MemoryBudget {
+
+    // Меньше этого сессия не считается крупным потребителем, даже если выше среднего.
+    public static final long LARGE_CONSUMER_MIN_BYTES = 64 * 1024;
+    private static final int TOP_CONSUMERS_IN_STATS = 5;
+
+    private final long maxBytes;
+    private final LongAdder usedBytes = new LongAdder();
+    private final AtomicLong maxUsedBytes = new AtomicLong(0);
+    private final AtomicInteger accountsCount = new AtomicInteger(0);
+    private final Set<Account> accounts = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder readPauses = new LongAdder();
+    private final LongAdder rejectedPackets = new LongAdder();
+
+    public MemoryBudget(long maxBytes) {
+        Assert.isTrue(maxBytes > 0, "Bad maxBytes: " + maxBytes);
+        this.maxBytes = maxBytes;
+    }
+
+    // Счет новой сессии. name - для статистики (например, адрес клиента).
+    public Account openAccount(String name) {
+        Account account = new Account(name);
+        accounts.add(account);
+        accountsCount.incrementAndGet();
+        return account;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getUsedBytes() {
+        return usedBytes.sum();
+    }
+
+    public boolean isExceeded() {
+        return usedBytes.sum() > maxBytes;
+    }
+
+    // Поместятся ли еще bytes байт в бюджет.
+    public boolean canAllocate(long bytes) {
+        return usedBytes.sum() + bytes <= maxBytes;
+    }
+
+    public void onReadPaused() {
+        readPauses.increment();
+    }
+
+    public void onPacketRejected() {
+        rejectedPackets.increment();
+    }
+
+    public long getRejectedCount() {
+        return rejectedPackets.sum();
+    }
+
+    // Крупнейшие потребители, "имя: N Kb" по убыванию (сессии без буферов не показываются).
+    public List<String> getTopConsumers(int count) {
+        // Сортируем снимок: счета меняются на ходу.
+        List<Map.Entry<String, Long>> snapshot = new ArrayList<>();
+        for (Account account : accounts) {
+            long bytes = account.getBytes();
+            if (bytes > 0) {
+                snapshot.add(new AbstractMap.SimpleEntry<>(account.name, bytes));
+            }
+        }
+        snapshot.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        List<String> result = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : snapshot.subList(0, Math.min(count, snapshot.size()))) {
+            result.add(entry.getKey() + ": " + entry.getValue() / 1024 + " Kb");
+        }
+        return result;
+    }
+
+    public String getStats() {
+        StringBuilder sb = new StringBuilder("Memory budget: ")
+                .append(toMb(usedBytes.sum())).append("/").append(toMb(maxBytes)).append(" Mb")
+                .append(" (max used: ").append(toMb(maxUsedBytes.get())).append(" Mb)")
+                .append(", sessions: ").append(accountsCount.get())
+                .append(", read pauses: ").append(readPauses.sum())
+                .append(", rejected requests: ").append(rejectedPackets.sum());
+        List<String> top = getTopConsumers(TOP_CONSUMERS_IN_STATS);
+        if (!top.isEmpty()) {
+            sb.append("\n  top consumers: ").append(String.join(", ", top));
+        }
+        return sb.toString();
+    }
+
+    private void add(long bytes) {
+        usedBytes.add(bytes);
+        if (bytes > 0) {
+            // Пик - приблизительно (сумма снимается не атомарно с добавлением), для статистики хватит.
+            maxUsedBytes.accumulateAndGet(usedBytes.sum(), Math::max);
+        }
+    }
+
+    private static String toMb(long bytes) {
+        return String.format("%.1f", bytes / (1024.0 * 1024.0));
+    }
+
+    /**
+     * Счет одной сессии. Засчитывать/списывать можно из любого потока.
+     * После close() все остатки списаны, а новые операции игнорируются (например, ответ, поставленный
+     * в очередь уже закрытой сессии, или буфер запроса, освобожденный рабочим потоком позже).
+     */
+    @ThreadSafe
+    public final class Account {
+        private final String name;
+        // -1 - счет закрыт.
+        private final AtomicLong bytes = new AtomicLong(0);
+
+        private Account(String name) {
+            this.name = name;
+        }
+
+        public void charge(long amount) {
+            long current;
+            do {
+                current = bytes.get();
+                if (current < 0) {
+                    return;
+                }
+            } while (!bytes.compareAndSet(current, current + amount));
+            add(amount);
+        }
+
+        public void release(long amount) {
+            long current;
+            long next;
+            do {
+                current = bytes.get();
+                if (current < 0) {
+                    return;
+                }
+                next = Math.max(0, current - amount);
+            } while (!bytes.compareAndSet(current, next));
+            add(next - current);
+        }
+
+        public void close() {
+            long rest = bytes.getAndSet(-1);
+            if (rest >= 0) {
+                add(-rest);
+                accounts.remove(this);
+                accountsCount.decrementAndGet();
+            }
+        }
+
+        public long getBytes() {
+            return Math.max(0, bytes.get());
+        }
+
+        // Бюджет превышен, и эта сессия - из крупнейших потребителей: ее надо перестать читать.
+        public boolean isOverBudget() {
+            long own = bytes.get();
+            if (own < LARGE_CONSUMER_MIN_BYTES) {
+                return false;
+            }
+            long used = usedBytes.sum();
+            return used > maxBytes && own >= used / Math.max(1, accountsCount.get());
+        }
+
+        public MemoryBudget getBudget() {
+            return MemoryBudget.this;
+        }
+    }
+}
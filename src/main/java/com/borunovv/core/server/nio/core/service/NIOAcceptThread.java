@@ -6,48 +6,101 @@ import org.springframework.util.Assert;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Set;
 
 class NIOAcceptThread extends AbstractNIOThread {
 
+    // SO_REUSEPORT появился в Java 9 (и есть не на всех ОС), а собираемся под Java 8 - достаем через reflection.
+    private static final SocketOption<Boolean> SO_REUSEPORT = findReusePortOption();
+
+    private final int index;
     private final int port;
     private final int acceptQueueSize;
+    // Свой ServerSocketChannel на тот же порт (несколько потоков приема): ядро само раскидывает соединения.
+    private final boolean reusePort;
+    // Допуск соединений (лимиты на IP и общий), null - без лимитов.
+    private final ConnectionLimiter connectionLimiter;
     private IConsumer<? super SocketChannel> socketChannelConsumer;
 
     private ServerSocketChannel serverSocketChannel;
     private Selector acceptSelector;
 
+    // Пишет только поток приема.
+    private volatile long acceptedCount = 0;
+    private volatile int maxAcceptBatch = 0;
+
 
     public NIOAcceptThread(int port,
                            int acceptQueueSize,
                            IConsumer<? super SocketChannel> socketChannelConsumer) {
+        this(0, port, acceptQueueSize, false, null, socketChannelConsumer);
+    }
+
+    public NIOAcceptThread(int index,
+                           int port,
+                           int acceptQueueSize,
+                           boolean reusePort,
+                           ConnectionLimiter connectionLimiter,
+                           IConsumer<? super SocketChannel> socketChannelConsumer) {
         Assert.notNull(socketChannelConsumer, "socketChannelConsumer is null");
         Assert.isTrue(port > 0 && port < 65536, "Bad port: " + port);
         Assert.isTrue(acceptQueueSize > 0, "Bad acceptQueueSize: " + acceptQueueSize);
+        Assert.isTrue(!reusePort || isReusePortSupported(), "SO_REUSEPORT is not supported");
 
+        this.index = index;
         this.port = port;
         this.acceptQueueSize = acceptQueueSize;
+        this.reusePort = reusePort;
+        this.connectionLimiter = connectionLimiter;
         this.socketChannelConsumer = socketChannelConsumer;
     }
 
+    public static boolean isReusePortSupported() {
+        if (SO_REUSEPORT == null) {
+            return false;
+        }
+        try (ServerSocketChannel channel = ServerSocketChannel.open()) {
+            return channel.supportedOptions().contains(SO_REUSEPORT);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
     public int getPort() {
         return port;
     }
 
+    public long getAcceptedCount() {
+        return acceptedCount;
+    }
+
+    // Больше всего соединений, принятых за одно пробуждение.
+    public int getMaxAcceptBatch() {
+        return maxAcceptBatch;
+    }
+
+    @Override
+    protected String getThreadName() {
+        return "nio-accept-" + port + (index > 0 ? "-" + index : "");
+    }
+
     protected void onThreadStart() {
         try {
             acceptSelector = Selector.open();
             serverSocketChannel = ServerSocketChannel.open();
-            ServerSocket ss = serverSocketChannel.socket();
-            ss.bind(new InetSocketAddress(port), acceptQueueSize);
+            if (reusePort) {
+                serverSocketChannel.setOption(SO_REUSEPORT, true);
+            }
+            serverSocketChannel.bind(new InetSocketAddress(port), acceptQueueSize);
             serverSocketChannel.configureBlocking(false);
             serverSocketChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
         } catch (IOException e) {
@@ -64,13 +117,9 @@ class NIOAcceptThread extends AbstractNIOThread {
         }
 
         if (count > 0) {
-            List<SelectionKey> keys = getValidAcceptableKeysOnly(acceptSelector.selectedKeys());
-            for (SelectionKey key : keys) {
-                if (isStopRequested()) {
-                    break;
-                }
-                acceptClient(key);
-            }
+            // Канал один - разбираем его очередь целиком, а не по одному соединению на пробуждение.
+            acceptSelector.selectedKeys().clear();
+            acceptClients();
         }
     }
 
@@ -95,32 +144,55 @@ class NIOAcceptThread extends AbstractNIOThread {
     }
 
 
-    private List<SelectionKey> getValidAcceptableKeysOnly(Set<SelectionKey> allKeys) {
-        List<SelectionKey> result = new ArrayList<>(allKeys.size());
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> findReusePortOption() {
+        try {
+            return (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
 
-        Iterator<SelectionKey> iterator = allKeys.iterator();
-        while (iterator.hasNext()) {
-            SelectionKey key = iterator.next();
-            iterator.remove();
-            if (key.isValid() && key.isAcceptable()) {
-                result.add(key);
+    // accept() до null: все, что накопилось в очереди ядра.
+    private void acceptClients() {
+        int batch = 0;
+        while (!isStopRequested()) {
+            SocketChannel client;
+            try {
+                client = serverSocketChannel.accept();
+            } catch (IOException e) {
+                logger.error("NIOAcceptThread (port " + port + "): failed to accept client", e);
+                break;
             }
+            if (client == null) {
+                break;
+            }
+            batch++;
+            acceptClient(client);
         }
 
-        return result;
+        if (batch > 0) {
+            acceptedCount += batch;
+            if (batch > maxAcceptBatch) {
+                maxAcceptBatch = batch;
+            }
+        }
     }
 
-    private void acceptClient(SelectionKey key) {
-        SocketChannel client = null;
+    private void acceptClient(SocketChannel client) {
+        if (connectionLimiter != null && !connectionLimiter.admit(client)) {
+            return;
+        }
         try {
-            ServerSocketChannel serverChannel = (ServerSocketChannel) key.channel();
-            client = serverChannel.accept();
             //String clientIpAddress = NIOUtils.getRemoteIpAddress(client);
             client.configureBlocking(false);
             client.socket().setKeepAlive(true);
             client.socket().setTcpNoDelay(true);
             socketChannelConsumer.consume(client);
         } catch (Exception e) {
+            if (connectionLimiter != null) {
+                connectionLimiter.release(ConnectionLimiter.getKey(client));
+            }
             IOUtils.close(client);
             try {
                 logger.error("NIOAcceptThread (port " + port
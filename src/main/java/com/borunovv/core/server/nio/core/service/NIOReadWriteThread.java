@@ -1,8 +1,12 @@
 package com.borunovv.core.server.nio.core.service;
 
+import com.borunovv.core.server.nio.core.buffer.ByteBufferPool;
 import com.borunovv.core.server.nio.core.session.ClientClosedException;
 import com.borunovv.core.server.nio.core.session.ISession;
 import com.borunovv.core.server.nio.core.session.ISessionFactory;
+import com.borunovv.core.server.nio.core.util.CountedConcurrentQueue;
+import com.borunovv.core.server.nio.core.util.HashedTimingWheel;
+import com.borunovv.core.server.nio.core.util.LogRateLimiter;
 import com.borunovv.core.service.IConsumer;
 import com.borunovv.core.util.IOUtils;
 import org.springframework.util.Assert;
@@ -14,45 +18,151 @@ import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.util.*;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class NIOReadWriteThread extends AbstractNIOThread implements IConsumer<SocketChannel> {
+public class NIOReadWriteThread extends AbstractNIOThread implements IConsumer<SocketChannel>, IReactor {
 
     private static final long HEART_BIT_DELAY_MS = 5;
     private static final int MAX_NEW_CLIENTS_QUEUE_SIZE = 1000;
+    // Колесо таймеров: тик = HEART_BIT_DELAY_MS, один оборот ~2.5 сек (более дальние сроки ждут лишние обороты).
+    private static final int TIMING_WHEEL_SIZE = 512;
 
+    private final int index;
     private Selector rwSelector;
     private ISessionFactory sessionFactory;
-    private ConcurrentLinkedQueue<SocketChannel> newClients = new ConcurrentLinkedQueue<>();
-    private long lastHeartBitTime = 0;
+    // Размер за O(1): его спрашивают на каждое принятое соединение (лимит и балансировка).
+    private CountedConcurrentQueue<SocketChannel> newClients = new CountedConcurrentQueue<>();
+    // Сессии, попросившие обработки из других потоков (ответ в очереди, закрытие и т.п.).
+    private ConcurrentLinkedQueue<SelectionKey> keysToUpdate = new ConcurrentLinkedQueue<>();
+    // Один wakeup() на пачку запросов: пока реактор не дошел до select(), повторно не будим.
+    private final AtomicBoolean wakeupRequested = new AtomicBoolean(false);
+    private final AtomicLong wakeupsCount = new AtomicLong(0);
+    private final ReactorStats stats = new ReactorStats();
+    private final ByteBufferPool bufferPool;
+    // Допуск соединений (см. NIOAcceptThread): при закрытии соединения возвращаем его место. null - без лимитов.
+    private final ConnectionLimiter connectionLimiter;
+    // Переполнение очереди новых клиентов пишем в лог не чаще раза в секунду (иначе шквал подключений зальет лог).
+    private final LogRateLimiter newClientsOverflowLog = new LogRateLimiter(1000);
+    // Сроки heartbeat'ов сессий. Трогаем только сессии, у которых подошел срок, а не все ключи селектора.
+    private HashedTimingWheel<SessionAttachment> timers;
+    private final IConsumer<SessionAttachment> onTimerExpired = new IConsumer<SessionAttachment>() {
+        @Override
+        public void consume(SessionAttachment attachment) {
+            processSession(attachment.key);
+        }
+    };
+    // Грубые часы (см. IReactor.currentTimeMillis()): обновляются каждую итерацию, а она не дольше HEART_BIT_DELAY_MS.
+    private volatile long clockMs = System.currentTimeMillis();
     private AtomicInteger subStateInIteration = new AtomicInteger(0);
 
+    // Для балансировки и статистики.
+    private volatile int registeredClientsCount = 0;
+    private final AtomicLong totalAcceptedClients = new AtomicLong(0);
+
     public NIOReadWriteThread(ISessionFactory sessionFactory) {
+        this(0, sessionFactory, NioServer.DEFAULT_BUFFER_POOL_CONFIG);
+    }
+
+    public NIOReadWriteThread(int index, ISessionFactory sessionFactory, ByteBufferPool.Config bufferPoolConfig) {
+        this(index, sessionFactory, bufferPoolConfig, null);
+    }
+
+    public NIOReadWriteThread(int index,
+                              ISessionFactory sessionFactory,
+                              ByteBufferPool.Config bufferPoolConfig,
+                              ConnectionLimiter connectionLimiter) {
+        this.index = index;
         this.sessionFactory = sessionFactory;
+        this.bufferPool = new ByteBufferPool(bufferPoolConfig);
+        this.connectionLimiter = connectionLimiter;
     }
 
     @Override
     public void consume(SocketChannel client) {
         Assert.notNull(rwSelector, "Illegal state: rwSelector is not initialized. Current state: " + getState());
-        if (newClients.size() < MAX_NEW_CLIENTS_QUEUE_SIZE) {
-            newClients.add(client);
+        if (newClients.offer(client, MAX_NEW_CLIENTS_QUEUE_SIZE)) {
+            totalAcceptedClients.incrementAndGet();
+            wakeupSelector();
         } else {
             try {
-                logger.error("NIO RW Thread: rejected new client because of queue overflow, IP: "
-                        + client.getRemoteAddress());
+                long suppressed = newClientsOverflowLog.tryLog(System.currentTimeMillis());
+                if (suppressed >= 0) {
+                    logger.error("NIO RW Thread: rejected new client because of queue overflow, IP: "
+                            + client.getRemoteAddress()
+                            + (suppressed > 0 ? " (and " + suppressed + " more since last report)" : ""));
+                }
             } catch (Exception e) {
                 logger.error("NIO RW Thread: rejected new client because of queue overflow."
                         + " IP: undefined (logger error below).", e);
             } finally {
-                IOUtils.close(client);
+                closeNotRegisteredClient(client);
+            }
+        }
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    // Кол-во соединений, обслуживаемых реактором (включая еще не зарегистрированные в селекторе).
+    // Значение приблизительное (обновляется раз в итерацию), но для балансировки его хватает.
+    public int getConnectionsCount() {
+        return registeredClientsCount + newClients.size();
+    }
+
+    public long getTotalAcceptedClients() {
+        return totalAcceptedClients.get();
+    }
+
+    @Override
+    public void requestUpdate(SelectionKey key) {
+        keysToUpdate.add(key);
+        wakeupSelector();
+    }
+
+    @Override
+    public ReactorStats getStats() {
+        return stats;
+    }
+
+    @Override
+    public ByteBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return clockMs;
+    }
+
+    // Сколько раз реально будили селектор (для статистики).
+    public long getWakeupsCount() {
+        return wakeupsCount.get();
+    }
+
+    // Не ждем таймаута select(): новый клиент / ответ клиенту обрабатываются сразу.
+    private void wakeupSelector() {
+        if (wakeupRequested.compareAndSet(false, true)) {
+            Selector selector = rwSelector;
+            if (selector != null) {
+                selector.wakeup();
+                wakeupsCount.incrementAndGet();
             }
         }
     }
 
+    @Override
+    protected String getThreadName() {
+        return "nio-rw-" + index;
+    }
+
     @Override
     protected void onThreadStart() {
         try {
             rwSelector = Selector.open();
+            timers = new HashedTimingWheel<>(HEART_BIT_DELAY_MS, TIMING_WHEEL_SIZE, System.currentTimeMillis());
         } catch (IOException e) {
             throw new RuntimeException("Failed to initialize R/W NIO thread", e);
         }
@@ -62,10 +172,15 @@ public class NIOReadWriteThread extends AbstractNIOThread implements IConsumer<S
     protected void onThreadStop() {
         closeAllSessions(rwSelector);
         IOUtils.close(rwSelector);
+        // Все сессии закрыты и должны были вернуть буферы, иначе - утечка (пишется в лог).
+        bufferPool.close();
         rwSelector = null;
+        timers = null;
+        keysToUpdate.clear();
+        registeredClientsCount = 0;
 
         try {
-            logger.trace("NIO RWThread stopped.");
+            logger.trace("NIO RWThread #" + index + " stopped.");
         } catch (Exception ignore) {
         }
     }
@@ -79,7 +194,12 @@ public class NIOReadWriteThread extends AbstractNIOThread implements IConsumer<S
         processReadyClients();
 
         subStateInIteration.set(2);
-        broadcastHeartBitIfNeed();
+        processUpdateRequests();
+
+        subStateInIteration.set(3);
+        timers.advance(tickClock(), onTimerExpired);
+
+        registeredClientsCount = rwSelector.keys().size();
     }
 
     private void registerNewClients() {
@@ -94,14 +214,27 @@ public class NIOReadWriteThread extends AbstractNIOThread implements IConsumer<S
     }
 
     private void registerClientInSelector(SocketChannel client) {
+        // Ключ допуска считаем сразу: после закрытия канала адрес клиента уже не узнать.
+        long connectionKey = ConnectionLimiter.getKey(client);
         ISession session = sessionFactory.createSession();
         int selectionKeyFlags = session.init(client);
 
+        SelectionKey key;
         try {
-            client.register(rwSelector, selectionKeyFlags, session); // session as attachment
+            key = client.register(rwSelector, selectionKeyFlags);
         } catch (ClosedChannelException e) {
+            // Сессия уже открыла счет памяти и сообщила о подключении - закрываем ее, а не только канал.
+            session.close(client, "Failed to register client in R/W selector");
+            if (connectionLimiter != null) {
+                connectionLimiter.release(connectionKey);
+            }
             throw new RuntimeException("Failed to register client in R/W selector", e);
         }
+
+        SessionAttachment attachment = new SessionAttachment(key, session, timers, connectionKey);
+        key.attach(attachment);
+        session.onRegistered(key, this);
+        scheduleHeartBit(attachment, 0);
     }
 
     private void processReadyClients() {
@@ -111,12 +244,68 @@ public class NIOReadWriteThread extends AbstractNIOThread implements IConsumer<S
                 break;
             }
             doTransferData(key);
+            processSession(key);
         }
     }
 
+    private void processUpdateRequests() {
+        SelectionKey key;
+        while ((key = keysToUpdate.poll()) != null) {
+            processSession(key);
+        }
+    }
+
+    // Heartbeat сессии: проверки таймаутов, флаги селектора. Сессия сама говорит, когда ее звать в следующий раз.
+    private void processSession(SelectionKey key) {
+        SessionAttachment attachment = getAttachment(key);
+        if (attachment == null) {
+            return;
+        }
+
+        if (!key.isValid()) {
+            // Сессия закрылась сама (в обработке ввода/вывода или по heartbeat'у).
+            timers.cancel(attachment.timer);
+            releaseConnection(attachment);
+            return;
+        }
+
+        try {
+            long nextHeartBitDelay = attachment.session.onHeartBit(key);
+            if (nextHeartBitDelay >= 0 && key.isValid()) {
+                scheduleHeartBit(attachment, nextHeartBitDelay);
+            } else {
+                timers.cancel(attachment.timer);
+                if (!key.isValid()) {
+                    releaseConnection(attachment);
+                }
+            }
+        } catch (Exception e) {
+            logger.error("NIO RW Thread: Error while heart bitting ("
+                    + attachment.session.getClientRemoteAddress() + ")", e);
+            // Не теряем сессию: попробуем снова на следующем тике.
+            scheduleHeartBit(attachment, HEART_BIT_DELAY_MS);
+        }
+    }
+
+    private long tickClock() {
+        long now = System.currentTimeMillis();
+        clockMs = now;
+        return now;
+    }
+
+    private void scheduleHeartBit(SessionAttachment attachment, long delayMs) {
+        timers.schedule(attachment.timer, delayMs);
+    }
+
     private List<SelectionKey> selectReadyClients() {
         try {
-            int count = rwSelector.select(HEART_BIT_DELAY_MS);
+            // Сбрасываем до проверки очередей: запрос, пришедший после сброса, разбудит select() сам.
+            wakeupRequested.set(false);
+            boolean hasPendingWork = !keysToUpdate.isEmpty() || !newClients.isEmpty();
+            int count = hasPendingWork ?
+                    rwSelector.selectNow() :
+                    rwSelector.select(HEART_BIT_DELAY_MS);
+            tickClock();
             return count > 0 ?
                     getValidKeysOnly(rwSelector.selectedKeys()) :
                     Collections.<SelectionKey>emptyList();
@@ -159,33 +348,15 @@ public class NIOReadWriteThread extends AbstractNIOThread implements IConsumer<S
         return result;
     }
 
-    private void broadcastHeartBitIfNeed() {
-        if (System.currentTimeMillis() - lastHeartBitTime < HEART_BIT_DELAY_MS) {
-            return;
-        }
-
-        try {
-            Set<SelectionKey> allKeys = getAllSelectionKeys(rwSelector);
-            List<ISession> validSessions = new ArrayList<>(allKeys.size());
-            for (SelectionKey key : allKeys) {
-                ISession session = getSession(key);
-                if (key.isValid()) {
-                    try {
-                        session.onHeartBit(key);
-                        validSessions.add(session);
-                    } catch (Exception e) {
-                        logger.error("NIO RW Thread: Error while heart bitting ("
-                                + session.getClientRemoteAddress() + ")", e);
-                    }
-                }
-            }
-        } finally {
-            lastHeartBitTime = System.currentTimeMillis();
-        }
+    private ISession getSession(SelectionKey key) {
+        SessionAttachment attachment = getAttachment(key);
+        return attachment != null ?
+                attachment.session :
+                null;
     }
 
-    private ISession getSession(SelectionKey key) {
-        return (ISession) key.attachment();
+    private SessionAttachment getAttachment(SelectionKey key) {
+        return (SessionAttachment) key.attachment();
     }
 
     private Set<SelectionKey> getAllSelectionKeys(Selector rwSelector) {
@@ -207,14 +378,31 @@ public class NIOReadWriteThread extends AbstractNIOThread implements IConsumer<S
 
         SocketChannel client;
         while ((client = newClients.poll()) != null) {
-            IOUtils.close(client);
+            closeNotRegisteredClient(client);
+        }
+    }
+
+    private void closeNotRegisteredClient(SocketChannel client) {
+        if (connectionLimiter != null) {
+            connectionLimiter.release(ConnectionLimiter.getKey(client));
+        }
+        IOUtils.close(client);
+    }
+
+    // Вызывается только из потока реактора, для каждой сессии место возвращается один раз.
+    private void releaseConnection(SessionAttachment attachment) {
+        if (connectionLimiter != null && !attachment.connectionReleased) {
+            attachment.connectionReleased = true;
+            connectionLimiter.release(attachment.connectionKey);
         }
     }
 
     private void closeClient(SelectionKey key, String reason) {
-        ISession session = getSession(key);
-        if (session != null) {
-            session.close(key, reason);
+        SessionAttachment attachment = getAttachment(key);
+        if (attachment != null) {
+            timers.cancel(attachment.timer);
+            attachment.session.close(key, reason);
+            releaseConnection(attachment);
         } else {
             key.cancel();
             try {
@@ -225,4 +413,25 @@ public class NIOReadWriteThread extends AbstractNIOThread implements IConsumer<S
         }
         key.attach(null);
     }
+
+
+    // Вложение ключа селектора: сессия и ее таймер в колесе.
+    private static final class SessionAttachment {
+        private final SelectionKey key;
+        private final ISession session;
+        private final HashedTimingWheel.Entry<SessionAttachment> timer;
+        // IP клиента для ConnectionLimiter.
+        private final long connectionKey;
+        private boolean connectionReleased = false;
+
+        private SessionAttachment(SelectionKey key,
+                                  ISession session,
+                                  HashedTimingWheel<SessionAttachment> timers,
+                                  long connectionKey) {
+            this.key = key;
+            this.session = session;
+            this.timer = timers.newEntry(this);
+            this.connectionKey = connectionKey;
+        }
+    }
 }
@@ -1,16 +1,99 @@
 package com.borunovv.core.server.nio.core.service;
 
+import com.borunovv.core.log.Loggable;
+import com.borunovv.core.server.nio.core.buffer.ByteBufferPool;
 import com.borunovv.core.server.nio.core.session.ISessionFactory;
+import com.borunovv.core.util.Assert;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
-public class NioServer {
-    private NIOAcceptThread acceptThread;
-    private NIOReadWriteThread rwThread;
+
+public class NioServer extends Loggable {
+
+    // Буферы 1K..16M, до 64 Мб свободных буферов на реактор, в куче.
+    public static final ByteBufferPool.Config DEFAULT_BUFFER_POOL_CONFIG =
+            new ByteBufferPool.Config(1024, 16 * 1024 * 1024, 64L * 1024 * 1024, false);
+
+    private final int port;
+    private List<NIOAcceptThread> acceptThreads;
+    private final ConnectionLimiter connectionLimiter;
+    private List<NIOReadWriteThread> rwThreads;
 
 
     public NioServer(int port, int acceptQueueSize, ISessionFactory sessionFactory) {
-        rwThread = new NIOReadWriteThread(sessionFactory);
-        acceptThread = new NIOAcceptThread(port, acceptQueueSize, rwThread);
+        this(port, acceptQueueSize, sessionFactory, 1, ReactorBalancing.ROUND_ROBIN);
+    }
+
+    // Multi-reactor: один поток приема соединений раздает их на rwThreadsCount R/W потоков (у каждого свой селектор).
+    public NioServer(int port,
+                     int acceptQueueSize,
+                     ISessionFactory sessionFactory,
+                     int rwThreadsCount,
+                     ReactorBalancing balancing) {
+        this(port, acceptQueueSize, sessionFactory, rwThreadsCount, balancing, DEFAULT_BUFFER_POOL_CONFIG);
+    }
+
+    // У каждого R/W потока свой пул буферов (bufferPoolConfig - настройки одного пула).
+    public NioServer(int port,
+                     int acceptQueueSize,
+                     ISessionFactory sessionFactory,
+                     int rwThreadsCount,
+                     ReactorBalancing balancing,
+                     ByteBufferPool.Config bufferPoolConfig) {
+        this(port, acceptQueueSize, sessionFactory, rwThreadsCount, balancing, bufferPoolConfig, 1);
+    }
+
+    // Несколько потоков приема соединений, каждый со своим ServerSocketChannel на тот же порт (SO_REUSEPORT):
+    // ядро раскидывает входящие соединения по их очередям, всплеск подключений не упирается в один поток и одну очередь.
+    // Если SO_REUSEPORT не поддерживается (Java 8, ОС) - один поток приема.
+    public NioServer(int port,
+                     int acceptQueueSize,
+                     ISessionFactory sessionFactory,
+                     int rwThreadsCount,
+                     ReactorBalancing balancing,
+                     ByteBufferPool.Config bufferPoolConfig,
+                     int acceptThreadsCount) {
+        this(port, acceptQueueSize, sessionFactory, rwThreadsCount, balancing, bufferPoolConfig, acceptThreadsCount, null);
+    }
+
+    // connectionLimiter - лимиты соединений (всего и с одного IP), проверяются при приеме. null - без лимитов.
+    public NioServer(int port,
+                     int acceptQueueSize,
+                     ISessionFactory sessionFactory,
+                     int rwThreadsCount,
+                     ReactorBalancing balancing,
+                     ByteBufferPool.Config bufferPoolConfig,
+                     int acceptThreadsCount,
+                     ConnectionLimiter connectionLimiter) {
+        Assert.isTrue(rwThreadsCount > 0, "Bad rwThreadsCount: " + rwThreadsCount);
+        Assert.isTrue(acceptThreadsCount > 0, "Bad acceptThreadsCount: " + acceptThreadsCount);
+
+        List<NIOReadWriteThread> threads = new ArrayList<>(rwThreadsCount);
+        for (int i = 0; i < rwThreadsCount; ++i) {
+            threads.add(new NIOReadWriteThread(i, sessionFactory, bufferPoolConfig, connectionLimiter));
+        }
+        rwThreads = Collections.unmodifiableList(threads);
+
+        boolean reusePort = acceptThreadsCount > 1 && NIOAcceptThread.isReusePortSupported();
+        if (acceptThreadsCount > 1 && !reusePort) {
+            logger.warn("NioServer: SO_REUSEPORT is not supported, using 1 accept thread instead of " + acceptThreadsCount);
+            acceptThreadsCount = 1;
+        }
+        ReactorBalancer balancer = new ReactorBalancer(rwThreads, balancing);
+        List<NIOAcceptThread> acceptors = new ArrayList<>(acceptThreadsCount);
+        for (int i = 0; i < acceptThreadsCount; ++i) {
+            acceptors.add(new NIOAcceptThread(i, port, acceptQueueSize, reusePort, connectionLimiter, balancer));
+        }
+        this.port = port;
+        this.acceptThreads = Collections.unmodifiableList(acceptors);
+        this.connectionLimiter = connectionLimiter;
+    }
+
+    // Можно ли принимать соединения несколькими потоками (SO_REUSEPORT).
+    public static boolean isReusePortSupported() {
+        return NIOAcceptThread.isReusePortSupported();
     }
 
     public void start() {
@@ -19,8 +102,15 @@ public class NioServer {
         }
 
         try {
-            boolean bothAreStarted = acceptThread.start() && rwThread.start();
-            if (!bothAreStarted) {
+            // Сначала R/W потоки, иначе принятому клиенту некуда будет деться.
+            boolean allAreStarted = true;
+            for (NIOReadWriteThread rwThread : rwThreads) {
+                allAreStarted = allAreStarted && rwThread.start();
+            }
+            for (NIOAcceptThread acceptThread : acceptThreads) {
+                allAreStarted = allAreStarted && acceptThread.start();
+            }
+            if (!allAreStarted) {
                 throw new RuntimeException("Failed to start both accept and read/write threads (see logs).");
             }
         } catch (Exception e) {
@@ -37,8 +127,12 @@ public class NioServer {
     }
 
     public void stopAsync() {
-        acceptThread.stop();
-        rwThread.stop();
+        for (NIOAcceptThread acceptThread : acceptThreads) {
+            acceptThread.stop();
+        }
+        for (NIOReadWriteThread rwThread : rwThreads) {
+            rwThread.stop();
+        }
     }
 
     public boolean isRunning() {
@@ -46,6 +140,62 @@ public class NioServer {
     }
 
     public boolean isStopped() {
-        return acceptThread.isStopped() && rwThread.isStopped();
+        for (NIOAcceptThread acceptThread : acceptThreads) {
+            if (!acceptThread.isStopped()) {
+                return false;
+            }
+        }
+        for (NIOReadWriteThread rwThread : rwThreads) {
+            if (!rwThread.isStopped()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getAcceptThreadsCount() {
+        return acceptThreads.size();
+    }
+
+    public int getRWThreadsCount() {
+        return rwThreads.size();
+    }
+
+    // Кол-во соединений по каждому R/W потоку.
+    public int[] getConnectionsCountPerRWThread() {
+        int[] result = new int[rwThreads.size()];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = rwThreads.get(i).getConnectionsCount();
+        }
+        return result;
+    }
+
+    public String getStats() {
+        StringBuilder sb = new StringBuilder("NioServer (port " + port + "):\n");
+        if (connectionLimiter != null) {
+            sb.append("  ").append(connectionLimiter.getStats()).append("\n");
+        }
+        for (NIOAcceptThread acceptThread : acceptThreads) {
+            sb.append("  Accept thread #").append(acceptThread.getIndex())
+                    .append(": accepted: ").append(acceptThread.getAcceptedCount())
+                    .append(", max batch: ").append(acceptThread.getMaxAcceptBatch())
+                    .append("\n");
+        }
+        for (NIOReadWriteThread rwThread : rwThreads) {
+            sb.append("  R/W thread #").append(rwThread.getIndex())
+                    .append(": connections: ").append(rwThread.getConnectionsCount())
+                    .append(", total accepted: ").append(rwThread.getTotalAcceptedClients())
+                    .append(", wakeups: ").append(rwThread.getWakeupsCount())
+                    .append(", ").append(rwThread.getStats())
+                    .append("\n    ").append(rwThread.getBufferPool())
+                    .append("\n");
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "NioServer{port: " + port + ", accept threads: " + acceptThreads.size()
+                + ", R/W threads: " + rwThreads.size() + "}";
     }
 }
@@ -0,0 +1,75 @@
+package com.borunovv.core.server.nio.core.service;
+
+import com.borunovv.core.util.Assert;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Описание полос (lanes) для LaneScheduledMessageProcessor: у каждой полосы своя ограниченная очередь и вес,
+ * classifier раскладывает задачи по полосам (вернет индекс полосы в списке).
+ */
+public class PriorityLanes<T> {
+
+    private final List<Lane> lanes;
+    private final IMessageClassifier<T> classifier;
+
+    public PriorityLanes(List<Lane> lanes, IMessageClassifier<T> classifier) {
+        Assert.isTrue(lanes != null && !lanes.isEmpty(), "No lanes");
+        Assert.isTrue(classifier != null, "classifier is null");
+        this.lanes = Collections.unmodifiableList(new ArrayList<>(lanes));
+        this.classifier = classifier;
+    }
+
+    public List<Lane> getLanes() {
+        return lanes;
+    }
+
+    public IMessageClassifier<T> getClassifier() {
+        return classifier;
+    }
+
+    @Override
+    public String toString() {
+        return lanes.toString();
+    }
+
+    public interface IMessageClassifier<T> {
+        // Индекс полосы. Вне диапазона - первая полоса.
+        int classify(T message);
+    }
+
+    public static class Lane {
+        private final String name;
+        // Доля рабочих потоков, которую полоса получает, когда все полосы загружены.
+        private final int weight;
+        private final int queueSize;
+
+        public Lane(String name, int weight, int queueSize) {
+            Assert.isTrue(name != null && !name.isEmpty(), "Bad lane name: " + name);
+            Assert.isTrue(weight > 0, "Bad lane weight: " + weight);
+            Assert.isTrue(queueSize > 0, "Bad lane queue size: " + queueSize);
+            this.name = name;
+            this.weight = weight;
+            this.queueSize = queueSize;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        public int getQueueSize() {
+            return queueSize;
+        }
+
+        @Override
+        public String toString() {
+            return name + ":" + weight + ":" + queueSize;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.borunovv.core.server.nio.core.service;
+
+import com.borunovv.core.service.IConsumer;
+import com.borunovv.core.util.Assert;
+
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Раскидывает принятые соединения по нескольким R/W потокам (реакторам).
+ * Вызывается из потока (потоков) приема соединений.
+ */
+class ReactorBalancer implements IConsumer<SocketChannel> {
+
+    private final NIOReadWriteThread[] reactors;
+    private final ReactorBalancing balancing;
+    private final AtomicInteger nextReactorIndex = new AtomicInteger(0);
+
+    ReactorBalancer(List<NIOReadWriteThread> reactors, ReactorBalancing balancing) {
+        Assert.isTrue(reactors != null && !reactors.isEmpty(), "reactors is empty");
+        Assert.isTrue(balancing != null, "balancing is null");
+
+        this.reactors = reactors.toArray(new NIOReadWriteThread[reactors.size()]);
+        this.balancing = balancing;
+    }
+
+    @Override
+    public void consume(SocketChannel client) {
+        selectReactor().consume(client);
+    }
+
+    private NIOReadWriteThread selectReactor() {
+        if (reactors.length == 1) {
+            return reactors[0];
+        }
+
+        switch (balancing) {
+            case LEAST_CONNECTIONS:
+                return selectLeastLoadedReactor();
+            case ROUND_ROBIN:
+            default:
+                return reactors[(nextReactorIndex.getAndIncrement() & Integer.MAX_VALUE) % reactors.length];
+        }
+    }
+
+    private NIOReadWriteThread selectLeastLoadedReactor() {
+        // Начинаем обход каждый раз с нового реактора,
+        // чтобы при равной загрузке не забивать всегда первый.
+        int start = (nextReactorIndex.getAndIncrement() & Integer.MAX_VALUE) % reactors.length;
+        NIOReadWriteThread best = reactors[start];
+        int bestCount = best.getConnectionsCount();
+        for (int i = 1; i < reactors.length && bestCount > 0; ++i) {
+            NIOReadWriteThread reactor = reactors[(start + i) % reactors.length];
+            int count = reactor.getConnectionsCount();
+            if (count < bestCount) {
+                best = reactor;
+                bestCount = count;
+            }
+        }
+        return best;
+    }
+}
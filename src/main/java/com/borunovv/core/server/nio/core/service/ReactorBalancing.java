@@ -0,0 +1,11 @@
+package com.borunovv.core.server.nio.core.service;
+
+/**
+ * Стратегия распределения принятых соединений между R/W потоками (реакторами).
+ */
+public enum ReactorBalancing {
+    // По кругу.
+    ROUND_ROBIN,
+    // В реактор с наименьшим кол-вом соединений.
+    LEAST_CONNECTIONS
+}
@@ -0,0 +1,68 @@
+package com.borunovv.core.server.nio.core.service;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Счетчики ввода/вывода реактора. Пишутся из сессий (в т.ч. из потоков-обработчиков при прямой записи).
+ */
+public class ReactorStats {
+
+    // Системных вызовов write().
+    private final LongAdder writeCalls = new LongAdder();
+    // Целиком отправленных пакетов.
+    private final LongAdder packetsSent = new LongAdder();
+    // Сколько раз сессии снимали OP_READ из-за перегрузки диспетчера (обратное давление), и на сколько.
+    private final LongAdder readPauses = new LongAdder();
+    private final LongAdder readPausedMs = new LongAdder();
+    private final LongAdder sessionsPausedNow = new LongAdder();
+
+    public void onWriteCall() {
+        writeCalls.increment();
+    }
+
+    public void onPacketSent() {
+        packetsSent.increment();
+    }
+
+    public void onReadPaused() {
+        readPauses.increment();
+        sessionsPausedNow.increment();
+    }
+
+    public void onReadResumed(long pausedMs) {
+        readPausedMs.add(pausedMs);
+        sessionsPausedNow.decrement();
+    }
+
+    public long getWriteCalls() {
+        return writeCalls.sum();
+    }
+
+    public long getPacketsSent() {
+        return packetsSent.sum();
+    }
+
+    public long getReadPauses() {
+        return readPauses.sum();
+    }
+
+    // Суммарное время пауз чтения (только завершившихся).
+    public long getReadPausedMs() {
+        return readPausedMs.sum();
+    }
+
+    public long getSessionsPausedNow() {
+        return sessionsPausedNow.sum();
+    }
+
+    @Override
+    public String toString() {
+        long writes = getWriteCalls();
+        long packets = getPacketsSent();
+        return "writes: " + writes
+                + ", packets sent: " + packets
+                + (writes > 0 ? String.format(" (%.2f packets/write)", (double) packets / writes) : "")
+                + ", read pauses: " + getReadPauses() + " (" + getReadPausedMs() + " ms total"
+                + ", paused now: " + getSessionsPausedNow() + ")";
+    }
+}
@@ -0,0 +1,13 @@
+package com.borunovv.core.server.nio.core.service;
+
+/**
+ * Порядок обработки запросов одного соединения (для pipelining клиентов).
+ */
+public enum RequestOrdering {
+    // Без гарантий: запросы одного соединения могут обрабатываться параллельно, ответы - уйти не по порядку.
+    NONE,
+    // Сессия отдает диспетчеру следующий запрос только после ответа на предыдущий (sequentialConsistent сессии).
+    SEQUENTIAL,
+    // Все сообщения сессии обрабатывает одна и та же полоса ShardedMessageDispatcher - по порядку, без ожидания ответа.
+    SESSION_AFFINITY
+}
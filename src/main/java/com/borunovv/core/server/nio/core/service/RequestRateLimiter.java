@@ -0,0 +1,142 @@
+package com.borunovv.core.server.nio.core.service;
+
+import com.borunovv.core.server.nio.core.protocol.IMessage;
+import com.borunovv.core.server.nio.core.util.TokenBucketTable;
+import com.borunovv.core.util.Assert;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Лимиты частоты входящих запросов: у каждого клиента (IP, соединение, пользователь - решает классификатор)
+ * своя корзина токенов в каждом классе лимита (например, дешевые запросы и вход/регистрация).
+ * Запрос сверх лимита не отвергается: сессия придерживает его до появления токена и на это время
+ * перестает читать клиента (см. AbstractSession), так что клиент сам упирается в TCP окно.
+ * <p>
+ * Время - грубые часы реактора (IReactor.currentTimeMillis()), корзины пополняются лениво (TokenBucketTable).
+ * Корзины разбиты на полосы со своей блокировкой: реакторы почти не мешают друг другу.
+ */
+@ThreadSafe
+public class RequestRateLimiter {
+
+    private static final int STRIPES = 16;
+
+    private final List<Limit> limits;
+    private final IClassifier classifier;
+    // [класс лимита][полоса]
+    private final TokenBucketTable[][] buckets;
+    private final LongAdder[] throttled;
+
+    public RequestRateLimiter(List<Limit> limits, IClassifier classifier) {
+        Assert.isTrue(limits != null && !limits.isEmpty(), "limits is empty");
+        Assert.isTrue(classifier != null, "classifier is null");
+        this.limits = Collections.unmodifiableList(new ArrayList<>(limits));
+        this.classifier = classifier;
+        this.buckets = new TokenBucketTable[limits.size()][STRIPES];
+        this.throttled = new LongAdder[limits.size()];
+        for (int i = 0; i < limits.size(); ++i) {
+            for (int j = 0; j < STRIPES; ++j) {
+                buckets[i][j] = new TokenBucketTable(limits.get(i).getRatePerSecond(), limits.get(i).getBurst());
+            }
+            throttled[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Берет токен на обработку сообщения. Вернет 0 - можно обрабатывать, иначе - через сколько мс попробовать снова.
+     * Вызывается в потоке реактора.
+     */
+    public long tryAcquire(IMessage msg, long now) {
+        int limitIndex = classifier.getLimitIndex(msg);
+        return limitIndex >= 0 ?
+                tryAcquire(limitIndex, classifier.getClientKey(msg), now) :
+                0;
+    }
+
+    public long tryAcquire(int limitIndex, long clientKey, long now) {
+        TokenBucketTable stripe = getStripe(limitIndex, clientKey);
+        long waitMs;
+        synchronized (stripe) {
+            waitMs = stripe.tryAcquire(clientKey, now);
+        }
+        if (waitMs > 0) {
+            throttled[limitIndex].increment();
+        }
+        return waitMs;
+    }
+
+    public List<Limit> getLimits() {
+        return limits;
+    }
+
+    // Сколько раз запрос пришлось придержать (по классам лимитов).
+    public long getThrottledCount(int limitIndex) {
+        return throttled[limitIndex].sum();
+    }
+
+    public String getStats() {
+        StringBuilder sb = new StringBuilder("Rate limits:");
+        for (int i = 0; i < limits.size(); ++i) {
+            int clients = 0;
+            for (TokenBucketTable stripe : buckets[i]) {
+                synchronized (stripe) {
+                    clients += stripe.size();
+                }
+            }
+            sb.append(i > 0 ? "," : "").append(" ").append(limits.get(i))
+                    .append(": ").append(clients).append(" clients")
+                    .append(", throttled: ").append(throttled[i].sum());
+        }
+        return sb.toString();
+    }
+
+    private TokenBucketTable getStripe(int limitIndex, long clientKey) {
+        return buckets[limitIndex][(int) ((clientKey ^ (clientKey >>> 32)) & (STRIPES - 1))];
+    }
+
+    public interface IClassifier {
+        // Класс лимита (индекс в списке лимитов) для сообщения, -1 - не ограничивать. Должен быть быстрым.
+        int getLimitIndex(IMessage msg);
+
+        // Чья корзина: клиент, которому засчитывается сообщение.
+        long getClientKey(IMessage msg);
+    }
+
+    /**
+     * Класс лимита: ratePerSecond запросов в секунду в среднем, всплеск - до burst подряд.
+     */
+    public static class Limit {
+        private final String name;
+        private final double ratePerSecond;
+        private final int burst;
+
+        public Limit(String name, double ratePerSecond, int burst) {
+            Assert.isTrue(name != null && !name.isEmpty(), "Limit name is empty");
+            Assert.isTrue(ratePerSecond >= 0.001, "Bad ratePerSecond for limit '" + name + "': " + ratePerSecond);
+            Assert.isTrue(burst > 0, "Bad burst for limit '" + name + "': " + burst);
+            this.name = name;
+            this.ratePerSecond = ratePerSecond;
+            this.burst = burst;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public double getRatePerSecond() {
+            return ratePerSecond;
+        }
+
+        public int getBurst() {
+            return burst;
+        }
+
+        @Override
+        public String toString() {
+            return name + " (" + ratePerSecond + "/s, burst " + burst + ")";
+        }
+    }
+}
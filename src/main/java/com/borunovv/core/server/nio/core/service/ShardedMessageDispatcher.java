@@ -0,0 +1,345 @@
+package com.borunovv.core.server.nio.core.service;
+
+import com.borunovv.core.server.nio.core.protocol.IMessage;
+import com.borunovv.core.server.nio.core.session.ISession;
+import com.borunovv.core.server.nio.core.session.SessionEvent;
+import com.borunovv.core.util.Assert;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Диспетчер с привязкой сессии к полосе (lane) - однопоточному обработчику со своей очередью.
+ * Все сообщения одной сессии обрабатываются одной полосой по порядку, поэтому запросы одного соединения
+ * выполняются строго последовательно без per-session очередей, CAS-автомата и таймаутов (сессии при этом
+ * должны быть НЕ sequentialConsistent). Исходящие сообщения, поставленные из потока полосы, обрабатываются
+ * тут же, в этом потоке - ответы уходят в порядке запросов.
+ * <p>
+ * Новая сессия привязывается к полосе с наименьшим кол-вом сессий. Если ее полоса перегружена, а у сессии нет сообщений
+ * в обработке (порядок не нарушится), сессия переезжает на наименее загруженную полосу.
+ * <p>
+ * Настройки берутся из ConcurrentMessageDispatcher.Config: полос - inputWorkerThreads, очередь каждой полосы -
+ * inputQueueSize. Настройки исходящих не используются (исходящие обрабатываются полосами).
+ */
+@ThreadSafe
+public class ShardedMessageDispatcher extends AbstractMessageDispatcher {
+
+    // Полоса считается перегруженной, если ее очередь длиннее самой короткой хотя бы на столько.
+    private static final int MIGRATION_QUEUE_THRESHOLD = 16;
+
+    private volatile Lane[] lanes;
+
+    // Привязка сессий к полосам. Удаляется при отключении клиента.
+    private final ConcurrentHashMap<ISession, Affinity> affinities = new ConcurrentHashMap<>();
+    // Полоса, которую обслуживает текущий поток (null - поток не полосы).
+    private final ThreadLocal<Lane> currentLane = new ThreadLocal<>();
+
+    private final LongAdder migrationsCount = new LongAdder();
+
+    public ShardedMessageDispatcher(ConcurrentMessageDispatcher.Config config) {
+        super(config);
+    }
+
+    @Override
+    public void queueInputMessage(IMessage msg) {
+        Lane[] currentLanes = getLanes();
+        if (msg.getStartDeliveryTime() == 0) {
+            msg.setStartDeliveryTime(System.currentTimeMillis());
+        }
+
+        Affinity affinity = getAffinity(msg.getSession(), currentLanes);
+        Lane lane = chooseLane(affinity, currentLanes);
+        affinity.inFlight.incrementAndGet();
+        onInputMessageQueued(msg);
+        if (!lane.processor.queue(new LaneTask(msg, true, affinity))) {
+            logger.error("Dispatcher: Failed to queue input message. " + msg);
+        }
+    }
+
+    @Override
+    public boolean tryQueueInputMessage(IMessage msg) {
+        Lane[] currentLanes = getLanes();
+        if (msg.getStartDeliveryTime() == 0) {
+            msg.setStartDeliveryTime(System.currentTimeMillis());
+        }
+
+        Affinity affinity = getAffinity(msg.getSession(), currentLanes);
+        Lane lane = chooseLane(affinity, currentLanes);
+        affinity.inFlight.incrementAndGet();
+        onInputMessageQueued(msg);
+        if (lane.processor.tryQueue(new LaneTask(msg, true, affinity))) {
+            return true;
+        }
+        affinity.inFlight.decrementAndGet();
+        onInputMessageDequeued(msg);
+        onInputQueueFull();
+        return false;
+    }
+
+    // Заполненность - по сумме очередей полос от суммарного лимита.
+    @Override
+    protected boolean isQueueAbove(int percent) {
+        Lane[] currentLanes = lanes;
+        if (currentLanes == null) {
+            return false;
+        }
+
+        long size = 0;
+        long limit = 0;
+        for (Lane lane : currentLanes) {
+            size += lane.processor.getQueueSize();
+            limit += lane.processor.getQueueLimit();
+        }
+        return size * 100 > limit * percent;
+    }
+
+    @Override
+    public void queueOutputMessage(IMessage msg) {
+        Lane[] currentLanes = getLanes();
+        if (msg.getStartDeliveryTime() == 0) {
+            msg.setStartDeliveryTime(System.currentTimeMillis());
+        }
+
+        // Сессию, которая уже отключилась, заново не регистрируем.
+        Affinity affinity = affinities.get(msg.getSession());
+        if (affinity == null) {
+            affinity = new Affinity(getInitialLane(msg.getSession(), currentLanes));
+        }
+        Lane lane = currentLanes[affinity.lane];
+        if (currentLane.get() == lane) {
+            // Мы в потоке полосы этой сессии (ответ из обработчика запроса): обрабатываем сразу, порядок сохранится.
+            processOutputMessageNow(msg);
+            return;
+        }
+
+        affinity.inFlight.incrementAndGet();
+        if (lane.processor.queue(new LaneTask(msg, false, affinity))) {
+            logger.trace("Dispatcher: queued message. " + msg);
+        } else {
+            logger.error("Dispatcher: failed to queue output message. " + msg);
+        }
+    }
+
+    @Override
+    protected void queueRetriedOutputMessage(IMessage msg) {
+        queueOutputMessage(msg);
+    }
+
+    @Override
+    public void queueSessionEvent(SessionEvent sessionEvent) {
+        if (sessionEvent != null && sessionEvent.getType() == SessionEvent.Type.CLIENT_DISCONNECTED) {
+            Affinity affinity = affinities.remove(sessionEvent.getSession());
+            Lane[] currentLanes = lanes;
+            if (affinity != null && currentLanes != null) {
+                currentLanes[affinity.lane].sessions.decrementAndGet();
+            }
+        }
+        super.queueSessionEvent(sessionEvent);
+    }
+
+    @Override
+    public void start() {
+        startCommon();
+
+        Lane[] newLanes = new Lane[config.getInputWorkerThreads()];
+        for (int i = 0; i < newLanes.length; ++i) {
+            newLanes[i] = new Lane(i);
+            newLanes[i].processor.start();
+        }
+        lanes = newLanes;
+
+        logger.trace("Dispatcher: started (" + newLanes.length + " lanes)");
+    }
+
+    @Override
+    public void stop() {
+        Lane[] currentLanes = lanes;
+        if (currentLanes != null && isCommonStarted()) {
+            stopCooldown();
+            for (Lane lane : currentLanes) {
+                lane.processor.stop();
+            }
+            stopCommon();
+
+            lanes = null;
+            affinities.clear();
+
+            logger.trace("MessageDispatcher: stopped.");
+        }
+    }
+
+    @Override
+    public String getStats() {
+        Lane[] currentLanes = lanes;
+        StringBuilder sb = new StringBuilder("Dispatcher (session affinity): lane queues: [");
+        if (currentLanes != null) {
+            for (int i = 0; i < currentLanes.length; ++i) {
+                sb.append(i > 0 ? ", " : "")
+                        .append(currentLanes[i].processor.getQueueSize())
+                        .append(" (").append(currentLanes[i].sessions.get()).append(" sessions)");
+            }
+        }
+        return sb.append("], sessions: ").append(affinities.size())
+                .append(", migrations: ").append(migrationsCount.sum())
+                .append(getSaturationStats())
+                .append(getSheddingAndCooldownStats())
+                .toString();
+    }
+
+    @Override
+    public String toString() {
+        return "Session affinity " + config;
+    }
+
+    private Lane[] getLanes() {
+        Lane[] currentLanes = lanes;
+        if (currentLanes == null) {
+            throw new IllegalStateException("Dispatcher not started.");
+        }
+        return currentLanes;
+    }
+
+    private Affinity getAffinity(ISession session, Lane[] currentLanes) {
+        Assert.isTrue(session != null, "Message without session");
+        Affinity affinity = affinities.get(session);
+        if (affinity == null) {
+            if (session.isClosed()) {
+                // Привязку закрытой сессии уже не удалит CLIENT_DISCONNECTED - заново не регистрируем.
+                return new Affinity(getInitialLane(session, currentLanes));
+            }
+            Lane lane = currentLanes[0];
+            for (Lane candidate : currentLanes) {
+                if (candidate.sessions.get() < lane.sessions.get()) {
+                    lane = candidate;
+                }
+            }
+            affinity = new Affinity(lane.index);
+            Affinity existing = affinities.putIfAbsent(session, affinity);
+            if (existing != null) {
+                affinity = existing;
+            } else {
+                lane.sessions.incrementAndGet();
+                // Сессия закрывается до события CLIENT_DISCONNECTED: если она закрылась, пока регистрировали,
+                // событие могло нас опередить - убираем за собой сами.
+                if (session.isClosed() && affinities.remove(session, affinity)) {
+                    lane.sessions.decrementAndGet();
+                }
+            }
+        }
+        return affinity;
+    }
+
+    // Для сессий без привязки (уже отключились) - просто по хэшу.
+    private static int getInitialLane(ISession session, Lane[] currentLanes) {
+        Assert.isTrue(session != null, "Message without session");
+        return (System.identityHashCode(session) & Integer.MAX_VALUE) % currentLanes.length;
+    }
+
+    // Переносим сессию, только если у нее ничего нет в обработке: иначе новый запрос обгонит старые.
+    private Lane chooseLane(Affinity affinity, Lane[] currentLanes) {
+        Lane lane = currentLanes[affinity.lane];
+        int queueSize = lane.processor.getQueueSize();
+        if (queueSize >= MIGRATION_QUEUE_THRESHOLD && affinity.inFlight.get() == 0) {
+            Lane leastLoaded = lane;
+            int leastQueueSize = queueSize;
+            for (Lane candidate : currentLanes) {
+                int candidateQueueSize = candidate.processor.getQueueSize();
+                if (candidateQueueSize < leastQueueSize) {
+                    leastLoaded = candidate;
+                    leastQueueSize = candidateQueueSize;
+                }
+            }
+            if (queueSize - leastQueueSize >= MIGRATION_QUEUE_THRESHOLD) {
+                affinity.lane = leastLoaded.index;
+                lane.sessions.decrementAndGet();
+                leastLoaded.sessions.incrementAndGet();
+                migrationsCount.increment();
+                return leastLoaded;
+            }
+        }
+        return lane;
+    }
+
+    // Привязка сессии к полосе.
+    private static final class Affinity {
+        volatile int lane;
+        // Сообщений сессии в очереди полосы или в обработке.
+        final AtomicInteger inFlight = new AtomicInteger(0);
+
+        Affinity(int lane) {
+            this.lane = lane;
+        }
+    }
+
+    private static final class LaneTask {
+        final IMessage message;
+        final boolean input;
+        final Affinity affinity;
+
+        LaneTask(IMessage message, boolean input, Affinity affinity) {
+            this.message = message;
+            this.input = input;
+            this.affinity = affinity;
+        }
+    }
+
+    // Однопоточный обработчик со своей очередью.
+    private final class Lane implements IMessageHandler<LaneTask> {
+        final int index;
+        final ConcurrentMessageProcessor<LaneTask> processor;
+        // Сколько сессий привязано к полосе.
+        final AtomicInteger sessions = new AtomicInteger(0);
+
+        Lane(int index) {
+            this.index = index;
+            this.processor = new ConcurrentMessageProcessor<>(
+                    1,
+                    config.getInputQueueSize(),
+                    config.getInputQueueTimeoutSeconds() * 1000,
+                    this,
+                    config.getWaitStrategy());
+        }
+
+        @Override
+        public void handle(LaneTask task) {
+            currentLane.set(this);
+            try {
+                if (task.input) {
+                    handleInputMessage(task.message);
+                } else {
+                    checkDrained();
+                    config.getMessageProcessor().processOutputMessage(task.message);
+                }
+            } finally {
+                task.affinity.inFlight.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void onReject(LaneTask task) {
+            task.affinity.inFlight.decrementAndGet();
+            if (task.input) {
+                rejectInputMessage(task.message);
+            } else {
+                config.getMessageProcessor().onOutputMessageReject(task.message);
+            }
+        }
+
+        @Override
+        public void onError(LaneTask task, Exception cause) {
+            if (task.input) {
+                task.message.setEndDeliveryTime(System.currentTimeMillis());
+                config.getMessageProcessor().onInputMessageError(task.message, cause);
+            } else {
+                config.getMessageProcessor().onOutputMessageError(task.message, cause);
+            }
+        }
+
+        @Override
+        public void onError(Exception cause) {
+            config.getMessageProcessor().onInputMessageError(cause);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.borunovv.core.server.nio.core.service;
+
+import com.borunovv.core.util.Assert;
+import org.apache.http.annotation.ThreadSafe;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Альтернатива ConcurrentMessageProcessor без общей очереди: ForkJoinPool в async (FIFO) режиме.
+ * Задачи извне пула (из реакторов) попадают в очередь, закрепленную за добавляющим потоком,
+ * задачи из рабочего потока (например, ответ из обработчика запроса) - в его собственную очередь.
+ * Свободные рабочие потоки воруют задачи из чужих очередей, так что добавляющие и разбирающие
+ * не толкаются на одной голове/хвосте.
+ * <p>
+ * Ограничение на кол-во ожидающих задач ведем семафором: место занимается при добавлении
+ * и освобождается, когда задача начала выполняться.
+ * Обработчики, которые надолго блокируются (БД), занимают рабочий поток так же, как в обычном пуле.
+ */
+@ThreadSafe
+public class WorkStealingMessageProcessor<T> implements ITaskProcessor<T> {
+
+    private final int workerThreadsCount;
+    private final int taskQueueLimit;
+    private final long queueAddTaskWaitTimeoutMs;
+    private final IMessageHandler<T> messageHandler;
+
+    private volatile ForkJoinPool pool;
+    // Свободные места в очереди.
+    private final Semaphore freeSlots;
+    private final AtomicInteger activeTasks = new AtomicInteger(0);
+
+    public WorkStealingMessageProcessor(int workerThreadsCount,
+                                        int taskQueueLimit,
+                                        long queueAddTaskWaitTimeoutMs,
+                                        IMessageHandler<T> messageHandler) {
+        Assert.isTrue(workerThreadsCount > 0, "workerThreadsCount must be > 0");
+        Assert.isTrue(taskQueueLimit > 0, "taskQueueLimit must be > 0");
+        Assert.isTrue(queueAddTaskWaitTimeoutMs > 0, "queueAddTaskWaitTimeoutMs must be > 0");
+        Assert.isTrue(messageHandler != null, "messageHandler is null");
+
+        this.workerThreadsCount = workerThreadsCount;
+        this.taskQueueLimit = taskQueueLimit;
+        this.queueAddTaskWaitTimeoutMs = queueAddTaskWaitTimeoutMs;
+        this.messageHandler = messageHandler;
+        this.freeSlots = new Semaphore(taskQueueLimit);
+    }
+
+    @Override
+    public boolean queue(T task) {
+        Assert.isTrue(task != null, "task is null");
+
+        boolean added = false;
+        try {
+            if (freeSlots.tryAcquire(queueAddTaskWaitTimeoutMs, TimeUnit.MILLISECONDS)) {
+                added = submit(task);
+            }
+        } catch (InterruptedException e) {
+            messageHandler.onError(e);
+            Thread.currentThread().interrupt();
+        }
+
+        if (!added) {
+            messageHandler.onReject(task);
+        }
+        return added;
+    }
+
+    @Override
+    public boolean tryQueue(T task) {
+        Assert.isTrue(task != null, "task is null");
+        return freeSlots.tryAcquire() && submit(task);
+    }
+
+    @Override
+    public void start() {
+        stop();
+        pool = new ForkJoinPool(workerThreadsCount,
+                ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+                null,
+                true); // async mode: локальные очереди - FIFO, как и общая очередь.
+    }
+
+    @Override
+    public void stop() {
+        ForkJoinPool currentPool = pool;
+        if (currentPool != null) {
+            pool = null;
+            // Уже добавленные задачи дорабатываем.
+            currentPool.shutdown();
+            try {
+                while (!currentPool.awaitTermination(10, TimeUnit.MILLISECONDS)) {
+                    // Ждем.
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public int getQueueSize() {
+        return taskQueueLimit - freeSlots.availablePermits();
+    }
+
+    @Override
+    public int getQueueLimit() {
+        return taskQueueLimit;
+    }
+
+    @Override
+    public int getActiveTaskCount() {
+        return activeTasks.get();
+    }
+
+    @Override
+    public int getMaxConcurrentTasks() {
+        return workerThreadsCount;
+    }
+
+    // Место в очереди уже занято.
+    private boolean submit(T task) {
+        ForkJoinPool currentPool = pool;
+        if (currentPool != null) {
+            try {
+                currentPool.execute(() -> process(task));
+                return true;
+            } catch (RejectedExecutionException e) {
+                // Пул останавливается.
+            }
+        }
+        freeSlots.release();
+        return false;
+    }
+
+    private void process(T task) {
+        freeSlots.release();
+        activeTasks.incrementAndGet();
+        try {
+            messageHandler.handle(task);
+        } catch (Exception e) {
+            try {
+                messageHandler.onError(task, e);
+            } catch (Exception e2) {
+                e2.printStackTrace(System.err);
+            }
+        } finally {
+            activeTasks.decrementAndGet();
+        }
+    }
+}
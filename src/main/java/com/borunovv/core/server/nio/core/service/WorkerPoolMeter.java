@@ -0,0 +1,124 @@
+package com.borunovv.core.server.nio.core.service;
+
+import org.apache.http.annotation.ThreadSafe;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Замеры пула рабочих потоков для WorkerPoolSizer: время обработки (общее и последних задач - для p99)
+ * и сколько задач выполняется прямо сейчас. Рабочие потоки отмечают начало и конец задачи,
+ * поток пересчета раз в период снимает замеры за период (decide()).
+ */
+@ThreadSafe
+class WorkerPoolMeter {
+
+    // Сколько последних времен обработки за период держим для p99.
+    private static final int SERVICE_TIME_SAMPLES = 512;
+
+    private final AtomicInteger activeTasks = new AtomicInteger(0);
+    private final LongAdder busyNanos = new LongAdder();
+    private final LongAdder processedTasks = new LongAdder();
+    private final long[] serviceTimeSamples = new long[SERVICE_TIME_SAMPLES];
+    private final AtomicInteger serviceTimeSamplesCount = new AtomicInteger(0);
+
+    // Только в потоке пересчета.
+    private long lastSizingTime;
+    private long lastBusyNanos;
+    private long lastProcessedTasks;
+
+    // Для статистики и лога.
+    private volatile double lastUtilization;
+    private volatile long lastAvgServiceNanos;
+    private volatile long lastP99ServiceNanos;
+    private final LongAdder growsCount = new LongAdder();
+    private final LongAdder shrinksCount = new LongAdder();
+
+    // Начало отсчета первого периода (при старте пула).
+    void reset() {
+        lastSizingTime = System.nanoTime();
+        lastBusyNanos = busyNanos.sum();
+        lastProcessedTasks = processedTasks.sum();
+    }
+
+    // Вернет время начала задачи для onTaskFinished().
+    long onTaskStarted() {
+        activeTasks.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    // Вернет время обработки задачи.
+    long onTaskFinished(long startNanos) {
+        activeTasks.decrementAndGet();
+        long serviceNanos = System.nanoTime() - startNanos;
+        busyNanos.add(serviceNanos);
+        processedTasks.increment();
+        int sample = serviceTimeSamplesCount.getAndIncrement();
+        if (sample < SERVICE_TIME_SAMPLES) {
+            serviceTimeSamples[sample] = serviceNanos;
+        }
+        return serviceNanos;
+    }
+
+    int getActiveTasks() {
+        return activeTasks.get();
+    }
+
+    /**
+     * Замеры за период с прошлого вызова -> решение sizer-а. Вернет нужное кол-во потоков.
+     * Вызывается раз в период из одного потока.
+     */
+    int decide(WorkerPoolSizer sizer, int workers, int queueSize) {
+        long now = System.nanoTime();
+        long busy = busyNanos.sum();
+        long processed = processedTasks.sum();
+        long periodNanos = Math.max(1, now - lastSizingTime);
+        long periodBusy = busy - lastBusyNanos;
+        long periodProcessed = processed - lastProcessedTasks;
+        lastSizingTime = now;
+        lastBusyNanos = busy;
+        lastProcessedTasks = processed;
+
+        // Долгие задачи попадают в busyNanos только по завершении, поэтому учитываем и занятые прямо сейчас.
+        double utilization = Math.max(
+                Math.min(1.0, (double) periodBusy / periodNanos / workers),
+                (double) activeTasks.get() / workers);
+        long avgServiceNanos = periodProcessed > 0 ? periodBusy / periodProcessed : 0;
+        long p99ServiceNanos = takeP99ServiceNanos();
+
+        lastUtilization = utilization;
+        lastAvgServiceNanos = avgServiceNanos;
+        lastP99ServiceNanos = p99ServiceNanos;
+
+        int newWorkers = sizer.decide(workers, queueSize, utilization, avgServiceNanos, p99ServiceNanos);
+        if (newWorkers > workers) {
+            growsCount.increment();
+        } else if (newWorkers < workers) {
+            shrinksCount.increment();
+        }
+        return newWorkers;
+    }
+
+    // Для лога пересчета: "utilization: .., service avg/p99: .."
+    String getLastMeasures() {
+        return String.format("utilization: %.0f%%, service avg/p99: %.2f/%.2f ms",
+                lastUtilization * 100, lastAvgServiceNanos / 1e6, lastP99ServiceNanos / 1e6);
+    }
+
+    String getStats(int liveWorkers, WorkerPoolSizer sizer) {
+        return String.format("workers: %d [%d..%d], utilization: %.0f%%, service p99: %.2f ms, resized: +%d/-%d",
+                liveWorkers, sizer.getMinWorkers(), sizer.getMaxWorkers(),
+                lastUtilization * 100, lastP99ServiceNanos / 1e6, growsCount.sum(), shrinksCount.sum());
+    }
+
+    private long takeP99ServiceNanos() {
+        int count = Math.min(serviceTimeSamplesCount.getAndSet(0), SERVICE_TIME_SAMPLES);
+        if (count == 0) {
+            return 0;
+        }
+        long[] samples = Arrays.copyOf(serviceTimeSamples, count);
+        Arrays.sort(samples);
+        return samples[Math.min(count - 1, (int) Math.ceil(count * 0.99) - 1)];
+    }
+}
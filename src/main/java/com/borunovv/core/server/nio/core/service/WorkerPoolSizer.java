@@ -0,0 +1,72 @@
+package com.borunovv.core.server.nio.core.service;
+
+import com.borunovv.core.util.Assert;
+
+/**
+ * Решает, сколько рабочих потоков нужно пулу, по замерам за очередной период:
+ * глубина очереди, загрузка потоков (доля времени в обработке) и время обработки задачи (среднее и p99).
+ * <p>
+ * Растем, если потоки заняты (загрузка >= GROW_UTILIZATION) и очередь копится: в ней не меньше задач,
+ * чем потоков, или ожидаемое ожидание в очереди больше p99 времени обработки.
+ * Сжимаемся по одному потоку, если очередь пуста, а загрузка < SHRINK_UTILIZATION.
+ * Гистерезис: разные пороги на рост и сжатие, и условие должно держаться несколько периодов подряд
+ * (на рост - меньше, чтобы быстро реагировать на нагрузку; на сжатие - больше, чтобы не дергаться).
+ */
+public class WorkerPoolSizer {
+
+    static final double GROW_UTILIZATION = 0.85;
+    static final double SHRINK_UTILIZATION = 0.3;
+    static final int GROW_AFTER_PERIODS = 2;
+    static final int SHRINK_AFTER_PERIODS = 10;
+
+    private final int minWorkers;
+    private final int maxWorkers;
+
+    // Сколько периодов подряд держится условие роста/сжатия.
+    private int growPeriods = 0;
+    private int shrinkPeriods = 0;
+
+    public WorkerPoolSizer(int minWorkers, int maxWorkers) {
+        Assert.isTrue(minWorkers > 0, "minWorkers must be > 0");
+        Assert.isTrue(maxWorkers >= minWorkers, "maxWorkers must be >= minWorkers");
+        this.minWorkers = minWorkers;
+        this.maxWorkers = maxWorkers;
+    }
+
+    /**
+     * Вернет нужное кол-во потоков (workers - если менять не надо). Вызывается из одного потока.
+     */
+    public int decide(int workers, int queueSize, double utilization, long avgServiceNanos, long p99ServiceNanos) {
+        long expectedQueueWaitNanos = workers > 0 ?
+                queueSize * avgServiceNanos / workers :
+                0;
+        boolean backlog = queueSize > 0
+                && (queueSize >= workers || expectedQueueWaitNanos > p99ServiceNanos);
+
+        if (utilization >= GROW_UTILIZATION && backlog) {
+            shrinkPeriods = 0;
+            if (++growPeriods >= GROW_AFTER_PERIODS && workers < maxWorkers) {
+                growPeriods = 0;
+                return Math.min(maxWorkers, workers + Math.max(1, workers / 2));
+            }
+        } else if (utilization < SHRINK_UTILIZATION && queueSize == 0) {
+            growPeriods = 0;
+            if (++shrinkPeriods >= SHRINK_AFTER_PERIODS && workers > minWorkers) {
+                shrinkPeriods = 0;
+                return workers - 1;
+            }
+        } else {
+            growPeriods = 0;
+            shrinkPeriods = 0;
+        }
+        return Math.max(minWorkers, Math.min(maxWorkers, workers));
+    }
+
+    public int getMinWorkers() {
+        return minWorkers;
+    }
+
+    public int getMaxWorkers() {
+        return maxWorkers;
+    }
+}
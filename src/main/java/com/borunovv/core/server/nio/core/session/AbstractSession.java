@@ -1,10 +1,17 @@
 package com.borunovv.core.server.nio.core.session;
 
 import com.borunovv.core.log.Loggable;
+import com.borunovv.core.server.nio.core.buffer.PacketBuffer;
 import com.borunovv.core.server.nio.core.protocol.IDeliveryCallback;
 import com.borunovv.core.server.nio.core.protocol.IMessage;
 import com.borunovv.core.server.nio.core.protocol.IMessageProtocol;
+import com.borunovv.core.server.nio.core.protocol.IPacketParser;
 import com.borunovv.core.server.nio.core.service.IMessageDispatcher;
+import com.borunovv.core.server.nio.core.service.IReactor;
+import com.borunovv.core.server.nio.core.service.MemoryBudget;
+import com.borunovv.core.server.nio.core.service.ReactorStats;
+import com.borunovv.core.server.nio.core.service.RequestRateLimiter;
+import com.borunovv.core.server.nio.core.util.CountedConcurrentQueue;
 import com.borunovv.core.util.Assert;
 import com.borunovv.core.util.IOUtils;
 
@@ -13,15 +20,22 @@ import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
 import java.util.Arrays;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 public abstract class AbstractSession extends Loggable implements ISession {
 
     private static final int MAX_INPUT_MESSAGE_QUEUE_SIZE = 2000;
+    // С такой очереди последовательных запросов клиента перестаем читать, пока она не разойдется.
+    private static final int INPUT_MESSAGE_QUEUE_PAUSE_SIZE = MAX_INPUT_MESSAGE_QUEUE_SIZE / 5;
     private static final long MAX_INPUT_MSG_PROCESS_TIME_BEFORE_IGNORE_SEQUENTIAL = 5000;
     private static final long BYTE_RATE_MEASURE_PERIOD_MS = 5000;
+    // Как часто сессия, приостановленная из-за бюджета памяти, проверяет, не освободился ли он.
+    // (О разгрузке диспетчера и своей очереди в нем сессия узнает по сигналам.)
+    private static final long MEMORY_PAUSE_CHECK_INTERVAL_MS = 5;
 
     private SocketAddress clientRemoteAddress = null;
     private long lastClientActivityTime = 0;
@@ -29,15 +43,33 @@ public abstract class AbstractSession extends Loggable implements ISession {
     private volatile boolean closeRequested = false;
     private volatile boolean sessionClosed = false;
     private volatile String closeReason = null;
+    // Закрыть, как только уйдет очередь на отправку (ответ на отвергнутый запрос). Только в потоке реактора.
+    private boolean closeAfterOutput = false;
 
     private SessionReader sessionReader = new SessionReader(this);
-    private SessionWriter sessionWriter = new SessionWriter(this);
+    private final SessionWriter sessionWriter;
 
     private final SessionContext context = new SessionContext();
 
-    private final ConcurrentLinkedQueue<IMessage> inputMessages = new ConcurrentLinkedQueue<>();
+    private final CountedConcurrentQueue<IMessage> inputMessages = new CountedConcurrentQueue<>();
     private long lastTimeSequentialRequestStartedToProcess = 0;
-    private volatile int maxInputQueueSize;
+    // Сообщения, не влезшие в очередь диспетчера. Реактор не ждет места (блокировать его нельзя),
+    // а придерживает их тут, перестает читать клиента и досылает на heartbeat.
+    private final CountedConcurrentQueue<IMessage> pendingInputMessages = new CountedConcurrentQueue<>();
+    // Сколько входящих сессии сейчас в очереди диспетчера (ведет диспетчер).
+    private final AtomicInteger dispatcherQueueSize = new AtomicInteger(0);
+    // Ждем сигнала о разгрузке диспетчера (IMessageDispatcher.notifyWhenDrained()), чтобы дослать придержанное.
+    private final AtomicBoolean waitingDispatcherDrain = new AtomicBoolean(false);
+    // Сообщения сверх лимита частоты запросов (RequestRateLimiter): ждут токена, а чтение клиента на это
+    // время приостановлено. Только в потоке реактора.
+    private final ArrayDeque<IMessage> throttledInputMessages = new ArrayDeque<>();
+    private long throttledUntilTime = 0;
+    // Состояние паузы чтения меняется только в потоке реактора.
+    private volatile boolean readPaused = false;
+    private long readPauseStartTime = 0;
+
+    // Счет сессии в общем бюджете памяти под буферы (null - без бюджета).
+    private volatile MemoryBudget.Account memoryAccount;
 
     private volatile long totalBytesRead = 0;
     private volatile long totalBytesWritten = 0;
@@ -54,7 +86,15 @@ public abstract class AbstractSession extends Loggable implements ISession {
 
     private IMessageDispatcher messageDispatcher;
     private IMessageProtocol messageProtocol;
+    private final IPacketParser packetParser;
     private final boolean sequentialConsistent;
+    private final SessionConfig sessionConfig;
+
+    // Реактор, в селекторе которого зарегистрирован клиент.
+    private volatile SelectionKey selectionKey;
+    private volatile IReactor reactor;
+    private volatile ReactorStats stats;
+    private final AtomicBoolean updateRequested = new AtomicBoolean(false);
 
     private enum SequentialState {READY, WAITING_RESPONSE}
     private final AtomicReference<SequentialState> sequentialState = new AtomicReference<>(SequentialState.READY);
@@ -63,13 +103,24 @@ public abstract class AbstractSession extends Loggable implements ISession {
     protected AbstractSession(IMessageDispatcher messageDispatcher,
                               IMessageProtocol messageProtocol,
                               boolean sequentialConsistent) {
+        this(messageDispatcher, messageProtocol, sequentialConsistent, new SessionConfig());
+    }
+
+    protected AbstractSession(IMessageDispatcher messageDispatcher,
+                              IMessageProtocol messageProtocol,
+                              boolean sequentialConsistent,
+                              SessionConfig sessionConfig) {
 
         Assert.isTrue(messageDispatcher != null, "messageDispatcher is null");
         Assert.isTrue(messageProtocol != null, "messageProtocol is null");
+        Assert.isTrue(sessionConfig != null, "sessionConfig is null");
 
         this.messageDispatcher = messageDispatcher;
         this.messageProtocol = messageProtocol;
+        this.packetParser = messageProtocol.createPacketParser();
         this.sequentialConsistent = sequentialConsistent;
+        this.sessionConfig = sessionConfig;
+        this.sessionWriter = new SessionWriter(this, sessionConfig.getWriteBatchSize());
     }
 
     protected abstract void onClientConnected(SocketChannel client);
@@ -87,26 +138,54 @@ public abstract class AbstractSession extends Loggable implements ISession {
     @Override
     public int init(SocketChannel client) {
         clientRemoteAddress = client.socket().getRemoteSocketAddress();
+        MemoryBudget memoryBudget = sessionConfig.getMemoryBudget();
+        if (memoryBudget != null) {
+            memoryAccount = memoryBudget.openAccount(String.valueOf(clientRemoteAddress));
+            sessionReader.setMemoryAccount(memoryAccount);
+            sessionWriter.setMemoryAccount(memoryAccount);
+        }
         updateLastClientActivityTime();
         onClientConnected(client);
         messageDispatcher.queueSessionEvent(SessionEvent.makeClientConnected(this));
         return getSelectionKeyFlags();
     }
 
+    @Override
+    public void onRegistered(SelectionKey key, IReactor reactor) {
+        this.selectionKey = key;
+        this.reactor = reactor;
+        this.stats = reactor.getStats();
+        sessionWriter.setStats(stats);
+        sessionReader.setBufferPool(reactor.getBufferPool());
+    }
+
     @Override
     public void close(String reason) {
-        closeRequested = true;
         closeReason = reason;
+        closeRequested = true;
+        requestUpdate();
     }
 
     @Override
     public void close(SelectionKey key, String reason) {
+        key.cancel();
+        close((SocketChannel) key.channel(), reason);
+    }
+
+    @Override
+    public void close(SocketChannel client, String reason) {
         sessionClosed = true;
-        onClientDisconnected((SocketChannel) key.channel());
+        onClientDisconnected(client);
         messageDispatcher.queueSessionEvent(SessionEvent.makeClientDisconnected(this, reason));
 
-        key.cancel();
-        IOUtils.close(key.channel());
+        IOUtils.close(client);
+        sessionReader.close();
+        releaseInputMessages();
+        resumeReading();
+        // Неотправленные ответы и недоразобранные запросы списываются разом.
+        if (memoryAccount != null) {
+            memoryAccount.close();
+        }
         logger.trace("Session: Client closed: " + getClientRemoteAddress() + ". Reason: " + reason);
 
         closeRequested = true;
@@ -132,6 +211,11 @@ public abstract class AbstractSession extends Loggable implements ISession {
         return messageProtocol;
     }
 
+    @Override
+    public IPacketParser getPacketParser() {
+        return packetParser;
+    }
+
     @Override
     public void onPacketStart(SelectionKey selectionKey) {
         lastPacketStartReadTime = System.currentTimeMillis();
@@ -139,29 +223,99 @@ public abstract class AbstractSession extends Loggable implements ISession {
     }
 
     @Override
-    public void onPacketFinish(SelectionKey key, byte[] data, int len) {
+    public void onPacketFinish(SelectionKey key, PacketBuffer packet) {
+        int len = packet.getLength();
         long currentTime = System.currentTimeMillis();
         logger.trace("Session: Finish read request from client: " + getClientRemoteAddress()
                 + ", " + len + " bytes. Time reading: " + (currentTime - lastPacketStartReadTime) + " ms");
 
+        IMessage msg = null;
         try {
-            // Парсим.
-            IMessage msg = getProtocol().unmarshall(this, data, len);
+            // Парсим. Буфер пакета теперь принадлежит сообщению (освобождается в IMessage.release()).
+            msg = packetParser.unmarshall(this, packet);
             msg.setDeliverySizeInBytes(len);
             msg.setEndDeliveryTime(currentTime);
             msg.setStartDeliveryTime(lastPacketStartReadTime);
 
             if (onMessageCome(msg)) {
-                queueInputMessage(msg);
+                admitInputMessage(msg);
+            } else {
+                msg.release();
             }
         } catch (Exception e) {
-            notifyError("Failed to parse packet. Data:\n" + Arrays.toString(Arrays.copyOf(data, len)), e);
+            String data = packet.isReleased() ?
+                    "<released>" :
+                    Arrays.toString(toByteArray(packet.getData()));
+            if (msg != null) {
+                msg.release();
+            }
+            packet.release();
+            notifyError("Failed to parse packet. Data:\n" + data, e);
+        }
+    }
+
+    @Override
+    public void onPacketRejected(SelectionKey key, boolean tooLarge) {
+        String reason = tooLarge ? "request is too large" : "not enough memory for request";
+        logger.trace("Session: Request rejected (" + reason + "): " + getClientRemoteAddress());
+        MemoryBudget.Account account = memoryAccount;
+        if (account != null) {
+            account.getBudget().onPacketRejected();
+        }
+
+        IMessage reply = packetParser.rejectPacket(this, tooLarge);
+        if (reply != null && queueMessageToClient(reply)) {
+            closeAfterOutput = true;
+            closeReason = "Closed by server: " + reason;
+        } else {
+            if (reply != null) {
+                reply.release();
+            }
+            close("Closed by server: " + reason);
         }
     }
 
+    // Лимит частоты запросов: сообщение сверх лимита ждет токена, следующие - за ним (порядок сохраняется).
+    // Вызывается в потоке реактора.
+    private void admitInputMessage(IMessage msg) {
+        if (throttledInputMessages.isEmpty() && tryAcquireRequestToken(msg)) {
+            queueInputMessage(msg);
+        } else {
+            throttledInputMessages.add(msg);
+            updateReadPause();
+        }
+    }
+
+    private boolean tryAcquireRequestToken(IMessage msg) {
+        RequestRateLimiter limiter = sessionConfig.getRequestRateLimiter();
+        if (limiter == null) {
+            return true;
+        }
+        long now = currentTimeMillis();
+        long waitMs = limiter.tryAcquire(msg, now);
+        if (waitMs > 0) {
+            throttledUntilTime = now + waitMs;
+            return false;
+        }
+        return true;
+    }
+
+    // Пропускает придержанные лимитом частоты сообщения, на которые появились токены. Только в потоке реактора.
+    private void retryThrottledInputMessages() {
+        IMessage msg;
+        while ((msg = throttledInputMessages.peek()) != null
+                && currentTimeMillis() >= throttledUntilTime
+                && tryAcquireRequestToken(msg)) {
+            throttledInputMessages.poll();
+            queueInputMessage(msg);
+        }
+    }
+
+    // Вызывается в потоке реактора.
     private void queueInputMessage(IMessage msg) {
         if (!sequentialConsistent) {
-            messageDispatcher.queueInputMessage(msg);
+            startProcessInputMessage(msg);
+            updateReadPause();
             return;
         }
 
@@ -171,15 +325,10 @@ public abstract class AbstractSession extends Loggable implements ISession {
                 startProcessInputMessage(msg);
             } else {
                 inputMessages.add(msg);
-                maxInputQueueSize = Math.max(maxInputQueueSize, inputMessages.size());
                 startProcessInputMessage(inputMessages.poll());
             }
         } else {
             inputMessages.add(msg);
-            maxInputQueueSize = Math.max(maxInputQueueSize, inputMessages.size());
-            if (inputMessages.size() > MAX_INPUT_MESSAGE_QUEUE_SIZE / 5) {
-                setSlowDownFactor((float) inputMessages.size() / MAX_INPUT_MESSAGE_QUEUE_SIZE);
-            }
 
             boolean waitingRequestTooLong = System.currentTimeMillis() - lastTimeSequentialRequestStartedToProcess >
                     MAX_INPUT_MSG_PROCESS_TIME_BEFORE_IGNORE_SEQUENTIAL;
@@ -187,14 +336,102 @@ public abstract class AbstractSession extends Loggable implements ISession {
             if (waitingRequestTooLong) {
                 startProcessInputMessage(inputMessages.poll());
                 logger.warn("Session: WARNING!!! Sequential: ignored because of process msg timeout");
+            } else {
+                // Ответ на предыдущий запрос мог прийти, пока мы клали в очередь.
+                startNextSequentialMessageIfReady();
             }
         }
+        updateReadPause();
     }
 
+    // Вернет true, если захватили состояние и отправили в обработку следующее сообщение.
+    private boolean startNextSequentialMessageIfReady() {
+        if (sequentialState.compareAndSet(SequentialState.READY, SequentialState.WAITING_RESPONSE)) {
+            IMessage msg = inputMessages.poll();
+            if (msg != null) {
+                startProcessInputMessage(msg);
+                return true;
+            } else {
+                sequentialState.set(SequentialState.READY);
+            }
+        }
+        return false;
+    }
+
+    // Вызывается из любого потока, никогда не ждет места в очереди диспетчера.
     private void startProcessInputMessage(IMessage msg) {
         if (msg != null) {
-            messageDispatcher.queueInputMessage(msg);
             lastTimeSequentialRequestStartedToProcess = System.currentTimeMillis();
+            // Придержанные раньше уходят первыми.
+            if (!pendingInputMessages.isEmpty() || !messageDispatcher.tryQueueInputMessage(msg)) {
+                pendingInputMessages.add(msg);
+                // Реактор дошлет и приостановит чтение.
+                requestUpdate();
+            }
+        }
+    }
+
+    // Досылает придержанные сообщения, пока диспетчер их принимает. Только в потоке реактора.
+    private void retryPendingInputMessages() {
+        IMessage msg;
+        while ((msg = pendingInputMessages.peek()) != null && messageDispatcher.tryQueueInputMessage(msg)) {
+            pendingInputMessages.poll();
+        }
+    }
+
+    // Снимает/возвращает чтение из клиента по состоянию диспетчера и лимиту частоты. Только в потоке реактора.
+    private void updateReadPause() {
+        boolean needPause = isOverloaded() || !throttledInputMessages.isEmpty();
+        if (needPause) {
+            if (!readPaused) {
+                readPaused = true;
+                readPauseStartTime = System.currentTimeMillis();
+                if (isOverMemoryBudget()) {
+                    memoryAccount.getBudget().onReadPaused();
+                }
+                ReactorStats currentStats = stats;
+                if (currentStats != null) {
+                    currentStats.onReadPaused();
+                }
+            }
+            // Клиент не виноват, что мы его не читаем. Кроме крупного потребителя памяти: если бюджет так
+            // и не освободится, он закроется по неактивности и вернет свои буферы.
+            if (!isOverMemoryBudget()) {
+                updateLastClientActivityTime();
+            }
+            if (!pendingInputMessages.isEmpty() && waitingDispatcherDrain.compareAndSet(false, true)) {
+                messageDispatcher.notifyWhenDrained(() -> {
+                    waitingDispatcherDrain.set(false);
+                    requestUpdate();
+                });
+            }
+        } else {
+            resumeReading();
+        }
+    }
+
+    // Не успеваем обрабатывать запросы клиента: не влезли в очередь диспетчера, или он перегружен и у нас
+    // в его очереди не меньше своей доли, или растет своя последовательная очередь, или сессия - из крупнейших
+    // потребителей памяти, когда общий бюджет превышен. Сессии, не нагружающие диспетчер, читаются дальше.
+    private boolean isOverloaded() {
+        return !pendingInputMessages.isEmpty()
+                || messageDispatcher.isSaturatedBy(this)
+                || (sequentialConsistent && inputMessages.size() >= INPUT_MESSAGE_QUEUE_PAUSE_SIZE)
+                || isOverMemoryBudget();
+    }
+
+    private boolean isOverMemoryBudget() {
+        MemoryBudget.Account account = memoryAccount;
+        return account != null && account.isOverBudget();
+    }
+
+    private void resumeReading() {
+        if (readPaused) {
+            readPaused = false;
+            ReactorStats currentStats = stats;
+            if (currentStats != null) {
+                currentStats.onReadResumed(System.currentTimeMillis() - readPauseStartTime);
+            }
         }
     }
 
@@ -265,33 +502,66 @@ public abstract class AbstractSession extends Loggable implements ISession {
     }
 
     @Override
-    public void onHeartBit(SelectionKey selectionKey) {
+    public long onHeartBit(SelectionKey selectionKey) {
+        updateRequested.set(false);
+
         if (closeRequested) {
             close(selectionKey, closeReason);
-        } else if (checkClientInactivity(selectionKey)) {
-            sessionReader.onHeartBit(selectionKey);
-            selectionKey.interestOps(getSelectionKeyFlags());
+            return -1;
+        }
+        if (closeAfterOutput && sessionWriter.getMsgQueueSize() == 0) {
+            close(selectionKey, closeReason);
+            return -1;
+        }
+        if (!checkClientInactivity(selectionKey)) {
+            return -1;
+        }
+
+        // Обратное давление: досылаем придержанное и решаем, читать ли клиента.
+        retryPendingInputMessages();
+        retryThrottledInputMessages();
+        updateReadPause();
+
+        sessionReader.onHeartBit(selectionKey);
+        if (!selectionKey.isValid()) {
+            return -1;
+        }
+        selectionKey.interestOps(getSelectionKeyFlags());
+
+        // Ближайший срок: неактивность клиента..
+        long nextHeartBitDelay = getInactivityTimeoutMs() - getInactivityTimeMs();
+
+        // ..пауза чтения: ждем освобождения бюджета памяти..
+        if (readPaused && isOverMemoryBudget()) {
+            nextHeartBitDelay = Math.min(nextHeartBitDelay, MEMORY_PAUSE_CHECK_INTERVAL_MS);
+        }
+
+        // ..или токена для придержанного запроса..
+        if (!throttledInputMessages.isEmpty()) {
+            nextHeartBitDelay = Math.min(nextHeartBitDelay, throttledUntilTime - currentTimeMillis());
         }
 
+        // ..и таймаут последовательной обработки.
         if (sequentialConsistent && !inputMessages.isEmpty()) {
-            if (sequentialState.compareAndSet(SequentialState.READY, SequentialState.WAITING_RESPONSE)) {
-                IMessage msg = inputMessages.poll();
-                if (msg != null) {
-                    startProcessInputMessage(msg);
-                } else {
-                    sequentialState.set(SequentialState.READY);
-                }
-            } else {
-                boolean waitingResponseTooLong =
-                        System.currentTimeMillis() - lastTimeSequentialRequestStartedToProcess >
-                                MAX_INPUT_MSG_PROCESS_TIME_BEFORE_IGNORE_SEQUENTIAL;
+            nextHeartBitDelay = Math.min(nextHeartBitDelay, processSequentialQueue());
+        }
 
-                if (waitingResponseTooLong) {
-                    startProcessInputMessage(inputMessages.poll());
-                    logger.warn("Session: Sequential problem: wait too long for response");
-                }
-            }
+        return Math.max(0, nextHeartBitDelay);
+    }
+
+    // Вернет через сколько мс истечет таймаут ожидания ответа на текущий последовательный запрос.
+    private long processSequentialQueue() {
+        if (startNextSequentialMessageIfReady()) {
+            return MAX_INPUT_MSG_PROCESS_TIME_BEFORE_IGNORE_SEQUENTIAL;
+        }
+
+        long waitingResponseTime = System.currentTimeMillis() - lastTimeSequentialRequestStartedToProcess;
+        if (waitingResponseTime > MAX_INPUT_MSG_PROCESS_TIME_BEFORE_IGNORE_SEQUENTIAL) {
+            startProcessInputMessage(inputMessages.poll());
+            logger.warn("Session: Sequential problem: wait too long for response");
+            return MAX_INPUT_MSG_PROCESS_TIME_BEFORE_IGNORE_SEQUENTIAL;
         }
+        return MAX_INPUT_MSG_PROCESS_TIME_BEFORE_IGNORE_SEQUENTIAL - waitingResponseTime;
     }
 
     @Override
@@ -312,6 +582,10 @@ public abstract class AbstractSession extends Loggable implements ISession {
             isSuccess = sessionWriter.queuePacket(ByteBuffer.wrap(rawData), msg);
             if (isSuccess) {
                 logger.trace("Session: Queued packet to client. Size: " + rawData.length);
+                if (!tryWriteDirectly()) {
+                    // Реактор должен выставить OP_WRITE.
+                    requestUpdate();
+                }
             }
 
         }
@@ -320,8 +594,16 @@ public abstract class AbstractSession extends Loggable implements ISession {
             IMessage nextMsg = inputMessages.poll();
             if (nextMsg != null) {
                 startProcessInputMessage(nextMsg);
+                if (readPaused) {
+                    // Последовательная очередь убывает - реактор решит, пора ли снова читать.
+                    requestUpdate();
+                }
             } else {
                 sequentialState.set(SequentialState.READY);
+                if (!inputMessages.isEmpty()) {
+                    // Реактор успел положить сообщение, пока мы меняли состояние.
+                    requestUpdate();
+                }
             }
         }
 
@@ -355,7 +637,7 @@ public abstract class AbstractSession extends Loggable implements ISession {
         return inputMessages.size();
     }
     public int getMaxInputQueueSize() {
-        return maxInputQueueSize;
+        return inputMessages.getHighWaterMark();
     }
 
     @Override
@@ -364,13 +646,28 @@ public abstract class AbstractSession extends Loggable implements ISession {
     }
 
     @Override
-    public void setSlowDownFactor(float factor) {
-        sessionReader.setSlowDawnFactor(factor);
+    public int onInputMessageQueued() {
+        return dispatcherQueueSize.incrementAndGet();
+    }
+
+    @Override
+    public int onInputMessageDequeued() {
+        int size = dispatcherQueueSize.decrementAndGet();
+        if (readPaused) {
+            // Наша доля в очереди диспетчера уменьшилась - реактор решит, пора ли снова читать.
+            requestUpdate();
+        }
+        return size;
+    }
+
+    @Override
+    public int getDispatcherQueueSize() {
+        return dispatcherQueueSize.get();
     }
 
     @Override
-    public float getSlowDownFactor() {
-        return sessionReader.getSlowDownFactor();
+    public boolean isReadPaused() {
+        return readPaused;
     }
 
     protected void notifyError(String errorMsg, Exception e) {
@@ -421,13 +718,67 @@ public abstract class AbstractSession extends Loggable implements ISession {
         }
     }
 
+    // Необработанные запросы закрытой сессии уже никому не нужны - отдаем их буферы.
+    private void releaseInputMessages() {
+        IMessage msg;
+        while ((msg = inputMessages.poll()) != null) {
+            msg.release();
+        }
+        while ((msg = pendingInputMessages.poll()) != null) {
+            msg.release();
+        }
+        while ((msg = throttledInputMessages.poll()) != null) {
+            msg.release();
+        }
+    }
+
+    private static byte[] toByteArray(ByteBuffer buffer) {
+        byte[] result = new byte[buffer.remaining()];
+        buffer.duplicate().get(result);
+        return result;
+    }
+
+    // Вернет true, если очередь на запись удалось целиком записать прямо из текущего потока.
+    private boolean tryWriteDirectly() {
+        SelectionKey key = selectionKey;
+        if (!sessionConfig.isDirectWrite() || key == null || isClosed()) {
+            return false;
+        }
+
+        try {
+            return sessionWriter.tryWriteDirectly(key, (SocketChannel) key.channel());
+        } catch (IOException e) {
+            close("Closed by server (direct write failed): " + e.getMessage());
+            return true;
+        }
+    }
+
+    // Просит реактор обработать сессию в его потоке. Повторные запросы до обработки схлопываются.
+    private void requestUpdate() {
+        IReactor currentReactor = reactor;
+        SelectionKey key = selectionKey;
+        if (currentReactor != null && key != null && updateRequested.compareAndSet(false, true)) {
+            currentReactor.requestUpdate(key);
+        }
+    }
+
+    private long currentTimeMillis() {
+        IReactor currentReactor = reactor;
+        return currentReactor != null ?
+                currentReactor.currentTimeMillis() :
+                System.currentTimeMillis();
+    }
+
+    private long getInactivityTimeoutMs() {
+        return getProtocol().getInactivityTimeoutSeconds() * 1000L;
+    }
+
     private void updateLastClientActivityTime() {
         lastClientActivityTime = System.currentTimeMillis();
     }
 
     private boolean isClientInaсtivityTimeout() {
-        long inactivityTimeoutMs = getProtocol().getInactivityTimeoutSeconds() * 1000;
-        return getInactivityTimeMs() >= inactivityTimeoutMs;
+        return getInactivityTimeMs() >= getInactivityTimeoutMs();
     }
 
     private boolean checkClientInactivity(SelectionKey selectionKey) {
@@ -2,19 +2,31 @@ package com.borunovv.core.server.nio.core.session;
 
 import com.borunovv.core.server.nio.core.protocol.IMessageProtocol;
 import com.borunovv.core.server.nio.core.service.IMessageDispatcher;
+import com.borunovv.core.util.Assert;
 
 public abstract class AbstractSessionFactory implements ISessionFactory {
 
     private IMessageDispatcher messageDispatcher;
     private IMessageProtocol messageProtocol;
     protected final boolean sequentialConsistent;
+    protected final SessionConfig sessionConfig;
 
     public AbstractSessionFactory(IMessageDispatcher messageDispatcher,
                                   IMessageProtocol messageProtocol,
                                   boolean sequentialConsistent) {
+        this(messageDispatcher, messageProtocol, sequentialConsistent, new SessionConfig());
+    }
+
+    public AbstractSessionFactory(IMessageDispatcher messageDispatcher,
+                                  IMessageProtocol messageProtocol,
+                                  boolean sequentialConsistent,
+                                  SessionConfig sessionConfig) {
+        Assert.isTrue(sessionConfig != null, "sessionConfig is null");
+
         this.messageDispatcher = messageDispatcher;
         this.messageProtocol = messageProtocol;
         this.sequentialConsistent = sequentialConsistent;
+        this.sessionConfig = sessionConfig;
     }
 
     protected abstract ISession createNewSession(IMessageDispatcher messageDispatcher,
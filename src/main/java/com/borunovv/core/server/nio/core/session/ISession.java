@@ -1,8 +1,11 @@
 package com.borunovv.core.server.nio.core.session;
 
+import com.borunovv.core.server.nio.core.buffer.PacketBuffer;
 import com.borunovv.core.server.nio.core.protocol.IMessage;
 import com.borunovv.core.server.nio.core.protocol.IMessageProtocol;
+import com.borunovv.core.server.nio.core.protocol.IPacketParser;
 import com.borunovv.core.server.nio.core.service.IMessageDispatcher;
+import com.borunovv.core.server.nio.core.service.IReactor;
 
 import java.io.IOException;
 import java.net.SocketAddress;
@@ -13,21 +16,31 @@ public interface ISession {
 
     // Вернет флаги для селектора
     int init(SocketChannel client);
+    // Вызывается реактором сразу после регистрации клиента в селекторе.
+    void onRegistered(SelectionKey key, IReactor reactor);
     // Закрывает асинхронно (не сразу, а на heartbit-e)
     void close(String reason);
     // Закрывает синхронно (сразу)
     void close(SelectionKey key, String reason);
+    // Закрывает синхронно клиента, которого после init() не удалось зарегистрировать в селекторе.
+    void close(SocketChannel client, String reason);
     boolean isClosed();
 
     void onPacketStart(SelectionKey key);
-    void onPacketFinish(SelectionKey key, byte[] data, int length);
+    // Пакет передается во владение сессии (она обязана освободить буфер - сама или через сообщение).
+    void onPacketFinish(SelectionKey key, PacketBuffer packet);
+    // Пакет отвергнут до дочитывания: tooLarge - больше максимального размера, иначе - не хватает памяти сервера.
+    // Сессия отвечает клиенту, если протокол умеет, и закрывается.
+    void onPacketRejected(SelectionKey key, boolean tooLarge);
     void onPacketSent(SelectionKey key, Object customDataAssociatedWithPacket, int packetSize);
     void onPacketSentFailed(SelectionKey key, Object customDataAssociatedWithPacket, Throwable cause);
     void onBytesTransferred(long inputBytesCount, long outputBytesCount);
 
     void onCanRead(SelectionKey key, SocketChannel client) throws IOException;
     void onCanWrite(SelectionKey key, SocketChannel client) throws IOException;
-    void onHeartBit(SelectionKey selectionKey);
+    // Вызывается реактором по таймеру сессии, после ввода/вывода и по запросу сессии (IReactor.requestUpdate).
+    // Вернет через сколько мс вызвать снова по таймеру (-1 - не надо, сессия закрыта).
+    long onHeartBit(SelectionKey selectionKey);
 
     SocketAddress getClientRemoteAddress();
 
@@ -36,6 +49,7 @@ public interface ISession {
 
     boolean queueMessageToClient(IMessage msg);
     IMessageProtocol getProtocol();
+    IPacketParser getPacketParser();
     IMessageDispatcher getMessageDispatcher();
 
     ISessionContext getContext();
@@ -48,7 +62,11 @@ public interface ISession {
     int getInputQueueSize();    // Размер очереди сессии на получение.
     int getMaxInputQueueSize(); // Максимальный допустимый размер очереди на получение.
 
-    // Для ограничения частоты входящих запросов.[0..1], 0 - разрешена макс. скорость, 1 - запрет на чтение из клиента.
-    void setSlowDownFactor(float factor);
-    float getSlowDownFactor();
+    // Входящие сессии в очереди диспетчера: он отмечает постановку и выемку (обработка или отказ). Вернут новое кол-во.
+    int onInputMessageQueued();
+    int onInputMessageDequeued();
+    int getDispatcherQueueSize();
+
+    // Чтение из клиента приостановлено (обратное давление: диспетчер перегружен, или лимит частоты запросов).
+    boolean isReadPaused();
 }
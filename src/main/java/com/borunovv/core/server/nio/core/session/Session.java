@@ -14,6 +14,13 @@ public class Session extends AbstractSession {
         super(messageDispatcher, messageProtocol, sequentialConsistent);
     }
 
+    public Session(IMessageDispatcher messageDispatcher,
+                   IMessageProtocol messageProtocol,
+                   boolean sequentialConsistent,
+                   SessionConfig sessionConfig) {
+        super(messageDispatcher, messageProtocol, sequentialConsistent, sessionConfig);
+    }
+
     @Override
     protected void onClientConnected(SocketChannel client) {
         logger.trace("Session: New client connected: " + getClientRemoteAddress());
@@ -0,0 +1,68 @@
+package com.borunovv.core.server.nio.core.session;
+
+import com.borunovv.core.server.nio.core.service.MemoryBudget;
+import com.borunovv.core.server.nio.core.service.RequestRateLimiter;
+import com.borunovv.core.util.Assert;
+
+/**
+ * Настройки ввода/вывода сессии (одинаковые для всех сессий сервера).
+ */
+public class SessionConfig {
+
+    // Писать ответ прямо из потока-обработчика, если сокет свободен (без участия реактора).
+    private boolean directWrite = false;
+
+    // Сколько пакетов из очереди отправлять одним системным вызовом write(ByteBuffer[]).
+    // 1 - по одному пакету за раз.
+    private int writeBatchSize = 1;
+
+    // Лимиты частоты входящих запросов (общие для всех сессий сервера). null - без лимитов.
+    private RequestRateLimiter requestRateLimiter = null;
+
+    // Общий бюджет памяти под буферы сессий сервера. null - без бюджета.
+    private MemoryBudget memoryBudget = null;
+
+    public boolean isDirectWrite() {
+        return directWrite;
+    }
+
+    public SessionConfig setDirectWrite(boolean directWrite) {
+        this.directWrite = directWrite;
+        return this;
+    }
+
+    public int getWriteBatchSize() {
+        return writeBatchSize;
+    }
+
+    public SessionConfig setWriteBatchSize(int writeBatchSize) {
+        Assert.isTrue(writeBatchSize > 0, "Bad writeBatchSize: " + writeBatchSize);
+        this.writeBatchSize = writeBatchSize;
+        return this;
+    }
+
+    public RequestRateLimiter getRequestRateLimiter() {
+        return requestRateLimiter;
+    }
+
+    public SessionConfig setRequestRateLimiter(RequestRateLimiter requestRateLimiter) {
+        this.requestRateLimiter = requestRateLimiter;
+        return this;
+    }
+
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public SessionConfig setMemoryBudget(MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "direct write: " + directWrite + ", write batch size: " + writeBatchSize
+                + ", rate limits: " + (requestRateLimiter != null ? requestRateLimiter.getLimits() : "off")
+                + ", memory budget: " + (memoryBudget != null ? memoryBudget.getMaxBytes() + " bytes" : "off");
+    }
+}
@@ -11,9 +11,16 @@ public class SessionFactory extends AbstractSessionFactory {
         super(messageDispatcher, messageProtocol, sequentialConsistent);
     }
 
+    public SessionFactory(IMessageDispatcher messageDispatcher,
+                          IMessageProtocol messageProtocol,
+                          boolean sequentialConsistent,
+                          SessionConfig sessionConfig) {
+        super(messageDispatcher, messageProtocol, sequentialConsistent, sessionConfig);
+    }
+
     @Override
     protected ISession createNewSession(IMessageDispatcher messageDispatcher,
                                         IMessageProtocol messageProtocol) {
-        return new Session(messageDispatcher, messageProtocol, sequentialConsistent);
+        return new Session(messageDispatcher, messageProtocol, sequentialConsistent, sessionConfig);
     }
 }
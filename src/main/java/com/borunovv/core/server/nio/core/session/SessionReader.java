@@ -1,25 +1,46 @@
 package com.borunovv.core.server.nio.core.session;
 
+import com.borunovv.core.server.nio.core.buffer.ByteBufferPool;
+import com.borunovv.core.server.nio.core.buffer.PacketBuffer;
+import com.borunovv.core.server.nio.core.service.MemoryBudget;
+
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
-import java.util.Random;
 
 public class SessionReader extends SessionIOBase {
 
-    private static final long SLOW_DOWN_FACTOR_FADE_TIME_MS = 5000;
-
     public SessionReader(ISession session) {
         super(session);
     }
     private volatile boolean readingNow = false;
+    // В буфере остались данные, которые не проверили на целый пакет из-за паузы чтения.
+    private boolean uncheckedDataInBuffer = false;
+
+    // Рабочий буфер берется из пула реактора только пока читается пакет, между пакетами его нет.
+    // Дочитанный пакет забирает буфер себе (PacketBuffer), остаток переносится в новый.
+    private ByteBufferPool bufferPool;
+    private ByteBuffer workBuffer = null;
+    // Счет сессии в бюджете памяти: на нем числится рабочий буфер, а потом - буфер пакета. null - без бюджета.
+    private MemoryBudget.Account memoryAccount;
+    // Пакет отвергнут (слишком большой или не хватает памяти) - больше не читаем, сессия закрывается.
+    private boolean rejected = false;
 
-    private volatile float slowDownFactor = 0;
-    private volatile long lastSlowDownFactorChangedTime = 0;
-    private byte[] slowDownBuffer = new byte[1024]; // 1K
+    public void setBufferPool(ByteBufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
 
-    private final Random random = new Random(System.currentTimeMillis());
+    public void setMemoryAccount(MemoryBudget.Account memoryAccount) {
+        this.memoryAccount = memoryAccount;
+    }
+
+    // Вызывается при закрытии сессии (в потоке реактора).
+    public void close() {
+        releaseWorkBuffer();
+        session.getPacketParser().reset();
+        readingNow = false;
+    }
 
     public void onCanRead(SelectionKey key, SocketChannel client) throws IOException {
         doRead(key, client);
@@ -30,7 +51,17 @@ public class SessionReader extends SessionIOBase {
     }
 
     private void doRead(SelectionKey key, SocketChannel client) throws IOException {
-        ByteBuffer buffer = getWorkBuffer();
+        if (rejected) {
+            return;
+        }
+        if (workBuffer == null) {
+            if (client == null) {
+                return;
+            }
+            workBuffer = acquireBuffer(getCommonPacketSize());
+        }
+
+        ByteBuffer buffer = workBuffer;
         boolean bufferWasEmpty = (buffer.position() == 0);
 
         if (bufferWasEmpty && client == null) {
@@ -40,26 +71,7 @@ public class SessionReader extends SessionIOBase {
         int len = 0;
         if (client != null) {
             try {
-                // Для замедления чтения из клиента
-                float curSlowDownFactor = getSlowDownFactor();
-                if (curSlowDownFactor > 0.0f) {
-                    int remaining = buffer.remaining();
-                    int newSize = Math.max(0, (int) ((1.0 - curSlowDownFactor) * slowDownBuffer.length));
-                    if (remaining - newSize >= 10) {
-                        if (newSize > 0) {
-                            ByteBuffer tmp = ByteBuffer.wrap(slowDownBuffer, 0, newSize);
-                            len = client.read(tmp);
-                            if (len > 0) {
-                                buffer.put(slowDownBuffer, 0, len);
-                            }
-                        }
-                    } else {
-                        len = client.read(buffer);
-                    }
-                } else {
-                    len = client.read(buffer);
-                }
-
+                len = client.read(buffer);
                 if (len == -1) {
                     throw new ClientClosedException("Client closed (can't read)");
                 }
@@ -69,6 +81,7 @@ public class SessionReader extends SessionIOBase {
         } else {
             // Нас вызвали на heartbeat
             if (needSkipReading()) {
+                uncheckedDataInBuffer = true;
                 return;
             }
         }
@@ -86,46 +99,63 @@ public class SessionReader extends SessionIOBase {
         if (somethingRed || (!bufferWasEmpty && client == null)) {
             int correctPacketLen = getCorrectPacketLength(buffer);
 
-            if (correctPacketLen > 0) {
-                buffer.flip();  // prepare to read.
-                session.onPacketFinish(key, buffer.array(), correctPacketLen);
-                if (buffer.limit() == correctPacketLen) {
-                    buffer = resetWorkBufferSizeIfNeed();
-                    buffer.clear();
+            while (correctPacketLen > 0) {
+                session.onPacketFinish(key, takePacket(correctPacketLen));
+                if (workBuffer == null) {
                     readingNow = false;
+                    break;
                 } else {
-                    buffer.position(correctPacketLen);
-                    buffer.compact();
-
+                    buffer = workBuffer;
                     readingNow = true;
                     session.onPacketStart(key);
                 }
+
+                // В остатке может уже лежать следующий целый пакет (pipelining) - не ждем heartbeat.
+                if (needSkipReading()) {
+                    uncheckedDataInBuffer = true;
+                    break;
+                }
+                correctPacketLen = getCorrectPacketLength(buffer);
             }
         }
 
-        if (buffer.remaining() == 0) {
+        if (workBuffer == null) {
+            // Все дочитали - буфер отдан последнему пакету.
+            return;
+        }
+        if (!prepareForExpectedPacket(key)) {
+            return;
+        }
+        buffer = workBuffer;
+        if (buffer.position() == 0) {
+            // Ничего не прочитали - буфер пока не нужен.
+            releaseWorkBuffer();
+        } else if (buffer.position() > getMaxPacketSize()) {
+            throw new IOException("Maximal work buffer limit reached (too big packet). Max allowed size: "
+                    + getMaxPacketSize() + " bytes");
+        } else if (buffer.remaining() == 0) {
             enlargeWorkBuffer(buffer.capacity() * 2);
         }
     }
 
     @Override
     public int getSelectionKeyFlags() {
-        return needSkipReading() ?
+        return rejected || needSkipReading() ?
                 0 :
                 SelectionKey.OP_READ;
     }
 
     private boolean needSkipReading() {
-        float skipProbability = getSlowDownFactor();
-        return skipProbability > 0.0f && random.nextFloat() <= skipProbability;
+        return session.isReadPaused();
     }
 
     private int getCorrectPacketLength(ByteBuffer buffer) {
-        return session.getProtocol().checkPacket(buffer);
+        return session.getPacketParser().checkPacket(buffer);
     }
 
     public void onHeartBit(SelectionKey key) {
-        if (isReadingNow()) {
+        if (isReadingNow() && uncheckedDataInBuffer) {
+            uncheckedDataInBuffer = false;
             try {
                 doRead(key, null);
             } catch (IOException e) {
@@ -134,30 +164,109 @@ public class SessionReader extends SessionIOBase {
         }
     }
 
-    public void setSlowDawnFactor(float factor) {
-        slowDownFactor = Math.max(0.0f, Math.min(factor, 1.0f));
-        lastSlowDownFactorChangedTime = System.currentTimeMillis();
+    /**
+     * Увеличивает размер рабочего буфера.
+     * Вызывается серваком, когда пакет от клиента не помещается в рабочий буфер.
+     */
+    private void enlargeWorkBuffer(int preferredSize) throws IOException {
+        if (workBuffer.capacity() >= getMaxPacketSize()) {
+            throw new IOException(
+                    "Maximal work buffer limit reached (too big packet). Max allowed size: "
+                            + getMaxPacketSize() + " bytes");
+        }
+        replaceWorkBuffer(Math.min(preferredSize, getMaxPacketSize()));
     }
 
-    public float getSlowDownFactor() {
-        return fadeSlowDownFactor();
+    /**
+     * Длина пакета уже известна (например, из заголовка): проверяем ее по лимиту размера пакета и бюджету памяти
+     * до чтения тела и сразу выделяем буфер под весь пакет (вместо удвоений по мере чтения).
+     * Вернет false, если пакет отвергнут.
+     */
+    private boolean prepareForExpectedPacket(SelectionKey key) {
+        int expectedLength = session.getPacketParser().getExpectedPacketLength();
+        if (expectedLength <= workBuffer.capacity()) {
+            return true;
+        }
+        if (expectedLength > getMaxPacketSize()) {
+            rejectPacket(key, true);
+            return false;
+        }
+        if (memoryAccount != null
+                && !memoryAccount.getBudget().canAllocate(expectedLength - workBuffer.capacity())) {
+            rejectPacket(key, false);
+            return false;
+        }
+        replaceWorkBuffer(expectedLength);
+        return true;
     }
 
-    private float fadeSlowDownFactor() {
-        if (slowDownFactor == 0.0f) return 0.0f;
+    private void rejectPacket(SelectionKey key, boolean tooLarge) {
+        rejected = true;
+        readingNow = false;
+        releaseWorkBuffer();
+        session.onPacketRejected(key, tooLarge);
+    }
 
-        long deltaTime = System.currentTimeMillis() - lastSlowDownFactorChangedTime;
-        // [0 .. SLOW_DOWN_FACTOR_FADE_TIME_MS]
-        long clampedDeltaTime = Math.max(0, Math.min(deltaTime, SLOW_DOWN_FACTOR_FADE_TIME_MS));
-        // [0..1]
-        float fadePercent = (float) ((double) clampedDeltaTime / SLOW_DOWN_FACTOR_FADE_TIME_MS);
+    // Переносит данные в новый рабочий буфер емкостью не меньше minCapacity.
+    private void replaceWorkBuffer(int minCapacity) {
+        ByteBuffer newBuffer = acquireBuffer(minCapacity);
+        workBuffer.flip();
+        newBuffer.put(workBuffer);
+        releaseBuffer(workBuffer);
+        workBuffer = newBuffer;
+    }
+
+    /**
+     * Отдает рабочий буфер пакету длиной packetLength (без копирования).
+     * Остаток - начало следующего пакета (pipelining) - переносим в новый рабочий буфер.
+     */
+    private PacketBuffer takePacket(int packetLength) {
+        ByteBuffer buffer = workBuffer;
+        int restLength = buffer.position() - packetLength;
+        if (restLength > 0) {
+            ByteBuffer rest = buffer.duplicate();
+            rest.flip();
+            rest.position(packetLength);
+            workBuffer = acquireBuffer(Math.max(restLength, getCommonPacketSize()));
+            workBuffer.put(rest);
+        } else {
+            workBuffer = null;
+        }
+        // Буфер (и его место в бюджете памяти) переходит пакету.
+        return new PacketBuffer(buffer, packetLength, bufferPool, memoryAccount);
+    }
 
-        float curSlowDownFactor = slowDownFactor * (1.0f - fadePercent);
-        if (curSlowDownFactor < 0.00001f) {
-            slowDownFactor = 0.0f;
-            curSlowDownFactor = 0.0f;
+    private void releaseWorkBuffer() {
+        if (workBuffer != null) {
+            releaseBuffer(workBuffer);
+            workBuffer = null;
         }
+    }
+
+    private ByteBuffer acquireBuffer(int minCapacity) {
+        ByteBuffer buffer = bufferPool != null ?
+                bufferPool.acquire(minCapacity) :
+                ByteBuffer.allocate(minCapacity);
+        if (memoryAccount != null) {
+            memoryAccount.charge(buffer.capacity());
+        }
+        return buffer;
+    }
+
+    private void releaseBuffer(ByteBuffer buffer) {
+        if (memoryAccount != null) {
+            memoryAccount.release(buffer.capacity());
+        }
+        if (bufferPool != null) {
+            bufferPool.release(buffer);
+        }
+    }
+
+    private int getMaxPacketSize() {
+        return session.getProtocol().getMaxPacketSize();
+    }
 
-        return curSlowDownFactor;
+    private int getCommonPacketSize() {
+        return session.getProtocol().getCommonPacketSize();
     }
 }
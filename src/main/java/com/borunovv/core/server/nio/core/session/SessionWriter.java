@@ -1,12 +1,17 @@
 package com.borunovv.core.server.nio.core.session;
 
+import com.borunovv.core.server.nio.core.service.MemoryBudget;
+import com.borunovv.core.server.nio.core.service.ReactorStats;
+import com.borunovv.core.server.nio.core.util.CountedConcurrentQueue;
 import com.borunovv.core.util.Assert;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Конечный автомат по асинхронноой записи в сокет.
@@ -17,12 +22,38 @@ public class SessionWriter extends SessionIOBase {
 
     private enum State {Ready, Writing}
 
-    private State state = State.Ready;
-    private final ConcurrentLinkedQueue<BufferWithCustomData> queue = new ConcurrentLinkedQueue<>();
-    private volatile int maxQueueSize = 0;
+    private volatile State state = State.Ready;
+    private final CountedConcurrentQueue<BufferWithCustomData> queue = new CountedConcurrentQueue<>();
+    // Писать может либо реактор, либо поток-обработчик (прямая запись), но не оба сразу.
+    private final AtomicBoolean writeLock = new AtomicBoolean(false);
+    private volatile ReactorStats stats;
+    // Счет сессии в бюджете памяти: на нем числятся пакеты в очереди, пока не отправлены. null - без бюджета.
+    private volatile MemoryBudget.Account memoryAccount;
+
+    // Пишем до maxBatchSize пакетов из головы очереди за раз (одним write(ByteBuffer[]) если их несколько).
+    // Пакеты [batchStart, batchEnd) еще не дописаны, они же лежат в голове очереди.
+    private final int maxBatchSize;
+    private ByteBuffer[] batch;
+    private BufferWithCustomData[] batchPackets;
+    private int batchStart = 0;
+    private int batchEnd = 0;
 
     public SessionWriter(ISession session) {
+        this(session, 1);
+    }
+
+    public SessionWriter(ISession session, int maxBatchSize) {
         super(session);
+        Assert.isTrue(maxBatchSize > 0, "Bad maxBatchSize: " + maxBatchSize);
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public void setStats(ReactorStats stats) {
+        this.stats = stats;
+    }
+
+    public void setMemoryAccount(MemoryBudget.Account memoryAccount) {
+        this.memoryAccount = memoryAccount;
     }
 
     /**
@@ -30,16 +61,16 @@ public class SessionWriter extends SessionIOBase {
      * Вернет true, если удачно поставлен в очередь.
      */
     public boolean queuePacket(ByteBuffer packet, Object customData) {
-        // Тут неатомарная проверка, но не страшно если очередь чуть переполнится
-        // (максимум на кол-во элементов, равному кол-ву конкурирующих потоков).
-        // Зато не надо дорого лочить.
-        if (canQueuePacket()) {
-            queue.add(new BufferWithCustomData(packet, customData));
-            maxQueueSize = Math.max(maxQueueSize, queue.size());
+        Assert.isTrue(packet != null, "packet is null");
+        BufferWithCustomData item = new BufferWithCustomData(packet, customData);
+        // Засчитываем до постановки: иначе реактор может отправить пакет и списать его раньше.
+        charge(item.size);
+        // Место резервируется атомарно в счетчике очереди, так что лимит не превышается.
+        if (queue.offer(item, MAX_QUEUE_SIZE)) {
             return true;
-        } else {
-            return false;
         }
+        release(item.size);
+        return false;
     }
 
     /**
@@ -54,41 +85,166 @@ public class SessionWriter extends SessionIOBase {
      * Вызывается серваком при возможности писать в клиент.
      */
     public void onCanWrite(SelectionKey key, SocketChannel client) throws IOException {
+        if (!writeLock.compareAndSet(false, true)) {
+            // Сейчас пишет поток-обработчик, по окончании он сам попросит реактор, если надо.
+            return;
+        }
+        try {
+            writeNextPortion(key, client);
+        } finally {
+            writeLock.set(false);
+        }
+    }
+
+    /**
+     * Вызывается асинхронно (из потока-обработчика) сразу после queuePacket.
+     * Если сейчас никто не пишет - пишем очередь прямо в сокет (неблокирующе), не дожидаясь реактора.
+     * Вернет true, если все записано и реактору ничего делать не нужно.
+     */
+    public boolean tryWriteDirectly(SelectionKey key, SocketChannel client) throws IOException {
+        if (state != State.Ready || !writeLock.compareAndSet(false, true)) {
+            return false;
+        }
         try {
-            switch (state) {
-                case Ready:
-                    BufferWithCustomData nextPacket = queue.peek();
-
-                    if (nextPacket != null) {
-                        Assert.isTrue(nextPacket.buffer != null, "nextPacket.getBuffer() is null!");
-                        Assert.isTrue(nextPacket.buffer.hasArray(), "nextPacket.getBuffer().hasArray == false!");
-
-                        // Есть очередной пакет данных для записи, копируем в рабочий буфер..
-                        putAndPrepareForRead(nextPacket.buffer.array(), nextPacket.buffer.limit());
-                        // И сразу же пытаемся писать.
-                        if (doWrite(key, client)) {
-                            // Целиком все записать не получилось - меняем состояние.
-                            state = State.Writing;
-                        } else {
-                            // Пакет отправлен, удаляем его из очереди.
-                            queue.poll();
-                        }
-                    }
-                    break;
-                case Writing:
-                    if (!doWrite(key, client)) {
-                        // Пакет отправлен, удаляем его из очереди.
-                        queue.poll();
-                        state = State.Ready;
-                    }
-                    break;
+            while (state == State.Ready && hasSomethingToWrite()) {
+                writeNextPortion(key, client);
             }
+        } finally {
+            writeLock.set(false);
+        }
+        // Пока держали лок, кто-то мог положить пакет и не смочь его записать.
+        return state == State.Ready && !hasSomethingToWrite();
+    }
+
+    // Пишем прямо из буферов очереди (в т.ч. read-only и direct), через курсоры-дубликаты, без копирования.
+    private void writeNextPortion(SelectionKey key, SocketChannel client) throws IOException {
+        long written;
+        try {
+            if (batchStart == batchEnd && !fillBatch()) {
+                return;
+            }
+
+            written = batchEnd - batchStart == 1 ?
+                    client.write(batch[batchStart]) :
+                    client.write(batch, batchStart, batchEnd - batchStart);
         } catch (Exception e) {
+            clearBatch();
+            state = State.Ready;
+            // Не записался пакет в голове очереди (он же - первый недописанный в пачке).
             onPacketSendFailed(key, e);
             // Пакет не отправлен, но все-равно удаляем его из очереди.
-            queue.poll();
+            BufferWithCustomData failedPacket = queue.poll();
+            if (failedPacket != null) {
+                release(failedPacket.size);
+            }
             throw new IOException("Failed to write data into channel.", e);
         }
+
+        onWriteCall();
+        if (written > 0) {
+            session.onBytesTransferred(0, written);
+        }
+
+        // Целиком записанные пакеты сначала снимаем с очереди, и только потом уведомляем о них:
+        // ошибка в колбэке не должна задеть ни очередь, ни другие пакеты. Недописанный остается в голове очереди.
+        int sentStart = batchStart;
+        while (batchStart < batchEnd && !batch[batchStart].hasRemaining()) {
+            batch[batchStart] = null;
+            release(batchPackets[batchStart].size);
+            queue.poll();
+            batchStart++;
+        }
+        int sentEnd = batchStart;
+
+        if (batchStart == batchEnd) {
+            batchStart = 0;
+            batchEnd = 0;
+            state = State.Ready;
+        } else {
+            state = State.Writing;
+        }
+
+        notifyPacketsSent(key, sentStart, sentEnd);
+    }
+
+    // Уведомляет об отправке пакетов пачки [from, to). Ошибка колбэка не мешает уведомить об остальных.
+    private void notifyPacketsSent(SelectionKey key, int from, int to) throws IOException {
+        RuntimeException callbackError = null;
+        for (int i = from; i < to; ++i) {
+            BufferWithCustomData sentPacket = batchPackets[i];
+            batchPackets[i] = null;
+            onPacketSent();
+            try {
+                session.onPacketSent(key, sentPacket.customData, sentPacket.size);
+            } catch (RuntimeException e) {
+                if (callbackError == null) {
+                    callbackError = e;
+                }
+            }
+        }
+        if (callbackError != null) {
+            throw new IOException("Packet sent callback failed.", callbackError);
+        }
+    }
+
+    // Набирает пачку из головы очереди. Вернет false, если очередь пуста.
+    private boolean fillBatch() {
+        if (batch == null) {
+            batch = new ByteBuffer[maxBatchSize];
+            batchPackets = new BufferWithCustomData[maxBatchSize];
+        }
+
+        batchStart = 0;
+        batchEnd = 0;
+        // Из очереди забираем только мы (под writeLock), поэтому голова стабильна.
+        Iterator<BufferWithCustomData> iterator = queue.iterator();
+        while (batchEnd < maxBatchSize && iterator.hasNext()) {
+            BufferWithCustomData packet = iterator.next();
+            Assert.isTrue(packet.buffer != null, "packet.buffer is null!");
+
+            // Курсор по пакету: позиция двигается у дубликата, сам пакет не трогаем.
+            batch[batchEnd] = packet.buffer.duplicate();
+            batchPackets[batchEnd] = packet;
+            batchEnd++;
+        }
+        return batchEnd > 0;
+    }
+
+    private void clearBatch() {
+        if (batch != null) {
+            Arrays.fill(batch, null);
+            Arrays.fill(batchPackets, null);
+        }
+        batchStart = 0;
+        batchEnd = 0;
+    }
+
+    private void charge(int bytes) {
+        MemoryBudget.Account account = memoryAccount;
+        if (account != null) {
+            account.charge(bytes);
+        }
+    }
+
+    private void release(int bytes) {
+        MemoryBudget.Account account = memoryAccount;
+        if (account != null) {
+            account.release(bytes);
+        }
+    }
+
+    private void onWriteCall() {
+        ReactorStats currentStats = stats;
+        if (currentStats != null) {
+            currentStats.onWriteCall();
+        }
+    }
+
+    private void onPacketSent() {
+        ReactorStats currentStats = stats;
+        if (currentStats != null) {
+            currentStats.onPacketSent();
+        }
     }
 
     // Для статистики и для расчета загруженности клиента (для тротлинга / замедления).
@@ -96,55 +252,18 @@ public class SessionWriter extends SessionIOBase {
         return queue.size();
     }
     public int getMaxMsgQueueSize() {
-        return maxQueueSize;
+        return queue.getHighWaterMark();
     }
 
     // Вернет процент заполненности оцереди пакетов.
     // Используется для замедления коммуникации (тротлинг).
     public float getLoadFactor() {
-        // Внимание, из-за оптимизации многопоточности,
-        // у нас очередь может иногда слегка выходить за MAX_QUEUE_SIZE
-        // (максимум на кол-во элементов, равному кол-ву конкурирующих потоков).
-        // См. комменты внутри метода queuePacket()
-        // Поэтому, чтобы получить процент заполненности очереди, не превосходящий 1,
-        // надо обрезать по верхней границе.
         float percent = ((float) getMsgQueueSize()) / MAX_QUEUE_SIZE;
         percent = Math.max(0.0f, percent);
         percent = Math.min(1.0f, percent);
         return percent;
     }
 
-    /**
-     * Вернет true если надо продолжать запись.
-     */
-    private boolean doWrite(SelectionKey key, SocketChannel client) throws IOException {
-        ByteBuffer buffer = getWorkBuffer();
-        Assert.notNull(buffer, "workBuffer is null");
-
-        if (buffer.remaining() > 0) {
-            int written = client.write(buffer);
-            if (written > 0) {
-                session.onBytesTransferred(0, written);
-            }
-            if (!buffer.hasRemaining()) {
-                int packetSize = buffer.position();
-                buffer = resetWorkBufferSizeIfNeed();
-                buffer.clear();
-                onPacketSent(key, packetSize);
-                return false;
-            }
-        }
-
-        return buffer.hasRemaining();
-    }
-
-    private void onPacketSent(SelectionKey key, int packetSize) {
-        BufferWithCustomData justSentPacket = queue.peek();
-        Assert.isTrue(justSentPacket != null, "Expecting non null packet..hmm..(" + session.getClientRemoteAddress() + ")");
-
-        session.onPacketSent(key, justSentPacket.customData, packetSize);
-    }
-
     private void onPacketSendFailed(SelectionKey key, Throwable cause) {
         BufferWithCustomData currentPacket = queue.peek();
         if (currentPacket == null) {
@@ -178,11 +297,14 @@ public class SessionWriter extends SessionIOBase {
 
 
     private class BufferWithCustomData {
+        // Отправляются байты [position, limit) на момент постановки в очередь.
         final ByteBuffer buffer;
+        final int size;
         final Object customData;
 
         BufferWithCustomData(ByteBuffer buffer, Object customData) {
             this.buffer = buffer;
+            this.size = buffer.remaining();
             this.customData = customData;
         }
     }
@@ -0,0 +1,104 @@
+package com.borunovv.core.server.nio.core.util;
+
+import com.borunovv.core.util.Assert;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Неограниченная lock-free очередь (ConcurrentLinkedQueue) с размером за O(1).
+ * ConcurrentLinkedQueue.size() обходит весь список, а у нас размер спрашивают на каждое добавление.
+ * Здесь размер ведет атомарный счетчик, заодно запоминаем максимальный размер (high-water mark).
+ * <p>
+ * Счетчик увеличиваем до вставки и уменьшаем после изъятия, поэтому он никогда не бывает меньше
+ * реального кол-ва элементов (может ненадолго быть больше - на кол-во вставляющих прямо сейчас потоков).
+ * offer(item, limit) резервирует место в счетчике заранее, поэтому лимит соблюдается точно.
+ */
+public class CountedConcurrentQueue<E> implements Iterable<E> {
+
+    private final ConcurrentLinkedQueue<E> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger(0);
+    private final AtomicInteger highWaterMark = new AtomicInteger(0);
+
+    public void add(E item) {
+        Assert.isTrue(item != null, "item is null");
+        onAdded(size.incrementAndGet());
+        queue.add(item);
+    }
+
+    /**
+     * Добавит, только если в очереди меньше limit элементов. Вернет false, если места нет.
+     */
+    public boolean offer(E item, int limit) {
+        Assert.isTrue(item != null, "item is null");
+        int current;
+        do {
+            current = size.get();
+            if (current >= limit) {
+                return false;
+            }
+        } while (!size.compareAndSet(current, current + 1));
+
+        onAdded(current + 1);
+        queue.add(item);
+        return true;
+    }
+
+    public E poll() {
+        E item = queue.poll();
+        if (item != null) {
+            size.decrementAndGet();
+        }
+        return item;
+    }
+
+    public E peek() {
+        return queue.peek();
+    }
+
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    // Максимальный размер за все время.
+    public int getHighWaterMark() {
+        return highWaterMark.get();
+    }
+
+    public void clear() {
+        while (poll() != null) {
+            // Выгребаем через poll(), чтобы счетчик остался согласованным.
+        }
+    }
+
+    /**
+     * Обход без удаления (слабо согласованный, как у ConcurrentLinkedQueue).
+     */
+    @Override
+    public Iterator<E> iterator() {
+        Iterator<E> iterator = queue.iterator();
+        return new Iterator<E>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public E next() {
+                return iterator.next();
+            }
+        };
+    }
+
+    private void onAdded(int newSize) {
+        int max = highWaterMark.get();
+        while (newSize > max && !highWaterMark.compareAndSet(max, newSize)) {
+            max = highWaterMark.get();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.borunovv.core.server.nio.core.util;
+
+import com.borunovv.core.service.IConsumer;
+import com.borunovv.core.util.Assert;
+
+/**
+ * Хешированное колесо таймеров (hashed timing wheel).
+ * Позволяет держать десятки тысяч таймеров (по одному на сессию) и за каждый тик
+ * трогать только те, у которых подошел срок, а не обходить все подряд.
+ * <p>
+ * Постановка, перепостановка и отмена таймера - O(1), без выделения памяти
+ * (узел таймера создается один раз и переиспользуется).
+ * <p>
+ * Не потокобезопасно! Предназначено для использования из одного потока (потока реактора).
+ */
+public class HashedTimingWheel<T> {
+
+    private final long tickMs;
+    private final int mask;
+    private final Entry<T>[] buckets;
+
+    private long startTimeMs;
+    private long nowMs;
+    // Последний обработанный тик (номер тика от startTimeMs).
+    private long processedTick;
+    private int size;
+
+    public HashedTimingWheel(long tickMs, int wheelSize, long startTimeMs) {
+        Assert.isTrue(tickMs > 0, "Bad tickMs: " + tickMs);
+        Assert.isTrue(wheelSize > 0 && (wheelSize & (wheelSize - 1)) == 0,
+                "wheelSize must be a power of 2. Actual: " + wheelSize);
+
+        this.tickMs = tickMs;
+        this.mask = wheelSize - 1;
+        this.buckets = newBuckets(wheelSize);
+        this.startTimeMs = startTimeMs;
+        this.nowMs = startTimeMs;
+        this.processedTick = 0;
+    }
+
+    public Entry<T> newEntry(T target) {
+        return new Entry<>(target);
+    }
+
+    /**
+     * Ставит (или переставляет, если уже стоит) таймер на delayMs от текущего времени колеса.
+     * Таймер сработает не раньше, чем через delayMs, и не позже, чем через delayMs + tickMs.
+     */
+    public void schedule(Entry<T> entry, long delayMs) {
+        Assert.isTrue(entry != null, "entry is null");
+        if (entry.isScheduled()) {
+            unlink(entry);
+        }
+
+        long deadlineTick = (nowMs + Math.max(0, delayMs) - startTimeMs + tickMs - 1) / tickMs;
+        // Срабатывание не раньше следующего тика (текущий уже обработан).
+        entry.deadlineTick = Math.max(deadlineTick, processedTick + 1);
+        link(entry);
+    }
+
+    public void cancel(Entry<T> entry) {
+        if (entry != null && entry.isScheduled()) {
+            unlink(entry);
+        }
+    }
+
+    /**
+     * Продвигает колесо до момента currentTimeMs и уведомляет о таймерах, у которых подошел срок.
+     * Из колбэка можно снова ставить таймеры (в т.ч. тот же самый).
+     * Вернет кол-во сработавших таймеров.
+     */
+    public int advance(long currentTimeMs, IConsumer<? super T> onExpired) {
+        if (currentTimeMs > nowMs) {
+            nowMs = currentTimeMs;
+        }
+
+        long currentTick = (nowMs - startTimeMs) / tickMs;
+        if (currentTick <= processedTick) {
+            return 0;
+        }
+
+        // Если давно не продвигались - хватит одного оборота, сравниваем по deadlineTick.
+        long lastTickToScan = Math.min(currentTick, processedTick + buckets.length);
+        Entry<T> expiredHead = null;
+        for (long tick = processedTick + 1; tick <= lastTickToScan; ++tick) {
+            Entry<T> entry = buckets[(int) (tick & mask)];
+            while (entry != null) {
+                Entry<T> next = entry.next;
+                if (entry.deadlineTick <= currentTick) {
+                    unlink(entry);
+                    entry.nextExpired = expiredHead;
+                    expiredHead = entry;
+                }
+                entry = next;
+            }
+        }
+        processedTick = currentTick;
+
+        // Уведомляем уже после обхода, т.к. колбэк может переставлять таймеры.
+        int count = 0;
+        while (expiredHead != null) {
+            Entry<T> entry = expiredHead;
+            expiredHead = entry.nextExpired;
+            entry.nextExpired = null;
+            onExpired.consume(entry.target);
+            count++;
+        }
+        return count;
+    }
+
+    // Сколько мс осталось до следующего тика.
+    public long getDelayToNextTickMs() {
+        return Math.max(0, startTimeMs + (processedTick + 1) * tickMs - nowMs);
+    }
+
+    public long getTickMs() {
+        return tickMs;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private void link(Entry<T> entry) {
+        int index = (int) (entry.deadlineTick & mask);
+        Entry<T> head = buckets[index];
+        entry.prev = null;
+        entry.next = head;
+        if (head != null) {
+            head.prev = entry;
+        }
+        buckets[index] = entry;
+        entry.bucket = index;
+        size++;
+    }
+
+    private void unlink(Entry<T> entry) {
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        } else {
+            buckets[entry.bucket] = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        }
+        entry.prev = null;
+        entry.next = null;
+        entry.bucket = -1;
+        size--;
+    }
+
+    // Массив параметризованного типа напрямую не создать.
+    @SuppressWarnings("unchecked")
+    private static <Q> Entry<Q>[] newBuckets(int size) {
+        return (Entry<Q>[]) new Entry<?>[size];
+    }
+
+
+    public static final class Entry<Q> {
+        private final Q target;
+        private long deadlineTick;
+        private int bucket = -1;
+        private Entry<Q> prev;
+        private Entry<Q> next;
+        private Entry<Q> nextExpired;
+
+        private Entry(Q target) {
+            this.target = target;
+        }
+
+        public Q getTarget() {
+            return target;
+        }
+
+        public boolean isScheduled() {
+            return bucket >= 0;
+        }
+    }
+}
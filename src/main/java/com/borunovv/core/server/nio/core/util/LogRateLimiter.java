@@ -0,0 +1,37 @@
+package com.borunovv.core.server.nio.core.util;
+
+import com.borunovv.core.util.Assert;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Не чаще одной записи в лог за интервал: при потоке однотипных ошибок (шквал отвергнутых соединений)
+ * пишем одну строку с кол-вом пропущенных, а не по строке на каждое событие.
+ */
+@ThreadSafe
+public class LogRateLimiter {
+
+    private final long intervalMs;
+    private final AtomicLong nextLogTime = new AtomicLong(0);
+    private final LongAdder suppressed = new LongAdder();
+
+    public LogRateLimiter(long intervalMs) {
+        Assert.isTrue(intervalMs > 0, "Bad intervalMs: " + intervalMs);
+        this.intervalMs = intervalMs;
+    }
+
+    /**
+     * Вернет -1, если сейчас писать в лог не надо (событие учтено как пропущенное),
+     * иначе - сколько событий пропущено с прошлой записи.
+     */
+    public long tryLog(long now) {
+        long next = nextLogTime.get();
+        if (now < next || !nextLogTime.compareAndSet(next, now + intervalMs)) {
+            suppressed.increment();
+            return -1;
+        }
+        return suppressed.sumThenReset();
+    }
+}
@@ -0,0 +1,141 @@
+package com.borunovv.core.server.nio.core.util;
+
+import com.borunovv.core.util.Assert;
+
+/**
+ * Счетчики по ключу-примитиву long (например, по IP): long -> int без упаковки ключей и значений.
+ * Открытая адресация с линейным пробированием; ключ с нулевым счетчиком удаляется (сдвигом хвоста цепочки),
+ * так что таблица не засоряется ключами давно отключившихся клиентов.
+ * <p>
+ * Не потокобезопасно!
+ */
+public class LongCountMap {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    // 0 - ячейка свободна.
+    private int[] counts;
+    private int mask;
+    private int size;
+
+    public LongCountMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public LongCountMap(int expectedSize) {
+        Assert.isTrue(expectedSize >= 0, "Bad expectedSize: " + expectedSize);
+        allocate(Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, expectedSize * 2 - 1)) << 1));
+    }
+
+    public int get(long key) {
+        int index = indexOf(key);
+        return index >= 0 ?
+                counts[index] :
+                0;
+    }
+
+    // Вернет новое значение счетчика.
+    public int increment(long key) {
+        int index = indexOf(key);
+        if (index >= 0) {
+            return ++counts[index];
+        }
+        if ((size + 1) * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        index = freeSlotFor(key);
+        keys[index] = key;
+        counts[index] = 1;
+        size++;
+        return 1;
+    }
+
+    // Вернет новое значение счетчика (0 - ключ удален, -1 - ключа не было).
+    public int decrement(long key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return -1;
+        }
+        int count = --counts[index];
+        if (count == 0) {
+            remove(index);
+        }
+        return count;
+    }
+
+    // Кол-во ключей с ненулевым счетчиком.
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private int indexOf(long key) {
+        int index = hash(key) & mask;
+        while (counts[index] != 0) {
+            if (keys[index] == key) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int freeSlotFor(long key) {
+        int index = hash(key) & mask;
+        while (counts[index] != 0) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    // Удаление без "надгробий": сдвигаем назад элементы цепочки, которые иначе стали бы недостижимы.
+    private void remove(int index) {
+        int hole = index;
+        int next = (hole + 1) & mask;
+        while (counts[next] != 0) {
+            int home = hash(keys[next]) & mask;
+            // Элемент можно перенести в дыру, если его домашняя ячейка не лежит между дырой и им самим.
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                counts[hole] = counts[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        counts[hole] = 0;
+        size--;
+    }
+
+    private void rehash(int newCapacity) {
+        long[] oldKeys = keys;
+        int[] oldCounts = counts;
+        allocate(newCapacity);
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldCounts[i] != 0) {
+                int index = freeSlotFor(oldKeys[i]);
+                keys[index] = oldKeys[i];
+                counts[index] = oldCounts[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        counts = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    // Перемешивание (финализатор MurmurHash3): соседние IP не должны попадать в соседние ячейки.
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
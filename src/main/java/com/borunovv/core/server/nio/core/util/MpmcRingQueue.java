@@ -0,0 +1,244 @@
+package com.borunovv.core.server.nio.core.util;
+
+import com.borunovv.core.util.Assert;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Ограниченная lock-free очередь на кольцевом буфере для многих писателей и многих читателей (MPMC).
+ * Каждая ячейка хранит номер последовательности, по нему писатель/читатель понимает,
+ * свободна ли ячейка для его позиции (схема Д. Вьюкова).
+ * <p>
+ * Неблокирующие offer()/poll() плюс блокирующие варианты с таймаутом: ждущие потоки паркуются
+ * (LockSupport.park) и будятся противоположной стороной (после poll() - писатели, после offer() - читатели).
+ * Стратегия SPIN_YIELD перед парковкой немного крутится и уступает процессор (ниже задержка, больше CPU).
+ */
+public class MpmcRingQueue<T> {
+
+    public enum WaitStrategy {
+        // Сразу парковаться.
+        PARK,
+        // Сначала крутиться, потом Thread.yield(), и только потом парковаться.
+        SPIN_YIELD
+    }
+
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 100;
+    // Даже без сигнала ждущий поток периодически просыпается и перепроверяет условия (страховка).
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final int capacity;
+    // Ячеек в кольце. При одной ячейке схема неоднозначна ("записана" == "свободна для следующего круга"),
+    // поэтому ячеек минимум 2, а лимит capacity тогда проверяем явно.
+    private final int slots;
+    private final AtomicReferenceArray<T> items;
+    private final AtomicLongArray sequences;
+    private final AtomicLong producerPosition = new AtomicLong(0);
+    private final AtomicLong consumerPosition = new AtomicLong(0);
+    private final WaitStrategy waitStrategy;
+
+    private final ConcurrentLinkedQueue<Thread> waitingConsumers = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Thread> waitingProducers = new ConcurrentLinkedQueue<>();
+
+    public MpmcRingQueue(int capacity, WaitStrategy waitStrategy) {
+        Assert.isTrue(capacity > 0, "Bad capacity: " + capacity);
+        Assert.isTrue(waitStrategy != null, "waitStrategy is null");
+        this.capacity = capacity;
+        this.slots = Math.max(2, capacity);
+        this.items = new AtomicReferenceArray<>(slots);
+        this.sequences = new AtomicLongArray(slots);
+        for (int i = 0; i < slots; ++i) {
+            sequences.set(i, i);
+        }
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * Добавить без ожидания. Вернет false, если очередь заполнена.
+     */
+    public boolean offer(T item) {
+        Assert.isTrue(item != null, "item is null");
+        while (true) {
+            long position = producerPosition.get();
+            int index = (int) (position % slots);
+            long diff = sequences.get(index) - position;
+            if (diff == 0) {
+                if (slots > capacity && position - consumerPosition.get() >= capacity) {
+                    return false; // Полная.
+                }
+                if (producerPosition.compareAndSet(position, position + 1)) {
+                    items.lazySet(index, item);
+                    sequences.set(index, position + 1);
+                    signal(waitingConsumers);
+                    return true;
+                }
+            } else if (diff < 0) {
+                return false; // Полная.
+            }
+            // Иначе другой писатель успел занять позицию - пробуем следующую.
+        }
+    }
+
+    /**
+     * Забрать без ожидания. Вернет null, если очередь пуста.
+     */
+    public T poll() {
+        while (true) {
+            long position = consumerPosition.get();
+            int index = (int) (position % slots);
+            long diff = sequences.get(index) - (position + 1);
+            if (diff == 0) {
+                if (consumerPosition.compareAndSet(position, position + 1)) {
+                    T item = items.get(index);
+                    items.lazySet(index, null);
+                    sequences.set(index, position + slots);
+                    signal(waitingProducers);
+                    return item;
+                }
+            } else if (diff < 0) {
+                return null; // Пустая.
+            }
+        }
+    }
+
+    /**
+     * Добавить, ожидая свободного места не дольше timeoutMs (или пока stopper не попросит остановиться).
+     * Вернет false, если место так и не освободилось.
+     */
+    public boolean offer(T item, long timeoutMs, StoppableSleep.IStopper stopper) throws InterruptedException {
+        if (offer(item)) {
+            return true;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        for (int attempt = 0; ; ++attempt) {
+            if (stopper.isStopRequested()) {
+                return false;
+            }
+            long remainNanos = deadline - System.nanoTime();
+            if (remainNanos <= 0) {
+                return false;
+            }
+            if (!backOff(attempt)) {
+                waitingProducers.add(Thread.currentThread());
+                try {
+                    // Перепроверяем после регистрации, иначе можем проспать освободившееся место.
+                    if (offer(item)) {
+                        return true;
+                    }
+                    park(remainNanos);
+                } finally {
+                    waitingProducers.remove(Thread.currentThread());
+                }
+            }
+            if (offer(item)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Забрать, ожидая не дольше timeoutMs (или пока stopper не попросит остановиться).
+     * Вернет null, если так ничего и не появилось.
+     */
+    public T poll(long timeoutMs, StoppableSleep.IStopper stopper) throws InterruptedException {
+        T item = poll();
+        if (item != null) {
+            return item;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        for (int attempt = 0; ; ++attempt) {
+            if (stopper.isStopRequested()) {
+                return null;
+            }
+            long remainNanos = deadline - System.nanoTime();
+            if (remainNanos <= 0) {
+                return null;
+            }
+            if (!backOff(attempt)) {
+                waitingConsumers.add(Thread.currentThread());
+                try {
+                    item = poll();
+                    if (item == null) {
+                        park(remainNanos);
+                    }
+                } finally {
+                    waitingConsumers.remove(Thread.currentThread());
+                }
+            }
+            if (item == null) {
+                item = poll();
+            }
+            if (item != null) {
+                // Сигнал мог достаться нам, хотя элементов больше одного - передаем эстафету.
+                if (!isEmpty()) {
+                    signal(waitingConsumers);
+                }
+                return item;
+            }
+        }
+    }
+
+    /**
+     * Разбудить всех ждущих (например, при остановке - чтобы они проверили условие остановки).
+     */
+    public void wakeUpAll() {
+        for (Thread thread : waitingConsumers) {
+            LockSupport.unpark(thread);
+        }
+        for (Thread thread : waitingProducers) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    // Приблизительный (под нагрузкой) размер.
+    public int size() {
+        long size = producerPosition.get() - consumerPosition.get();
+        return (int) Math.max(0, Math.min(size, capacity));
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    // Вернет false, когда пора парковаться.
+    private boolean backOff(int attempt) {
+        if (waitStrategy == WaitStrategy.SPIN_YIELD) {
+            if (attempt < SPIN_TRIES) {
+                return true;
+            } else if (attempt < SPIN_TRIES + YIELD_TRIES) {
+                Thread.yield();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void park(long remainNanos) throws InterruptedException {
+        LockSupport.parkNanos(Math.min(remainNanos, MAX_PARK_NANOS));
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    private static void signal(ConcurrentLinkedQueue<Thread> waiters) {
+        if (!waiters.isEmpty()) {
+            Thread thread = waiters.poll();
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+}
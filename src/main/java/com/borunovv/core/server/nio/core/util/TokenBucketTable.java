@@ -0,0 +1,186 @@
+package com.borunovv.core.server.nio.core.util;
+
+import com.borunovv.core.util.Assert;
+
+/**
+ * Корзины токенов по ключу-примитиву long (клиент: IP, соединение, пользователь): пополняются со скоростью
+ * ratePerSecond токенов в секунду, но не больше burst про запас. Пополнение ленивое - при обращении к корзине,
+ * по времени с прошлого обращения (ни таймеров, ни фоновых потоков).
+ * <p>
+ * Хранение - параллельные массивы с открытой адресацией, без упаковки ключей. Полная корзина ничем
+ * не отличается от отсутствующей, поэтому при нехватке места такие выбрасываются, а не растят таблицу:
+ * в ней только клиенты, тратившие токены за последние burst / ratePerSecond секунд.
+ * <p>
+ * Токены считаются в миллионных долях (целыми числами - без накопления ошибок округления).
+ * Не потокобезопасно!
+ */
+public class TokenBucketTable {
+
+    private static final int MIN_CAPACITY = 16;
+    // Один токен.
+    private static final long TOKEN = 1000000;
+
+    private final double ratePerSecond;
+    private final int burst;
+    private final long refillPerMs;
+    private final long maxTokens;
+    // За сколько мс пустая корзина наполняется целиком.
+    private final long fullRefillTimeMs;
+
+    private long[] keys;
+    private long[] tokens;
+    private long[] refillTimes;
+    private boolean[] used;
+    private int mask;
+    private int size;
+
+    public TokenBucketTable(double ratePerSecond, int burst) {
+        Assert.isTrue(ratePerSecond >= 0.001, "Bad ratePerSecond: " + ratePerSecond);
+        Assert.isTrue(burst > 0, "Bad burst: " + burst);
+        this.ratePerSecond = ratePerSecond;
+        this.burst = burst;
+        this.refillPerMs = Math.max(1, Math.round(ratePerSecond * TOKEN / 1000));
+        this.maxTokens = burst * TOKEN;
+        this.fullRefillTimeMs = (maxTokens + refillPerMs - 1) / refillPerMs;
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * Берет токен из корзины ключа. Вернет 0 - взяли, иначе - через сколько мс токен появится
+     * (корзина при этом не меняется).
+     */
+    public long tryAcquire(long key, long now) {
+        int index = indexOf(key);
+        if (index < 0) {
+            // Новый клиент начинает с полной корзиной.
+            insert(key, maxTokens - TOKEN, now);
+            return 0;
+        }
+
+        long available = refill(index, now);
+        if (available >= TOKEN) {
+            tokens[index] = available - TOKEN;
+            return 0;
+        }
+        return (TOKEN - available + refillPerMs - 1) / refillPerMs;
+    }
+
+    // Сколько целых токенов сейчас в корзине ключа.
+    public int getTokens(long key, long now) {
+        int index = indexOf(key);
+        return index >= 0 ?
+                (int) (refill(index, now) / TOKEN) :
+                burst;
+    }
+
+    // Кол-во корзин в таблице (не полных на момент последней чистки).
+    public int size() {
+        return size;
+    }
+
+    public double getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    // Пополняет корзину по прошедшему времени, вернет токены в ней.
+    private long refill(int index, long now) {
+        long elapsed = now - refillTimes[index];
+        // Часы разных реакторов могут немного расходиться - время назад не идет.
+        if (elapsed > 0) {
+            tokens[index] = elapsed >= fullRefillTimeMs ?
+                    maxTokens :
+                    Math.min(maxTokens, tokens[index] + elapsed * refillPerMs);
+            refillTimes[index] = now;
+        }
+        return tokens[index];
+    }
+
+    private void insert(long key, long initialTokens, long now) {
+        if ((size + 1) * 2 > keys.length) {
+            compact(now);
+        }
+        int index = freeSlotFor(key);
+        keys[index] = key;
+        tokens[index] = initialTokens;
+        refillTimes[index] = now;
+        used[index] = true;
+        size++;
+    }
+
+    // Выбрасывает полные корзины. Если живых все равно много - таблица растет вдвое.
+    private void compact(long now) {
+        int alive = 0;
+        for (int i = 0; i < keys.length; ++i) {
+            if (used[i] && !isFull(tokens[i], refillTimes[i], now)) {
+                alive++;
+            }
+        }
+
+        long[] oldKeys = keys;
+        long[] oldTokens = tokens;
+        long[] oldRefillTimes = refillTimes;
+        boolean[] oldUsed = used;
+        int oldMask = mask;
+        allocate((alive + 1) * 4 > keys.length ?
+                keys.length * 2 :
+                keys.length);
+        size = 0;
+        for (int i = 0; i <= oldMask; ++i) {
+            if (oldUsed[i] && !isFull(oldTokens[i], oldRefillTimes[i], now)) {
+                int index = freeSlotFor(oldKeys[i]);
+                keys[index] = oldKeys[i];
+                tokens[index] = oldTokens[i];
+                refillTimes[index] = oldRefillTimes[i];
+                used[index] = true;
+                size++;
+            }
+        }
+    }
+
+    // Корзина уже наполнилась бы целиком (такую можно забыть).
+    private boolean isFull(long bucketTokens, long refillTime, long now) {
+        long elapsed = Math.max(0, now - refillTime);
+        return elapsed >= fullRefillTimeMs || bucketTokens + elapsed * refillPerMs >= maxTokens;
+    }
+
+    private int indexOf(long key) {
+        int index = hash(key) & mask;
+        while (used[index]) {
+            if (keys[index] == key) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int freeSlotFor(long key) {
+        int index = hash(key) & mask;
+        while (used[index]) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        tokens = new long[capacity];
+        refillTimes = new long[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+    }
+
+    // Перемешивание (финализатор MurmurHash3): соседние IP не должны попадать в соседние ячейки.
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
@@ -0,0 +1,295 @@
+package com.borunovv.core.server.nio.http.protocol;
+
+import com.borunovv.core.util.HttpMethod;
+import com.borunovv.core.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Заголовок HTTP-запроса (без разделителя '\r\n\r\n'), разобранный на уровне байт.
+ * При разборе запоминаем только смещения метода, URI, имен и значений заголовков.
+ * Строки создаются лишь когда их запрашивают.
+ * Известные заголовки (Content-Length, Content-Type, Connection, Authorization) находим сразу при разборе
+ * (сравнение ASCII без учета регистра), Content-Length разбираем сразу в число.
+ */
+class HttpHeader {
+
+    static final String CONTENT_LENGTH = "Content-Length";
+    static final String CONTENT_TYPE = "Content-Type";
+    static final String CONNECTION = "Connection";
+    static final String AUTHORIZATION = "Authorization";
+
+    // На каждый заголовок 4 числа: начало и конец имени, начало и конец значения.
+    private static final int FIELD_SIZE = 4;
+
+    private final byte[] data;
+    private final int length;
+
+    private int methodEnd;
+    private int uriStart;
+    private int uriEnd;
+
+    private int[] fields = new int[FIELD_SIZE * 16];
+    private int fieldsCount = 0;
+
+    // Индексы первого вхождения известных заголовков (-1 - нет в запросе).
+    private int contentLengthField = -1;
+    private int contentTypeField = -1;
+    private int connectionField = -1;
+    private int authorizationField = -1;
+
+    private int contentLength = 0;
+
+    // data - байты заголовка [0, length). Массив запоминается (не копируется), менять его после нельзя.
+    HttpHeader(byte[] data, int length) {
+        this.data = data;
+        this.length = length;
+        int offset = parseRequestLine();
+        parseFields(offset);
+        if (contentLengthField >= 0) {
+            contentLength = parseContentLength(contentLengthField);
+        }
+    }
+
+    int getLength() {
+        return length;
+    }
+
+    int getContentLength() {
+        return contentLength;
+    }
+
+    HttpMethod getMethod() {
+        for (HttpMethod method : HttpMethod.values()) {
+            if (equalsIgnoreCase(0, methodEnd, method.name())) {
+                return method;
+            }
+        }
+        throw new RuntimeException("Invalid http method name: '" + toString(0, methodEnd) + "'");
+    }
+
+    // Метод как есть в запросе (без проверки, в отличие от getMethod()).
+    String getMethodName() {
+        return toString(0, methodEnd);
+    }
+
+    String getUri() {
+        return toString(uriStart, uriEnd);
+    }
+
+    // Значение первого заголовка с таким именем или null.
+    String getFirstValue(String name) {
+        int field = findKnownField(name);
+        if (field == -2) {
+            field = findField(name, 0);
+        }
+        return field >= 0 ?
+                getValue(field) :
+                null;
+    }
+
+    // Значения всех заголовков с таким именем (по порядку).
+    List<String> getValues(String name) {
+        List<String> result = new ArrayList<>(1);
+        for (int field = findField(name, 0); field >= 0; field = findField(name, field + 1)) {
+            result.add(getValue(field));
+        }
+        return result;
+    }
+
+    // GET /uri/ HTTP/1.1
+    // Вернет смещение начала следующей строки.
+    private int parseRequestLine() {
+        int lineEnd = findLineEnd(0);
+        int pos = 0;
+        while (pos < lineEnd && !isWhitespace(data[pos])) {
+            pos++;
+        }
+        methodEnd = pos;
+        while (pos < lineEnd && isWhitespace(data[pos])) {
+            pos++;
+        }
+        uriStart = pos;
+        while (pos < lineEnd && !isWhitespace(data[pos])) {
+            pos++;
+        }
+        uriEnd = pos;
+
+        // После URI обязательно что-то идет (версия протокола).
+        if (methodEnd == 0 || uriStart == methodEnd || uriEnd == uriStart || uriEnd == lineEnd) {
+            throw new IllegalArgumentException("Can't parse Method and URI from line: '"
+                    + toString(0, lineEnd) + "'");
+        }
+        return Math.min(lineEnd + 2, length);
+    }
+
+    private void parseFields(int offset) {
+        int lineStart = offset;
+        while (lineStart < length) {
+            int lineEnd = findLineEnd(lineStart);
+            if (lineEnd > lineStart) {
+                addField(lineStart, lineEnd);
+            }
+            lineStart = lineEnd + 2; // skip '\r\n'
+        }
+    }
+
+    // Name: value
+    private void addField(int lineStart, int lineEnd) {
+        int colon = lineStart;
+        while (colon < lineEnd && data[colon] != ':') {
+            colon++;
+        }
+
+        int nameStart = lineStart;
+        int nameEnd = colon;
+        int valueStart = Math.min(colon + 1, lineEnd);
+        int valueEnd = lineEnd;
+        if (colon < lineEnd) {
+            nameStart = skipSpaces(nameStart, nameEnd);
+            nameEnd = skipSpacesBack(nameStart, nameEnd);
+            valueStart = skipSpaces(valueStart, valueEnd);
+            valueEnd = skipSpacesBack(valueStart, valueEnd);
+        }
+
+        if (fields.length < (fieldsCount + 1) * FIELD_SIZE) {
+            fields = Arrays.copyOf(fields, fields.length * 2);
+        }
+        int index = fieldsCount * FIELD_SIZE;
+        fields[index] = nameStart;
+        fields[index + 1] = nameEnd;
+        fields[index + 2] = valueStart;
+        fields[index + 3] = valueEnd;
+
+        int field = fieldsCount++;
+        if (contentLengthField < 0 && isFieldName(field, CONTENT_LENGTH)) {
+            contentLengthField = field;
+        } else if (contentTypeField < 0 && isFieldName(field, CONTENT_TYPE)) {
+            contentTypeField = field;
+        } else if (connectionField < 0 && isFieldName(field, CONNECTION)) {
+            connectionField = field;
+        } else if (authorizationField < 0 && isFieldName(field, AUTHORIZATION)) {
+            authorizationField = field;
+        }
+    }
+
+    private int parseContentLength(int field) {
+        int start = fields[field * FIELD_SIZE + 2];
+        int end = fields[field * FIELD_SIZE + 3];
+        if (start == end) {
+            throw new NumberFormatException("Empty " + CONTENT_LENGTH);
+        }
+        long result = 0;
+        for (int i = start; i < end; ++i) {
+            int digit = data[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Bad " + CONTENT_LENGTH + ": '" + toString(start, end) + "'");
+            }
+            result = result * 10 + digit;
+            if (result > Integer.MAX_VALUE) {
+                throw new NumberFormatException("Too big " + CONTENT_LENGTH + ": '" + toString(start, end) + "'");
+            }
+        }
+        return (int) result;
+    }
+
+    // -1 - известного заголовка нет в запросе, -2 - имя не из известных.
+    private int findKnownField(String name) {
+        if (CONTENT_LENGTH.equalsIgnoreCase(name)) {
+            return contentLengthField;
+        } else if (CONTENT_TYPE.equalsIgnoreCase(name)) {
+            return contentTypeField;
+        } else if (CONNECTION.equalsIgnoreCase(name)) {
+            return connectionField;
+        } else if (AUTHORIZATION.equalsIgnoreCase(name)) {
+            return authorizationField;
+        }
+        return -2;
+    }
+
+    private int findField(String name, int fromField) {
+        if (name == null) {
+            return -1;
+        }
+        for (int field = fromField; field < fieldsCount; ++field) {
+            if (isFieldName(field, name)) {
+                return field;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isFieldName(int field, String name) {
+        return equalsIgnoreCase(fields[field * FIELD_SIZE], fields[field * FIELD_SIZE + 1], name);
+    }
+
+    private String getValue(int field) {
+        return toString(fields[field * FIELD_SIZE + 2], fields[field * FIELD_SIZE + 3]);
+    }
+
+    // Сравнение байт [start, end) со строкой без учета регистра (только для ASCII).
+    private boolean equalsIgnoreCase(int start, int end, String str) {
+        if (end - start != str.length()) {
+            return false;
+        }
+        for (int i = 0; i < str.length(); ++i) {
+            int b = data[start + i];
+            int c = str.charAt(i);
+            if (b != c && toLowerAscii(b) != toLowerAscii(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int toLowerAscii(int c) {
+        return (c >= 'A' && c <= 'Z') ?
+                c + ('a' - 'A') :
+                c;
+    }
+
+    // Конец строки - смещение '\r\n' или конец заголовка.
+    private int findLineEnd(int from) {
+        for (int i = from; i < length - 1; ++i) {
+            if (data[i] == '\r' && data[i + 1] == '\n') {
+                return i;
+            }
+        }
+        return length;
+    }
+
+    private int skipSpaces(int start, int end) {
+        while (start < end && isSpace(data[start])) {
+            start++;
+        }
+        return start;
+    }
+
+    private int skipSpacesBack(int start, int end) {
+        while (end > start && isSpace(data[end - 1])) {
+            end--;
+        }
+        return end;
+    }
+
+    // Как String.trim(): все управляющие символы и пробел.
+    private static boolean isSpace(byte b) {
+        return b >= 0 && b <= ' ';
+    }
+
+    // Как \s в регулярке.
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r';
+    }
+
+    private String toString(int start, int end) {
+        return StringUtils.toUtf8String(data, start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        return toString(0, length);
+    }
+}
@@ -38,6 +38,19 @@ public class HttpMessage extends AbstractMessage {
         return request != null;
     }
 
+    // Ответ - сообщение с HttpResponse (по нему последовательная сессия отпускает следующий запрос).
+    @Override
+    public boolean isResponse() {
+        return response != null;
+    }
+
+    @Override
+    public void release() {
+        if (request != null) {
+            request.release();
+        }
+    }
+
     @Override
     public String toString() {
         return "HttpMessage{" + (request != null ? request : "[null request]")
@@ -2,12 +2,8 @@ package com.borunovv.core.server.nio.http.protocol;
 
 import com.borunovv.core.server.nio.core.protocol.IMessage;
 import com.borunovv.core.server.nio.core.protocol.IMessageProtocol;
-import com.borunovv.core.server.nio.core.session.ISession;
+import com.borunovv.core.server.nio.core.protocol.IPacketParser;
 import com.borunovv.core.util.Assert;
-import com.borunovv.core.util.StringUtils;
-
-import java.nio.ByteBuffer;
-import java.util.Arrays;
 
 public class HttpProtocol implements IMessageProtocol {
 
@@ -44,10 +40,8 @@ public class HttpProtocol implements IMessageProtocol {
     }
 
     @Override
-    public int checkPacket(ByteBuffer buffer) {
-        ByteBuffer buff = buffer.duplicate();
-        buff.flip();
-        return HttpRequest.tryParse(buff.array(), buff.limit());
+    public IPacketParser createPacketParser() {
+        return new HttpRequestParser();
     }
 
     @Override
@@ -57,16 +51,6 @@ public class HttpProtocol implements IMessageProtocol {
         return httpMsg.getResponse().marshall();
     }
 
-    @Override
-    public IMessage unmarshall(ISession session, byte[] data, int length) {
-        try {
-            return new HttpMessage(session, new HttpRequest(data, length), null);
-        } catch (NonCompleteHttpRequestException e) {
-            throw new RuntimeException("Unexpected state. Bad HTTP request: \n'"
-                    + StringUtils.toUtf8String(Arrays.copyOf(data, length)) + "'", e);
-        }
-    }
-
     @Override
     public String toString() {
         return "Protocol: HttpProtocol\n" +
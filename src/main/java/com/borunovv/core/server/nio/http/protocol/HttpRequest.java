@@ -1,57 +1,107 @@
 package com.borunovv.core.server.nio.http.protocol;
 
+import com.borunovv.core.server.nio.core.buffer.ByteBufferInputStream;
+import com.borunovv.core.server.nio.core.buffer.PacketBuffer;
 import com.borunovv.core.util.Assert;
 import com.borunovv.core.util.HttpMethod;
 import com.borunovv.core.util.StringUtils;
 import com.borunovv.core.util.UrlUtils;
 
-import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 
 public class HttpRequest {
 
-    private static final Pattern URI_PATTERN = Pattern.compile("^(\\S+)\\s+(\\S+)\\s+.*$");
-
-    private static final String HDR_CONTENT_TYPE = "Content-Type";
-    private static final String HDR_CONTENT_LENGTH = "Content-Length";
-
-    private String rawHeader = "";
-    private String method = "";
-    private String uri = "";
-    private Map<String, List<String>> headers = new HashMap<String, List<String>>();
+    private HttpHeader header;
+    // Тело - либо копия (content), либо окно в буфере принятого пакета (packet, без копирования).
     private byte[] content = new byte[0];
-    private Map<String, String> uriParams = new HashMap<String, String>();
-    private String uriPath = "/";
+    private PacketBuffer packet;
+    private int contentOffset;
+    private int contentLength;
+
+    // Создаются при первом обращении.
+    private HttpMethod method;
+    private String uri;
+    private Map<String, String> uriParams;
+    private String uriPath;
 
 
     public HttpRequest(byte[] data, int length) throws NonCompleteHttpRequestException {
         parse(data, length);
     }
 
+    // Только заголовок (без разделителя '\r\n\r\n'), тело задается потом через setContent().
+    HttpRequest(byte[] header) {
+        this.header = new HttpHeader(header, header.length);
+    }
+
     public HttpMethod getMethod() {
-        return HttpMethod.fromString(method);
+        if (method == null) {
+            method = header.getMethod();
+        }
+        return method;
     }
 
     public String getUri() {
+        if (uri == null) {
+            uri = header.getUri();
+        }
         return uri;
     }
 
+    // Копия тела. Если тело лежит в буфере пакета - копируется при первом вызове.
+    // Для больших тел лучше getContentBuffer() / getContentStream().
     public byte[] getContent() {
+        if (content == null) {
+            ByteBuffer body = getContentBuffer();
+            content = new byte[body.remaining()];
+            body.get(content);
+        }
         return content;
     }
 
+    // Тело только для чтения, без копирования. Доступно только на время обработки запроса (до release()).
+    public ByteBuffer getContentBuffer() {
+        return packet != null ?
+                packet.getData(contentOffset, contentLength) :
+                ByteBuffer.wrap(content).asReadOnlyBuffer();
+    }
+
+    // Тело как поток, без копирования. Доступно только на время обработки запроса (до release()).
+    public InputStream getContentStream() {
+        return new ByteBufferInputStream(getContentBuffer());
+    }
+
+    public int getContentLength() {
+        return packet != null ?
+                contentLength :
+                content.length;
+    }
+
+    // Тело - байты [offset, offset + length) пакета. Буфер пакета теперь принадлежит запросу.
+    void setContent(PacketBuffer packet, int offset, int length) {
+        this.packet = packet;
+        this.contentOffset = offset;
+        this.contentLength = length;
+        this.content = null;
+    }
+
+    // Возвращает буфер пакета в пул. После этого тело недоступно (если не было скопировано getContent()).
+    public void release() {
+        if (packet != null) {
+            packet.release();
+        }
+    }
+
     public List<String> getHeader(String headerName) {
-        return (headerName != null && headers.containsKey(headerName.toLowerCase())) ?
-                headers.get(headerName.toLowerCase()) :
-                new ArrayList<>(0);
+        return header.getValues(headerName);
     }
 
     public String getSingleHeader(String headerName) {
-        List<String> values = getHeader(headerName);
-        return values.isEmpty() ?
-                null :
-                values.get(0);
+        return header.getFirstValue(headerName);
     }
 
     public boolean hasHeader(String headerName) {
@@ -59,16 +109,22 @@ public class HttpRequest {
     }
 
     public int getMarshalledSize() {
-        return rawHeader.length()
+        return header.getLength()
                 + 4 // '\r\n\r\n'
-                + content.length;
+                + getContentLength();
     }
 
     public String getUriPath() {
-        return StringUtils.ensureString(uriPath);
+        if (uriPath == null) {
+            uriPath = StringUtils.ensureString(UrlUtils.getUrlPath(getUri()));
+        }
+        return uriPath;
     }
 
     public Map<String, String> getUriParams() {
+        if (uriParams == null) {
+            uriParams = UrlUtils.parseUriParams(UrlUtils.getUriParamsPart(getUri()));
+        }
         return uriParams;
     }
 
@@ -79,10 +135,20 @@ public class HttpRequest {
         if (headerLength <= 0) {
             throw new NonCompleteHttpRequestException("Can't find header separator.");
         }
-        parseHeader(data, headerLength);
+        // Массив может быть чужим буфером - заголовок копируем.
+        header = new HttpHeader(Arrays.copyOf(data, headerLength), headerLength);
         parseContent(data, headerLength, length);
     }
 
+    // Копирует length байт, начиная с offset относительно position буфера.
+    static byte[] copyBytes(ByteBuffer buffer, int offset, int length) {
+        byte[] result = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(buffer.position() + offset);
+        view.get(result);
+        return result;
+    }
+
     private static int findHeaderSeparator(byte[] data, int length) {
         // Ищем разделитель '\r\n\r\n'
         int offset = 0;
@@ -108,55 +174,6 @@ public class HttpRequest {
         return -1;
     }
 
-    private void parseHeader(byte[] data, int headerLength) throws NonCompleteHttpRequestException {
-        headers.clear();
-
-        rawHeader = StringUtils.toUtf8String(data, 0, headerLength);
-        // Разделяем на кусочки.
-        String[] lines = rawHeader.split("\\r\\n");
-        // Первая строка содержит URI
-        if (lines.length < 1) {
-            throw new NonCompleteHttpRequestException("Not found first line with URI");
-        }
-        parseMethodAndUri(lines[0]);
-
-        // Теперь заголовки..
-        for (int i = 1; i < lines.length; ++i) {
-            String name = parseHeaderName(lines[i]);
-            String value = parseHeaderValue(lines[i]);
-            String headerKeyInMap = name.toLowerCase();
-            if (!headers.containsKey(headerKeyInMap)) {
-                headers.put(headerKeyInMap, new ArrayList<String>(1));
-            }
-            headers.get(headerKeyInMap).add(value);
-        }
-    }
-
-    // GET /uri/ HTTP/1.1
-    private void parseMethodAndUri(String line) {
-        Matcher matcher = URI_PATTERN.matcher(line);
-        if (!matcher.matches() || matcher.groupCount() != 2) {
-            throw new IllegalArgumentException("Can't parse Method and URI from line: '" + line + "'");
-        }
-        method = matcher.group(1);
-        uri = matcher.group(2);
-
-        uriParams = UrlUtils.parseUriParams(UrlUtils.getUriParamsPart(uri));
-        uriPath = UrlUtils.getUrlPath(uri);
-    }
-
-    private static String parseHeaderName(String line) {
-        return line.contains(":") ?
-                line.substring(0, line.indexOf(":")).trim() :
-                line;
-    }
-
-    private static String parseHeaderValue(String line) {
-        return line.contains(":") ?
-                line.substring(line.indexOf(":") + 1).trim() :
-                "";
-    }
-
     private void parseContent(byte[] data, int headerLength, int length) throws NonCompleteHttpRequestException {
         int contentOffset = headerLength + 4; // skip '\r\n\r\n'.
         int contentLengthByHeader = getContentLengthFromHeader();
@@ -169,68 +186,18 @@ public class HttpRequest {
         }
     }
 
+    // 0, если заголовка нет (считаем, что в запросе только заголовок).
     public int getContentLengthFromHeader() {
-        List<String> values = getHeader(HDR_CONTENT_LENGTH);
-        if (values.isEmpty()) {
-            return 0; // Считаем, что в запросе только заголовок.
-        } else {
-            return Integer.parseInt(values.get(0));
-        }
+        return header.getContentLength();
     }
 
     public String getContentType() {
-        return getSingleHeader(HDR_CONTENT_TYPE);
-    }
-
-    // Пробует парсить пакет, вернет длину валидного пакета в байтах.
-    // Иначе вернет -1;
-    public static int tryParse(byte[] data, int length) {
-        try {
-            return tryParseLocal(data, length);
-        } catch (NonCompleteHttpRequestException e) {
-            return 0;
-        }
-    }
-
-
-    // Пробует парсить пакет, вернет длину валидного пакета в байтах.
-    // Иначе вернет -1;
-    private static int tryParseLocal(byte[] data, int length) throws NonCompleteHttpRequestException {
-        Assert.isTrue(data != null, "data is null");
-        Assert.isTrue(length > 0 && length <= data.length, "Invalid length");
-
-        int headerLength = findHeaderSeparator(data, length);
-        if (headerLength <= 0) {
-            return -1;
-        }
-
-        String rawHeader = StringUtils.toUtf8String(data, 0, headerLength);
-        // Разделяем на кусочки.
-        String[] lines = rawHeader.split("\\r\\n");
-        // Первая строка содержит URI
-        if (lines.length < 1) {
-            return -1;
-        }
-
-        int contentLengthByHeader = 0;
-        // Теперь заголовки..
-        for (int i = 1; i < lines.length; ++i) {
-            String name = parseHeaderName(lines[i]);
-            String value = parseHeaderValue(lines[i]);
-            if (name.equalsIgnoreCase("Content-Length")) {
-                contentLengthByHeader = Integer.parseInt(value);
-                break;
-            }
-        }
-
-        int expectedRequestSize = headerLength + 4 + contentLengthByHeader; // skip '\r\n\r\n'.
-        return expectedRequestSize <= length ?
-                expectedRequestSize :
-                -1;
+        return getSingleHeader(HttpHeader.CONTENT_TYPE);
     }
 
     @Override
     public String toString() {
-        return "HttpRequest{" + StringUtils.ensureString(method) + " " + StringUtils.ensureString(uri) + "}";
+        // Только метод и URI: заголовки (Authorization, Cookie) в логи не пишем.
+        return "HttpRequest{" + header.getMethodName() + " " + getUri() + "}";
     }
 }
@@ -0,0 +1,130 @@
+package com.borunovv.core.server.nio.http.protocol;
+
+import com.borunovv.core.server.nio.core.buffer.PacketBuffer;
+import com.borunovv.core.server.nio.core.protocol.IMessage;
+import com.borunovv.core.server.nio.core.protocol.IPacketParser;
+import com.borunovv.core.server.nio.core.session.ISession;
+import com.borunovv.core.util.Assert;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Инкрементальный парсер HTTP-запросов сессии.
+ * Пока не пришел весь заголовок - ищем разделитель '\r\n\r\n' только в новых байтах.
+ * Заголовок разбираем один раз, дальше лишь ждем тело длиной Content-Length.
+ * Готовый запрос отдаем в unmarshall без повторного разбора, тело остается в буфере пакета.
+ */
+public class HttpRequestParser implements IPacketParser {
+
+    private static final int HEADER_SEPARATOR_LENGTH = 4; // '\r\n\r\n'
+    private static final int REJECT_RETRY_AFTER_SECONDS = 1;
+
+    // С какого смещения продолжать поиск разделителя заголовка.
+    private int scanOffset = 0;
+    // Длина заголовка без разделителя (-1 - заголовок еще не дочитан).
+    private int headerLength = -1;
+    // Полная длина запроса (заголовок, разделитель и тело).
+    private int expectedSize = -1;
+    // Запрос с разобранным заголовком, ждет тело.
+    private HttpRequest request = null;
+
+    @Override
+    public int checkPacket(ByteBuffer buffer) {
+        int available = buffer.position();
+        if (request == null) {
+            headerLength = findHeaderSeparator(buffer, available);
+            // Пустой заголовок - тоже еще не запрос.
+            if (headerLength <= 0) {
+                return -1;
+            }
+            request = parseHeader(buffer, headerLength);
+
+            int contentLength = request.getContentLengthFromHeader();
+            Assert.isTrue(contentLength >= 0, "Bad Content-Length: " + contentLength);
+            // В long: Content-Length около Integer.MAX_VALUE иначе переполнит сумму. Больше int все равно
+            // не бывает пакетов - такой запрос SessionReader отвергнет по лимиту размера пакета (413).
+            expectedSize = (int) Math.min(Integer.MAX_VALUE,
+                    (long) headerLength + HEADER_SEPARATOR_LENGTH + contentLength);
+        }
+
+        return available >= expectedSize ?
+                expectedSize :
+                -1;
+    }
+
+    @Override
+    public IMessage unmarshall(ISession session, PacketBuffer packet) {
+        try {
+            Assert.isTrue(request != null, "Unexpected state: request header not parsed");
+            Assert.isTrue(packet.getLength() == expectedSize,
+                    "Unexpected packet size: " + packet.getLength() + ", expected: " + expectedSize);
+
+            int contentOffset = headerLength + HEADER_SEPARATOR_LENGTH;
+            if (expectedSize > contentOffset) {
+                // Тело не копируем - запрос забирает буфер пакета.
+                request.setContent(packet, contentOffset, expectedSize - contentOffset);
+            } else {
+                packet.release();
+            }
+            return new HttpMessage(session, request, null);
+        } finally {
+            reset();
+        }
+    }
+
+    @Override
+    public int getExpectedPacketLength() {
+        return expectedSize;
+    }
+
+    // Заголовок уже разобран - отвечаем клиенту, не читая тело: 413 или 503 (пусть повторит позже).
+    @Override
+    public IMessage rejectPacket(ISession session, boolean tooLarge) {
+        try {
+            if (request == null) {
+                return null;
+            }
+            HttpResponse response;
+            if (tooLarge) {
+                response = new HttpResponse(413);
+                response.writePlainText("Request is too large.");
+            } else {
+                response = HttpResponse.serviceUnavailable(REJECT_RETRY_AFTER_SECONDS);
+            }
+            response.setHeader(HttpHeader.CONNECTION, "close");
+            return new HttpMessage(session, request, response);
+        } finally {
+            reset();
+        }
+    }
+
+    @Override
+    public void reset() {
+        scanOffset = 0;
+        headerLength = -1;
+        expectedSize = -1;
+        request = null;
+    }
+
+    // Ищем разделитель среди байт [scanOffset, available). Вернет его смещение или -1.
+    private int findHeaderSeparator(ByteBuffer buffer, int available) {
+        int end = available - HEADER_SEPARATOR_LENGTH;
+        for (int i = scanOffset; i <= end; ++i) {
+            if (buffer.get(i) == '\r'
+                    && buffer.get(i + 1) == '\n'
+                    && buffer.get(i + 2) == '\r'
+                    && buffer.get(i + 3) == '\n') {
+                return i;
+            }
+        }
+        // Последние 3 байта могут оказаться началом разделителя - проверим их в следующий раз.
+        scanOffset = Math.max(0, available - HEADER_SEPARATOR_LENGTH + 1);
+        return -1;
+    }
+
+    private static HttpRequest parseHeader(ByteBuffer buffer, int headerLength) {
+        ByteBuffer data = buffer.duplicate();
+        data.position(0);
+        return new HttpRequest(HttpRequest.copyBytes(data, 0, headerLength));
+    }
+}
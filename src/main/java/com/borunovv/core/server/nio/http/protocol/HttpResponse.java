@@ -3,21 +3,21 @@ package com.borunovv.core.server.nio.http.protocol;
 import com.borunovv.core.server.nio.core.protocol.AbstractDeliverable;
 import com.borunovv.core.util.StringUtils;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
 public class HttpResponse extends AbstractDeliverable {
 
     private int status;
-    private Map<String, String> headers = new HashMap<String, String>();
+    // Заголовки, кроме Content-Type и Content-Length (создаются при первом setHeader).
+    private Map<String, String> headers;
+    private String contentType;
     private byte[] content;
+    // Стандартный блок запрета кэширования на клиенте (пишется готовой константой).
+    private boolean noCacheHeaders = true;
 
     public HttpResponse(int status) {
         this.status = status;
-        disableCachingOnClientSide();
     }
 
     public HttpResponse(int status, byte[] content) {
@@ -25,11 +25,23 @@ public class HttpResponse extends AbstractDeliverable {
         this.content = content;
     }
 
+    // headers - все заголовки ответа (без блока запрета кэширования).
     public HttpResponse(int status, Map<String, String> headers, byte[] content) {
         this(status, content);
-        this.headers = headers != null ?
-                headers :
-                new HashMap<>();
+        this.noCacheHeaders = false;
+        if (headers != null) {
+            for (Map.Entry<String, String> entry : headers.entrySet()) {
+                setHeader(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    // 503 с Retry-After: сервер перегружен, повторить запрос через retryAfterSeconds.
+    public static HttpResponse serviceUnavailable(int retryAfterSeconds) {
+        HttpResponse response = new HttpResponse(503)
+                .setHeader(HttpResponseMarshaller.RETRY_AFTER, Integer.toString(retryAfterSeconds));
+        response.writePlainText("Server is overloaded, retry later.");
+        return response;
     }
 
     public HttpResponse setStatus(int status) {
@@ -39,12 +51,23 @@ public class HttpResponse extends AbstractDeliverable {
 
     public HttpResponse setContent(byte[] content, String contentType) {
         this.content = content;
-        setHeader("Content-Type", contentType);
+        this.contentType = contentType;
         return this;
     }
 
     public HttpResponse setHeader(String name, String value) {
-        headers.put(name, value);
+        if (HttpHeader.CONTENT_TYPE.equalsIgnoreCase(name)) {
+            contentType = value;
+            return this;
+        }
+        if (noCacheHeaders && isNoCacheHeader(name)) {
+            // Меняют один из заголовков кэширования - готовый блок больше не подходит.
+            noCacheHeaders = false;
+            getHeaders().put(HttpResponseMarshaller.CACHE_CONTROL, HttpResponseMarshaller.CACHE_CONTROL_NO_CACHE);
+            getHeaders().put(HttpResponseMarshaller.PRAGMA, HttpResponseMarshaller.PRAGMA_NO_CACHE);
+            getHeaders().put(HttpResponseMarshaller.EXPIRES, HttpResponseMarshaller.EXPIRES_NO_CACHE);
+        }
+        getHeaders().put(name, value);
         return this;
     }
 
@@ -66,59 +89,28 @@ public class HttpResponse extends AbstractDeliverable {
     }
 
     public byte[] marshall() {
-        String header = "HTTP/1.1 " + status + " " + getStatusText(status) + "\r\n";
-        if (headers != null) {
-            for (Map.Entry<String, String> entry : headers.entrySet()) {
-                header += entry.getKey() + ": " + entry.getValue() + "\r\n";
-            }
-        }
-        header += "Content-Length: " + (content != null ? content.length : 0) + "\r\n";
+        return HttpResponseMarshaller.marshall(status, noCacheHeaders, headers, contentType, content);
+    }
 
-        ByteArrayOutputStream bas = new ByteArrayOutputStream();
-        try {
-            bas.write(StringUtils.uft8StringToBytes(header));
-        } catch (IOException e) {
-            throw new RuntimeException("Can't write header to byte array stream, header: " + header, e);
-        }
-        bas.write('\r');
-        bas.write('\n');
-        if (content != null) {
-            try {
-                bas.write(content);
-            } catch (IOException e) {
-                throw new RuntimeException("Failed to write content to byte stream", e);
-            }
-        }
-        return bas.toByteArray();
+    public int getStatus() {
+        return status;
+    }
+
+    public static String getStatusText(int status) {
+        return HttpResponseMarshaller.getStatusText(status);
     }
 
-    private void disableCachingOnClientSide() {
+    private Map<String, String> getHeaders() {
         if (headers == null) {
             headers = new LinkedHashMap<>();
         }
+        return headers;
+    }
 
-        setHeader("Cache-Control", "no-cache, no-store, must-revalidate");
-        setHeader("Pragma", "no-cache");
-        setHeader("Expires", "0");
-    }
-
-    private static String getStatusText(int status) {
-        switch (status) {
-            case 200:
-                return "OK";
-            case 101:
-                return "Switching Protocols";
-            case 301:
-                return "Moved Permanently";
-            case 302:
-                return "Found";
-            case 404:
-                return "Not Found";
-            case 500:
-                return "Server Error";
-            default:
-                return "";
-        }
+    private static boolean isNoCacheHeader(String name) {
+        return HttpResponseMarshaller.CACHE_CONTROL.equalsIgnoreCase(name)
+                || HttpResponseMarshaller.PRAGMA.equalsIgnoreCase(name)
+                || HttpResponseMarshaller.EXPIRES.equalsIgnoreCase(name);
     }
 
     @Override
@@ -0,0 +1,275 @@
+package com.borunovv.core.server.nio.http.protocol;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Сериализация HttpResponse в байты.
+ * Строки статуса, частые заголовки и блок запрета кэширования закодированы заранее (byte[] константы).
+ * Сначала считаем точный размер ответа, потом пишем все прямо в массив этого размера
+ * (без промежуточных строк, StringBuilder-ов и ByteArrayOutputStream).
+ */
+final class HttpResponseMarshaller {
+
+    private static final int MIN_STATUS = 100;
+    private static final int MAX_STATUS = 599;
+
+    private static final String[] STATUS_TEXTS = new String[MAX_STATUS + 1];
+    // "HTTP/1.1 200 OK\r\n" для каждого кода из таблицы.
+    private static final byte[][] STATUS_LINES = new byte[MAX_STATUS + 1][];
+
+    private static final byte[] HEADER_NAME_SEPARATOR = ascii(": ");
+    private static final byte[] CRLF = ascii("\r\n");
+    private static final byte[] CONTENT_LENGTH = ascii(HttpHeader.CONTENT_LENGTH + ": ");
+    private static final byte[] CONTENT_TYPE = ascii(HttpHeader.CONTENT_TYPE + ": ");
+    private static final byte[] CONTENT_TYPE_JSON = ascii(HttpHeader.CONTENT_TYPE + ": " + ContentType.JSON + "\r\n");
+    private static final byte[] CONTENT_TYPE_TEXT = ascii(HttpHeader.CONTENT_TYPE + ": " + ContentType.TEXT + "\r\n");
+    private static final byte[] CONTENT_TYPE_HTML = ascii(HttpHeader.CONTENT_TYPE + ": " + ContentType.HTML + "\r\n");
+
+    static final String CACHE_CONTROL = "Cache-Control";
+    static final String PRAGMA = "Pragma";
+    static final String EXPIRES = "Expires";
+    static final String CACHE_CONTROL_NO_CACHE = "no-cache, no-store, must-revalidate";
+    static final String PRAGMA_NO_CACHE = "no-cache";
+    static final String EXPIRES_NO_CACHE = "0";
+    static final String RETRY_AFTER = "Retry-After";
+    private static final byte[] NO_CACHE_HEADERS = ascii(
+            CACHE_CONTROL + ": " + CACHE_CONTROL_NO_CACHE + "\r\n"
+                    + PRAGMA + ": " + PRAGMA_NO_CACHE + "\r\n"
+                    + EXPIRES + ": " + EXPIRES_NO_CACHE + "\r\n");
+
+    static {
+        status(100, "Continue");
+        status(101, "Switching Protocols");
+
+        status(200, "OK");
+        status(201, "Created");
+        status(202, "Accepted");
+        status(203, "Non-Authoritative Information");
+        status(204, "No Content");
+        status(205, "Reset Content");
+        status(206, "Partial Content");
+
+        status(300, "Multiple Choices");
+        status(301, "Moved Permanently");
+        status(302, "Found");
+        status(303, "See Other");
+        status(304, "Not Modified");
+        status(305, "Use Proxy");
+        status(307, "Temporary Redirect");
+        status(308, "Permanent Redirect");
+
+        status(400, "Bad Request");
+        status(401, "Unauthorized");
+        status(402, "Payment Required");
+        status(403, "Forbidden");
+        status(404, "Not Found");
+        status(405, "Method Not Allowed");
+        status(406, "Not Acceptable");
+        status(407, "Proxy Authentication Required");
+        status(408, "Request Timeout");
+        status(409, "Conflict");
+        status(410, "Gone");
+        status(411, "Length Required");
+        status(412, "Precondition Failed");
+        status(413, "Payload Too Large");
+        status(414, "URI Too Long");
+        status(415, "Unsupported Media Type");
+        status(416, "Range Not Satisfiable");
+        status(417, "Expectation Failed");
+        status(426, "Upgrade Required");
+        status(428, "Precondition Required");
+        status(429, "Too Many Requests");
+        status(431, "Request Header Fields Too Large");
+
+        status(500, "Server Error");
+        status(501, "Not Implemented");
+        status(502, "Bad Gateway");
+        status(503, "Service Unavailable");
+        status(504, "Gateway Timeout");
+        status(505, "HTTP Version Not Supported");
+        status(511, "Network Authentication Required");
+    }
+
+    private HttpResponseMarshaller() {
+    }
+
+    // Текст статуса ("" для неизвестного кода).
+    static String getStatusText(int status) {
+        String text = (status >= MIN_STATUS && status <= MAX_STATUS) ?
+                STATUS_TEXTS[status] :
+                null;
+        return text != null ? text : "";
+    }
+
+    static byte[] marshall(int status,
+                           boolean noCacheHeaders,
+                           Map<String, String> headers,
+                           String contentType,
+                           byte[] content) {
+        byte[] statusLine = getStatusLine(status);
+        byte[] contentTypeLine = getContentTypeLine(contentType);
+        int contentLength = content != null ? content.length : 0;
+
+        // Считаем точный размер.
+        int size = statusLine.length;
+        if (noCacheHeaders) {
+            size += NO_CACHE_HEADERS.length;
+        }
+        if (headers != null) {
+            for (Map.Entry<String, String> entry : headers.entrySet()) {
+                size += utf8Length(entry.getKey()) + HEADER_NAME_SEPARATOR.length
+                        + utf8Length(entry.getValue()) + CRLF.length;
+            }
+        }
+        if (contentTypeLine != null) {
+            size += contentTypeLine.length;
+        } else if (contentType != null) {
+            size += CONTENT_TYPE.length + utf8Length(contentType) + CRLF.length;
+        }
+        size += CONTENT_LENGTH.length + decimalLength(contentLength) + CRLF.length
+                + CRLF.length
+                + contentLength;
+
+        // Пишем.
+        byte[] result = new byte[size];
+        int pos = put(statusLine, result, 0);
+        if (noCacheHeaders) {
+            pos = put(NO_CACHE_HEADERS, result, pos);
+        }
+        if (headers != null) {
+            for (Map.Entry<String, String> entry : headers.entrySet()) {
+                pos = putUtf8(entry.getKey(), result, pos);
+                pos = put(HEADER_NAME_SEPARATOR, result, pos);
+                pos = putUtf8(entry.getValue(), result, pos);
+                pos = put(CRLF, result, pos);
+            }
+        }
+        if (contentTypeLine != null) {
+            pos = put(contentTypeLine, result, pos);
+        } else if (contentType != null) {
+            pos = put(CONTENT_TYPE, result, pos);
+            pos = putUtf8(contentType, result, pos);
+            pos = put(CRLF, result, pos);
+        }
+        pos = put(CONTENT_LENGTH, result, pos);
+        pos = putDecimal(contentLength, result, pos);
+        pos = put(CRLF, result, pos);
+        pos = put(CRLF, result, pos);
+        if (content != null) {
+            pos = put(content, result, pos);
+        }
+
+        if (pos != size) {
+            throw new IllegalStateException("Response size mismatch: " + pos + " != " + size);
+        }
+        return result;
+    }
+
+    private static void status(int status, String text) {
+        STATUS_TEXTS[status] = text;
+        STATUS_LINES[status] = ascii("HTTP/1.1 " + status + " " + text + "\r\n");
+    }
+
+    private static byte[] getStatusLine(int status) {
+        byte[] line = (status >= MIN_STATUS && status <= MAX_STATUS) ?
+                STATUS_LINES[status] :
+                null;
+        return line != null ?
+                line :
+                ("HTTP/1.1 " + status + " \r\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] getContentTypeLine(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        switch (contentType) {
+            case ContentType.JSON:
+                return CONTENT_TYPE_JSON;
+            case ContentType.TEXT:
+                return CONTENT_TYPE_TEXT;
+            case ContentType.HTML:
+                return CONTENT_TYPE_HTML;
+            default:
+                return null;
+        }
+    }
+
+    private static int put(byte[] what, byte[] dest, int pos) {
+        System.arraycopy(what, 0, dest, pos, what.length);
+        return pos + what.length;
+    }
+
+    private static int decimalLength(int value) {
+        int length = 1;
+        while (value >= 10) {
+            value /= 10;
+            length++;
+        }
+        return length;
+    }
+
+    // value >= 0
+    private static int putDecimal(int value, byte[] dest, int pos) {
+        int end = pos + decimalLength(value);
+        int i = end;
+        do {
+            dest[--i] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        return end;
+    }
+
+    // Длина строки в UTF-8 (непарный суррогат, как и в String.getBytes(), кодируется как '?').
+    private static int utf8Length(String str) {
+        int length = 0;
+        for (int i = 0; i < str.length(); ++i) {
+            char c = str.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)
+                    && i + 1 < str.length() && Character.isLowSurrogate(str.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static int putUtf8(String str, byte[] dest, int pos) {
+        for (int i = 0; i < str.length(); ++i) {
+            char c = str.charAt(i);
+            if (c < 0x80) {
+                dest[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                dest[pos++] = (byte) (0xC0 | (c >> 6));
+                dest[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c)
+                    && i + 1 < str.length() && Character.isLowSurrogate(str.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, str.charAt(++i));
+                dest[pos++] = (byte) (0xF0 | (codePoint >> 18));
+                dest[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                dest[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                dest[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                dest[pos++] = '?';
+            } else {
+                dest[pos++] = (byte) (0xE0 | (c >> 12));
+                dest[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                dest[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return pos;
+    }
+
+    private static byte[] ascii(String str) {
+        return str.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -1,14 +1,26 @@
 package com.borunovv.core.server.nio.http.service;
 
+import com.borunovv.core.server.nio.core.buffer.ByteBufferPool;
 import com.borunovv.core.server.nio.core.protocol.IMessage;
 import com.borunovv.core.server.nio.core.protocol.IMessageProtocol;
 import com.borunovv.core.server.nio.core.service.*;
+import com.borunovv.core.server.nio.core.session.SessionConfig;
 import com.borunovv.core.server.nio.core.session.SessionFactory;
 import com.borunovv.core.server.nio.http.protocol.HttpMessage;
 import com.borunovv.core.server.nio.http.protocol.HttpProtocol;
 import com.borunovv.core.server.nio.http.protocol.HttpRequest;
 import com.borunovv.core.server.nio.http.protocol.HttpResponse;
 import com.borunovv.core.service.AbstractService;
+import com.borunovv.core.util.IPUtils;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 public class HttpServer extends AbstractService {
 
@@ -17,21 +29,31 @@ public class HttpServer extends AbstractService {
     private static final int COMMON_PACKET_SIZE = 10 * 1024;     // 10 Kb
     private static final int INACTIVITY_TIMEOUT = 30;
 
-    private static final int INPUT_WORKER_THREADS = 4;
     private static final int INPUT_QUEUE_SIZE = 1000;
-    private static final int OUTPUT_WORKER_THREADS = 2;
     private static final int OUTPUT_QUEUE_SIZE = 1000;
     private static final int CALLBACK_WORKER_THREADS = 1;
-    private static final int CALLBACK_QUEUE_SIZE = 10;
+    private static final int CALLBACK_QUEUE_SIZE = 1000;
     private static final int QUEUE_TIMEOUT_SECONDS = 30;
+    // Сколько разных endpoint-ов считать в статистике сброшенных запросов (остальные - в "*").
+    private static final int MAX_SHED_ENDPOINTS = 100;
 
     private NioServer server;
-    private ConcurrentMessageDispatcher messageDispatcher;
+    private IMessageDispatcher messageDispatcher;
+    private RequestRateLimiter requestRateLimiter;
+    private MemoryBudget memoryBudget;
+    // Endpoint -> сколько запросов сброшено при перегрузке (503).
+    private final ConcurrentHashMap<String, LongAdder> shedByEndpoint = new ConcurrentHashMap<>();
+    // Endpoint -> сколько запросов не влезло в полную очередь (тоже 503, но это не сброс по ожиданию).
+    private final ConcurrentHashMap<String, LongAdder> rejectedByEndpoint = new ConcurrentHashMap<>();
 
     private volatile boolean isStarted = false;
     private volatile int port;
 
     public void start(int port, IHttpController controller) {
+        start(port, controller, new HttpServerConfig());
+    }
+
+    public void start(int port, IHttpController controller, HttpServerConfig config) {
 
         if (!isStarted) {
             logger.info("HttpServer starting ..");
@@ -41,27 +63,46 @@ public class HttpServer extends AbstractService {
                     COMMON_PACKET_SIZE,
                     INACTIVITY_TIMEOUT);
 
-            IMessageProcessor messageProcessor = createMessageProcessor(controller);
+            shedByEndpoint.clear();
+            rejectedByEndpoint.clear();
+            IMessageProcessor messageProcessor = createMessageProcessor(controller, config);
 
-            messageDispatcher = new ConcurrentMessageDispatcher(getDispatcherConfig(messageProcessor));
+            messageDispatcher = createMessageDispatcher(messageProcessor, controller, config);
 
             messageProcessor.setMessageDispatcher(messageDispatcher);
 
             messageDispatcher.start();
 
+            requestRateLimiter = createRequestRateLimiter(controller, config);
+            memoryBudget = config.getMemoryBudgetBytes() > 0 ?
+                    new MemoryBudget(config.getMemoryBudgetBytes()) :
+                    null;
+
             server = new NioServer(
                     port,
-                    ACCEPT_QUEUE_SIZE,
+                    config.getAcceptQueueSize(),
                     new SessionFactory(
                             messageDispatcher,
                             messageProtocol,
-                            false));
+                            config.getRequestOrdering() == RequestOrdering.SEQUENTIAL,
+                            new SessionConfig()
+                                    .setDirectWrite(config.isDirectWrite())
+                                    .setWriteBatchSize(config.getWriteBatchSize())
+                                    .setRequestRateLimiter(requestRateLimiter)
+                                    .setMemoryBudget(memoryBudget)),
+                    config.getRWThreads(),
+                    config.getReactorBalancing(),
+                    getBufferPoolConfig(config),
+                    config.getAcceptThreads(),
+                    config.getMaxConnections() > 0 || config.getMaxConnectionsPerIp() > 0 ?
+                            new ConnectionLimiter(config.getMaxConnections(), config.getMaxConnectionsPerIp()) :
+                            null);
 
             server.start();
             isStarted = true;
             this.port = port;
 
-            logger.info("HttpServer started successfully (port #" + port + ")");
+            logger.info("HttpServer started successfully (port #" + port + ")\n" + config);
         } else {
             throw new IllegalStateException("Server already started!");
         }
@@ -76,6 +117,8 @@ public class HttpServer extends AbstractService {
 
             server = null;
             messageDispatcher = null;
+            requestRateLimiter = null;
+            memoryBudget = null;
 
             isStarted = false;
 
@@ -90,23 +133,129 @@ public class HttpServer extends AbstractService {
         }
     }
 
-    private ConcurrentMessageDispatcher.Config getDispatcherConfig(IMessageProcessor messageProcessor) {
+    // Буферы от 1K до размера, вмещающего самый большой пакет.
+    private ByteBufferPool.Config getBufferPoolConfig(HttpServerConfig config) {
+        int maxBufferSize = Integer.highestOneBit(MAX_PACKET_SIZE - 1) << 1;
+        return new ByteBufferPool.Config(
+                1024,
+                maxBufferSize,
+                config.getMaxPooledBytesPerRWThread(),
+                config.isDirectBuffers());
+    }
+
+    private IMessageDispatcher createMessageDispatcher(IMessageProcessor messageProcessor,
+                                                       IHttpController controller,
+                                                       HttpServerConfig config) {
+        ConcurrentMessageDispatcher.Config dispatcherConfig = getDispatcherConfig(messageProcessor, controller, config);
+        if (config.getRequestOrdering() == RequestOrdering.SESSION_AFFINITY && config.isVirtualThreads()) {
+            logger.warn("HttpServer: virtual threads are ignored with " + RequestOrdering.SESSION_AFFINITY);
+        }
+        return config.getRequestOrdering() == RequestOrdering.SESSION_AFFINITY ?
+                new ShardedMessageDispatcher(dispatcherConfig) :
+                new ConcurrentMessageDispatcher(dispatcherConfig);
+    }
+
+    private ConcurrentMessageDispatcher.Config getDispatcherConfig(IMessageProcessor messageProcessor,
+                                                                   IHttpController controller,
+                                                                   HttpServerConfig config) {
         return new ConcurrentMessageDispatcher.Config(
-                INPUT_WORKER_THREADS,
+                config.getWorkerThreads(),
                 INPUT_QUEUE_SIZE,
                 QUEUE_TIMEOUT_SECONDS,
 
-                OUTPUT_WORKER_THREADS,
+                config.getOutputWorkerThreads(),
                 OUTPUT_QUEUE_SIZE,
                 QUEUE_TIMEOUT_SECONDS,
 
                 CALLBACK_WORKER_THREADS,
                 CALLBACK_QUEUE_SIZE,
                 QUEUE_TIMEOUT_SECONDS,
-                messageProcessor);
+                messageProcessor)
+                .setWaitStrategy(config.getWorkerWaitStrategy())
+                .setVirtualThreadsConcurrency(config.isVirtualThreads() ? config.getVirtualThreadsConcurrency() : 0)
+                .setWorkStealing(config.isWorkStealing())
+                .setInputLanes(createRequestLanes(controller, config))
+                .setLoadShedding(config.getLoadSheddingTargetDelayMs(), config.getLoadSheddingIntervalMs())
+                .setInputMaxWorkerThreads(config.getMaxWorkerThreads())
+                .setOutputMaxWorkerThreads(config.getMaxOutputWorkerThreads())
+                .setDirectOutput(config.isDirectOutput());
+    }
+
+    // Полоса запроса: от контроллера, иначе по префиксу пути, иначе первая.
+    private PriorityLanes<IMessage> createRequestLanes(IHttpController controller, HttpServerConfig config) {
+        List<PriorityLanes.Lane> lanes = config.getRequestLanes();
+        if (lanes.isEmpty()) {
+            return null;
+        }
+        Map<String, Integer> laneIndexes = new HashMap<>();
+        for (int i = 0; i < lanes.size(); ++i) {
+            laneIndexes.put(lanes.get(i).getName(), i);
+        }
+        return new PriorityLanes<>(lanes, msg -> {
+            HttpRequest request = ((HttpMessage) msg).getRequest();
+            String lane = controller.getRequestLane(request);
+            if (lane == null) {
+                lane = config.findRequestLaneByPath(request.getUriPath());
+            }
+            Integer index = lane != null ? laneIndexes.get(lane) : null;
+            return index != null ? index : 0;
+        });
+    }
+
+    // Класс лимита запроса: от контроллера, иначе по префиксу пути, иначе первый.
+    // Клиент: от контроллера (например, пользователь), иначе IP или соединение (RateLimitKey).
+    private RequestRateLimiter createRequestRateLimiter(IHttpController controller, HttpServerConfig config) {
+        List<RequestRateLimiter.Limit> limits = config.getRateLimits();
+        if (limits.isEmpty()) {
+            return null;
+        }
+        Map<String, Integer> limitIndexes = new HashMap<>();
+        for (int i = 0; i < limits.size(); ++i) {
+            limitIndexes.put(limits.get(i).getName(), i);
+        }
+        return new RequestRateLimiter(limits, new RequestRateLimiter.IClassifier() {
+            @Override
+            public int getLimitIndex(IMessage msg) {
+                HttpRequest request = ((HttpMessage) msg).getRequest();
+                String limit = controller.getRateLimit(request);
+                if (limit == null) {
+                    limit = config.findRateLimitByPath(request.getUriPath());
+                }
+                Integer index = limit != null ? limitIndexes.get(limit) : null;
+                return index != null ? index : 0;
+            }
+
+            @Override
+            public long getClientKey(IMessage msg) {
+                String client = controller.getRateLimitClient(((HttpMessage) msg).getRequest());
+                return client != null ?
+                        hash(client) :
+                        getAddressKey(msg.getSession().getClientRemoteAddress(), config.getRateLimitKey());
+            }
+        });
+    }
+
+    private static long getAddressKey(SocketAddress address, RateLimitKey rateLimitKey) {
+        if (!(address instanceof InetSocketAddress) || ((InetSocketAddress) address).getAddress() == null) {
+            return 0;
+        }
+        InetSocketAddress inetAddress = (InetSocketAddress) address;
+        long ip = IPUtils.toLong(inetAddress.getAddress());
+        return rateLimitKey == RateLimitKey.CONNECTION ?
+                ip * 65537 + inetAddress.getPort() :
+                ip;
+    }
+
+    // 64-битный хеш строки: с 32-битным String.hashCode() разные клиенты слишком часто делили бы корзину.
+    private static long hash(String str) {
+        long result = 1125899906842597L;
+        for (int i = 0; i < str.length(); ++i) {
+            result = 31 * result + str.charAt(i);
+        }
+        return result;
     }
 
-    private IMessageProcessor createMessageProcessor(final IHttpController controller) {
+    private IMessageProcessor createMessageProcessor(final IHttpController controller, final HttpServerConfig config) {
         return new AbstractMessageProcessor() {
             @Override
             public void processInputMessage(IMessage msg) {
@@ -117,14 +266,104 @@ public class HttpServer extends AbstractService {
                 responseMsg.addDeliveryCallbacks(response.getDeliveryCallbacks());
                 getDispatcher().queueOutputMessage(responseMsg);
             }
+
+            // Запрос слишком долго ждал в очереди: сразу отвечаем 503, пусть клиент повторит позже.
+            @Override
+            public void onInputMessageShed(IMessage msg) {
+                super.onInputMessageShed(msg);
+                count(shedByEndpoint, controller.getEndpoint(((HttpMessage) msg).getRequest()));
+                respondServiceUnavailable(msg);
+            }
+
+            // Очередь полна: тоже 503, а не молчание до таймаута клиента.
+            @Override
+            public void onInputMessageReject(IMessage msg) {
+                super.onInputMessageReject(msg);
+                count(rejectedByEndpoint, controller.getEndpoint(((HttpMessage) msg).getRequest()));
+                respondServiceUnavailable(msg);
+            }
+
+            private void respondServiceUnavailable(IMessage msg) {
+                HttpRequest request = ((HttpMessage) msg).getRequest();
+                getDispatcher().queueOutputMessage(new HttpMessage(msg.getSession(), request,
+                        HttpResponse.serviceUnavailable(config.getRetryAfterSeconds())));
+            }
         };
     }
 
+    private static void count(ConcurrentHashMap<String, LongAdder> byEndpoint, String endpoint) {
+        LongAdder counter = byEndpoint.get(endpoint);
+        if (counter == null) {
+            counter = byEndpoint.size() < MAX_SHED_ENDPOINTS ?
+                    byEndpoint.computeIfAbsent(endpoint, key -> new LongAdder()) :
+                    byEndpoint.computeIfAbsent("*", key -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    // Endpoint -> сколько запросов сброшено при перегрузке.
+    public Map<String, Long> getShedCounts() {
+        return toCounts(shedByEndpoint);
+    }
+
+    // Endpoint -> сколько запросов не влезло в полную очередь.
+    public Map<String, Long> getRejectCounts() {
+        return toCounts(rejectedByEndpoint);
+    }
+
+    private static Map<String, Long> toCounts(ConcurrentHashMap<String, LongAdder> byEndpoint) {
+        Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : byEndpoint.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().sum());
+        }
+        return result;
+    }
+
     public boolean isRunning() {
         return isStarted;
     }
 
+    public String getStats() {
+        NioServer nioServer = server;
+        IMessageDispatcher dispatcher = messageDispatcher;
+        if (nioServer == null || dispatcher == null) {
+            return "HttpServer not started.";
+        }
+        Map<String, Long> shed = getShedCounts();
+        Map<String, Long> rejected = getRejectCounts();
+        RequestRateLimiter limiter = requestRateLimiter;
+        MemoryBudget budget = memoryBudget;
+        return nioServer.getStats() + dispatcher.getStats()
+                + (budget != null ? "\n" + budget.getStats() : "")
+                + (limiter != null ? "\n" + limiter.getStats() : "")
+                + (shed.isEmpty() ? "" : "\nShed by endpoint: " + shed)
+                + (rejected.isEmpty() ? "" : "\nRejected (queue full) by endpoint: " + rejected);
+    }
+
     public interface IHttpController {
         void handle(HttpRequest request, HttpResponse response);
+
+        // Имя полосы (см. HttpServerConfig.addRequestLane) для запроса или null - решит сервер.
+        // Вызывается в потоке реактора, должен быть быстрым.
+        default String getRequestLane(HttpRequest request) {
+            return null;
+        }
+
+        // Класс лимита частоты (см. HttpServerConfig.addRateLimit) для запроса или null - решит сервер.
+        // Вызывается в потоке реактора, должен быть быстрым.
+        default String getRateLimit(HttpRequest request) {
+            return null;
+        }
+
+        // Кому засчитывать запрос в лимите частоты (например, пользователь или токен сессии)
+        // или null - по адресу клиента (HttpServerConfig.setRateLimitKey). Вызывается в потоке реактора.
+        default String getRateLimitClient(HttpRequest request) {
+            return null;
+        }
+
+        // Имя endpoint-а запроса для статистики (например, путь контроллера). Должно быть из небольшого набора.
+        default String getEndpoint(HttpRequest request) {
+            return request.getUriPath();
+        }
     }
 }
@@ -0,0 +1,462 @@
+package com.borunovv.core.server.nio.http.service;
+
+import com.borunovv.core.server.nio.core.service.PriorityLanes;
+import com.borunovv.core.server.nio.core.service.ReactorBalancing;
+import com.borunovv.core.server.nio.core.service.RequestOrdering;
+import com.borunovv.core.server.nio.core.service.RequestRateLimiter;
+import com.borunovv.core.server.nio.core.util.MpmcRingQueue;
+import com.borunovv.core.util.Assert;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Настройки HttpServer, которые имеет смысл менять от инсталляции к инсталляции.
+ * По умолчанию заполнены разумными значениями.
+ */
+public class HttpServerConfig {
+
+    // Кол-во потоков приема соединений (каждый со своим ServerSocketChannel на порт, через SO_REUSEPORT)
+    // и очередь еще не принятых соединений (backlog) каждого. При всплесках подключений одной очереди
+    // на 100 соединений не хватает - ядро начинает отбрасывать SYN.
+    private int acceptThreads = 1;
+    private int acceptQueueSize = HttpServer.ACCEPT_QUEUE_SIZE;
+
+    // Лимиты соединений: всего и с одного IP (IPv6 - с одной подсети /64). Сверх лимита соединение сразу
+    // закрывается при приеме - один клиент не выест дескрипторы и память сервера. 0 - без ограничения.
+    private int maxConnections = 0;
+    private int maxConnectionsPerIp = 0;
+
+    // Общий бюджет памяти под буферы сессий (недочитанные запросы и неотправленные ответы, см. MemoryBudget).
+    // Сверх него крупнейшие потребители не читаются, а запрос, на который не хватит места, сразу получает 503.
+    // 0 - без бюджета.
+    private long memoryBudgetBytes = Runtime.getRuntime().maxMemory() / 4;
+
+    // Кол-во R/W потоков (реакторов), каждый со своим селектором.
+    private int rwThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+    // Как раскидывать принятые соединения по реакторам.
+    private ReactorBalancing reactorBalancing = ReactorBalancing.LEAST_CONNECTIONS;
+
+    // Писать ответ в сокет прямо из потока-обработчика, если сокет свободен (минуя реактор).
+    private boolean directWrite = false;
+
+    // Ответ сериализуется и кладется в очередь сессии прямо в рабочем потоке, сформировавшем его,
+    // без передачи потокам исходящих (минус переход между потоками на каждый запрос).
+    private boolean directOutput = false;
+
+    // Сколько ответов из очереди сессии отправлять одним системным вызовом (для pipelining клиентов).
+    private int writeBatchSize = 16;
+
+    // Буферы чтения запросов: direct (вне кучи) или в куче.
+    private boolean directBuffers = false;
+
+    // Сколько байт свободных буферов держать в пуле каждого R/W потока.
+    private long maxPooledBytesPerRWThread = 64L * 1024 * 1024;
+
+    // Кол-во рабочих потоков, обрабатывающих запросы. Если maxWorkerThreads больше - это минимум,
+    // а пул растет и сжимается по нагрузке (очередь, загрузка потоков, время обработки) до maxWorkerThreads.
+    private int workerThreads = 4;
+    private int maxWorkerThreads = 0;
+
+    // То же для потоков, отдающих ответы в сессии.
+    private int outputWorkerThreads = 2;
+    private int maxOutputWorkerThreads = 0;
+
+    // Рабочие потоки на ForkJoinPool: у каждого добавляющего потока своя очередь, свободные воруют из чужих
+    // (вместо одной общей очереди на всех - меньше борьбы за нее при большом кол-ве потоков).
+    private boolean workStealing = false;
+
+    // Полосы запросов: у каждой своя очередь и вес (доля рабочих потоков под нагрузкой), чтобы тяжелые запросы
+    // не задерживали легкие. Первая полоса - по умолчанию. Пусто - одна общая очередь.
+    private final List<PriorityLanes.Lane> requestLanes = new ArrayList<>();
+    // Префикс пути -> полоса (если контроллер сам не указал полосу).
+    private final Map<String, String> requestLanePaths = new LinkedHashMap<>();
+
+    // Лимиты частоты запросов по классам endpoint-ов (корзины токенов, см. RequestRateLimiter). Запрос сверх
+    // лимита ждет токена, а соединение клиента на это время не читается. Первый класс - по умолчанию. Пусто - без лимитов.
+    private final List<RequestRateLimiter.Limit> rateLimits = new ArrayList<>();
+    // Префикс пути -> класс лимита (если контроллер сам не указал класс).
+    private final Map<String, String> rateLimitPaths = new LinkedHashMap<>();
+    // Чья корзина, если контроллер не назвал клиента запроса (IHttpController.getRateLimitClient).
+    private RateLimitKey rateLimitKey = RateLimitKey.IP;
+
+    // Как рабочие потоки ждут задач: PARK - сразу спать (экономит CPU),
+    // SPIN_YIELD - сначала покрутиться (чуть меньше задержка, если ядер с запасом).
+    private MpmcRingQueue.WaitStrategy workerWaitStrategy = MpmcRingQueue.WaitStrategy.PARK;
+
+    // Порядок обработки запросов одного соединения: NONE - параллельно, SEQUENTIAL - по одному в ожидании ответа,
+    // SESSION_AFFINITY - соединение закреплено за рабочим потоком (по порядку, но без простоя между запросами).
+    private RequestOrdering requestOrdering = RequestOrdering.NONE;
+
+    // Обрабатывать каждый запрос в своем виртуальном потоке (Java 21+) вместо фиксированного пула,
+    // не больше virtualThreadsConcurrency одновременно (по размеру пула соединений к БД).
+    private boolean virtualThreads = false;
+    private int virtualThreadsConcurrency = 10;
+
+    // Сброс запросов, слишком долго ждавших рабочего потока (см. CoDelLoadShedder): клиент сразу получает
+    // 503 с Retry-After, а принятые запросы не копят задержку. 0 - выключено.
+    private int loadSheddingTargetDelayMs = 0;
+    private int loadSheddingIntervalMs = 100;
+    private int retryAfterSeconds = 1;
+
+    public int getAcceptThreads() {
+        return acceptThreads;
+    }
+
+    public HttpServerConfig setAcceptThreads(int acceptThreads) {
+        Assert.isTrue(acceptThreads > 0, "Bad acceptThreads: " + acceptThreads);
+        this.acceptThreads = acceptThreads;
+        return this;
+    }
+
+    public int getAcceptQueueSize() {
+        return acceptQueueSize;
+    }
+
+    public HttpServerConfig setAcceptQueueSize(int acceptQueueSize) {
+        Assert.isTrue(acceptQueueSize > 0, "Bad acceptQueueSize: " + acceptQueueSize);
+        this.acceptQueueSize = acceptQueueSize;
+        return this;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getMaxConnectionsPerIp() {
+        return maxConnectionsPerIp;
+    }
+
+    public HttpServerConfig setConnectionLimits(int maxConnections, int maxConnectionsPerIp) {
+        Assert.isTrue(maxConnections >= 0, "Bad maxConnections: " + maxConnections);
+        Assert.isTrue(maxConnectionsPerIp >= 0, "Bad maxConnectionsPerIp: " + maxConnectionsPerIp);
+        this.maxConnections = maxConnections;
+        this.maxConnectionsPerIp = maxConnectionsPerIp;
+        return this;
+    }
+
+    public long getMemoryBudgetBytes() {
+        return memoryBudgetBytes;
+    }
+
+    public HttpServerConfig setMemoryBudgetBytes(long memoryBudgetBytes) {
+        Assert.isTrue(memoryBudgetBytes >= 0, "Bad memoryBudgetBytes: " + memoryBudgetBytes);
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        return this;
+    }
+
+    public int getRWThreads() {
+        return rwThreads;
+    }
+
+    public HttpServerConfig setRWThreads(int rwThreads) {
+        Assert.isTrue(rwThreads > 0, "Bad rwThreads: " + rwThreads);
+        this.rwThreads = rwThreads;
+        return this;
+    }
+
+    public ReactorBalancing getReactorBalancing() {
+        return reactorBalancing;
+    }
+
+    public HttpServerConfig setReactorBalancing(ReactorBalancing reactorBalancing) {
+        Assert.isTrue(reactorBalancing != null, "reactorBalancing is null");
+        this.reactorBalancing = reactorBalancing;
+        return this;
+    }
+
+    public boolean isDirectWrite() {
+        return directWrite;
+    }
+
+    public HttpServerConfig setDirectWrite(boolean directWrite) {
+        this.directWrite = directWrite;
+        return this;
+    }
+
+    public boolean isDirectOutput() {
+        return directOutput;
+    }
+
+    public HttpServerConfig setDirectOutput(boolean directOutput) {
+        this.directOutput = directOutput;
+        return this;
+    }
+
+    public int getWriteBatchSize() {
+        return writeBatchSize;
+    }
+
+    public HttpServerConfig setWriteBatchSize(int writeBatchSize) {
+        Assert.isTrue(writeBatchSize > 0, "Bad writeBatchSize: " + writeBatchSize);
+        this.writeBatchSize = writeBatchSize;
+        return this;
+    }
+
+    public boolean isDirectBuffers() {
+        return directBuffers;
+    }
+
+    public HttpServerConfig setDirectBuffers(boolean directBuffers) {
+        this.directBuffers = directBuffers;
+        return this;
+    }
+
+    public long getMaxPooledBytesPerRWThread() {
+        return maxPooledBytesPerRWThread;
+    }
+
+    public HttpServerConfig setMaxPooledBytesPerRWThread(long maxPooledBytesPerRWThread) {
+        Assert.isTrue(maxPooledBytesPerRWThread >= 0, "Bad maxPooledBytesPerRWThread: " + maxPooledBytesPerRWThread);
+        this.maxPooledBytesPerRWThread = maxPooledBytesPerRWThread;
+        return this;
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public HttpServerConfig setWorkerThreads(int workerThreads) {
+        Assert.isTrue(workerThreads > 0, "Bad workerThreads: " + workerThreads);
+        this.workerThreads = workerThreads;
+        return this;
+    }
+
+    public int getMaxWorkerThreads() {
+        return Math.max(workerThreads, maxWorkerThreads);
+    }
+
+    public HttpServerConfig setMaxWorkerThreads(int maxWorkerThreads) {
+        Assert.isTrue(maxWorkerThreads >= 0, "Bad maxWorkerThreads: " + maxWorkerThreads);
+        this.maxWorkerThreads = maxWorkerThreads;
+        return this;
+    }
+
+    public int getOutputWorkerThreads() {
+        return outputWorkerThreads;
+    }
+
+    public HttpServerConfig setOutputWorkerThreads(int outputWorkerThreads) {
+        Assert.isTrue(outputWorkerThreads > 0, "Bad outputWorkerThreads: " + outputWorkerThreads);
+        this.outputWorkerThreads = outputWorkerThreads;
+        return this;
+    }
+
+    public int getMaxOutputWorkerThreads() {
+        return Math.max(outputWorkerThreads, maxOutputWorkerThreads);
+    }
+
+    public HttpServerConfig setMaxOutputWorkerThreads(int maxOutputWorkerThreads) {
+        Assert.isTrue(maxOutputWorkerThreads >= 0, "Bad maxOutputWorkerThreads: " + maxOutputWorkerThreads);
+        this.maxOutputWorkerThreads = maxOutputWorkerThreads;
+        return this;
+    }
+
+    public boolean isWorkStealing() {
+        return workStealing;
+    }
+
+    public HttpServerConfig setWorkStealing(boolean workStealing) {
+        this.workStealing = workStealing;
+        return this;
+    }
+
+    public List<PriorityLanes.Lane> getRequestLanes() {
+        return Collections.unmodifiableList(requestLanes);
+    }
+
+    public HttpServerConfig addRequestLane(String name, int weight, int queueSize, String... pathPrefixes) {
+        for (PriorityLanes.Lane lane : requestLanes) {
+            Assert.isTrue(!lane.getName().equals(name), "Duplicate request lane: " + name);
+        }
+        requestLanes.add(new PriorityLanes.Lane(name, weight, queueSize));
+        for (String pathPrefix : pathPrefixes) {
+            requestLanePaths.put(pathPrefix.toLowerCase(), name);
+        }
+        return this;
+    }
+
+    /**
+     * Полосы строкой (для настроек инсталляции): "name:weight:queueSize,name:weight:queueSize,..."
+     */
+    public HttpServerConfig addRequestLanes(String spec) {
+        for (String laneSpec : spec.split(",")) {
+            String[] parts = laneSpec.trim().split(":");
+            Assert.isTrue(parts.length == 3, "Bad request lane: '" + laneSpec + "', expected name:weight:queueSize");
+            try {
+                addRequestLane(parts[0].trim(), Integer.parseInt(parts[1].trim()), Integer.parseInt(parts[2].trim()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad request lane: '" + laneSpec + "'", e);
+            }
+        }
+        return this;
+    }
+
+    // Полоса по самому длинному подходящему префиксу пути (null - не нашли).
+    public String findRequestLaneByPath(String path) {
+        return findByPathPrefix(requestLanePaths, path);
+    }
+
+    public List<RequestRateLimiter.Limit> getRateLimits() {
+        return Collections.unmodifiableList(rateLimits);
+    }
+
+    public HttpServerConfig addRateLimit(String name, double ratePerSecond, int burst, String... pathPrefixes) {
+        for (RequestRateLimiter.Limit limit : rateLimits) {
+            Assert.isTrue(!limit.getName().equals(name), "Duplicate rate limit: " + name);
+        }
+        rateLimits.add(new RequestRateLimiter.Limit(name, ratePerSecond, burst));
+        for (String pathPrefix : pathPrefixes) {
+            rateLimitPaths.put(pathPrefix.toLowerCase(), name);
+        }
+        return this;
+    }
+
+    /**
+     * Лимиты строкой (для настроек инсталляции): "name:ratePerSecond:burst,name:ratePerSecond:burst,..."
+     */
+    public HttpServerConfig addRateLimits(String spec) {
+        for (String limitSpec : spec.split(",")) {
+            String[] parts = limitSpec.trim().split(":");
+            Assert.isTrue(parts.length == 3, "Bad rate limit: '" + limitSpec + "', expected name:ratePerSecond:burst");
+            try {
+                addRateLimit(parts[0].trim(), Double.parseDouble(parts[1].trim()), Integer.parseInt(parts[2].trim()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad rate limit: '" + limitSpec + "'", e);
+            }
+        }
+        return this;
+    }
+
+    // Класс лимита по самому длинному подходящему префиксу пути (null - не нашли).
+    public String findRateLimitByPath(String path) {
+        return findByPathPrefix(rateLimitPaths, path);
+    }
+
+    public RateLimitKey getRateLimitKey() {
+        return rateLimitKey;
+    }
+
+    public HttpServerConfig setRateLimitKey(RateLimitKey rateLimitKey) {
+        Assert.isTrue(rateLimitKey != null, "rateLimitKey is null");
+        this.rateLimitKey = rateLimitKey;
+        return this;
+    }
+
+    public MpmcRingQueue.WaitStrategy getWorkerWaitStrategy() {
+        return workerWaitStrategy;
+    }
+
+    public HttpServerConfig setWorkerWaitStrategy(MpmcRingQueue.WaitStrategy workerWaitStrategy) {
+        Assert.isTrue(workerWaitStrategy != null, "workerWaitStrategy is null");
+        this.workerWaitStrategy = workerWaitStrategy;
+        return this;
+    }
+
+    public RequestOrdering getRequestOrdering() {
+        return requestOrdering;
+    }
+
+    public HttpServerConfig setRequestOrdering(RequestOrdering requestOrdering) {
+        Assert.isTrue(requestOrdering != null, "requestOrdering is null");
+        this.requestOrdering = requestOrdering;
+        return this;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public HttpServerConfig setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+        return this;
+    }
+
+    public int getVirtualThreadsConcurrency() {
+        return virtualThreadsConcurrency;
+    }
+
+    public HttpServerConfig setVirtualThreadsConcurrency(int virtualThreadsConcurrency) {
+        Assert.isTrue(virtualThreadsConcurrency > 0, "Bad virtualThreadsConcurrency: " + virtualThreadsConcurrency);
+        this.virtualThreadsConcurrency = virtualThreadsConcurrency;
+        return this;
+    }
+
+    public int getLoadSheddingTargetDelayMs() {
+        return loadSheddingTargetDelayMs;
+    }
+
+    public int getLoadSheddingIntervalMs() {
+        return loadSheddingIntervalMs;
+    }
+
+    public HttpServerConfig setLoadShedding(int targetDelayMs, int intervalMs) {
+        Assert.isTrue(targetDelayMs >= 0, "Bad load shedding targetDelayMs: " + targetDelayMs);
+        Assert.isTrue(targetDelayMs == 0 || intervalMs >= targetDelayMs,
+                "Bad load shedding intervalMs: " + intervalMs + " (must be >= targetDelayMs)");
+        this.loadSheddingTargetDelayMs = targetDelayMs;
+        this.loadSheddingIntervalMs = intervalMs;
+        return this;
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    public HttpServerConfig setRetryAfterSeconds(int retryAfterSeconds) {
+        Assert.isTrue(retryAfterSeconds > 0, "Bad retryAfterSeconds: " + retryAfterSeconds);
+        this.retryAfterSeconds = retryAfterSeconds;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "HttpServer config:\n"
+                + "  accept threads: " + acceptThreads + " (backlog " + acceptQueueSize + ")\n"
+                + "  connection limits: " + (maxConnections > 0 ? maxConnections : "-")
+                + " total, " + (maxConnectionsPerIp > 0 ? maxConnectionsPerIp : "-") + " per IP\n"
+                + "  memory budget: " + (memoryBudgetBytes > 0 ? memoryBudgetBytes / (1024 * 1024) + " Mb" : "off") + "\n"
+                + "  R/W threads: " + rwThreads + "\n"
+                + "  reactor balancing: " + reactorBalancing + "\n"
+                + "  direct write: " + directWrite + "\n"
+                + "  direct output: " + directOutput + "\n"
+                + "  write batch size: " + writeBatchSize + "\n"
+                + "  direct buffers: " + directBuffers + "\n"
+                + "  max pooled bytes per R/W thread: " + maxPooledBytesPerRWThread + "\n"
+                + "  worker threads: " + workerThreads
+                + (maxWorkerThreads > workerThreads ? ".." + maxWorkerThreads : "") + "\n"
+                + "  output worker threads: " + outputWorkerThreads
+                + (maxOutputWorkerThreads > outputWorkerThreads ? ".." + maxOutputWorkerThreads : "") + "\n"
+                + "  work stealing: " + workStealing + "\n"
+                + "  request lanes: " + (requestLanes.isEmpty() ? "off" : requestLanes + " " + requestLanePaths) + "\n"
+                + "  rate limits: " + (rateLimits.isEmpty() ? "off" :
+                rateLimits + " " + rateLimitPaths + ", by " + rateLimitKey) + "\n"
+                + "  worker wait strategy: " + workerWaitStrategy + "\n"
+                + "  request ordering: " + requestOrdering + "\n"
+                + "  virtual threads: " + (virtualThreads ? "on (max " + virtualThreadsConcurrency + " at once)" : "off") + "\n"
+                + "  load shedding: " + (loadSheddingTargetDelayMs > 0 ?
+                "target " + loadSheddingTargetDelayMs + " ms, interval " + loadSheddingIntervalMs + " ms, "
+                        + "Retry-After " + retryAfterSeconds + " sec." :
+                "off");
+    }
+
+    private static String findByPathPrefix(Map<String, String> pathPrefixes, String path) {
+        if (pathPrefixes.isEmpty() || path == null) {
+            return null;
+        }
+        path = path.toLowerCase();
+        String result = null;
+        int resultLength = -1;
+        for (Map.Entry<String, String> entry : pathPrefixes.entrySet()) {
+            if (path.startsWith(entry.getKey()) && entry.getKey().length() > resultLength) {
+                result = entry.getValue();
+                resultLength = entry.getKey().length();
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,12 @@
+package com.borunovv.core.server.nio.http.service;
+
+/**
+ * Чья корзина в лимите частоты запросов, если контроллер не назвал клиента запроса
+ * (HttpServer.IHttpController.getRateLimitClient).
+ */
+public enum RateLimitKey {
+    // Все соединения с одного IP (IPv6 - с одной подсети /64) делят корзину.
+    IP,
+    // У каждого соединения своя корзина.
+    CONNECTION
+}
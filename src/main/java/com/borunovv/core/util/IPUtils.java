@@ -25,6 +25,17 @@ public final class IPUtils {
         return result;
     }
 
+    // IPv4 - 32 бита адреса, IPv6 - старшие 64 бита (префикс /64: обычно у одного клиента вся подсеть /64).
+    public static long toLong(InetAddress address) {
+        byte[] bytes = address.getAddress();
+        int length = Math.min(bytes.length, 8);
+        long result = 0;
+        for (int i = 0; i < length; ++i) {
+            result = (result << 8) | (bytes[i] & 0xFF);
+        }
+        return result;
+    }
+
     public static String toString(SocketAddress addr) {
         if (addr instanceof InetSocketAddress) {
             return ((InetSocketAddress) addr).getHostString();
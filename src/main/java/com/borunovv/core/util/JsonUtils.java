@@ -1,6 +1,10 @@
 package com.borunovv.core.util;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+import java.io.Reader;
 
 public class JsonUtils {
 
@@ -11,4 +15,13 @@ public class JsonUtils {
     public static <T> T fromJson(String json, Class<T> clazz) {
         return new Gson().fromJson(json, clazz);
     }
+
+    public static <T> T fromJson(JsonElement json, Class<T> clazz) {
+        return new Gson().fromJson(json, clazz);
+    }
+
+    // Разбор в дерево (без привязки к классу), читая прямо из reader.
+    public static JsonElement parse(Reader reader) {
+        return new JsonParser().parse(reader);
+    }
 }
@@ -6,18 +6,31 @@ import com.borunovv.core.server.nio.http.protocol.BasicAuth;
 import com.borunovv.core.server.nio.http.protocol.HttpRequest;
 import com.borunovv.core.server.nio.http.protocol.HttpResponse;
 import com.borunovv.core.server.nio.http.service.HttpServer;
+import com.borunovv.core.server.nio.http.service.HttpServerConfig;
 import com.borunovv.core.service.AbstractService;
+import com.borunovv.core.util.Assert;
 import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.annotation.AnnotationUtils;
 
 import javax.inject.Inject;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 public abstract class AbstractHttpControllerServer extends AbstractService
         implements DisposableBean, HttpServer.IHttpController {
 
+    // Больше путей не запоминаем: пути присылают клиенты, их может быть сколько угодно.
+    private static final int MAX_CACHED_ROUTES = 4096;
+
     private HttpServer httpServer;
     private String adminBasicAuthLogin;
     private String adminBasicAuthPassword;
     private IHttpControllerFactory controllerFactory;
+    // Класс контроллера -> его аннотация (пусто - нет аннотации).
+    private final ConcurrentHashMap<Class<?>, Optional<HttpController>> controllerAnnotations = new ConcurrentHashMap<>();
+    // Путь запроса -> контроллер и полоса. Полоса и лимит частоты нужны реактору на каждый запрос,
+    // а поиск контроллера по префиксам перебирает все пути.
+    private final ConcurrentHashMap<String, Route> routes = new ConcurrentHashMap<>();
 
     @Override
     public void destroy() throws Exception {
@@ -32,8 +45,9 @@ public abstract class AbstractHttpControllerServer extends AbstractService
         this.adminBasicAuthLogin = adminBasicAuthLogin;
         this.adminBasicAuthPassword = adminBasicAuthPassword;
         this.controllerFactory = controllerFactory;
+        routes.clear();
         httpServer = new HttpServer();
-        httpServer.start(port, this);
+        httpServer.start(port, this, getHttpServerConfig());
         logger.info("Started HTTP controller (port #" + port + ")");
         waitServerStopped();
     }
@@ -60,6 +74,11 @@ public abstract class AbstractHttpControllerServer extends AbstractService
         }
     }
 
+    // Переопределяется в потомках, если надо подкрутить настройки сервера.
+    protected HttpServerConfig getHttpServerConfig() {
+        return new HttpServerConfig();
+    }
+
     protected void stop() {
         if (httpServer != null) {
             httpServer.stop();
@@ -77,15 +96,86 @@ public abstract class AbstractHttpControllerServer extends AbstractService
         String path = request.getUriPath();
         if (path.equals("/__stop")) {
             handleStop(request, response);
+        } else if (path.equals("/__stats")) {
+            handleStats(request, response);
         } else {
             handleRequest(request, response);
         }
     }
 
+    // Полоса из аннотации @HttpController(actionLanes = .., lane = ..) контроллера запроса.
+    @Override
+    public String getRequestLane(HttpRequest request) {
+        return findRoute(request.getUriPath()).lane;
+    }
+
+    // Класс лимита частоты из аннотации @HttpController(rateLimit = ..) контроллера запроса.
+    @Override
+    public String getRateLimit(HttpRequest request) {
+        HttpController annotation = findRoute(request.getUriPath()).annotation;
+        return annotation != null && !annotation.rateLimit().isEmpty() ?
+                annotation.rateLimit() :
+                null;
+    }
+
+    // Endpoint - путь контроллера запроса (а не весь путь запроса).
+    @Override
+    public String getEndpoint(HttpRequest request) {
+        HttpController annotation = findRoute(request.getUriPath()).annotation;
+        return annotation != null ?
+                annotation.path() :
+                request.getUriPath();
+    }
+
+    private Route findRoute(String path) {
+        Route route = routes.get(path);
+        if (route == null) {
+            route = createRoute(path);
+            if (routes.size() < MAX_CACHED_ROUTES) {
+                routes.putIfAbsent(path, route);
+            }
+        }
+        return route;
+    }
+
+    private Route createRoute(String path) {
+        IHttpControllerFactory factory = controllerFactory;
+        IHttpController controller = factory != null ?
+                factory.findController(path) :
+                null;
+        if (controller == null) {
+            return Route.NONE;
+        }
+        HttpController annotation = controllerAnnotations.computeIfAbsent(controller.getClass(),
+                clazz -> Optional.ofNullable(AnnotationUtils.findAnnotation(clazz, HttpController.class)))
+                .orElse(null);
+        return new Route(controller, annotation, getLane(annotation, path));
+    }
+
+    // Полоса действия из actionLanes, иначе - lane контроллера (null - не задана).
+    static String getLane(HttpController annotation, String path) {
+        if (annotation == null) {
+            return null;
+        }
+        String lowerPath = path.toLowerCase();
+        String controllerPath = annotation.path().toLowerCase();
+        for (String actionLane : annotation.actionLanes()) {
+            int separator = actionLane.lastIndexOf(':');
+            Assert.isTrue(separator > 0, "Bad action lane: '" + actionLane + "', expected action:lane");
+            String actionPath = controllerPath + actionLane.substring(0, separator).toLowerCase();
+            if (lowerPath.equals(actionPath) || lowerPath.startsWith(actionPath + "/")) {
+                return actionLane.substring(separator + 1);
+            }
+        }
+        return !annotation.lane().isEmpty() ?
+                annotation.lane() :
+                null;
+    }
+
     protected void handleRequest(HttpRequest request, HttpResponse response) {
         String path = request.getUriPath();
 
-        IHttpController controller = controllerFactory.findController(path);
+        IHttpController controller = findRoute(path).controller;
         if (controller != null) {
             try {
                 controller.handleRequest(request, response);
@@ -124,6 +214,32 @@ public abstract class AbstractHttpControllerServer extends AbstractService
         });
     }
 
+    private void handleStats(HttpRequest request, HttpResponse response) {
+        if (!new BasicAuth(adminBasicAuthLogin, adminBasicAuthPassword).check(request, response)) {
+            return;
+        }
+
+        HttpServer server = httpServer;
+        response.writePlainText(server != null ?
+                server.getStats() :
+                "Server not running.");
+    }
+
     @Inject
     private AsyncLoggerService asyncLogger;
+
+    // Куда ведет путь запроса.
+    private static class Route {
+        static final Route NONE = new Route(null, null, null);
+
+        final IHttpController controller;
+        final HttpController annotation;
+        final String lane;
+
+        Route(IHttpController controller, HttpController annotation, String lane) {
+            this.controller = controller;
+            this.annotation = annotation;
+            this.lane = lane;
+        }
+    }
 }
@@ -9,5 +9,15 @@ import java.lang.annotation.Target;
 @Target(ElementType.TYPE)
 public @interface HttpController {
     String path() default "";
+
+    // Полоса запросов (HttpServerConfig.addRequestLane), например, для тяжелых запросов. "" - по умолчанию.
+    String lane() default "";
+
+    // Полосы отдельных действий: "действие:полоса", путь действия - path + действие (например, {"list:heavy"}).
+    // Для остальных действий - lane.
+    String[] actionLanes() default {};
+
+    // Класс лимита частоты запросов (HttpServerConfig.addRateLimit), например, для входа. "" - по умолчанию.
+    String rateLimit() default "";
 }
 
@@ -5,12 +5,17 @@ import com.borunovv.core.server.nio.http.protocol.HttpRequest;
 import com.borunovv.core.server.nio.http.protocol.HttpResponse;
 import com.borunovv.core.util.Assert;
 import com.borunovv.core.util.JsonUtils;
-import com.borunovv.core.util.StringUtils;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonParseException;
 
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
 public abstract class HttpJsonController implements IHttpController {
 
-    protected abstract Object handleRequest(String requestBodyJson, HttpRequest request);
+    protected abstract Object handleRequest(JsonElement requestBodyJson, HttpRequest request);
 
     @Override
     public void handleRequest(HttpRequest request, HttpResponse response) {
@@ -18,8 +23,8 @@ public abstract class HttpJsonController implements IHttpController {
         Assert.isTrue(ContentType.JSON.equalsIgnoreCase(contentType),
                 String.format("Expected request Content-Type: %s. Actual: %s", ContentType.JSON, contentType));
 
-        String json = StringUtils.toUtf8String(request.getContent());
-        Assert.isTrue(!StringUtils.isNullOrEmpty(json), "Empty json");
+        JsonElement json = parseJson(request);
+        Assert.isTrue(json != null && !json.isJsonNull(), "Empty json");
 
         Object responseModel = handleRequest(json, request);
 
@@ -27,7 +32,16 @@ public abstract class HttpJsonController implements IHttpController {
         response.writeJson(JsonUtils.toJson(responseModel));
     }
 
-    protected <T> T toModel(String json, Class<T> clazz) {
+    // Json читаем прямо из буфера запроса (без копии тела и промежуточной строки), разбираем один раз.
+    private static JsonElement parseJson(HttpRequest request) {
+        try (Reader reader = new InputStreamReader(request.getContentStream(), StandardCharsets.UTF_8)) {
+            return JsonUtils.parse(reader);
+        } catch (JsonParseException | IOException e) {
+            throw new RuntimeException("Json parse error: " + e.getMessage());
+        }
+    }
+
+    protected <T> T toModel(JsonElement json, Class<T> clazz) {
         try {
             return JsonUtils.fromJson(json, clazz);
         } catch (JsonParseException e) {
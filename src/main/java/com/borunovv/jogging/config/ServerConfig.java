@@ -18,6 +18,78 @@ public class ServerConfig {
         return httpPassword;
     }
 
+    public int getHttpAcceptThreads() {
+        return httpAcceptThreads;
+    }
+
+    public int getHttpAcceptBacklog() {
+        return httpAcceptBacklog;
+    }
+
+    public int getHttpMaxConnections() {
+        return httpMaxConnections;
+    }
+
+    public int getHttpMaxConnectionsPerIp() {
+        return httpMaxConnectionsPerIp;
+    }
+
+    public int getHttpMemoryBudgetMb() {
+        return httpMemoryBudgetMb;
+    }
+
+    public int getHttpRWThreads() {
+        return httpRWThreads;
+    }
+
+    public int getHttpWorkerThreads() {
+        return httpWorkerThreads;
+    }
+
+    public int getHttpMaxWorkerThreads() {
+        return httpMaxWorkerThreads;
+    }
+
+    public int getHttpOutputThreads() {
+        return httpOutputThreads;
+    }
+
+    public int getHttpMaxOutputThreads() {
+        return httpMaxOutputThreads;
+    }
+
+    public boolean isHttpDirectWrite() {
+        return httpDirectWrite;
+    }
+
+    public boolean isHttpDirectOutput() {
+        return httpDirectOutput;
+    }
+
+    public boolean isHttpVirtualThreads() {
+        return httpVirtualThreads;
+    }
+
+    public String getHttpLanes() {
+        return httpLanes;
+    }
+
+    public String getHttpRateLimits() {
+        return httpRateLimits;
+    }
+
+    public int getHttpSheddingTargetMs() {
+        return httpSheddingTargetMs;
+    }
+
+    public int getHttpSheddingIntervalMs() {
+        return httpSheddingIntervalMs;
+    }
+
+    public int getJdbcPoolSize() {
+        return jdbcPoolSize;
+    }
+
     public boolean isDebug() {
         return !isProduction();
     }
@@ -35,6 +107,60 @@ public class ServerConfig {
     @Value("${http.server.password}")
     private String httpPassword;
 
+    @Value("${http.server.accept.threads}")
+    private int httpAcceptThreads;
+
+    @Value("${http.server.accept.backlog}")
+    private int httpAcceptBacklog;
+
+    @Value("${http.server.max.connections}")
+    private int httpMaxConnections;
+
+    @Value("${http.server.max.connections.per.ip}")
+    private int httpMaxConnectionsPerIp;
+
+    @Value("${http.server.memory.budget.mb}")
+    private int httpMemoryBudgetMb;
+
+    @Value("${http.server.rw.threads}")
+    private int httpRWThreads;
+
+    @Value("${http.server.worker.threads}")
+    private int httpWorkerThreads;
+
+    @Value("${http.server.worker.threads.max}")
+    private int httpMaxWorkerThreads;
+
+    @Value("${http.server.output.threads}")
+    private int httpOutputThreads;
+
+    @Value("${http.server.output.threads.max}")
+    private int httpMaxOutputThreads;
+
+    @Value("${http.server.direct.write}")
+    private boolean httpDirectWrite;
+
+    @Value("${http.server.direct.output}")
+    private boolean httpDirectOutput;
+
+    @Value("${http.server.virtual.threads}")
+    private boolean httpVirtualThreads;
+
+    @Value("${http.server.lanes}")
+    private String httpLanes;
+
+    @Value("${http.server.rate.limits}")
+    private String httpRateLimits;
+
+    @Value("${http.server.shedding.target.ms}")
+    private int httpSheddingTargetMs;
+
+    @Value("${http.server.shedding.interval.ms}")
+    private int httpSheddingIntervalMs;
+
+    @Value("${jdbc.pool.size}")
+    private int jdbcPoolSize;
+
     @Value("${production.mode}")
     private boolean productionMode;
 }
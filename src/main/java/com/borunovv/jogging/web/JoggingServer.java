@@ -2,17 +2,25 @@ package com.borunovv.jogging.web;
 
 import com.borunovv.core.server.nio.http.protocol.HttpRequest;
 import com.borunovv.core.server.nio.http.protocol.HttpResponse;
+import com.borunovv.core.server.nio.http.service.HttpServerConfig;
 import com.borunovv.core.util.JsonUtils;
 import com.borunovv.core.web.AbstractHttpControllerServer;
 import com.borunovv.jogging.config.ServerConfig;
 import com.borunovv.jogging.web.model.ErrorResponse;
+import com.google.gson.JsonElement;
 import org.springframework.stereotype.Service;
 
 import javax.inject.Inject;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 
 @Service
 public class JoggingServer extends AbstractHttpControllerServer {
 
+    // Тела больше не разбираем в реакторе ради лимита частоты (запросы с сессией маленькие).
+    private static final int MAX_RATE_LIMIT_CLIENT_BODY_SIZE = 4 * 1024;
+
     public void start() {
         super.start(config.getHttpPort(),
                 config.getHttpLogin(),
@@ -35,6 +43,58 @@ public class JoggingServer extends AbstractHttpControllerServer {
         super.stop();
     }
 
+    @Override
+    protected HttpServerConfig getHttpServerConfig() {
+        HttpServerConfig httpServerConfig = super.getHttpServerConfig();
+        httpServerConfig.setAcceptThreads(config.getHttpAcceptThreads())
+                .setAcceptQueueSize(config.getHttpAcceptBacklog())
+                .setConnectionLimits(config.getHttpMaxConnections(), config.getHttpMaxConnectionsPerIp());
+        if (config.getHttpMemoryBudgetMb() > 0) {
+            httpServerConfig.setMemoryBudgetBytes(config.getHttpMemoryBudgetMb() * 1024L * 1024L);
+        }
+        if (config.getHttpRWThreads() > 0) {
+            httpServerConfig.setRWThreads(config.getHttpRWThreads());
+        }
+        httpServerConfig.setWorkerThreads(config.getHttpWorkerThreads())
+                .setMaxWorkerThreads(config.getHttpMaxWorkerThreads())
+                .setOutputWorkerThreads(config.getHttpOutputThreads())
+                .setMaxOutputWorkerThreads(config.getHttpMaxOutputThreads());
+        httpServerConfig.setDirectWrite(config.isHttpDirectWrite());
+        httpServerConfig.setDirectOutput(config.isHttpDirectOutput());
+        httpServerConfig.setVirtualThreads(config.isHttpVirtualThreads());
+        // Больше запросов одновременно все равно не получат соединение с БД.
+        httpServerConfig.setVirtualThreadsConcurrency(config.getJdbcPoolSize());
+        if (!config.getHttpLanes().trim().isEmpty()) {
+            httpServerConfig.addRequestLanes(config.getHttpLanes());
+        }
+        if (!config.getHttpRateLimits().trim().isEmpty()) {
+            httpServerConfig.addRateLimits(config.getHttpRateLimits());
+        }
+        httpServerConfig.setLoadShedding(config.getHttpSheddingTargetMs(), config.getHttpSheddingIntervalMs());
+        return httpServerConfig;
+    }
+
+    // Лимит частоты - на пользователя: клиент запроса - его сессия из тела запроса (см. AuthorizedController).
+    // Без сессии (вход, регистрация, ошибка разбора) - по IP.
+    @Override
+    public String getRateLimitClient(HttpRequest request) {
+        int contentLength = request.getContentLength();
+        if (contentLength == 0 || contentLength > MAX_RATE_LIMIT_CLIENT_BODY_SIZE) {
+            return null;
+        }
+        try (Reader reader = new InputStreamReader(request.getContentStream(), StandardCharsets.UTF_8)) {
+            JsonElement json = JsonUtils.parse(reader);
+            JsonElement session = json.isJsonObject() ?
+                    json.getAsJsonObject().get("session") :
+                    null;
+            return session != null && session.isJsonPrimitive() ?
+                    "session:" + session.getAsString() :
+                    null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
     @Override
     protected void onError(HttpRequest request, HttpResponse response, String message, Exception cause) {
         long logId = logger.error("HttpController error. Request: "
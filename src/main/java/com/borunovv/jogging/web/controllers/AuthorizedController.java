@@ -3,7 +3,6 @@ package com.borunovv.jogging.web.controllers;
 import com.borunovv.core.server.nio.http.protocol.HttpRequest;
 import com.borunovv.core.util.Assert;
 import com.borunovv.core.util.HttpMethod;
-import com.borunovv.core.util.JsonUtils;
 import com.borunovv.core.web.HttpController;
 import com.borunovv.core.web.HttpJsonController;
 import com.borunovv.jogging.permissions.Action;
@@ -12,18 +11,18 @@ import com.borunovv.jogging.permissions.Subject;
 import com.borunovv.jogging.users.model.Rights;
 import com.borunovv.jogging.users.model.User;
 import com.borunovv.jogging.users.service.SessionService;
+import com.google.gson.JsonElement;
 
 import javax.inject.Inject;
-import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public abstract class AuthorizedController extends HttpJsonController {
 
-    protected abstract Object handleRequest(String requestJson, HttpRequest request, User user);
+    protected abstract Object handleRequest(JsonElement requestJson, HttpRequest request, User user);
 
     @Override
-    protected Object handleRequest(String requestJson, HttpRequest request) {
+    protected Object handleRequest(JsonElement requestJson, HttpRequest request) {
         User user = checkAuthorization(requestJson);
         return handleRequest(requestJson, request, user);
     }
@@ -42,13 +41,12 @@ public abstract class AuthorizedController extends HttpJsonController {
     }
 
 
-    @SuppressWarnings("unchecked")
-    private User checkAuthorization(String requestJson) {
+    private User checkAuthorization(JsonElement requestJson) {
         String session;
         try {
-            Map<String, Object> params = JsonUtils.fromJson(requestJson, Map.class);
-            Assert.isTrue(params.containsKey("session"), "Expected session");
-            session = params.get("session").toString();
+            JsonElement sessionElement = requestJson.getAsJsonObject().get("session");
+            Assert.isTrue(sessionElement != null && !sessionElement.isJsonNull(), "Expected session");
+            session = sessionElement.getAsString();
             Assert.isTrue(session.length() > 0, "Session is empty");
         } catch (Exception e) {
             throw new RuntimeException("Authorization failed. " + e.getMessage());
@@ -7,16 +7,17 @@ import com.borunovv.core.web.HttpController;
 import com.borunovv.core.web.HttpJsonController;
 import com.borunovv.jogging.users.service.UserService;
 import com.borunovv.jogging.web.model.SuccessResponse;
+import com.google.gson.JsonElement;
 import org.springframework.stereotype.Component;
 
 import javax.inject.Inject;
 
 @Component
-@HttpController(path = "/login")
+@HttpController(path = "/login", rateLimit = "auth")
 public class LogInController extends HttpJsonController {
 
     @Override
-    protected Object handleRequest(String requestJson, HttpRequest request) {
+    protected Object handleRequest(JsonElement requestJson, HttpRequest request) {
         Assert.isTrue(request.getMethod() == HttpMethod.POST, "Expected POST method");
         Request req = toModel(requestJson, Request.class);
         String session = service.loginUser(req.login, req.pass);
@@ -10,6 +10,7 @@ import com.borunovv.jogging.users.service.SessionService;
 import com.borunovv.jogging.users.service.UserService;
 import com.borunovv.jogging.web.model.AbstractRequest;
 import com.borunovv.jogging.web.model.SuccessResponse;
+import com.google.gson.JsonElement;
 import org.springframework.stereotype.Component;
 
 import javax.inject.Inject;
@@ -19,7 +20,7 @@ import javax.inject.Inject;
 public class RightsController extends AuthorizedController {
 
     @Override
-    protected Object handleRequest(String requestJson, HttpRequest request, User user) {
+    protected Object handleRequest(JsonElement requestJson, HttpRequest request, User user) {
         ensurePOST(request);
 
         String command = parseCommand(request.getUriPath());
@@ -35,7 +36,7 @@ public class RightsController extends AuthorizedController {
         }
     }
 
-    private Object doRead(String requestJson, User caller) {
+    private Object doRead(JsonElement requestJson, User caller) {
         ReadRequest request = toModel(requestJson, ReadRequest.class);
         User userToRead = userService.ensureUser(request.login);
 
@@ -50,7 +51,7 @@ public class RightsController extends AuthorizedController {
     }
 
 
-    private Object doUpdate(String requestJson, User caller) {
+    private Object doUpdate(JsonElement requestJson, User caller) {
         UpdateRequest request = toModel(requestJson, UpdateRequest.class);
         User userToUpdate = userService.ensureUser(request.login);
 
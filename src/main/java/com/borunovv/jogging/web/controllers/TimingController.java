@@ -17,6 +17,7 @@ import com.borunovv.jogging.users.service.UserService;
 import com.borunovv.jogging.web.model.AbstractRequest;
 import com.borunovv.jogging.web.model.RequestWithPagination;
 import com.borunovv.jogging.web.model.SuccessResponse;
+import com.google.gson.JsonElement;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Nullable;
@@ -26,11 +27,11 @@ import java.util.Date;
 import java.util.List;
 
 @Component
-@HttpController(path = "/timing/")
+@HttpController(path = "/timing/", actionLanes = "list:heavy")
 public class TimingController extends AuthorizedController {
 
     @Override
-    protected Object handleRequest(String requestJson, HttpRequest request, User user) {
+    protected Object handleRequest(JsonElement requestJson, HttpRequest request, User user) {
         ensurePOST(request);
 
         String command = parseCommand(request.getUriPath());
@@ -56,7 +57,7 @@ public class TimingController extends AuthorizedController {
         }
     }
 
-    private Object doCreate(String requestJson, User caller) {
+    private Object doCreate(JsonElement requestJson, User caller) {
         CreateRequest request = toModel(requestJson, CreateRequest.class);
         User owner = ensureHasPermission(caller, Action.CREATE, Subject.TIMINGS, request.login);
 
@@ -73,7 +74,7 @@ public class TimingController extends AuthorizedController {
         return new CreateResponse(timingId);
     }
 
-    private Object doUpdate(String requestJson, User caller) {
+    private Object doUpdate(JsonElement requestJson, User caller) {
         UpdateRequest request = toModel(requestJson, UpdateRequest.class);
         Timing timing = timingService.ensureExists(request.id);
         User owner = userService.ensureUser(timing.getUserId());
@@ -101,7 +102,7 @@ public class TimingController extends AuthorizedController {
         return SuccessResponse.INSTANCE;
     }
 
-    private Object doDelete(String requestJson, User caller) {
+    private Object doDelete(JsonElement requestJson, User caller) {
         DeleteRequest request = toModel(requestJson, DeleteRequest.class);
         Timing timing = timingService.ensureExists(request.id);
         User owner = userService.ensureUser(timing.getUserId());
@@ -116,7 +117,7 @@ public class TimingController extends AuthorizedController {
         return SuccessResponse.INSTANCE;
     }
 
-    private Object doList(String requestJson, User caller) {
+    private Object doList(JsonElement requestJson, User caller) {
         ListRequest request = toModel(requestJson, ListRequest.class);
         User owner = ensureHasPermission(caller, Action.READ, Subject.TIMINGS, request.login);
         long offset = request.getOffset();
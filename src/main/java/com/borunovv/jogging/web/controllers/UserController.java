@@ -12,6 +12,7 @@ import com.borunovv.jogging.users.service.UserService;
 import com.borunovv.jogging.web.model.AbstractRequest;
 import com.borunovv.jogging.web.model.RequestWithPagination;
 import com.borunovv.jogging.web.model.SuccessResponse;
+import com.google.gson.JsonElement;
 import org.springframework.stereotype.Component;
 
 import javax.inject.Inject;
@@ -23,7 +24,7 @@ import java.util.List;
 public class UserController extends AuthorizedController {
 
     @Override
-    protected Object handleRequest(String requestJson, HttpRequest request, User user) {
+    protected Object handleRequest(JsonElement requestJson, HttpRequest request, User user) {
         ensurePOST(request);
 
         String command = parseCommand(request.getUriPath());
@@ -49,7 +50,7 @@ public class UserController extends AuthorizedController {
         }
     }
 
-    private Object doCreate(String requestJson, User caller) {
+    private Object doCreate(JsonElement requestJson, User caller) {
         ensureHasPermission(caller, Action.CREATE, Subject.ACCOUNT, Rights.USER);
 
         CreateRequest request = toModel(requestJson, CreateRequest.class);
@@ -57,7 +58,7 @@ public class UserController extends AuthorizedController {
         return SuccessResponse.INSTANCE;
     }
 
-    private Object doUpdate(String requestJson, User caller) {
+    private Object doUpdate(JsonElement requestJson, User caller) {
         UpdateRequest request = toModel(requestJson, UpdateRequest.class);
         User userToUpdate = userService.ensureUser(request.login);
         boolean actionOnSelfAccount = caller.equals(userToUpdate);
@@ -71,7 +72,7 @@ public class UserController extends AuthorizedController {
         return SuccessResponse.INSTANCE;
     }
 
-    private Object doDelete(String requestJson, User caller) {
+    private Object doDelete(JsonElement requestJson, User caller) {
         DeleteRequest request = toModel(requestJson, DeleteRequest.class);
         User userToDelete = userService.ensureUser(request.login);
         boolean actionOnSelfAccount = caller.equals(userToDelete);
@@ -85,7 +86,7 @@ public class UserController extends AuthorizedController {
         return SuccessResponse.INSTANCE;
     }
 
-    private Object doList(String requestJson, User caller) {
+    private Object doList(JsonElement requestJson, User caller) {
         List<Rights> allowedRightsToRead = new ArrayList<>();
         for (Rights rights : Rights.values()) {
             if (hasPermission(caller, Action.READ, Subject.ACCOUNT, rights)) {
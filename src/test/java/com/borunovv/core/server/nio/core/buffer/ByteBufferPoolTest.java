@@ -0,0 +1,104 @@
+package com.borunovv.core.server.nio.core.buffer;
+
+import com.borunovv.core.testing.AbstractTest;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNotSame;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+
+public class ByteBufferPoolTest extends AbstractTest {
+
+    @Test
+    public void sizeClasses() throws Exception {
+        ByteBufferPool pool = new ByteBufferPool(new ByteBufferPool.Config(1024, 8192, 1024 * 1024, false));
+
+        assertEquals(1024, pool.acquire(1).capacity());
+        assertEquals(1024, pool.acquire(1024).capacity());
+        assertEquals(2048, pool.acquire(1025).capacity());
+        assertEquals(8192, pool.acquire(8192).capacity());
+        // Больше максимального класса - ровно сколько просили.
+        assertEquals(10000, pool.acquire(10000).capacity());
+    }
+
+    @Test
+    public void reuse() throws Exception {
+        ByteBufferPool pool = new ByteBufferPool(new ByteBufferPool.Config(1024, 8192, 1024 * 1024, true));
+
+        ByteBuffer buffer = pool.acquire(3000);
+        assertTrue(buffer.isDirect());
+        buffer.put((byte) 1);
+        pool.release(buffer);
+        assertEquals(0, pool.getOutstandingCount());
+        assertEquals(4096, pool.getPooledBytes());
+
+        ByteBuffer again = pool.acquire(4000);
+        assertSame(buffer, again);
+        assertEquals(0, again.position());
+        assertEquals(again.capacity(), again.limit());
+        assertEquals(0, pool.getPooledBytes());
+    }
+
+    @Test
+    public void maxPooledBytes() throws Exception {
+        ByteBufferPool pool = new ByteBufferPool(new ByteBufferPool.Config(1024, 8192, 4096, false));
+
+        ByteBuffer first = pool.acquire(4096);
+        ByteBuffer second = pool.acquire(4096);
+        pool.release(first);
+        pool.release(second); // Не влезает в лимит - отдается GC.
+        assertEquals(4096, pool.getPooledBytes());
+
+        assertSame(first, pool.acquire(4096));
+        assertNotSame(second, pool.acquire(4096));
+    }
+
+    @Test
+    public void badReleaseAndLeaks() throws Exception {
+        ByteBufferPool pool = new ByteBufferPool(new ByteBufferPool.Config(1024, 8192, 1024 * 1024, false));
+
+        ByteBuffer buffer = pool.acquire(100);
+        pool.release(buffer);
+        pool.release(buffer);                   // Повторный возврат.
+        pool.release(ByteBuffer.allocate(1024)); // Чужой буфер.
+        assertEquals(2, pool.getBadReleaseCount());
+        assertEquals(1024, pool.getPooledBytes());
+
+        pool.acquire(100);
+        pool.acquire(5000);
+        assertEquals(2, pool.getOutstandingCount());
+        assertEquals(1024 + 8192, pool.getOutstandingBytes());
+        assertEquals(2, pool.close());
+        assertEquals(0, pool.getOutstandingCount());
+    }
+
+    @Test
+    public void packetBuffer() throws Exception {
+        ByteBufferPool pool = new ByteBufferPool(new ByteBufferPool.Config(1024, 8192, 1024 * 1024, false));
+        ByteBuffer buffer = pool.acquire(1024);
+        buffer.put("header|body".getBytes("UTF-8"));
+
+        PacketBuffer packet = new PacketBuffer(buffer, 11, pool);
+        ByteBuffer body = packet.getData(7, 4);
+        assertTrue(body.isReadOnly());
+        assertEquals(0, body.position());
+        assertEquals(4, body.remaining());
+        assertEquals('b', body.get(0));
+
+        packet.release();
+        packet.release(); // Повторно - ничего не делает.
+        assertTrue(packet.isReleased());
+        assertEquals(0, pool.getOutstandingCount());
+        assertEquals(0, pool.getBadReleaseCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void packetBufferUseAfterRelease() throws Exception {
+        PacketBuffer packet = new PacketBuffer(ByteBuffer.allocate(16), 16, null);
+        packet.release();
+        packet.getData();
+    }
+}
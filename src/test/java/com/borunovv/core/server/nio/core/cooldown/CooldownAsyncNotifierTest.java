@@ -0,0 +1,121 @@
+package com.borunovv.core.server.nio.core.cooldown;
+
+import com.borunovv.core.testing.AbstractTest;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+public class CooldownAsyncNotifierTest extends AbstractTest {
+
+    @Test
+    public void firesAfterDelayAndSleepsWhenIdle() throws Exception {
+        CooldownAsyncNotifier<String> notifier = new CooldownAsyncNotifier<>();
+        notifier.start();
+        try {
+            Collector collector = new Collector(1);
+            long start = System.nanoTime();
+            notifier.put("a", 50, collector);
+
+            assertTrue(collector.await());
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(collector.firedNanos - start);
+            assertTrue("Fired too early: " + elapsedMs, elapsedMs >= 50);
+            assertEquals(Collections.singletonList("a"), collector.fired);
+            assertTrue(notifier.isEmpty());
+
+            // В простое поток заблокирован в ожидании, а не крутится в sleep().
+            Thread.sleep(50);
+            int threads = 0;
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                if ("cooldown-notifier".equals(thread.getName())) {
+                    assertEquals(Thread.State.WAITING, thread.getState());
+                    threads++;
+                }
+            }
+            assertTrue(threads > 0);
+        } finally {
+            notifier.stop();
+        }
+    }
+
+    @Test
+    public void coalescesByKey() throws Exception {
+        CooldownAsyncNotifier<String> notifier = new CooldownAsyncNotifier<>();
+        notifier.start();
+        try {
+            Collector collector = new Collector(3);
+            Object session = new Object();
+            notifier.put(session, "a", 100, collector);
+            notifier.put(session, "b", 10, collector);
+            notifier.put(session, "c", 1000, collector);
+            assertEquals(3, notifier.size());
+            assertTrue(notifier.getStats().contains("(1 timers, 1 keys)"));
+
+            // Все три - в срок первой пачки и в порядке постановки.
+            assertTrue(collector.await());
+            assertEquals(Arrays.asList("a", "b", "c"), collector.fired);
+            assertTrue(notifier.getStats().contains("fired: 3, coalesced: 2"));
+        } finally {
+            notifier.stop();
+        }
+    }
+
+    @Test
+    public void cancelByKey() throws Exception {
+        CooldownAsyncNotifier<String> notifier = new CooldownAsyncNotifier<>();
+        notifier.start();
+        try {
+            Collector collector = new Collector(1);
+            Object session = new Object();
+            notifier.put(session, "a", 50, collector);
+            notifier.put(session, "b", 50, collector);
+            notifier.put(new Object(), "c", 100, collector);
+
+            assertEquals(Arrays.asList("a", "b"), notifier.cancel(session));
+            assertTrue(notifier.cancel(session).isEmpty());
+            assertEquals(1, notifier.size());
+
+            // После отмены ключ снова можно ставить.
+            notifier.put(session, "d", 200, collector);
+            assertTrue(collector.await());
+            assertEquals(Collections.singletonList("c"), collector.fired);
+            assertFalse(collector.fired.contains("a"));
+            assertTrue(notifier.getStats().contains("cancelled: 2"));
+        } finally {
+            notifier.stop();
+        }
+    }
+
+    private static class Collector implements CooldownListener<String> {
+        final List<String> fired = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch latch;
+        volatile long firedNanos;
+
+        Collector(int expected) {
+            this.latch = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void onCooldownFinished(String item) {
+            firedNanos = System.nanoTime();
+            fired.add(item);
+            latch.countDown();
+        }
+
+        @Override
+        public void onCooldownError(Throwable error) {
+        }
+
+        boolean await() throws InterruptedException {
+            return latch.await(5, TimeUnit.SECONDS);
+        }
+    }
+}
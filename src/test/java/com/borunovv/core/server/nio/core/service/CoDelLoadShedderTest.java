@@ -0,0 +1,73 @@
+package com.borunovv.core.server.nio.core.service;
+
+import com.borunovv.core.server.nio.core.protocol.AbstractMessage;
+import com.borunovv.core.testing.AbstractTest;
+import org.junit.Test;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+public class CoDelLoadShedderTest extends AbstractTest {
+
+    @Test
+    public void burstIsToleratedUpToInterval() throws Exception {
+        CoDelLoadShedder shedder = new CoDelLoadShedder(10, 100);
+        long now = System.currentTimeMillis();
+
+        assertFalse(shedder.shouldShed(1, now));
+        // Всплеск: очередь недавно была короткой, ждем до interval.
+        assertFalse(shedder.shouldShed(50, now + 20));
+        assertFalse(shedder.shouldShed(100, now + 50));
+        assertTrue(shedder.shouldShed(101, now + 60));
+        assertFalse(shedder.isOverloaded(now + 60));
+        assertEquals(1, shedder.getShedCount());
+    }
+
+    @Test
+    public void standingQueueIsShedAboveTarget() throws Exception {
+        CoDelLoadShedder shedder = new CoDelLoadShedder(10, 100);
+        long now = System.currentTimeMillis();
+
+        assertFalse(shedder.shouldShed(1, now));
+        assertFalse(shedder.shouldShed(50, now + 50));
+        // Целый interval ни одно сообщение не уложилось в target - перегрузка, режем все, что дольше target.
+        assertTrue(shedder.isOverloaded(now + 101));
+        assertTrue(shedder.shouldShed(11, now + 101));
+        assertTrue(shedder.shouldShed(50, now + 102));
+        assertFalse(shedder.shouldShed(10, now + 103));
+        assertEquals(2, shedder.getShedCount());
+
+        // Очередь рассосалась.
+        assertFalse(shedder.shouldShed(5, now + 104));
+        assertFalse(shedder.isOverloaded(now + 104));
+        assertFalse(shedder.shouldShed(50, now + 110));
+    }
+
+    // Ожидание считается с постановки в очередь диспетчера, а не с разбора запроса сессией.
+    @Test
+    public void delayIsMeasuredFromDispatcherQueueTime() throws Exception {
+        CoDelLoadShedder shedder = new CoDelLoadShedder(10, 100);
+        long now = System.currentTimeMillis();
+
+        TestMessage msg = new TestMessage();
+        msg.setStartDeliveryTime(now - 1000);
+        msg.setEndDeliveryTime(now - 1000);
+        // Еще не ставилось в диспетчер - сбрасывать не за что.
+        assertFalse(shedder.shouldShed(msg, now));
+
+        // Долго ждало в очереди сессии, но в диспетчере - только что.
+        msg.setQueuedTime(now - 1);
+        assertFalse(shedder.shouldShed(msg, now));
+
+        msg.setQueuedTime(now - 101);
+        assertTrue(shedder.shouldShed(msg, now));
+        assertEquals(1, shedder.getShedCount());
+    }
+
+    private static class TestMessage extends AbstractMessage {
+        TestMessage() {
+            super(null, false);
+        }
+    }
+}
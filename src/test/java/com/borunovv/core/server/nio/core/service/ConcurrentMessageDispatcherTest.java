@@ -0,0 +1,237 @@
+package com.borunovv.core.server.nio.core.service;
+
+import com.borunovv.core.server.nio.core.protocol.AbstractMessage;
+import com.borunovv.core.server.nio.core.protocol.IMessage;
+import com.borunovv.core.server.nio.core.session.ISession;
+import com.borunovv.core.testing.AbstractTest;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+public class ConcurrentMessageDispatcherTest extends AbstractTest {
+
+    // Полная очередь не блокирует (реактор не ждет), перегрузка держится до разгрузки ниже нижнего порога.
+    @Test
+    public void backpressure() throws Exception {
+        final CountDownLatch handlerBlocked = new CountDownLatch(1);
+        final AtomicInteger processed = new AtomicInteger();
+        ConcurrentMessageDispatcher dispatcher = new ConcurrentMessageDispatcher(
+                new ConcurrentMessageDispatcher.Config(1, 10, 30, 1, 10, 30, 1, 10, 30,
+                        new AbstractMessageProcessor() {
+                            @Override
+                            public void processInputMessage(IMessage msg) {
+                                try {
+                                    handlerBlocked.await();
+                                } catch (InterruptedException e) {
+                                    Thread.currentThread().interrupt();
+                                }
+                                processed.incrementAndGet();
+                            }
+                        }));
+        dispatcher.start();
+        try {
+            assertFalse(dispatcher.isSaturated());
+
+            // Обработчик занят, очередь заполняется до отказа, но не ждет.
+            int queued = 0;
+            long start = System.currentTimeMillis();
+            while (dispatcher.tryQueueInputMessage(new TestMessage())) {
+                queued++;
+            }
+            assertTrue(System.currentTimeMillis() - start < 1000);
+            assertTrue(queued >= 10 && queued <= 11); // +1, если рабочий поток успел взять сообщение.
+            assertTrue(dispatcher.isSaturated());
+
+            handlerBlocked.countDown();
+            while (processed.get() < queued) {
+                Thread.sleep(1);
+            }
+            assertFalse(dispatcher.isSaturated());
+            assertTrue(dispatcher.getStats().contains("saturated: false (1 times)"));
+        } finally {
+            dispatcher.stop();
+        }
+        assertEquals(0, dispatcher.getStats().indexOf("Dispatcher:"));
+    }
+
+    // При перегрузке перестать читать должна только сессия, занявшая очередь, а ждущие разгрузки
+    // узнают о ней по сигналу.
+    @Test
+    public void fairShareAndDrainSignal() throws Exception {
+        final CountDownLatch handlerStarted = new CountDownLatch(1);
+        final CountDownLatch handlerBlocked = new CountDownLatch(1);
+        final AtomicInteger processed = new AtomicInteger();
+        ConcurrentMessageDispatcher dispatcher = new ConcurrentMessageDispatcher(
+                new ConcurrentMessageDispatcher.Config(1, 10, 30, 1, 10, 30, 1, 10, 30,
+                        new AbstractMessageProcessor() {
+                            @Override
+                            public void processInputMessage(IMessage msg) {
+                                handlerStarted.countDown();
+                                try {
+                                    handlerBlocked.await();
+                                } catch (InterruptedException e) {
+                                    Thread.currentThread().interrupt();
+                                }
+                                processed.incrementAndGet();
+                            }
+                        }));
+        dispatcher.start();
+        try {
+            ISession heavy = newSession();
+            ISession light = newSession();
+
+            // Первое сообщение занимает рабочий поток, дальше очередь заполняет в основном одна сессия.
+            assertTrue(dispatcher.tryQueueInputMessage(new TestMessage(heavy)));
+            assertTrue(handlerStarted.await(5, TimeUnit.SECONDS));
+            assertTrue(dispatcher.tryQueueInputMessage(new TestMessage(light)));
+            int queued = 2;
+            while (dispatcher.tryQueueInputMessage(new TestMessage(heavy))) {
+                queued++;
+            }
+            assertTrue(dispatcher.isSaturated());
+            assertEquals(1, light.getDispatcherQueueSize());
+            assertTrue(dispatcher.isSaturatedBy(heavy));
+            assertFalse(dispatcher.isSaturatedBy(light));
+
+            final CountDownLatch drained = new CountDownLatch(1);
+            dispatcher.notifyWhenDrained(drained::countDown);
+            assertEquals(1, drained.getCount());
+
+            handlerBlocked.countDown();
+            assertTrue(drained.await(5, TimeUnit.SECONDS));
+            while (processed.get() < queued) {
+                Thread.sleep(1);
+            }
+            assertEquals(0, heavy.getDispatcherQueueSize());
+            assertEquals(0, light.getDispatcherQueueSize());
+
+            // Не перегружены - сигнал сразу.
+            final CountDownLatch drainedNow = new CountDownLatch(1);
+            dispatcher.notifyWhenDrained(drainedNow::countDown);
+            assertEquals(0, drainedNow.getCount());
+        } finally {
+            dispatcher.stop();
+        }
+    }
+
+    // Режим виртуальных потоков: сообщения обрабатываются параллельно, но не больше заданного кол-ва сразу.
+    // (На JVM без виртуальных потоков - обычные потоки с тем же ограничением.)
+    @Test
+    public void virtualThreadsConcurrencyLimit() throws Exception {
+        final CountDownLatch handlerBlocked = new CountDownLatch(1);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final AtomicInteger processed = new AtomicInteger();
+        ConcurrentMessageDispatcher dispatcher = new ConcurrentMessageDispatcher(
+                new ConcurrentMessageDispatcher.Config(1, 100, 30, 1, 10, 30, 1, 10, 30,
+                        new AbstractMessageProcessor() {
+                            @Override
+                            public void processInputMessage(IMessage msg) {
+                                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                                try {
+                                    handlerBlocked.await();
+                                } catch (InterruptedException e) {
+                                    Thread.currentThread().interrupt();
+                                }
+                                running.decrementAndGet();
+                                processed.incrementAndGet();
+                            }
+                        })
+                        .setVirtualThreadsConcurrency(3));
+        dispatcher.start();
+        try {
+            for (int i = 0; i < 20; ++i) {
+                dispatcher.queueInputMessage(new TestMessage());
+            }
+            while (running.get() < 3) {
+                Thread.sleep(1);
+            }
+            Thread.sleep(50);
+            assertEquals(3, running.get());
+            assertTrue(dispatcher.getStats().contains("input in progress: 3/3"));
+
+            handlerBlocked.countDown();
+            while (processed.get() < 20) {
+                Thread.sleep(1);
+            }
+            assertEquals(3, maxRunning.get());
+        } finally {
+            dispatcher.stop();
+        }
+    }
+
+    // directOutput: исходящее обрабатывается в том же рабочем потоке, что и входящее, без пула исходящих.
+    @Test
+    public void directOutput() throws Exception {
+        for (boolean directOutput : new boolean[]{false, true}) {
+            final AtomicReference<Thread> inputThread = new AtomicReference<>();
+            final AtomicReference<Thread> outputThread = new AtomicReference<>();
+            final CountDownLatch outputProcessed = new CountDownLatch(1);
+            AbstractMessageProcessor processor = new AbstractMessageProcessor() {
+                @Override
+                public void processInputMessage(IMessage msg) {
+                    inputThread.set(Thread.currentThread());
+                    getDispatcher().queueOutputMessage(new TestMessage());
+                }
+
+                @Override
+                public void processOutputMessage(IMessage msg) {
+                    outputThread.set(Thread.currentThread());
+                    outputProcessed.countDown();
+                }
+            };
+            ConcurrentMessageDispatcher dispatcher = new ConcurrentMessageDispatcher(
+                    new ConcurrentMessageDispatcher.Config(1, 10, 30, 1, 10, 30, 1, 10, 30, processor)
+                            .setDirectOutput(directOutput));
+            processor.setMessageDispatcher(dispatcher);
+            dispatcher.start();
+            try {
+                dispatcher.queueInputMessage(new TestMessage());
+                assertTrue(outputProcessed.await(5, TimeUnit.SECONDS));
+                assertEquals(directOutput, inputThread.get() == outputThread.get());
+                assertEquals(directOutput, dispatcher.getStats().contains("direct output: 1"));
+            } finally {
+                dispatcher.stop();
+            }
+        }
+    }
+
+    // Сессия-заглушка: только счетчик входящих в очереди диспетчера.
+    private static ISession newSession() {
+        final AtomicInteger dispatcherQueueSize = new AtomicInteger();
+        return (ISession) Proxy.newProxyInstance(ISession.class.getClassLoader(),
+                new Class<?>[]{ISession.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "onInputMessageQueued":
+                            return dispatcherQueueSize.incrementAndGet();
+                        case "onInputMessageDequeued":
+                            return dispatcherQueueSize.decrementAndGet();
+                        case "getDispatcherQueueSize":
+                            return dispatcherQueueSize.get();
+                        case "toString":
+                            return "TestSession";
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    private static class TestMessage extends AbstractMessage {
+        TestMessage() {
+            this(null);
+        }
+
+        TestMessage(ISession session) {
+            super(session, false);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.borunovv.core.server.nio.core.service;
+
+import com.borunovv.core.server.nio.core.util.MpmcRingQueue;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Бенчмарки обработчиков очереди задач. Запускаются вручную (результаты печатаются в консоль).
+ * latency - задержка от queue() до начала обработки задачи рабочим потоком:
+ * idle - редкие одиночные задачи (рабочие потоки успевают уснуть),
+ * steady - равномерный поток задач,
+ * burst - пачки задач с паузами между ними.
+ * throughput - пропускная способность общей очереди против ForkJoinPool с воровством задач.
+ */
+@Ignore
+public class ConcurrentMessageProcessorBenchmarkTest {
+
+    private static final int WORKER_THREADS = 4;
+    private static final int QUEUE_SIZE = 1024;
+
+    @Test
+    public void latency() throws Exception {
+        for (MpmcRingQueue.WaitStrategy waitStrategy : MpmcRingQueue.WaitStrategy.values()) {
+            for (int round = 0; round < 2; ++round) {
+                // Одиночная задача раз в 200 мс.
+                print("idle", waitStrategy, run(waitStrategy, 30, 1, 200_000));
+                // 20000 задач в секунду по одной.
+                print("steady", waitStrategy, run(waitStrategy, 40000, 1, 50));
+                // Пачки по 500 задач раз в 50 мс.
+                print("burst", waitStrategy, run(waitStrategy, 40, 500, 50_000));
+            }
+        }
+    }
+
+    // 4 "реактора" без остановки добавляют пустые задачи, 4/16/64 рабочих потока их разбирают.
+    @Test
+    public void throughput() throws Exception {
+        for (int round = 0; round < 2; ++round) {
+            for (int workers : new int[]{4, 16, 64}) {
+                for (boolean workStealing : new boolean[]{false, true}) {
+                    long tasksPerSecond = runThroughput(workers, workStealing, 4, 500_000);
+                    System.out.println(String.format("workers: %2d, %-14s %,10d tasks/sec",
+                            workers, workStealing ? "work stealing" : "shared queue", tasksPerSecond));
+                }
+            }
+        }
+    }
+
+    private long runThroughput(int workers, boolean workStealing, int producers, int tasksPerProducer)
+            throws Exception {
+        int total = producers * tasksPerProducer;
+        CountDownLatch done = new CountDownLatch(total);
+        IMessageHandler<Object> handler = new IMessageHandler<Object>() {
+            @Override
+            public void handle(Object task) {
+                done.countDown();
+            }
+
+            @Override
+            public void onReject(Object task) {
+                done.countDown();
+            }
+
+            @Override
+            public void onError(Object task, Exception cause) {
+            }
+
+            @Override
+            public void onError(Exception cause) {
+            }
+        };
+        ITaskProcessor<Object> processor = workStealing ?
+                new WorkStealingMessageProcessor<>(workers, QUEUE_SIZE, 10000, handler) :
+                new ConcurrentMessageProcessor<>(workers, QUEUE_SIZE, 10000, handler);
+        processor.start();
+
+        Object task = new Object();
+        Thread[] threads = new Thread[producers];
+        long start = System.nanoTime();
+        for (int i = 0; i < producers; ++i) {
+            threads[i] = new Thread(() -> {
+                for (int n = 0; n < tasksPerProducer; ++n) {
+                    processor.queue(task);
+                }
+            });
+            threads[i].start();
+        }
+        done.await();
+        long elapsedNanos = System.nanoTime() - start;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        processor.stop();
+        return total * 1_000_000_000L / elapsedNanos;
+    }
+
+    // Вернет задержки (нс) для batches * batchSize задач.
+    private long[] run(MpmcRingQueue.WaitStrategy waitStrategy,
+                       int batches,
+                       int batchSize,
+                       long pauseMicros) throws Exception {
+
+        int total = batches * batchSize;
+        long[] latencies = new long[total];
+        CountDownLatch done = new CountDownLatch(total);
+
+        ConcurrentMessageProcessor<long[]> processor = new ConcurrentMessageProcessor<>(
+                WORKER_THREADS, QUEUE_SIZE, 10000,
+                new IMessageHandler<long[]>() {
+                    @Override
+                    public void handle(long[] task) {
+                        latencies[(int) task[0]] = System.nanoTime() - task[1];
+                        done.countDown();
+                    }
+
+                    @Override
+                    public void onReject(long[] task) {
+                        done.countDown();
+                    }
+
+                    @Override
+                    public void onError(long[] task, Exception cause) {
+                    }
+
+                    @Override
+                    public void onError(Exception cause) {
+                    }
+                },
+                waitStrategy);
+        processor.start();
+        Thread.sleep(300); // Даем рабочим потокам уснуть.
+
+        int index = 0;
+        for (int batch = 0; batch < batches; ++batch) {
+            for (int i = 0; i < batchSize; ++i) {
+                processor.queue(new long[]{index++, System.nanoTime()});
+            }
+            LockSupport.parkNanos(pauseMicros * 1000);
+        }
+        done.await();
+        processor.stop();
+        return latencies;
+    }
+
+    private static void print(String load, MpmcRingQueue.WaitStrategy waitStrategy, long[] latencies) {
+        Arrays.sort(latencies);
+        System.out.println(String.format("%-6s %-10s p50: %6d us, p99: %6d us, max: %6d us",
+                load, waitStrategy,
+                latencies[latencies.length / 2] / 1000,
+                latencies[(int) (latencies.length * 0.99)] / 1000,
+                latencies[latencies.length - 1] / 1000));
+    }
+}
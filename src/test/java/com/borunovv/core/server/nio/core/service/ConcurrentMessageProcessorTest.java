@@ -1,5 +1,6 @@
 package com.borunovv.core.server.nio.core.service;
 
+import com.borunovv.core.server.nio.core.util.MpmcRingQueue;
 import com.borunovv.core.testing.AbstractTest;
 import org.junit.Test;
 
@@ -7,6 +8,7 @@ import java.util.Random;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
 
 public class ConcurrentMessageProcessorTest extends AbstractTest {
 
@@ -37,6 +39,39 @@ public class ConcurrentMessageProcessorTest extends AbstractTest {
         assertEquals(msgCount, processedMessages.get() + processor.getQueueSize());
     }
 
+    // Очередь копится, потоки заняты - пул растет (но не больше максимума), задачи не теряются.
+    @Test
+    public void testAdaptivePoolGrows() throws Exception {
+        final AtomicLong processedMessages = new AtomicLong(0);
+        ConcurrentMessageProcessor<String> processor = new ConcurrentMessageProcessor<>(
+                1, 4, 1000, 10000,
+                new Handler(processedMessages),
+                MpmcRingQueue.WaitStrategy.PARK);
+        assertTrue(processor.isAdaptive());
+        assertEquals(1, processor.getMaxConcurrentTasks());
+
+        int msgCount = 200;
+        processor.start();
+        try {
+            for (int i = 0; i < msgCount; ++i) {
+                processor.queue("Message #" + i);
+            }
+            long startWait = System.currentTimeMillis();
+            while (processor.getMaxConcurrentTasks() < 4 && System.currentTimeMillis() - startWait < 10000) {
+                Thread.sleep(10);
+            }
+            assertEquals(4, processor.getMaxConcurrentTasks());
+            assertTrue(processor.getStats(), processor.getStats().startsWith("workers: 4 [1..4]"));
+
+            while (processedMessages.get() < msgCount && System.currentTimeMillis() - startWait < 20000) {
+                Thread.sleep(10);
+            }
+        } finally {
+            processor.stop();
+        }
+        assertEquals(msgCount, processedMessages.get());
+    }
+
     private class Handler implements IMessageHandler<String> {
         private AtomicLong processedMessages;
 
@@ -0,0 +1,47 @@
+package com.borunovv.core.server.nio.core.service;
+
+import com.borunovv.core.testing.AbstractTest;
+import com.borunovv.core.util.IPUtils;
+import org.junit.Test;
+
+import java.net.InetAddress;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+public class ConnectionLimiterTest extends AbstractTest {
+
+    @Test
+    public void perIpLimit() throws Exception {
+        ConnectionLimiter limiter = new ConnectionLimiter(0, 2);
+        long ip1 = IPUtils.toLong(InetAddress.getByName("10.0.0.1"));
+        long ip2 = IPUtils.toLong(InetAddress.getByName("10.0.0.2"));
+
+        assertTrue(limiter.tryAcquire(ip1));
+        assertTrue(limiter.tryAcquire(ip1));
+        assertFalse(limiter.tryAcquire(ip1));
+        // Другой IP не задет.
+        assertTrue(limiter.tryAcquire(ip2));
+        assertEquals(3, limiter.getConnectionsCount());
+
+        limiter.release(ip1);
+        assertTrue(limiter.tryAcquire(ip1));
+        assertEquals(2, limiter.getConnectionsCount(ip1));
+        assertEquals(1, limiter.getRejectedCount());
+    }
+
+    @Test
+    public void globalLimit() throws Exception {
+        ConnectionLimiter limiter = new ConnectionLimiter(2, 0);
+        assertTrue(limiter.tryAcquire(1));
+        assertTrue(limiter.tryAcquire(2));
+        assertFalse(limiter.tryAcquire(3));
+        assertEquals(2, limiter.getConnectionsCount());
+
+        limiter.release(1);
+        limiter.release(2);
+        assertEquals(0, limiter.getConnectionsCount());
+        assertTrue(limiter.getStats(), limiter.getStats().startsWith("Connections: 0/2 from 0 IPs"));
+    }
+}
@@ -0,0 +1,192 @@
+package com.borunovv.core.server.nio.core.service;
+
+import com.borunovv.core.server.nio.core.util.MpmcRingQueue;
+import com.borunovv.core.testing.AbstractTest;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+public class LaneScheduledMessageProcessorTest extends AbstractTest {
+
+    // Обе полосы загружены: рабочий поток делит выборки по весам (3:1).
+    @Test
+    public void weightedFairness() throws Exception {
+        TestHandler handler = new TestHandler();
+        LaneScheduledMessageProcessor<String> processor = newProcessor(handler, 3, 1, 100);
+        processor.start();
+        try {
+            // Первая задача держит единственный рабочий поток, пока мы наполняем полосы.
+            assertTrue(processor.tryQueue("first"));
+            handler.started.await();
+            for (int i = 0; i < 40; ++i) {
+                assertTrue(processor.tryQueue("light-" + i));
+                assertTrue(processor.tryQueue("heavy-" + i));
+            }
+            handler.release.countDown();
+            waitProcessed(handler, 81);
+        } finally {
+            processor.stop();
+        }
+
+        List<String> firstForty = handler.processed.subList(1, 41);
+        int light = 0;
+        for (String task : firstForty) {
+            if (task.startsWith("light")) {
+                light++;
+            }
+        }
+        assertEquals(30, light);
+        // Внутри полосы - FIFO.
+        assertTrue(handler.processed.indexOf("heavy-0") < handler.processed.indexOf("heavy-1"));
+        assertTrue(processor.getStats().contains("Lane 'light' (weight 3): queue: 0/100, processed: 41"));
+    }
+
+    // Забитая полоса не мешает остальным, а единственная непустая полоса получает все рабочие потоки.
+    @Test
+    public void laneIsolation() throws Exception {
+        TestHandler handler = new TestHandler();
+        LaneScheduledMessageProcessor<String> processor = newProcessor(handler, 10, 1, 5);
+        processor.start();
+        try {
+            assertTrue(processor.tryQueue("heavy-first"));
+            handler.started.await();
+            for (int i = 0; i < 5; ++i) {
+                assertTrue(processor.tryQueue("heavy-" + i));
+            }
+            assertFalse(processor.tryQueue("heavy-5"));
+            assertTrue(processor.tryQueue("light-0"));
+            assertEquals(6, processor.getQueueSize());
+            assertEquals(10, processor.getQueueLimit());
+
+            handler.release.countDown();
+            waitProcessed(handler, 7);
+            assertEquals(Arrays.asList("heavy-first", "light-0", "heavy-0", "heavy-1", "heavy-2", "heavy-3", "heavy-4"),
+                    handler.processed);
+            assertTrue(processor.getStats().contains("Lane 'heavy' (weight 1): queue: 0/5, processed: 6, rejected: 1"));
+        } finally {
+            processor.stop();
+        }
+    }
+
+    // Полосы копятся, потоки заняты - пул растет до максимума, задачи не теряются.
+    @Test
+    public void adaptivePoolGrows() throws Exception {
+        TestHandler handler = new TestHandler();
+        PriorityLanes<String> lanes = new PriorityLanes<>(
+                Arrays.asList(
+                        new PriorityLanes.Lane("light", 3, 100),
+                        new PriorityLanes.Lane("heavy", 1, 100)),
+                task -> task.startsWith("heavy") ? 1 : 0);
+        LaneScheduledMessageProcessor<String> processor = new LaneScheduledMessageProcessor<>(
+                1, 4, lanes, 1000, handler, MpmcRingQueue.WaitStrategy.PARK);
+        assertTrue(processor.isAdaptive());
+        processor.start();
+        try {
+            for (int i = 0; i < 20; ++i) {
+                assertTrue(processor.tryQueue("light-" + i));
+                assertTrue(processor.tryQueue("heavy-" + i));
+            }
+            long deadline = System.currentTimeMillis() + 10000;
+            while (processor.getActiveTaskCount() < 4 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(4, processor.getMaxConcurrentTasks());
+            assertEquals(4, processor.getActiveTaskCount());
+            assertTrue(processor.getWorkerPoolStats(), processor.getWorkerPoolStats().startsWith("workers: 4 [1..4]"));
+
+            handler.release.countDown();
+            waitProcessed(handler, 40);
+        } finally {
+            processor.stop();
+        }
+    }
+
+    @Test
+    public void threadPerTaskLimitsConcurrency() throws Exception {
+        TestHandler handler = new TestHandler();
+        PriorityLanes<String> lanes = new PriorityLanes<>(
+                Arrays.asList(
+                        new PriorityLanes.Lane("light", 3, 100),
+                        new PriorityLanes.Lane("heavy", 1, 100)),
+                task -> task.startsWith("heavy") ? 1 : 0);
+        LaneScheduledMessageProcessor<String> processor = new LaneScheduledMessageProcessor<>(
+                3, lanes, 1000, handler, MpmcRingQueue.WaitStrategy.PARK, Executors::newCachedThreadPool);
+        processor.start();
+        try {
+            for (int i = 0; i < 10; ++i) {
+                assertTrue(processor.tryQueue("light-" + i));
+                assertTrue(processor.tryQueue("heavy-" + i));
+            }
+            long deadline = System.currentTimeMillis() + 10000;
+            while (processor.getActiveTaskCount() < 3 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(50);
+            assertEquals(3, processor.getMaxConcurrentTasks());
+            assertEquals(3, processor.getActiveTaskCount());
+            assertEquals(17, processor.getQueueSize());
+
+            handler.release.countDown();
+            waitProcessed(handler, 20);
+        } finally {
+            processor.stop();
+        }
+    }
+
+    private static LaneScheduledMessageProcessor<String> newProcessor(TestHandler handler,
+                                                                      int lightWeight,
+                                                                      int heavyWeight,
+                                                                      int queueSize) {
+        PriorityLanes<String> lanes = new PriorityLanes<>(
+                Arrays.asList(
+                        new PriorityLanes.Lane("light", lightWeight, queueSize),
+                        new PriorityLanes.Lane("heavy", heavyWeight, queueSize)),
+                task -> task.startsWith("heavy") ? 1 : 0);
+        return new LaneScheduledMessageProcessor<>(1, lanes, 1000, handler, MpmcRingQueue.WaitStrategy.PARK);
+    }
+
+    private static void waitProcessed(TestHandler handler, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (handler.processed.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(count, handler.processed.size());
+    }
+
+    private static class TestHandler implements IMessageHandler<String> {
+        final List<String> processed = new CopyOnWriteArrayList<>();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void handle(String task) {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            processed.add(task);
+        }
+
+        @Override
+        public void onReject(String task) {
+        }
+
+        @Override
+        public void onError(String task, Exception cause) {
+        }
+
+        @Override
+        public void onError(Exception cause) {
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.borunovv.core.server.nio.core.service;
+
+import com.borunovv.core.testing.AbstractTest;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+public class MemoryBudgetTest extends AbstractTest {
+
+    private static final int KB = 1024;
+
+    @Test
+    public void accounting() throws Exception {
+        MemoryBudget budget = new MemoryBudget(1000 * KB);
+        MemoryBudget.Account a = budget.openAccount("a");
+        MemoryBudget.Account b = budget.openAccount("b");
+
+        a.charge(300 * KB);
+        b.charge(100 * KB);
+        a.release(100 * KB);
+        assertEquals(300 * KB, budget.getUsedBytes());
+        assertTrue(budget.canAllocate(700 * KB));
+        assertFalse(budget.canAllocate(700 * KB + 1));
+
+        // Закрытие списывает остаток, дальше счет ничего не засчитывает и не списывает.
+        a.close();
+        a.charge(500 * KB);
+        a.release(KB);
+        assertEquals(100 * KB, budget.getUsedBytes());
+        assertEquals(0, a.getBytes());
+        assertTrue(budget.getStats(), budget.getStats().contains("sessions: 1"));
+
+        // Списать больше, чем числится, нельзя.
+        b.release(200 * KB);
+        assertEquals(0, budget.getUsedBytes());
+    }
+
+    @Test
+    public void largestConsumersArePaused() throws Exception {
+        MemoryBudget budget = new MemoryBudget(1000 * KB);
+        MemoryBudget.Account big = budget.openAccount("big");
+        MemoryBudget.Account medium = budget.openAccount("medium");
+        MemoryBudget.Account small = budget.openAccount("small");
+
+        big.charge(600 * KB);
+        medium.charge(300 * KB);
+        small.charge(10 * KB);
+        // Пока бюджет не превышен - никого не трогаем.
+        assertFalse(big.isOverBudget());
+
+        medium.charge(200 * KB);
+        assertTrue(budget.isExceeded());
+        // Выше среднего (~370 Kb) - крупнейшие, мелкие читаются как обычно.
+        assertTrue(big.isOverBudget());
+        assertTrue(medium.isOverBudget());
+        assertFalse(small.isOverBudget());
+
+        assertEquals(Arrays.asList("big: 600 Kb", "medium: 500 Kb"), budget.getTopConsumers(2));
+        assertTrue(budget.getStats(), budget.getStats().contains("top consumers: big: 600 Kb, medium: 500 Kb, small: 10 Kb"));
+
+        big.close();
+        assertFalse(budget.isExceeded());
+        assertFalse(medium.isOverBudget());
+    }
+}
@@ -0,0 +1,69 @@
+package com.borunovv.core.server.nio.core.service;
+
+import com.borunovv.core.server.nio.core.protocol.IMessage;
+import com.borunovv.core.testing.AbstractTest;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+public class RequestRateLimiterTest extends AbstractTest {
+
+    @Test
+    public void limitsAreIndependent() throws Exception {
+        RequestRateLimiter limiter = new RequestRateLimiter(Arrays.asList(
+                new RequestRateLimiter.Limit("default", 100, 2),
+                new RequestRateLimiter.Limit("auth", 1, 1)),
+                new FixedClassifier(-1, 0));
+
+        assertEquals(0, limiter.tryAcquire(1, 7, 0));
+        assertEquals(1000, limiter.tryAcquire(1, 7, 0));
+        // Исчерпанный "auth" не мешает "default" того же клиента.
+        assertEquals(0, limiter.tryAcquire(0, 7, 0));
+        assertEquals(0, limiter.tryAcquire(0, 7, 0));
+        assertEquals(10, limiter.tryAcquire(0, 7, 0));
+
+        assertEquals(1, limiter.getThrottledCount(0));
+        assertEquals(1, limiter.getThrottledCount(1));
+        assertTrue(limiter.getStats(), limiter.getStats().contains("auth (1.0/s, burst 1): 1 clients, throttled: 1"));
+    }
+
+    @Test
+    public void classifier() throws Exception {
+        RequestRateLimiter unlimited = new RequestRateLimiter(Arrays.asList(
+                new RequestRateLimiter.Limit("default", 1, 1)),
+                new FixedClassifier(-1, 0));
+        for (int i = 0; i < 10; ++i) {
+            assertEquals(0, unlimited.tryAcquire(null, 0));
+        }
+
+        RequestRateLimiter limited = new RequestRateLimiter(Arrays.asList(
+                new RequestRateLimiter.Limit("default", 1, 1)),
+                new FixedClassifier(0, 42));
+        assertEquals(0, limited.tryAcquire(null, 0));
+        assertEquals(1000, limited.tryAcquire(null, 0));
+        assertEquals(500, limited.tryAcquire(0, 42, 500));
+    }
+
+    private static class FixedClassifier implements RequestRateLimiter.IClassifier {
+        private final int limitIndex;
+        private final long clientKey;
+
+        FixedClassifier(int limitIndex, long clientKey) {
+            this.limitIndex = limitIndex;
+            this.clientKey = clientKey;
+        }
+
+        @Override
+        public int getLimitIndex(IMessage msg) {
+            return limitIndex;
+        }
+
+        @Override
+        public long getClientKey(IMessage msg) {
+            return clientKey;
+        }
+    }
+}
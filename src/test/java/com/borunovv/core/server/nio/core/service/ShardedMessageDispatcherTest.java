@@ -0,0 +1,197 @@
+package com.borunovv.core.server.nio.core.service;
+
+import com.borunovv.core.server.nio.core.protocol.AbstractMessage;
+import com.borunovv.core.server.nio.core.protocol.IMessage;
+import com.borunovv.core.server.nio.core.session.ISession;
+import com.borunovv.core.server.nio.core.session.Session;
+import com.borunovv.core.server.nio.core.session.SessionEvent;
+import com.borunovv.core.server.nio.http.protocol.HttpProtocol;
+import com.borunovv.core.testing.AbstractTest;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+public class ShardedMessageDispatcherTest extends AbstractTest {
+
+    // Сообщения каждой сессии обрабатываются по порядку, ответы из обработчика - тут же и тоже по порядку.
+    @Test
+    public void perSessionOrder() throws Exception {
+        final int sessionsCount = 20;
+        final int messagesPerSession = 500;
+        final Map<ISession, List<Integer>> inputs = new ConcurrentHashMap<>();
+        final Map<ISession, List<Integer>> outputs = new ConcurrentHashMap<>();
+        final AtomicInteger outputsCount = new AtomicInteger();
+
+        IMessageProcessor processor = new AbstractMessageProcessor() {
+            @Override
+            public void processInputMessage(IMessage msg) {
+                TestMessage request = (TestMessage) msg;
+                inputs.get(msg.getSession()).add(request.number);
+                getDispatcher().queueOutputMessage(new TestMessage(msg.getSession(), request.number));
+            }
+
+            @Override
+            public void processOutputMessage(IMessage msg) {
+                outputs.get(msg.getSession()).add(((TestMessage) msg).number);
+                outputsCount.incrementAndGet();
+            }
+        };
+        ShardedMessageDispatcher dispatcher = new ShardedMessageDispatcher(
+                new ConcurrentMessageDispatcher.Config(4, 100, 30, 1, 10, 30, 1, 10, 30, processor));
+        processor.setMessageDispatcher(dispatcher);
+        dispatcher.start();
+        try {
+            ISession[] sessions = new ISession[sessionsCount];
+            for (int i = 0; i < sessionsCount; ++i) {
+                sessions[i] = newSession(dispatcher);
+                inputs.put(sessions[i], new CopyOnWriteArrayList<>());
+                outputs.put(sessions[i], new CopyOnWriteArrayList<>());
+            }
+
+            for (int n = 0; n < messagesPerSession; ++n) {
+                for (ISession session : sessions) {
+                    dispatcher.queueInputMessage(new TestMessage(session, n));
+                }
+            }
+
+            long deadline = System.currentTimeMillis() + 10000;
+            while (outputsCount.get() < sessionsCount * messagesPerSession
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+
+            for (ISession session : sessions) {
+                assertOrdered(inputs.get(session), messagesPerSession);
+                assertOrdered(outputs.get(session), messagesPerSession);
+            }
+        } finally {
+            dispatcher.stop();
+        }
+    }
+
+    // Простаивающая сессия с перегруженной полосы переезжает на свободную, а занятая остается на месте.
+    @Test
+    public void hotSessionMigration() throws Exception {
+        final CountDownLatch handlerBlocked = new CountDownLatch(1);
+        final Map<ISession, Thread> threads = new ConcurrentHashMap<>();
+        final Map<ISession, List<Integer>> inputs = new ConcurrentHashMap<>();
+        final AtomicInteger processed = new AtomicInteger();
+
+        ShardedMessageDispatcher dispatcher = new ShardedMessageDispatcher(
+                new ConcurrentMessageDispatcher.Config(2, 100, 30, 1, 10, 30, 1, 10, 30,
+                        new AbstractMessageProcessor() {
+                            @Override
+                            public void processInputMessage(IMessage msg) {
+                                try {
+                                    handlerBlocked.await();
+                                } catch (InterruptedException e) {
+                                    Thread.currentThread().interrupt();
+                                }
+                                threads.put(msg.getSession(), Thread.currentThread());
+                                inputs.get(msg.getSession()).add(((TestMessage) msg).number);
+                                processed.incrementAndGet();
+                            }
+                        }));
+        dispatcher.start();
+        try {
+            // Сессии раскладываются по полосам поровну: hot -> 0, other -> 1, idle -> 0.
+            ISession hot = newSession(dispatcher);
+            ISession other = newSession(dispatcher);
+            ISession idle = newSession(dispatcher);
+            inputs.put(hot, new CopyOnWriteArrayList<>());
+            inputs.put(other, new CopyOnWriteArrayList<>());
+            inputs.put(idle, new CopyOnWriteArrayList<>());
+
+            for (int n = 0; n < 40; ++n) {
+                assertTrue(dispatcher.tryQueueInputMessage(new TestMessage(hot, n)));
+            }
+            assertTrue(dispatcher.tryQueueInputMessage(new TestMessage(other, 0)));
+            assertTrue(dispatcher.getStats().contains("migrations: 0"));
+
+            // Полоса 0 забита hot, а у idle ничего нет в обработке - переезжает на полосу 1.
+            assertTrue(dispatcher.tryQueueInputMessage(new TestMessage(idle, 0)));
+            assertTrue(dispatcher.getStats().contains("migrations: 1"));
+
+            // У hot есть сообщения в полосе - она не переезжает, сколько бы полоса ни была загружена.
+            assertTrue(dispatcher.tryQueueInputMessage(new TestMessage(hot, 40)));
+            assertTrue(dispatcher.getStats().contains("migrations: 1"));
+
+            handlerBlocked.countDown();
+            while (processed.get() < 43) {
+                Thread.sleep(1);
+            }
+            assertFalse(threads.get(hot) == threads.get(idle));
+            assertTrue(threads.get(other) == threads.get(idle));
+            assertOrdered(inputs.get(hot), 41);
+
+            dispatcher.queueSessionEvent(SessionEvent.makeClientDisconnected(hot, "test"));
+            dispatcher.queueSessionEvent(SessionEvent.makeClientDisconnected(other, "test"));
+            dispatcher.queueSessionEvent(SessionEvent.makeClientDisconnected(idle, "test"));
+            assertTrue(dispatcher.getStats().contains("sessions: 0"));
+        } finally {
+            dispatcher.stop();
+        }
+    }
+
+    // Сообщение уже закрытой сессии (пришло после CLIENT_DISCONNECTED) обрабатывается, но привязка не заводится заново.
+    @Test
+    public void closedSessionIsNotRegisteredAgain() throws Exception {
+        final AtomicInteger processed = new AtomicInteger();
+        ShardedMessageDispatcher dispatcher = new ShardedMessageDispatcher(
+                new ConcurrentMessageDispatcher.Config(2, 100, 30, 1, 10, 30, 1, 10, 30,
+                        new AbstractMessageProcessor() {
+                            @Override
+                            public void processInputMessage(IMessage msg) {
+                                processed.incrementAndGet();
+                            }
+                        }));
+        dispatcher.start();
+        try {
+            ISession session = newSession(dispatcher);
+            assertTrue(dispatcher.tryQueueInputMessage(new TestMessage(session, 0)));
+            assertTrue(dispatcher.getStats().contains("sessions: 1"));
+
+            session.close("test");
+            dispatcher.queueSessionEvent(SessionEvent.makeClientDisconnected(session, "test"));
+            assertTrue(dispatcher.getStats().contains("sessions: 0"));
+
+            assertTrue(dispatcher.tryQueueInputMessage(new TestMessage(session, 1)));
+            while (processed.get() < 2) {
+                Thread.sleep(1);
+            }
+            assertTrue(dispatcher.getStats().contains("sessions: 0"));
+            assertTrue(dispatcher.getStats().contains("(0 sessions), 0 (0 sessions)]"));
+        } finally {
+            dispatcher.stop();
+        }
+    }
+
+    private static ISession newSession(IMessageDispatcher dispatcher) {
+        return new Session(dispatcher, new HttpProtocol(1024, 1024, 30), false);
+    }
+
+    private static void assertOrdered(List<Integer> numbers, int expectedCount) {
+        assertEquals(expectedCount, numbers.size());
+        for (int i = 0; i < expectedCount; ++i) {
+            assertEquals(i, numbers.get(i).intValue());
+        }
+    }
+
+    private static class TestMessage extends AbstractMessage {
+        final int number;
+
+        TestMessage(ISession session, int number) {
+            super(session, false);
+            this.number = number;
+        }
+    }
+}
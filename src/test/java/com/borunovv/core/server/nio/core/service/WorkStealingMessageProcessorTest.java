@@ -0,0 +1,110 @@
+package com.borunovv.core.server.nio.core.service;
+
+import com.borunovv.core.testing.AbstractTest;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+public class WorkStealingMessageProcessorTest extends AbstractTest {
+
+    // Лимит очереди: место освобождается, когда задача начала выполняться.
+    @Test
+    public void queueLimit() throws Exception {
+        final CountDownLatch handlerBlocked = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        TestHandler handler = new TestHandler() {
+            @Override
+            public void handle(Integer task) {
+                started.countDown();
+                try {
+                    handlerBlocked.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.handle(task);
+            }
+        };
+        WorkStealingMessageProcessor<Integer> processor = new WorkStealingMessageProcessor<>(1, 3, 50, handler);
+        processor.start();
+        try {
+            assertTrue(processor.tryQueue(0));
+            started.await();
+            assertEquals(0, processor.getQueueSize());
+            assertEquals(1, processor.getActiveTaskCount());
+
+            assertTrue(processor.tryQueue(1));
+            assertTrue(processor.tryQueue(2));
+            assertTrue(processor.tryQueue(3));
+            assertFalse(processor.tryQueue(4));
+            assertEquals(3, processor.getQueueSize());
+            assertEquals(0, handler.rejected.get());
+
+            // Блокирующий вариант ждет таймаут и отказывает.
+            assertFalse(processor.queue(5));
+            assertEquals(1, handler.rejected.get());
+
+            handlerBlocked.countDown();
+        } finally {
+            processor.stop();
+        }
+        // Остановка дорабатывает то, что уже в очереди.
+        assertEquals(4, handler.processed.get());
+        assertEquals(0, processor.getQueueSize());
+        assertFalse(processor.tryQueue(6));
+    }
+
+    @Test
+    public void manyProducers() throws Exception {
+        final int producers = 4;
+        final int tasksPerProducer = 20000;
+        TestHandler handler = new TestHandler();
+        WorkStealingMessageProcessor<Integer> processor = new WorkStealingMessageProcessor<>(4, 100, 10000, handler);
+        processor.start();
+        try {
+            Thread[] threads = new Thread[producers];
+            for (int i = 0; i < producers; ++i) {
+                threads[i] = new Thread(() -> {
+                    for (int n = 0; n < tasksPerProducer; ++n) {
+                        processor.queue(n);
+                    }
+                });
+                threads[i].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } finally {
+            processor.stop();
+        }
+        assertEquals(producers * tasksPerProducer, handler.processed.get());
+        assertEquals(0, handler.rejected.get());
+    }
+
+    private static class TestHandler implements IMessageHandler<Integer> {
+        final AtomicInteger processed = new AtomicInteger();
+        final AtomicInteger rejected = new AtomicInteger();
+
+        @Override
+        public void handle(Integer task) {
+            processed.incrementAndGet();
+        }
+
+        @Override
+        public void onReject(Integer task) {
+            rejected.incrementAndGet();
+        }
+
+        @Override
+        public void onError(Integer task, Exception cause) {
+        }
+
+        @Override
+        public void onError(Exception cause) {
+        }
+    }
+}
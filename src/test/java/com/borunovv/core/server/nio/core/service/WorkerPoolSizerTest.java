@@ -0,0 +1,60 @@
+package com.borunovv.core.server.nio.core.service;
+
+import com.borunovv.core.testing.AbstractTest;
+import org.junit.Test;
+
+import static junit.framework.TestCase.assertEquals;
+
+public class WorkerPoolSizerTest extends AbstractTest {
+
+    private static final long MS = 1000000;
+
+    @Test
+    public void growsOnBacklogAfterSeveralPeriods() throws Exception {
+        WorkerPoolSizer sizer = new WorkerPoolSizer(4, 10);
+
+        // Одного перегруженного периода мало.
+        assertEquals(4, sizer.decide(4, 50, 0.95, 10 * MS, 30 * MS));
+        // Второй подряд - растем в полтора раза.
+        assertEquals(6, sizer.decide(4, 50, 0.95, 10 * MS, 30 * MS));
+        assertEquals(6, sizer.decide(6, 50, 0.95, 10 * MS, 30 * MS));
+        assertEquals(9, sizer.decide(6, 50, 0.95, 10 * MS, 30 * MS));
+        assertEquals(9, sizer.decide(9, 50, 0.95, 10 * MS, 30 * MS));
+        // Не больше максимума.
+        assertEquals(10, sizer.decide(9, 50, 0.95, 10 * MS, 30 * MS));
+        assertEquals(10, sizer.decide(10, 50, 0.95, 10 * MS, 30 * MS));
+        assertEquals(10, sizer.decide(10, 50, 0.95, 10 * MS, 30 * MS));
+    }
+
+    @Test
+    public void noGrowthWithoutBacklogOrWhenNotBusy() throws Exception {
+        WorkerPoolSizer sizer = new WorkerPoolSizer(4, 10);
+        for (int i = 0; i < 5; ++i) {
+            // Потоки заняты, но в очереди пара коротких задач: ждать их меньше, чем p99 обработки.
+            assertEquals(4, sizer.decide(4, 2, 0.95, 10 * MS, 30 * MS));
+            // Очередь есть, но потоки простаивают (например, задачи только что пришли пачкой).
+            assertEquals(4, sizer.decide(4, 50, 0.5, 10 * MS, 30 * MS));
+        }
+        // Перемежающиеся периоды сбрасывают счетчик.
+        assertEquals(4, sizer.decide(4, 50, 0.95, 10 * MS, 30 * MS));
+        assertEquals(4, sizer.decide(4, 0, 0.6, 10 * MS, 30 * MS));
+        assertEquals(4, sizer.decide(4, 50, 0.95, 10 * MS, 30 * MS));
+    }
+
+    @Test
+    public void shrinksSlowlyWhenIdle() throws Exception {
+        WorkerPoolSizer sizer = new WorkerPoolSizer(2, 10);
+        for (int i = 1; i < WorkerPoolSizer.SHRINK_AFTER_PERIODS; ++i) {
+            assertEquals(4, sizer.decide(4, 0, 0.1, MS, 2 * MS));
+        }
+        assertEquals(3, sizer.decide(4, 0, 0.1, MS, 2 * MS));
+        for (int i = 1; i < WorkerPoolSizer.SHRINK_AFTER_PERIODS; ++i) {
+            assertEquals(3, sizer.decide(3, 0, 0.1, MS, 2 * MS));
+        }
+        assertEquals(2, sizer.decide(3, 0, 0.1, MS, 2 * MS));
+        // Не меньше минимума.
+        for (int i = 0; i < WorkerPoolSizer.SHRINK_AFTER_PERIODS * 2; ++i) {
+            assertEquals(2, sizer.decide(2, 0, 0.0, 0, 0));
+        }
+    }
+}
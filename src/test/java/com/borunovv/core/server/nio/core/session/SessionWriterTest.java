@@ -0,0 +1,111 @@
+package com.borunovv.core.server.nio.core.session;
+
+import com.borunovv.core.testing.AbstractTest;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+public class SessionWriterTest extends AbstractTest {
+
+    // Ошибка в колбэке об отправке не должна выдавать другой пакет за неотправленный и выкидывать его из очереди.
+    @Test
+    public void sentCallbackErrorDoesNotDropNextPacket() throws Exception {
+        List<Object> sent = new ArrayList<>();
+        List<Object> failed = new ArrayList<>();
+        ISession session = newSession(sent, failed, "first");
+
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress("127.0.0.1", 0));
+            try (SocketChannel client = SocketChannel.open(server.getLocalAddress());
+                 SocketChannel peer = server.accept()) {
+
+                SessionWriter writer = new SessionWriter(session, 1);
+                writer.queuePacket(ByteBuffer.wrap("abc".getBytes()), "first");
+                writer.queuePacket(ByteBuffer.wrap("de".getBytes()), "second");
+
+                try {
+                    writer.onCanWrite(null, client);
+                    fail("Expected callback error");
+                } catch (IOException e) {
+                    assertTrue(e.getMessage().contains("callback"));
+                }
+                assertEquals(1, writer.getMsgQueueSize());
+
+                writer.onCanWrite(null, client);
+                assertEquals(0, writer.getMsgQueueSize());
+                assertEquals(0, writer.getSelectionKeyFlags());
+
+                assertEquals(2, sent.size());
+                assertEquals("first", sent.get(0));
+                assertEquals("second", sent.get(1));
+                assertEquals(0, failed.size());
+
+                ByteBuffer received = ByteBuffer.allocate(5);
+                while (received.hasRemaining()) {
+                    peer.read(received);
+                }
+                assertEquals("abcde", new String(received.array()));
+            }
+        }
+    }
+
+    // Ошибка записи - о неудаче узнает именно тот пакет, что писался.
+    @Test
+    public void writeErrorFailsHeadPacket() throws Exception {
+        List<Object> sent = new ArrayList<>();
+        List<Object> failed = new ArrayList<>();
+        ISession session = newSession(sent, failed, null);
+
+        SocketChannel client = SocketChannel.open();
+        client.close();
+
+        SessionWriter writer = new SessionWriter(session, 4);
+        writer.queuePacket(ByteBuffer.wrap("abc".getBytes()), "first");
+        writer.queuePacket(ByteBuffer.wrap("de".getBytes()), "second");
+        try {
+            writer.onCanWrite(null, client);
+            fail("Expected write error");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("write"));
+        }
+
+        assertEquals(0, sent.size());
+        assertEquals(1, failed.size());
+        assertEquals("first", failed.get(0));
+        assertEquals(1, writer.getMsgQueueSize());
+    }
+
+    // Сессия-заглушка: запоминает уведомления об отправке, на пакете failOnSent колбэк падает.
+    private static ISession newSession(final List<Object> sent, final List<Object> failed, final Object failOnSent) {
+        return (ISession) Proxy.newProxyInstance(ISession.class.getClassLoader(),
+                new Class<?>[]{ISession.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "onPacketSent":
+                            sent.add(args[1]);
+                            if (args[1].equals(failOnSent)) {
+                                throw new IllegalStateException("Callback error");
+                            }
+                            return null;
+                        case "onPacketSentFailed":
+                            failed.add(args[1]);
+                            return null;
+                        case "toString":
+                            return "TestSession";
+                        default:
+                            return null;
+                    }
+                });
+    }
+}
@@ -0,0 +1,113 @@
+package com.borunovv.core.server.nio.core.util;
+
+import com.borunovv.core.testing.AbstractTest;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+public class CountedConcurrentQueueTest extends AbstractTest {
+
+    @Test
+    public void sizeAndHighWaterMark() throws Exception {
+        CountedConcurrentQueue<String> queue = new CountedConcurrentQueue<>();
+        queue.add("a");
+        queue.add("b");
+        assertTrue(queue.offer("c", 3));
+        assertFalse(queue.offer("d", 3));
+        assertEquals(3, queue.size());
+        assertEquals(3, queue.getHighWaterMark());
+
+        assertEquals("a", queue.peek());
+        assertEquals("a", queue.poll());
+        assertEquals(2, queue.size());
+
+        queue.clear();
+        assertTrue(queue.isEmpty());
+        assertEquals(0, queue.size());
+        assertNull(queue.poll());
+        assertEquals(3, queue.getHighWaterMark());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void iteratorIsReadOnly() throws Exception {
+        CountedConcurrentQueue<String> queue = new CountedConcurrentQueue<>();
+        queue.add("a");
+        Iterator<String> iterator = queue.iterator();
+        assertEquals("a", iterator.next());
+        iterator.remove();
+    }
+
+    // Писатели (с лимитом и без) и читатели одновременно: счетчик не уходит в минус,
+    // лимит не превышается, в конце размер равен реальному числу элементов.
+    @Test
+    public void stress() throws Exception {
+        final int limit = 500;
+        final int writers = 4;
+        final int perWriter = 50000;
+        final CountedConcurrentQueue<Integer> queue = new CountedConcurrentQueue<>();
+
+        final AtomicLong added = new AtomicLong();
+        final AtomicLong polled = new AtomicLong();
+        final AtomicInteger badSize = new AtomicInteger(-1);
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final CountDownLatch writersDone = new CountDownLatch(writers);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < writers; ++w) {
+            final boolean bounded = w % 2 == 0;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < perWriter; ++i) {
+                    if (bounded) {
+                        if (queue.offer(i, limit)) {
+                            added.incrementAndGet();
+                        }
+                    } else if (queue.size() < limit / 2) {
+                        queue.add(i);
+                        added.incrementAndGet();
+                    }
+                }
+                writersDone.countDown();
+            }));
+        }
+        for (int r = 0; r < 2; ++r) {
+            threads.add(new Thread(() -> {
+                while (writing.get() || !queue.isEmpty()) {
+                    if (queue.poll() != null) {
+                        polled.incrementAndGet();
+                    }
+                    int size = queue.size();
+                    // Неограниченные писатели добавляют только до limit / 2, так что выше limit + кол-во писателей быть не может.
+                    if (size < 0 || size > limit + writers) {
+                        badSize.set(size);
+                    }
+                }
+            }));
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        writersDone.await();
+        writing.set(false);
+        for (Thread thread : threads) {
+            thread.join(30000);
+        }
+
+        assertEquals(-1, badSize.get());
+        assertEquals(added.get(), polled.get());
+        assertEquals(0, queue.size());
+        assertTrue(queue.isEmpty());
+        assertTrue(queue.getHighWaterMark() <= limit + writers);
+    }
+}
@@ -0,0 +1,104 @@
+package com.borunovv.core.server.nio.core.util;
+
+import com.borunovv.core.service.IConsumer;
+import com.borunovv.core.testing.AbstractTest;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+public class HashedTimingWheelTest extends AbstractTest {
+
+    @Test
+    public void firesOnlyExpired() throws Exception {
+        HashedTimingWheel<String> wheel = new HashedTimingWheel<>(10, 8, 0);
+        wheel.schedule(wheel.newEntry("a"), 15);
+        wheel.schedule(wheel.newEntry("b"), 40);
+
+        Collector collector = new Collector();
+        assertEquals(0, wheel.advance(10, collector));
+        assertEquals(1, wheel.advance(20, collector));
+        assertEquals("a", collector.fired.get(0));
+        assertEquals(1, wheel.size());
+
+        assertEquals(1, wheel.advance(40, collector));
+        assertEquals("b", collector.fired.get(1));
+        assertTrue(wheel.isEmpty());
+    }
+
+    @Test
+    public void deadlineBeyondOneRotation() throws Exception {
+        // Оборот колеса = 8 * 10 = 80 мс.
+        HashedTimingWheel<String> wheel = new HashedTimingWheel<>(10, 8, 0);
+        wheel.schedule(wheel.newEntry("far"), 250);
+
+        Collector collector = new Collector();
+        for (long time = 10; time < 250; time += 10) {
+            assertEquals(0, wheel.advance(time, collector));
+        }
+        assertEquals(1, wheel.advance(250, collector));
+    }
+
+    @Test
+    public void bigTimeJump() throws Exception {
+        HashedTimingWheel<String> wheel = new HashedTimingWheel<>(10, 8, 0);
+        wheel.schedule(wheel.newEntry("a"), 30);
+        wheel.schedule(wheel.newEntry("b"), 500);
+
+        Collector collector = new Collector();
+        assertEquals(2, wheel.advance(10000, collector));
+    }
+
+    @Test
+    public void rescheduleAndCancel() throws Exception {
+        HashedTimingWheel<String> wheel = new HashedTimingWheel<>(10, 8, 0);
+        HashedTimingWheel.Entry<String> a = wheel.newEntry("a");
+        HashedTimingWheel.Entry<String> b = wheel.newEntry("b");
+        wheel.schedule(a, 10);
+        wheel.schedule(b, 10);
+        wheel.schedule(a, 100);
+        wheel.cancel(b);
+        assertFalse(b.isScheduled());
+        assertEquals(1, wheel.size());
+
+        Collector collector = new Collector();
+        assertEquals(0, wheel.advance(50, collector));
+        assertEquals(1, wheel.advance(100, collector));
+        assertFalse(a.isScheduled());
+    }
+
+    @Test
+    public void rescheduleFromCallback() throws Exception {
+        final HashedTimingWheel<String> wheel = new HashedTimingWheel<>(10, 8, 0);
+        final HashedTimingWheel.Entry<String> entry = wheel.newEntry("a");
+        wheel.schedule(entry, 0);
+
+        final List<String> fired = new ArrayList<>();
+        IConsumer<String> rescheduler = new IConsumer<String>() {
+            @Override
+            public void consume(String item) {
+                fired.add(item);
+                wheel.schedule(entry, 0);
+            }
+        };
+
+        for (long time = 10; time <= 50; time += 10) {
+            assertEquals(1, wheel.advance(time, rescheduler));
+        }
+        assertEquals(5, fired.size());
+        assertTrue(entry.isScheduled());
+    }
+
+    private static class Collector implements IConsumer<String> {
+        private final List<String> fired = new ArrayList<>();
+
+        @Override
+        public void consume(String item) {
+            fired.add(item);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.borunovv.core.server.nio.core.util;
+
+import com.borunovv.core.testing.AbstractTest;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+public class LongCountMapTest extends AbstractTest {
+
+    @Test
+    public void incrementAndDecrement() throws Exception {
+        LongCountMap map = new LongCountMap();
+        assertEquals(1, map.increment(10));
+        assertEquals(2, map.increment(10));
+        assertEquals(1, map.increment(0));
+        assertEquals(2, map.size());
+
+        assertEquals(1, map.decrement(10));
+        assertEquals(0, map.decrement(10));
+        // Нулевой счетчик - ключа больше нет.
+        assertEquals(0, map.get(10));
+        assertEquals(-1, map.decrement(10));
+        assertEquals(1, map.size());
+        assertEquals(0, map.decrement(0));
+        assertTrue(map.isEmpty());
+    }
+
+    // Много ключей с удалениями вперемешку: сверяемся с HashMap (проверяет и рост таблицы, и сдвиг при удалении).
+    @Test
+    public void matchesHashMap() throws Exception {
+        LongCountMap map = new LongCountMap();
+        Map<Long, Integer> expected = new HashMap<>();
+        Random random = new Random(1);
+        for (int i = 0; i < 200000; ++i) {
+            long key = random.nextInt(5000) * 0x100000001L;
+            if (random.nextInt(3) > 0) {
+                expected.merge(key, 1, Integer::sum);
+                assertEquals((int) expected.get(key), map.increment(key));
+            } else {
+                Integer count = expected.get(key);
+                assertEquals(count == null ? -1 : count - 1, map.decrement(key));
+                if (count != null) {
+                    if (count == 1) {
+                        expected.remove(key);
+                    } else {
+                        expected.put(key, count - 1);
+                    }
+                }
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+            assertEquals((int) entry.getValue(), map.get(entry.getKey()));
+        }
+    }
+}
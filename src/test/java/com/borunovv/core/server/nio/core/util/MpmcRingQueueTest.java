@@ -0,0 +1,146 @@
+package com.borunovv.core.server.nio.core.util;
+
+import com.borunovv.core.testing.AbstractTest;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+public class MpmcRingQueueTest extends AbstractTest {
+
+    @Test
+    public void fifoAndCapacity() throws Exception {
+        // Емкость не степень двойки - лимит должен соблюдаться точно.
+        MpmcRingQueue<Integer> queue = new MpmcRingQueue<>(3, MpmcRingQueue.WaitStrategy.PARK);
+        for (int round = 0; round < 5; ++round) {
+            assertTrue(queue.offer(1));
+            assertTrue(queue.offer(2));
+            assertTrue(queue.offer(3));
+            assertFalse(queue.offer(4));
+            assertEquals(3, queue.size());
+
+            assertEquals(1, (int) queue.poll());
+            assertEquals(2, (int) queue.poll());
+            assertEquals(3, (int) queue.poll());
+            assertNull(queue.poll());
+            assertTrue(queue.isEmpty());
+        }
+    }
+
+    @Test
+    public void blockingTimeouts() throws Exception {
+        MpmcRingQueue<String> queue = new MpmcRingQueue<>(1, MpmcRingQueue.WaitStrategy.PARK);
+
+        long start = System.currentTimeMillis();
+        assertNull(queue.poll(50, () -> false));
+        assertTrue(System.currentTimeMillis() - start >= 50);
+
+        assertTrue(queue.offer("a", 50, () -> false));
+        start = System.currentTimeMillis();
+        assertFalse(queue.offer("b", 50, () -> false));
+        assertTrue(System.currentTimeMillis() - start >= 50);
+
+        // Стоппер прерывает ожидание сразу.
+        assertFalse(queue.offer("b", 10000, () -> true));
+    }
+
+    @Test
+    public void waitingConsumerIsWokenUp() throws Exception {
+        MpmcRingQueue<String> queue = new MpmcRingQueue<>(10, MpmcRingQueue.WaitStrategy.PARK);
+        List<String> result = new ArrayList<>();
+        Thread consumer = new Thread(() -> {
+            try {
+                result.add(queue.poll(10000, () -> false));
+            } catch (InterruptedException ignore) {
+            }
+        });
+        consumer.start();
+        Thread.sleep(50);
+
+        long start = System.currentTimeMillis();
+        queue.offer("x");
+        consumer.join(5000);
+        assertEquals("x", result.get(0));
+        // Разбудили сигналом, а не по таймауту парковки (100 мс).
+        assertTrue(System.currentTimeMillis() - start < 90);
+    }
+
+    @Test
+    public void waitingProducerIsWokenUp() throws Exception {
+        MpmcRingQueue<String> queue = new MpmcRingQueue<>(1, MpmcRingQueue.WaitStrategy.PARK);
+        queue.offer("a");
+        boolean[] result = new boolean[1];
+        Thread producer = new Thread(() -> {
+            try {
+                result[0] = queue.offer("b", 10000, () -> false);
+            } catch (InterruptedException ignore) {
+            }
+        });
+        producer.start();
+        Thread.sleep(50);
+
+        assertEquals("a", queue.poll());
+        producer.join(5000);
+        assertTrue(result[0]);
+        assertEquals("b", queue.poll());
+    }
+
+    @Test
+    public void manyProducersManyConsumers() throws Exception {
+        checkManyProducersManyConsumers(MpmcRingQueue.WaitStrategy.PARK);
+        checkManyProducersManyConsumers(MpmcRingQueue.WaitStrategy.SPIN_YIELD);
+    }
+
+    private void checkManyProducersManyConsumers(MpmcRingQueue.WaitStrategy waitStrategy) throws Exception {
+        MpmcRingQueue<Long> queue = new MpmcRingQueue<>(16, waitStrategy);
+        int producersCount = 4;
+        int consumersCount = 4;
+        int perProducer = 20000;
+
+        AtomicLong consumedCount = new AtomicLong();
+        AtomicLong consumedSum = new AtomicLong();
+        long total = (long) producersCount * perProducer;
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < producersCount; ++i) {
+            threads.add(new Thread(() -> {
+                try {
+                    for (long value = 1; value <= perProducer; ++value) {
+                        assertTrue(queue.offer(value, 10000, () -> false));
+                    }
+                } catch (InterruptedException ignore) {
+                }
+            }));
+        }
+        for (int i = 0; i < consumersCount; ++i) {
+            threads.add(new Thread(() -> {
+                try {
+                    while (consumedCount.get() < total) {
+                        Long value = queue.poll(10, () -> false);
+                        if (value != null) {
+                            consumedSum.addAndGet(value);
+                            consumedCount.incrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException ignore) {
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join(30000);
+        }
+
+        assertEquals(total, consumedCount.get());
+        assertEquals(producersCount * ((long) perProducer * (perProducer + 1) / 2), consumedSum.get());
+        assertTrue(queue.isEmpty());
+    }
+}
@@ -0,0 +1,67 @@
+package com.borunovv.core.server.nio.core.util;
+
+import com.borunovv.core.testing.AbstractTest;
+import org.junit.Test;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+public class TokenBucketTableTest extends AbstractTest {
+
+    @Test
+    public void burstThenRate() throws Exception {
+        TokenBucketTable table = new TokenBucketTable(10, 3);
+        // Новый клиент начинает с полной корзиной.
+        assertEquals(0, table.tryAcquire(1, 1000));
+        assertEquals(0, table.tryAcquire(1, 1000));
+        assertEquals(0, table.tryAcquire(1, 1000));
+        // Дальше - токен раз в 100 мс, отказ корзину не тратит.
+        assertEquals(100, table.tryAcquire(1, 1000));
+        assertEquals(50, table.tryAcquire(1, 1050));
+        assertEquals(0, table.tryAcquire(1, 1100));
+        assertEquals(100, table.tryAcquire(1, 1100));
+
+        // Другой клиент не задет.
+        assertEquals(0, table.tryAcquire(2, 1100));
+        assertEquals(2, table.getTokens(2, 1100));
+
+        // Больше burst не копится.
+        assertEquals(3, table.getTokens(1, 100000));
+    }
+
+    @Test
+    public void fractionalRate() throws Exception {
+        TokenBucketTable table = new TokenBucketTable(0.5, 1);
+        assertEquals(0, table.tryAcquire(1, 0));
+        assertEquals(2000, table.tryAcquire(1, 0));
+        assertEquals(1, table.tryAcquire(1, 1999));
+        assertEquals(0, table.tryAcquire(1, 2000));
+    }
+
+    @Test
+    public void timeGoesNotBackward() throws Exception {
+        TokenBucketTable table = new TokenBucketTable(10, 1);
+        assertEquals(0, table.tryAcquire(1, 1000));
+        // Часы другого реактора чуть отстают - токенов не прибавляется.
+        assertEquals(100, table.tryAcquire(1, 990));
+        assertEquals(90, table.tryAcquire(1, 1010));
+    }
+
+    @Test
+    public void fullBucketsAreDropped() throws Exception {
+        TokenBucketTable table = new TokenBucketTable(1000, 1);
+        for (int key = 0; key < 1000; ++key) {
+            assertEquals(0, table.tryAcquire(key, 0));
+        }
+        assertEquals(1000, table.size());
+
+        // Через 1 мс все корзины снова полные - новым клиентам они место не занимают.
+        for (int key = 1000; key < 1100; ++key) {
+            assertEquals(0, table.tryAcquire(key, 1));
+        }
+        assertTrue("Size: " + table.size(), table.size() <= 100);
+        assertEquals(1, table.getTokens(5, 1));
+        assertEquals(0, table.tryAcquire(5, 1));
+        assertEquals(1, table.tryAcquire(5, 1));
+    }
+}
@@ -0,0 +1,79 @@
+package com.borunovv.core.server.nio.http.protocol;
+
+import com.borunovv.core.testing.AbstractTest;
+import com.borunovv.core.util.HttpMethod;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNull;
+
+public class HttpHeaderTest extends AbstractTest {
+
+    @Test
+    public void requestLineAndFields() throws Exception {
+        HttpHeader header = parse("post  /a/b?x=1   HTTP/1.1\r\n"
+                + "Host: localhost\r\n"
+                + "content-TYPE:  application/json  \r\n"
+                + "X-Multi: 1\r\n"
+                + "Content-Length: 123\r\n"
+                + "x-multi:2\r\n"
+                + "Broken line without colon");
+
+        assertEquals(HttpMethod.POST, header.getMethod());
+        assertEquals("/a/b?x=1", header.getUri());
+        assertEquals(123, header.getContentLength());
+        assertEquals("application/json", header.getFirstValue("Content-Type"));
+        assertEquals("localhost", header.getFirstValue("HOST"));
+        assertEquals(Arrays.asList("1", "2"), header.getValues("X-Multi"));
+        assertEquals("", header.getFirstValue("Broken line without colon"));
+        assertNull(header.getFirstValue("Authorization"));
+        assertNull(header.getFirstValue("Absent"));
+        assertEquals(Collections.<String>emptyList(), header.getValues("Absent"));
+    }
+
+    @Test
+    public void knownFieldFirstOccurrence() throws Exception {
+        HttpHeader header = parse("GET / HTTP/1.1\r\n"
+                + "Authorization: Basic first\r\n"
+                + "AUTHORIZATION: Basic second");
+
+        assertEquals(0, header.getContentLength());
+        assertEquals("Basic first", header.getFirstValue("authorization"));
+        assertEquals(Arrays.asList("Basic first", "Basic second"), header.getValues("Authorization"));
+    }
+
+    @Test
+    public void utf8Value() throws Exception {
+        HttpHeader header = parse("GET /путь HTTP/1.1\r\nX-Name: Иван");
+        assertEquals("/путь", header.getUri());
+        assertEquals("Иван", header.getFirstValue("x-name"));
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void badContentLength() throws Exception {
+        parse("POST / HTTP/1.1\r\nContent-Length: 12a");
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void tooBigContentLength() throws Exception {
+        parse("POST / HTTP/1.1\r\nContent-Length: 99999999999");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void noProtocolVersion() throws Exception {
+        parse("GET /uri");
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void unknownMethod() throws Exception {
+        parse("BREW /pot HTTP/1.1").getMethod();
+    }
+
+    private static HttpHeader parse(String header) throws Exception {
+        byte[] data = header.getBytes("UTF-8");
+        return new HttpHeader(data, data.length);
+    }
+}
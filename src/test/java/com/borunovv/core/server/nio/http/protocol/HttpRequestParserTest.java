@@ -0,0 +1,151 @@
+package com.borunovv.core.server.nio.http.protocol;
+
+import com.borunovv.core.server.nio.core.buffer.PacketBuffer;
+import com.borunovv.core.testing.AbstractTest;
+import com.borunovv.core.util.Assert;
+import com.borunovv.core.util.HttpMethod;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static junit.framework.TestCase.assertEquals;
+
+public class HttpRequestParserTest extends AbstractTest {
+
+    @Test
+    public void byteByByte() throws Exception {
+        byte[] content = "Test_Content".getBytes("UTF-8");
+        byte[] request = buildRequest("POST", "/the/uri?a=1", content);
+
+        HttpRequestParser parser = new HttpRequestParser();
+        ByteBuffer buffer = ByteBuffer.allocate(request.length);
+        for (int i = 0; i < request.length - 1; ++i) {
+            buffer.put(request[i]);
+            assertEquals(-1, parser.checkPacket(buffer));
+        }
+        buffer.put(request[request.length - 1]);
+        assertEquals(request.length, parser.checkPacket(buffer));
+
+        HttpRequest req = unmarshall(parser, buffer, request.length);
+        assertEquals(HttpMethod.POST, req.getMethod());
+        assertEquals("/the/uri?a=1", req.getUri());
+        assertEquals("1", req.getUriParams().get("a"));
+        Assert.arraysAreEqual(content, req.getContent());
+    }
+
+    @Test
+    public void pipelinedRequests() throws Exception {
+        byte[] first = buildRequest("GET", "/first", null);
+        byte[] second = buildRequest("POST", "/second", "body".getBytes("UTF-8"));
+
+        HttpRequestParser parser = new HttpRequestParser();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(first.length + second.length);
+        buffer.put(first).put(second, 0, 10);
+
+        assertEquals(first.length, parser.checkPacket(buffer));
+        assertEquals("/first", unmarshall(parser, buffer, first.length).getUri());
+
+        // Как в SessionReader: остаток сдвигаем в начало буфера.
+        buffer.flip();
+        buffer.position(first.length);
+        buffer.compact();
+        assertEquals(-1, parser.checkPacket(buffer));
+
+        buffer.put(second, 10, second.length - 10);
+        assertEquals(second.length, parser.checkPacket(buffer));
+        HttpRequest req = unmarshall(parser, buffer, second.length);
+        assertEquals("/second", req.getUri());
+        assertEquals("body", new String(req.getContent(), "UTF-8"));
+    }
+
+    @Test
+    public void bodyInChunksAndBufferGrowth() throws Exception {
+        byte[] content = new byte[100000];
+        for (int i = 0; i < content.length; ++i) {
+            content[i] = (byte) i;
+        }
+        byte[] request = buildRequest("POST", "/upload", content);
+
+        HttpRequestParser parser = new HttpRequestParser();
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        int offset = 0;
+        while (offset < request.length) {
+            if (buffer.remaining() == 0) {
+                ByteBuffer bigger = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                bigger.put(buffer);
+                buffer = bigger;
+            }
+            int len = Math.min(Math.min(100, buffer.remaining()), request.length - offset);
+            buffer.put(request, offset, len);
+            offset += len;
+            assertEquals(offset < request.length ? -1 : request.length, parser.checkPacket(buffer));
+        }
+
+        Assert.arraysAreEqual(content, unmarshall(parser, buffer, request.length).getContent());
+    }
+
+    @Test
+    public void resetForgetsPartialRequest() throws Exception {
+        byte[] request = buildRequest("POST", "/a", "12345".getBytes("UTF-8"));
+
+        HttpRequestParser parser = new HttpRequestParser();
+        ByteBuffer buffer = ByteBuffer.allocate(request.length);
+        buffer.put(request, 0, request.length - 1);
+        assertEquals(-1, parser.checkPacket(buffer));
+
+        parser.reset();
+        buffer.clear();
+        byte[] other = buildRequest("GET", "/b", null);
+        buffer.put(other);
+        assertEquals(other.length, parser.checkPacket(buffer));
+        assertEquals("/b", unmarshall(parser, buffer, other.length).getUri());
+    }
+
+    // Разделитель в самом начале (пустой заголовок) - еще не запрос, как и раньше.
+    @Test
+    public void emptyHeaderIsIncomplete() throws Exception {
+        byte[] request = "\r\n\r\n".getBytes("UTF-8");
+        ByteBuffer buffer = ByteBuffer.allocate(request.length);
+        buffer.put(request);
+        assertEquals(-1, new HttpRequestParser().checkPacket(buffer));
+    }
+
+    // Сумма заголовка и Content-Length не должна переполниться в отрицательную (иначе не сработает 413).
+    @Test
+    public void hugeContentLengthDoesNotOverflow() throws Exception {
+        byte[] request = ("POST /upload HTTP/1.1\r\nContent-Length: " + Integer.MAX_VALUE + "\r\n\r\n")
+                .getBytes("UTF-8");
+        ByteBuffer buffer = ByteBuffer.allocate(request.length);
+        buffer.put(request);
+
+        HttpRequestParser parser = new HttpRequestParser();
+        assertEquals(-1, parser.checkPacket(buffer));
+        assertEquals(Integer.MAX_VALUE, parser.getExpectedPacketLength());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void badRequestLine() throws Exception {
+        byte[] request = "NONSENSE\r\n\r\n".getBytes("UTF-8");
+        ByteBuffer buffer = ByteBuffer.allocate(request.length);
+        buffer.put(request);
+        new HttpRequestParser().checkPacket(buffer);
+    }
+
+    private static HttpRequest unmarshall(HttpRequestParser parser, ByteBuffer buffer, int packetLength) {
+        return ((HttpMessage) parser.unmarshall(null, new PacketBuffer(buffer, packetLength, null))).getRequest();
+    }
+
+    private static byte[] buildRequest(String method, String uri, byte[] content) throws Exception {
+        String header = method + " " + uri + " HTTP/1.1\r\nHost: localhost\r\n"
+                + (content != null ? "Content-Length: " + content.length + "\r\n" : "")
+                + "\r\n";
+        byte[] headerBytes = header.getBytes("UTF-8");
+        byte[] result = new byte[headerBytes.length + (content != null ? content.length : 0)];
+        System.arraycopy(headerBytes, 0, result, 0, headerBytes.length);
+        if (content != null) {
+            System.arraycopy(content, 0, result, headerBytes.length, content.length);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,94 @@
+package com.borunovv.core.server.nio.http.protocol;
+
+import com.borunovv.core.testing.AbstractTest;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static junit.framework.TestCase.assertEquals;
+
+public class HttpResponseTest extends AbstractTest {
+
+    private static final String NO_CACHE = "Cache-Control: no-cache, no-store, must-revalidate\r\n"
+            + "Pragma: no-cache\r\n"
+            + "Expires: 0\r\n";
+
+    @Test
+    public void json() throws Exception {
+        HttpResponse response = new HttpResponse(200);
+        response.writeJson("{\"a\":\"б\"}");
+
+        assertEquals("HTTP/1.1 200 OK\r\n"
+                        + NO_CACHE
+                        + "Content-Type: application/json; charset=UTF-8\r\n"
+                        + "Content-Length: 10\r\n"
+                        + "\r\n"
+                        + "{\"a\":\"б\"}",
+                toString(response));
+    }
+
+    @Test
+    public void customHeadersAndNoContent() throws Exception {
+        HttpResponse response = new HttpResponse(401);
+        response.setHeader("WWW-Authenticate", "Basic realm=\"Restricted\"");
+        response.setHeader("X-Name", "Иван 😀");
+
+        assertEquals("HTTP/1.1 401 Unauthorized\r\n"
+                        + NO_CACHE
+                        + "WWW-Authenticate: Basic realm=\"Restricted\"\r\n"
+                        + "X-Name: Иван 😀\r\n"
+                        + "Content-Length: 0\r\n"
+                        + "\r\n",
+                toString(response));
+    }
+
+    @Test
+    public void overrideCacheHeader() throws Exception {
+        HttpResponse response = new HttpResponse(200, new byte[]{'x'});
+        response.setHeader("Cache-Control", "max-age=60");
+        response.setContent(new byte[]{'x'}, "image/png");
+
+        assertEquals("HTTP/1.1 200 OK\r\n"
+                        + "Cache-Control: max-age=60\r\n"
+                        + "Pragma: no-cache\r\n"
+                        + "Expires: 0\r\n"
+                        + "Content-Type: image/png\r\n"
+                        + "Content-Length: 1\r\n"
+                        + "\r\n"
+                        + "x",
+                toString(response));
+    }
+
+    @Test
+    public void explicitHeadersAndUnknownStatus() throws Exception {
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Location", "/a");
+        HttpResponse response = new HttpResponse(299, headers, null);
+
+        assertEquals("HTTP/1.1 299 \r\n"
+                        + "Location: /a\r\n"
+                        + "Content-Length: 0\r\n"
+                        + "\r\n",
+                toString(response));
+    }
+
+    @Test
+    public void statusTexts() throws Exception {
+        assertEquals("Bad Request", HttpResponse.getStatusText(400));
+        assertEquals("Forbidden", HttpResponse.getStatusText(403));
+        assertEquals("Conflict", HttpResponse.getStatusText(409));
+        assertEquals("Too Many Requests", HttpResponse.getStatusText(429));
+        assertEquals("Service Unavailable", HttpResponse.getStatusText(503));
+        assertEquals("", HttpResponse.getStatusText(299));
+        assertEquals("", HttpResponse.getStatusText(1000));
+
+        HttpResponse response = new HttpResponse(429);
+        assertEquals("HTTP/1.1 429 Too Many Requests\r\n", toString(response).substring(0, 32));
+    }
+
+    private static String toString(HttpResponse response) {
+        return new String(response.marshall(), StandardCharsets.UTF_8);
+    }
+}
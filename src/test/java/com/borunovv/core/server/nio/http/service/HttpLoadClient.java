@@ -0,0 +1,236 @@
+package com.borunovv.core.server.nio.http.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Простейший нагрузочный HTTP-клиент для бенчмарков.
+ * Каждое соединение - отдельный поток, keep-alive, опционально конвейер (pipelining) запросов.
+ */
+class HttpLoadClient {
+
+    private final int port;
+    private final String path;
+    // Если задано - шлем POST с этим телом.
+    private final byte[] body;
+
+    HttpLoadClient(int port, String path) {
+        this(port, path, null);
+    }
+
+    HttpLoadClient(int port, String path, byte[] body) {
+        this.port = port;
+        this.path = path;
+        this.body = body;
+    }
+
+    Result run(int connections, int requestsPerConnection, int pipelineDepth) throws Exception {
+        return run(connections, requestsPerConnection, pipelineDepth, false);
+    }
+
+    // Шквал подключений: все соединения открываются разом, по одному запросу в каждом.
+    // Задержка - от начала connect() до ответа (включая повторы SYN, если ядро сервера их отбросило).
+    Result runConnectStorm(int connections) throws Exception {
+        return run(connections, 1, 1, true);
+    }
+
+    private Result run(int connections, int requestsPerConnection, int pipelineDepth, boolean measureConnect)
+            throws Exception {
+        final byte[] request = buildRequest();
+
+        final long[][] latencies = new long[connections][];
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final LongAdder rejected = new LongAdder();
+        List<Thread> threads = new ArrayList<>(connections);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < connections; ++i) {
+            final int connectionIndex = i;
+            Thread t = new Thread(() -> {
+                try {
+                    latencies[connectionIndex] = runConnection(
+                            request, requestsPerConnection, pipelineDepth, measureConnect, rejected);
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        if (error.get() != null) {
+            throw new RuntimeException("Load client failed", error.get());
+        }
+
+        int total = 0;
+        for (long[] l : latencies) {
+            total += l.length;
+        }
+        long[] all = new long[total];
+        int offset = 0;
+        for (long[] l : latencies) {
+            System.arraycopy(l, 0, all, offset, l.length);
+            offset += l.length;
+        }
+        Arrays.sort(all);
+        return new Result(all, elapsed, rejected.sum());
+    }
+
+    private byte[] buildRequest() {
+        if (body == null) {
+            return ("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        }
+        byte[] header = ("POST " + path + " HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + body.length + "\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+        byte[] request = Arrays.copyOf(header, header.length + body.length);
+        System.arraycopy(body, 0, request, header.length, body.length);
+        return request;
+    }
+
+    // Вернет задержки успешных (2xx) ответов, остальные только считаем в rejected.
+    private long[] runConnection(byte[] request, int requestsCount, int pipelineDepth, boolean measureConnect,
+                                 LongAdder rejected) throws IOException {
+        long[] latencies = new long[requestsCount];
+        int succeeded = 0;
+        long[] sendTimes = new long[requestsCount];
+        try (Socket socket = new Socket()) {
+            socket.setTcpNoDelay(true);
+            long connectStart = System.nanoTime();
+            socket.connect(new InetSocketAddress("localhost", port));
+            OutputStream out = socket.getOutputStream();
+            ResponseReader in = new ResponseReader(socket.getInputStream());
+
+            int sent = 0;
+            int received = 0;
+            while (received < requestsCount) {
+                while (sent < requestsCount && sent - received < pipelineDepth) {
+                    sendTimes[sent] = measureConnect && sent == 0 ?
+                            connectStart :
+                            System.nanoTime();
+                    out.write(request);
+                    sent++;
+                }
+                out.flush();
+                int status = in.readResponse();
+                if (status / 100 == 2) {
+                    latencies[succeeded++] = System.nanoTime() - sendTimes[received];
+                } else {
+                    rejected.increment();
+                }
+                received++;
+            }
+        }
+        return Arrays.copyOf(latencies, succeeded);
+    }
+
+    static class Result {
+        final long[] sortedLatenciesNanos;
+        final long elapsedNanos;
+        // Ответы не 2xx (например, 503 при перегрузке). В задержки не входят.
+        final long rejected;
+
+        Result(long[] sortedLatenciesNanos, long elapsedNanos, long rejected) {
+            this.sortedLatenciesNanos = sortedLatenciesNanos;
+            this.elapsedNanos = elapsedNanos;
+            this.rejected = rejected;
+        }
+
+        double getRequestsPerSecond() {
+            return sortedLatenciesNanos.length * 1e9 / elapsedNanos;
+        }
+
+        double getPercentileMs(double percentile) {
+            if (sortedLatenciesNanos.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.min(sortedLatenciesNanos.length - 1,
+                    Math.ceil(percentile / 100.0 * sortedLatenciesNanos.length) - 1);
+            return sortedLatenciesNanos[Math.max(0, index)] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("requests: %d, rps: %.0f, p50: %.3f ms, p90: %.3f ms, p99: %.3f ms, max: %.3f ms",
+                    sortedLatenciesNanos.length, getRequestsPerSecond(),
+                    getPercentileMs(50), getPercentileMs(90), getPercentileMs(99), getPercentileMs(100))
+                    + (rejected > 0 ? ", rejected: " + rejected : "");
+        }
+    }
+
+    // Читает ответы с Content-Length (chunked не поддерживаем, сервер так не умеет).
+    private static class ResponseReader {
+        private final InputStream in;
+        private final byte[] buffer = new byte[64 * 1024];
+        private int start = 0;
+        private int end = 0;
+
+        ResponseReader(InputStream in) {
+            this.in = in;
+        }
+
+        // Вернет код статуса ответа.
+        int readResponse() throws IOException {
+            int headerEnd;
+            while ((headerEnd = findHeaderEnd()) < 0) {
+                fill();
+            }
+            // "HTTP/1.1 200 ..."
+            int status = Integer.parseInt(new String(buffer, start + 9, 3, StandardCharsets.US_ASCII));
+            int contentLength = parseContentLength(start, headerEnd);
+            start = headerEnd + 4;
+            while (end - start < contentLength) {
+                contentLength -= end - start;
+                start = end;
+                fill();
+            }
+            start += contentLength;
+            return status;
+        }
+
+        private int findHeaderEnd() {
+            for (int i = start; i + 3 < end; ++i) {
+                if (buffer[i] == '\r' && buffer[i + 1] == '\n' && buffer[i + 2] == '\r' && buffer[i + 3] == '\n') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private int parseContentLength(int from, int to) {
+            String header = new String(buffer, from, to - from, StandardCharsets.US_ASCII);
+            for (String line : header.split("\r\n")) {
+                int colon = line.indexOf(':');
+                if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Content-Length")) {
+                    return Integer.parseInt(line.substring(colon + 1).trim());
+                }
+            }
+            return 0;
+        }
+
+        private void fill() throws IOException {
+            if (start > 0) {
+                System.arraycopy(buffer, start, buffer, 0, end - start);
+                end -= start;
+                start = 0;
+            }
+            int len = in.read(buffer, end, buffer.length - end);
+            if (len < 0) {
+                throw new IOException("Server closed connection");
+            }
+            end += len;
+        }
+    }
+}
@@ -0,0 +1,533 @@
+package com.borunovv.core.server.nio.http.service;
+
+import com.borunovv.core.server.nio.core.buffer.PacketBuffer;
+import com.borunovv.core.server.nio.core.service.RequestOrdering;
+import com.borunovv.core.server.nio.http.protocol.HttpRequest;
+import com.borunovv.core.server.nio.http.protocol.HttpRequestParser;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Бенчмарки HTTP сервера. Запускаются вручную (долгие, результаты печатаются в консоль).
+ */
+@Ignore
+public class HttpServerBenchmarkTest {
+
+    private static final int PORT = 8098;
+    private static final int CONNECTIONS = 64;
+    private static final int REQUESTS_PER_CONNECTION = 5000;
+
+    @Test
+    public void throughputByRWThreadsCount() throws Exception {
+        for (int rwThreads : new int[]{1, 2, 4, 8}) {
+            HttpServer server = startServer(new HttpServerConfig().setRWThreads(rwThreads));
+            try {
+                HttpLoadClient client = new HttpLoadClient(PORT, "/bench");
+                client.run(CONNECTIONS, 500, 1); // Прогрев.
+                HttpLoadClient.Result result = client.run(CONNECTIONS, REQUESTS_PER_CONNECTION, 1);
+                System.out.println("R/W threads: " + rwThreads + ", " + result);
+                System.out.println(server.getStats());
+            } finally {
+                server.stop();
+            }
+        }
+    }
+
+    // Рабочие потоки на общей очереди против ForkJoinPool с воровством задач при разном их кол-ве.
+    @Test
+    public void throughputByWorkerPool() throws Exception {
+        for (int workerThreads : new int[]{4, 16, 64}) {
+            for (boolean workStealing : new boolean[]{false, true}) {
+                HttpServer server = startServer(new HttpServerConfig()
+                        .setRWThreads(2)
+                        .setWorkerThreads(workerThreads)
+                        .setWorkStealing(workStealing));
+                try {
+                    HttpLoadClient client = new HttpLoadClient(PORT, "/bench");
+                    client.run(CONNECTIONS, 500, 1); // Прогрев.
+                    HttpLoadClient.Result result = client.run(CONNECTIONS, 2000, 1);
+                    System.out.println("Workers: " + workerThreads + ", work stealing: " + workStealing + ", " + result);
+                    System.out.println(server.getStats());
+                } finally {
+                    server.stop();
+                }
+            }
+        }
+    }
+
+    // Задержка ответа в зависимости от способа записи: через реактор (OP_WRITE) или напрямую из обработчика.
+    @Test
+    public void latencyByWriteMode() throws Exception {
+        for (int rwThreads : new int[]{1, 2}) {
+            for (boolean directWrite : new boolean[]{false, true}) {
+                HttpServer server = startServer(new HttpServerConfig()
+                        .setRWThreads(rwThreads)
+                        .setDirectWrite(directWrite));
+                try {
+                    HttpLoadClient client = new HttpLoadClient(PORT, "/bench");
+                    client.run(16, 500, 1); // Прогрев.
+                    HttpLoadClient.Result result = client.run(16, REQUESTS_PER_CONNECTION, 1);
+                    System.out.println("R/W threads: " + rwThreads + ", direct write: " + directWrite + ", " + result);
+                    System.out.println(server.getStats());
+                } finally {
+                    server.stop();
+                }
+            }
+        }
+    }
+
+    // Задержка ответа: через потоки исходящих (лишний переход между потоками) или сразу из рабочего потока.
+    @Test
+    public void latencyByOutputMode() throws Exception {
+        for (int connections : new int[]{1, 16}) {
+            for (boolean directOutput : new boolean[]{false, true}) {
+                HttpServer server = startServer(new HttpServerConfig()
+                        .setRWThreads(1)
+                        .setDirectOutput(directOutput));
+                try {
+                    HttpLoadClient client = new HttpLoadClient(PORT, "/bench");
+                    client.run(connections, 1000, 1); // Прогрев.
+                    HttpLoadClient.Result result = client.run(connections, 20000 / connections * 2, 1);
+                    System.out.println("Connections: " + connections + ", direct output: " + directOutput + ", " + result);
+                    System.out.println(server.getStats());
+                } finally {
+                    server.stop();
+                }
+            }
+        }
+    }
+
+    // Pipelining: сколько системных вызовов write() уходит на запрос при пакетной записи ответов и без нее.
+    @Test
+    public void pipeliningByWriteBatchSize() throws Exception {
+        for (int writeBatchSize : new int[]{1, 16}) {
+            HttpServer server = startServer(new HttpServerConfig()
+                    .setRWThreads(1)
+                    .setWriteBatchSize(writeBatchSize));
+            try {
+                HttpLoadClient client = new HttpLoadClient(PORT, "/bench");
+                HttpLoadClient.Result result = client.run(CONNECTIONS, REQUESTS_PER_CONNECTION, 16);
+                System.out.println("Write batch size: " + writeBatchSize + ", " + result);
+                System.out.println(server.getStats());
+            } finally {
+                server.stop();
+            }
+        }
+    }
+
+    // Pipelining с сохранением порядка запросов соединения: последовательная сессия против привязки к полосе.
+    // Обработчик либо сразу отвечает, либо "ходит в БД" 1 ms.
+    @Test
+    public void pipeliningByRequestOrdering() throws Exception {
+        for (int handlerDelayMs : new int[]{0, 1}) {
+            for (RequestOrdering ordering : RequestOrdering.values()) {
+                HttpServer server = new HttpServer();
+                server.start(PORT, (request, response) -> {
+                    if (handlerDelayMs > 0) {
+                        try {
+                            Thread.sleep(handlerDelayMs);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    response.writePlainText("OK");
+                }, new HttpServerConfig().setRWThreads(1).setRequestOrdering(ordering));
+                try {
+                    int requests = handlerDelayMs > 0 ? 100 : REQUESTS_PER_CONNECTION;
+                    HttpLoadClient client = new HttpLoadClient(PORT, "/bench");
+                    client.run(16, requests / 10, 16); // Прогрев.
+                    HttpLoadClient.Result result = client.run(16, requests, 16);
+                    System.out.println("Handler delay: " + handlerDelayMs + " ms, ordering: " + ordering + ", " + result);
+                    System.out.println(server.getStats());
+                } finally {
+                    server.stop();
+                }
+            }
+        }
+    }
+
+    // Обработчик ждет БД 20 ms: фиксированный пул из 4 рабочих потоков против потока на запрос
+    // (виртуального на Java 21+), ограниченного размером пула соединений (10).
+    @Test
+    public void throughputByDbLatency() throws Exception {
+        for (boolean virtualThreads : new boolean[]{false, true}) {
+            HttpServer server = new HttpServer();
+            server.start(PORT, (request, response) -> {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                response.writePlainText("OK");
+            }, new HttpServerConfig()
+                    .setRWThreads(1)
+                    .setVirtualThreads(virtualThreads)
+                    .setVirtualThreadsConcurrency(10));
+            try {
+                HttpLoadClient client = new HttpLoadClient(PORT, "/bench");
+                client.run(CONNECTIONS, 5, 1); // Прогрев.
+                HttpLoadClient.Result result = client.run(CONNECTIONS, 50, 1);
+                System.out.println("DB latency 20 ms, virtual threads: " + virtualThreads + ", " + result);
+                System.out.println(server.getStats());
+            } finally {
+                server.stop();
+            }
+        }
+    }
+
+    // Обработчик ждет БД 20 ms: фиксированный пул (маленький и большой) против растущего по нагрузке 4..32.
+    // Второй замер - после того, как адаптивный пул успел подстроиться.
+    @Test
+    public void throughputByAdaptiveWorkers() throws Exception {
+        int[][] pools = {{4, 4}, {32, 32}, {4, 32}};
+        for (int[] pool : pools) {
+            HttpServer server = new HttpServer();
+            server.start(PORT, (request, response) -> {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                response.writePlainText("OK");
+            }, new HttpServerConfig()
+                    .setRWThreads(1)
+                    .setWorkerThreads(pool[0])
+                    .setMaxWorkerThreads(pool[1]));
+            try {
+                HttpLoadClient client = new HttpLoadClient(PORT, "/bench");
+                for (int run = 1; run <= 2; ++run) {
+                    HttpLoadClient.Result result = client.run(CONNECTIONS, 40, 1);
+                    System.out.println("Workers: " + pool[0] + ".." + pool[1] + ", run " + run + ", " + result);
+                }
+                System.out.println(server.getStats());
+            } finally {
+                server.stop();
+            }
+        }
+    }
+
+    // Поток тяжелых запросов (20 ms) и легкие запросы на одних и тех же 4 рабочих потоках:
+    // задержка легких при общей очереди и при отдельных полосах default:10 / heavy:1.
+    @Test
+    public void latencyByRequestLanes() throws Exception {
+        for (boolean lanes : new boolean[]{false, true}) {
+            HttpServerConfig config = new HttpServerConfig().setRWThreads(1).setWorkerThreads(4);
+            if (lanes) {
+                config.addRequestLane("default", 10, 1000)
+                        .addRequestLane("heavy", 1, 200, "/heavy");
+            }
+            HttpServer server = new HttpServer();
+            server.start(PORT, (request, response) -> {
+                if (request.getUriPath().startsWith("/heavy")) {
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                response.writePlainText("OK");
+            }, config);
+            try {
+                Thread heavyLoad = new Thread(() -> {
+                    try {
+                        System.out.println("Heavy requests: " + new HttpLoadClient(PORT, "/heavy").run(32, 40, 1));
+                    } catch (Exception e) {
+                        e.printStackTrace(System.err);
+                    }
+                });
+                heavyLoad.start();
+                Thread.sleep(200);
+                HttpLoadClient.Result result = new HttpLoadClient(PORT, "/bench").run(8, 30, 1);
+                heavyLoad.join();
+                System.out.println("Request lanes: " + lanes + ", light requests: " + result);
+                System.out.println(server.getStats());
+            } finally {
+                server.stop();
+            }
+        }
+    }
+
+    // Перегрузка: 128 соединений на 4 рабочих потока по 10 ms (около 400 rps).
+    // Без сброса очередь стоит и каждый ждет ее целиком, со сбросом лишние сразу получают 503.
+    @Test
+    public void overloadByLoadShedding() throws Exception {
+        for (int targetDelayMs : new int[]{0, 20}) {
+            HttpServer server = new HttpServer();
+            server.start(PORT, (request, response) -> {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                response.writePlainText("OK");
+            }, new HttpServerConfig()
+                    .setRWThreads(1)
+                    .setWorkerThreads(4)
+                    .setLoadShedding(targetDelayMs, 100));
+            try {
+                HttpLoadClient client = new HttpLoadClient(PORT, "/bench");
+                HttpLoadClient.Result result = client.run(128, 40, 1);
+                System.out.println("Load shedding target: " + targetDelayMs + " ms, served: " + result);
+                System.out.println(server.getStats());
+            } finally {
+                server.stop();
+            }
+        }
+    }
+
+    // Большие ответы: сколько памяти выделяют R/W потоки на запрос (копирование ответа в рабочий буфер и т.п.).
+    @Test
+    public void largeResponsesReactorAllocation() throws Exception {
+        char[] body = new char[1024 * 1024];
+        Arrays.fill(body, 'x');
+        final String bigResponse = new String(body);
+
+        HttpServer server = new HttpServer();
+        server.start(PORT, (request, response) -> response.writePlainText(bigResponse),
+                new HttpServerConfig().setRWThreads(1));
+        try {
+            HttpLoadClient client = new HttpLoadClient(PORT, "/big");
+            client.run(8, 20, 1); // Прогрев.
+
+            long allocatedBefore = getAllocatedBytes("nio-rw-");
+            HttpLoadClient.Result result = client.run(8, 200, 1);
+            long allocated = getAllocatedBytes("nio-rw-") - allocatedBefore;
+
+            System.out.println("1 Mb responses: " + result);
+            System.out.println("R/W threads allocated: " + (allocated / 1600) + " bytes per request");
+            System.out.println(server.getStats());
+        } finally {
+            server.stop();
+        }
+    }
+
+    // Загрузка больших тел запросов: память R/W потоков и GC при буферах из пула (в куче и direct).
+    @Test
+    public void uploadsBufferPool() throws Exception {
+        byte[] body = new byte[256 * 1024];
+        Arrays.fill(body, (byte) 'x');
+
+        for (boolean directBuffers : new boolean[]{false, true}) {
+            HttpServer server = new HttpServer();
+            server.start(PORT, (request, response) -> response.writePlainText("OK"),
+                    new HttpServerConfig().setRWThreads(1).setDirectBuffers(directBuffers));
+            try {
+                HttpLoadClient client = new HttpLoadClient(PORT, "/upload", body);
+                client.run(8, 50, 1); // Прогрев.
+
+                long allocatedBefore = getAllocatedBytes("nio-rw-");
+                long gcBefore = getGcCount();
+                HttpLoadClient.Result result = client.run(8, 500, 1);
+                long allocated = getAllocatedBytes("nio-rw-") - allocatedBefore;
+
+                System.out.println("256 Kb uploads, direct buffers: " + directBuffers + ", " + result);
+                System.out.println("R/W threads allocated: " + (allocated / 4000) + " bytes per request"
+                        + ", GC runs: " + (getGcCount() - gcBefore));
+                System.out.println(server.getStats());
+            } finally {
+                server.stop();
+            }
+        }
+    }
+
+    // Разбор запроса, приходящего кусками (как из сокета): заголовок 8 Kb по 512 байт, тело 5 Mb по 8 Kb.
+    // Полный повторный разбор накопленного после каждого куска против инкрементального парсера сессии.
+    @Test
+    public void requestParsingByChunks() throws Exception {
+        StringBuilder header = new StringBuilder("POST /upload HTTP/1.1\r\nHost: localhost\r\n");
+        while (header.length() < 8 * 1024) {
+            header.append("X-Header-").append(header.length()).append(": some header value\r\n");
+        }
+        byte[] body = new byte[5 * 1024 * 1024];
+        header.append("Content-Length: ").append(body.length).append("\r\n\r\n");
+        byte[] headerBytes = header.toString().getBytes("UTF-8");
+        byte[] request = new byte[headerBytes.length + body.length];
+        System.arraycopy(headerBytes, 0, request, 0, headerBytes.length);
+
+        for (int iteration = 0; iteration < 3; ++iteration) {
+            int requests = 20;
+
+            long start = System.nanoTime();
+            for (int i = 0; i < requests; ++i) {
+                ByteBuffer buffer = ByteBuffer.allocate(request.length);
+                int packetLength = -1;
+                for (int offset = 0; packetLength <= 0; ) {
+                    offset = feedChunk(buffer, request, offset, headerBytes.length);
+                    packetLength = LegacyRequestParser.tryParse(buffer.array(), buffer.position());
+                }
+                new HttpRequest(buffer.array(), packetLength);
+            }
+            long reparseNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < requests; ++i) {
+                ByteBuffer buffer = ByteBuffer.allocate(request.length);
+                HttpRequestParser parser = new HttpRequestParser();
+                int packetLength = -1;
+                for (int offset = 0; packetLength <= 0; ) {
+                    offset = feedChunk(buffer, request, offset, headerBytes.length);
+                    packetLength = parser.checkPacket(buffer);
+                }
+                parser.unmarshall(null, new PacketBuffer(buffer, packetLength, null));
+            }
+            long incrementalNanos = System.nanoTime() - start;
+
+            System.out.println(String.format("8 Kb header + 5 Mb body: re-parse: %.2f ms/request, incremental: %.2f ms/request",
+                    reparseNanos / 1e6 / requests, incrementalNanos / 1e6 / requests));
+        }
+    }
+
+    // Прежний разбор (до HttpRequestParser): на каждый кусок - поиск разделителя с начала и разбор заголовка заново.
+    private static class LegacyRequestParser {
+
+        // Вернет длину полного запроса в байтах, иначе -1.
+        static int tryParse(byte[] data, int length) {
+            int headerLength = findHeaderSeparator(data, length);
+            if (headerLength <= 0) {
+                return -1;
+            }
+            int expectedRequestSize = headerLength + 4 + getContentLength(data, headerLength); // skip '\r\n\r\n'.
+            return expectedRequestSize <= length ?
+                    expectedRequestSize :
+                    -1;
+        }
+
+        private static int findHeaderSeparator(byte[] data, int length) {
+            int offset = 0;
+            int curIndex = 0;
+            while (curIndex >= 0 && offset < length - 3) {
+                curIndex = findNext(data, length, offset, (byte) '\r');
+                if (curIndex >= 0
+                        && data[curIndex + 1] == '\n'
+                        && data[curIndex + 2] == '\r'
+                        && data[curIndex + 3] == '\n') {
+                    return curIndex;
+                }
+                offset = curIndex + 1;
+            }
+            return -1;
+        }
+
+        private static int findNext(byte[] data, int dataLength, int fromIndex, byte what) {
+            for (int i = fromIndex; i < dataLength; ++i) {
+                if (data[i] == what) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private static int getContentLength(byte[] data, int headerLength) {
+            for (String line : new String(data, 0, headerLength, StandardCharsets.UTF_8).split("\r\n")) {
+                int colon = line.indexOf(':');
+                if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Content-Length")) {
+                    return Integer.parseInt(line.substring(colon + 1).trim());
+                }
+            }
+            return 0;
+        }
+    }
+
+    private static int feedChunk(ByteBuffer buffer, byte[] request, int offset, int headerLength) {
+        int chunk = offset < headerLength ? 512 : 8 * 1024;
+        int len = Math.min(chunk, request.length - offset);
+        buffer.put(request, offset, len);
+        return offset + len;
+    }
+
+    private static long getGcCount() {
+        long result = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            result += Math.max(0, gc.getCollectionCount());
+        }
+        return result;
+    }
+
+    private static long getAllocatedBytes(String threadNamePrefix) {
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long result = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith(threadNamePrefix)) {
+                result += threadMXBean.getThreadAllocatedBytes(thread.getId());
+            }
+        }
+        return result;
+    }
+
+    // Шквал переподключений (мобильные клиенты после смены сети): все соединения разом, по запросу в каждом.
+    // Если очередь непринятых соединений переполнена, ядро отбрасывает SYN, и клиент повторяет его через ~1 сек - это видно по p99.
+    @Test
+    public void connectStormByAcceptThreads() throws Exception {
+        int[][] variants = {{1, 100}, {1, 1024}, {4, 100}, {4, 1024}}; // {потоки приема, backlog}
+        for (int[] variant : variants) {
+            HttpServer server = startServer(new HttpServerConfig()
+                    .setAcceptThreads(variant[0])
+                    .setAcceptQueueSize(variant[1]));
+            try {
+                HttpLoadClient client = new HttpLoadClient(PORT, "/bench");
+                client.runConnectStorm(100); // Прогрев.
+                for (int storm = 0; storm < 3; ++storm) {
+                    HttpLoadClient.Result result = client.runConnectStorm(2000);
+                    System.out.println("Accept threads: " + variant[0] + ", backlog: " + variant[1]
+                            + ", connects: " + result);
+                }
+                System.out.println(server.getStats());
+            } finally {
+                server.stop();
+            }
+        }
+    }
+
+    // Сколько CPU тратит сервер на простаивающие keep-alive соединения (heartbeat/таймауты).
+    // Каждое соединение - 2 дескриптора в этом процессе, для 100K нужен ulimit -n > 200000.
+    @Test
+    public void idleConnectionsCpu() throws Exception {
+        for (int connections : new int[]{10000, 50000, 100000}) {
+            HttpServer server = startServer(new HttpServerConfig().setRWThreads(1));
+            List<SocketChannel> clients = new ArrayList<>(connections);
+            try {
+                for (int i = 0; i < connections; ++i) {
+                    clients.add(SocketChannel.open(new InetSocketAddress("localhost", PORT)));
+                }
+                Thread.sleep(2000); // Ждем регистрации всех в селекторе.
+
+                long measureTimeMs = 10000;
+                long cpuStart = getProcessCpuTimeNanos();
+                Thread.sleep(measureTimeMs);
+                long cpuMs = (getProcessCpuTimeNanos() - cpuStart) / 1000000;
+
+                System.out.println("Idle connections: " + connections
+                        + ", CPU: " + cpuMs + " ms per " + measureTimeMs + " ms ("
+                        + (100 * cpuMs / measureTimeMs) + "% of one core)");
+                System.out.println(server.getStats());
+            } finally {
+                for (SocketChannel client : clients) {
+                    client.close();
+                }
+                server.stop();
+            }
+        }
+    }
+
+    private static long getProcessCpuTimeNanos() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean())
+                .getProcessCpuTime();
+    }
+
+    private HttpServer startServer(HttpServerConfig config) {
+        HttpServer server = new HttpServer();
+        server.start(PORT, (request, response) -> response.writePlainText("OK"), config);
+        return server;
+    }
+}
@@ -1,15 +1,26 @@
 package com.borunovv.core.server.nio.http.service;
 
 import com.borunovv.core.server.nio.core.protocol.IDeliveryCallback;
+import com.borunovv.core.server.nio.core.service.NioServer;
+import com.borunovv.core.server.nio.http.protocol.HttpRequest;
 import com.borunovv.core.testing.AbstractTest;
 import com.borunovv.core.util.HttpMethod;
 import com.borunovv.core.util.UrlReader;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
 
 public class HttpServerTest extends AbstractTest {
@@ -83,6 +94,270 @@ public class HttpServerTest extends AbstractTest {
         }
     }
 
+    @Test
+    public void testBodyViewReleasedAfterHandling() throws Exception {
+        final AtomicReference<HttpRequest> lastRequest = new AtomicReference<>();
+        HttpServer server = new HttpServer();
+        server.start(8099, (request, response) -> {
+            try {
+                // Тело читаем без копирования: потоком и через буфер.
+                long sum = 0;
+                InputStream stream = request.getContentStream();
+                for (int b = stream.read(); b >= 0; b = stream.read()) {
+                    sum += b;
+                }
+                ByteBuffer body = request.getContentBuffer();
+                assertTrue(body.isReadOnly());
+                response.writePlainText("Sum: " + sum + ", length: " + body.remaining());
+                lastRequest.set(request);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        try {
+            byte[] data = getPostData(100000);
+            Arrays.fill(data, (byte) 1);
+            for (int i = 0; i < 3; ++i) {
+                UrlReader.Request req = new UrlReader.Request(HttpMethod.POST, "localhost:8099/post");
+                req.setContent(data, "text/plain");
+                assertEquals("Sum: 100000, length: 100000", UrlReader.send(req).getBodyAsString());
+            }
+
+            // Буфер тела вернулся в пул после обработки.
+            long startWait = System.currentTimeMillis();
+            while (!server.getStats().contains("buffers: in use: 0 ")
+                    && System.currentTimeMillis() - startWait < 5000) {
+                Thread.sleep(10);
+            }
+            assertTrue(server.getStats(), server.getStats().contains("buffers: in use: 0 "));
+            try {
+                lastRequest.get().getContentBuffer();
+                fail("Body must be unavailable after handling");
+            } catch (IllegalStateException expected) {
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    // Запросы, прождавшие в очереди за долгим, получают 503 с Retry-After, а не ждут своей очереди.
+    @Test
+    public void testLoadShedding() throws Exception {
+        HttpServer server = new HttpServer();
+        server.start(8099, (request, response) -> {
+            if (request.getUriPath().equals("/slow")) {
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            response.writePlainText("OK");
+        }, new HttpServerConfig()
+                .setWorkerThreads(1)
+                .setLoadShedding(20, 50)
+                .setRetryAfterSeconds(2));
+        try {
+            Socket slow = sendRawRequest("/slow");
+            Thread.sleep(50);
+            Socket[] fast = new Socket[3];
+            for (int i = 0; i < fast.length; ++i) {
+                fast[i] = sendRawRequest("/fast");
+            }
+
+            assertTrue(readRawResponse(slow).startsWith("HTTP/1.1 200 OK\r\n"));
+            for (Socket socket : fast) {
+                String response = readRawResponse(socket);
+                assertTrue(response, response.startsWith("HTTP/1.1 503 Service Unavailable\r\n"));
+                assertTrue(response, response.contains("\r\nRetry-After: 2\r\n"));
+            }
+            assertEquals(Long.valueOf(3), server.getShedCounts().get("/fast"));
+            assertTrue(server.getRejectCounts().isEmpty());
+            assertTrue(server.getStats(), server.getStats().contains(", shed: 3"));
+
+            // Очередь рассосалась - запросы снова обрабатываются.
+            assertEquals("OK", UrlReader.getAsString("localhost:8099/fast"));
+        } finally {
+            server.stop();
+        }
+    }
+
+    // Несколько потоков приема на одном порту: все соединения приняты и обслужены, каждое - одним из потоков.
+    @Test
+    public void testMultipleAcceptThreads() throws Exception {
+        HttpServer server = new HttpServer();
+        server.start(8099, (request, response) -> response.writePlainText("OK"),
+                new HttpServerConfig()
+                        .setAcceptThreads(4)
+                        .setAcceptQueueSize(512));
+        try {
+            Socket[] sockets = new Socket[40];
+            for (int i = 0; i < sockets.length; ++i) {
+                sockets[i] = sendRawRequest("/");
+            }
+            for (Socket socket : sockets) {
+                String response = readRawResponse(socket);
+                assertTrue(response, response.startsWith("HTTP/1.1 200 OK\r\n"));
+            }
+
+            String stats = server.getStats();
+            Matcher matcher = Pattern.compile("Accept thread #\\d+: accepted: (\\d+)").matcher(stats);
+            int acceptThreads = 0;
+            int accepted = 0;
+            while (matcher.find()) {
+                acceptThreads++;
+                accepted += Integer.parseInt(matcher.group(1));
+            }
+            assertEquals(stats, NioServer.isReusePortSupported() ? 4 : 1, acceptThreads);
+            assertEquals(stats, sockets.length, accepted);
+        } finally {
+            server.stop();
+        }
+    }
+
+    // Сверх лимита с одного IP соединение закрывается сразу при приеме, а закрытые соединения освобождают места.
+    @Test
+    public void testConnectionLimits() throws Exception {
+        HttpServer server = new HttpServer();
+        server.start(8099, (request, response) -> response.writePlainText("OK"),
+                new HttpServerConfig().setConnectionLimits(0, 3));
+        Socket[] held = new Socket[3];
+        try {
+            for (int i = 0; i < held.length; ++i) {
+                held[i] = new Socket("localhost", 8099);
+            }
+            waitForStats(server, "Connections: 3/");
+
+            String rejected;
+            try {
+                rejected = readRawResponse(sendRawRequest("/"));
+            } catch (IOException e) {
+                rejected = ""; // Сброс соединения (RST).
+            }
+            assertEquals("", rejected);
+            assertTrue(server.getStats(), server.getStats().contains("rejected: 0 by total limit, 1 by IP limit"));
+
+            held[0].close();
+            waitForStats(server, "Connections: 2/");
+            assertEquals("OK", UrlReader.getAsString("localhost:8099/"));
+
+            held[1].close();
+            held[2].close();
+            waitForStats(server, "Connections: 0/");
+        } finally {
+            for (Socket socket : held) {
+                if (socket != null) {
+                    socket.close();
+                }
+            }
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testRateLimits() throws Exception {
+        HttpServer server = new HttpServer();
+        server.start(8099, (request, response) -> response.writePlainText("OK"),
+                new HttpServerConfig()
+                        .addRateLimit("default", 1000, 1000)
+                        .addRateLimit("slow", 10, 2, "/slow"));
+        try {
+            // Два запроса - всплеск, дальше - по одному в 100 мс (все соединения с одного IP делят корзину).
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < 5; ++i) {
+                assertEquals("OK", UrlReader.getAsString("localhost:8099/slow/" + i));
+            }
+            long elapsed = System.currentTimeMillis() - start;
+            assertTrue("Too fast: " + elapsed + " ms", elapsed >= 250);
+
+            // Остальные endpoint-ы не задеты.
+            for (int i = 0; i < 20; ++i) {
+                assertEquals("OK", UrlReader.getAsString("localhost:8099/fast"));
+            }
+            String stats = server.getStats();
+            assertTrue(stats, stats.contains("default (1000.0/s, burst 1000): 1 clients, throttled: 0"));
+            assertTrue(stats, stats.contains("slow (10.0/s, burst 2): 1 clients, throttled: 3"));
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testMemoryBudget() throws Exception {
+        HttpServer server = new HttpServer();
+        server.start(8099, (request, response) -> response.writePlainText("OK " + request.getContentLength()),
+                new HttpServerConfig().setMemoryBudgetBytes(1024 * 1024));
+        try {
+            // Отказ - по заголовку, тело не шлем вовсе: больше максимального размера пакета..
+            String tooLarge = readRawResponse(sendRawPost("/", 20 * 1024 * 1024));
+            assertTrue(tooLarge, tooLarge.startsWith("HTTP/1.1 413"));
+            // ..и больше бюджета.
+            String noMemory = readRawResponse(sendRawPost("/", 2 * 1024 * 1024));
+            assertTrue(noMemory, noMemory.startsWith("HTTP/1.1 503"));
+            assertTrue(noMemory, noMemory.contains("Retry-After: 1"));
+
+            // В бюджет влезает.
+            assertEquals("OK 300000",
+                    UrlReader.post("localhost:8099/", getPostData(300000), "text/plain").getBodyAsString());
+
+            waitForStats(server, "rejected requests: 2");
+            // Все буферы вернулись в бюджет.
+            waitForStats(server, "Memory budget: 0.0/1.0 Mb");
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static void waitForStats(HttpServer server, String expected) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        while (!server.getStats().contains(expected) && System.currentTimeMillis() - start < 5000) {
+            Thread.sleep(10);
+        }
+        assertTrue(server.getStats(), server.getStats().contains(expected));
+    }
+
+    private static Socket sendRawRequest(String path) throws IOException {
+        Socket socket = new Socket("localhost", 8099);
+        socket.setSoTimeout(10000);
+        socket.getOutputStream().write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII));
+        return socket;
+    }
+
+    // Только заголовок POST-запроса, тело не шлем.
+    private static Socket sendRawPost(String path, int contentLength) throws IOException {
+        Socket socket = new Socket("localhost", 8099);
+        socket.setSoTimeout(10000);
+        socket.getOutputStream().write(("POST " + path + " HTTP/1.1\r\nHost: localhost\r\n"
+                + "Content-Length: " + contentLength + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        return socket;
+    }
+
+    // Читает ответ целиком (тело - до Content-Length) и закрывает сокет.
+    private static String readRawResponse(Socket socket) throws IOException {
+        try {
+            InputStream in = socket.getInputStream();
+            StringBuilder sb = new StringBuilder();
+            int headerEnd = -1;
+            int contentLength = 0;
+            while (headerEnd < 0 || sb.length() < headerEnd + contentLength) {
+                int b = in.read();
+                if (b < 0) {
+                    break;
+                }
+                sb.append((char) b);
+                if (headerEnd < 0 && sb.length() >= 4 && sb.lastIndexOf("\r\n\r\n") == sb.length() - 4) {
+                    headerEnd = sb.length();
+                    Matcher matcher = Pattern.compile("Content-Length: (\\d+)").matcher(sb);
+                    contentLength = matcher.find() ? Integer.parseInt(matcher.group(1)) : 0;
+                }
+            }
+            return sb.toString();
+        } finally {
+            socket.close();
+        }
+    }
+
     private byte[] getPostData(int size) {
         byte[] data = new byte[size];
         Arrays.fill(data, (byte) 0);
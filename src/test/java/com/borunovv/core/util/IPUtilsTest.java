@@ -2,9 +2,11 @@ package com.borunovv.core.util;
 
 import org.junit.Test;
 
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 
 import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
 
 public class IPUtilsTest {
 
@@ -21,6 +23,16 @@ public class IPUtilsTest {
         assertEquals(0L, IPUtils.toLong("1.2.3.4.5"));
     }
 
+    // IPv6 - по подсети /64: адреса одного клиента из его подсети дают один ключ.
+    @Test
+    public void toLongByInetAddress() throws Exception {
+        assertEquals(3232235521L, IPUtils.toLong(InetAddress.getByName("192.168.0.1")));
+        assertEquals(IPUtils.toLong(InetAddress.getByName("2001:db8:1:2::1")),
+                IPUtils.toLong(InetAddress.getByName("2001:db8:1:2::ffff")));
+        assertFalse(IPUtils.toLong(InetAddress.getByName("2001:db8:1:2::1"))
+                == IPUtils.toLong(InetAddress.getByName("2001:db8:1:3::1")));
+    }
+
     @Test
     public void testToString() throws Exception {
         InetSocketAddress addr = new InetSocketAddress("192.168.0.1", 1234);
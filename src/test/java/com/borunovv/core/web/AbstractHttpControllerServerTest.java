@@ -0,0 +1,33 @@
+package com.borunovv.core.web;
+
+import com.borunovv.core.testing.AbstractTest;
+import org.junit.Test;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNull;
+
+public class AbstractHttpControllerServerTest extends AbstractTest {
+
+    // Полоса - по действию из actionLanes, остальные действия - в полосу контроллера.
+    @Test
+    public void laneByAction() {
+        HttpController annotation = ActionLanesController.class.getAnnotation(HttpController.class);
+        assertEquals("heavy", AbstractHttpControllerServer.getLane(annotation, "/timing/list"));
+        assertEquals("heavy", AbstractHttpControllerServer.getLane(annotation, "/Timing/List/"));
+        assertEquals("light", AbstractHttpControllerServer.getLane(annotation, "/timing/listing"));
+        assertEquals("light", AbstractHttpControllerServer.getLane(annotation, "/timing/create"));
+
+        HttpController noLane = NoLaneController.class.getAnnotation(HttpController.class);
+        assertEquals("heavy", AbstractHttpControllerServer.getLane(noLane, "/timing/list"));
+        assertNull(AbstractHttpControllerServer.getLane(noLane, "/timing/create"));
+        assertNull(AbstractHttpControllerServer.getLane(null, "/timing/list"));
+    }
+
+    @HttpController(path = "/timing/", lane = "light", actionLanes = "list:heavy")
+    private static class ActionLanesController {
+    }
+
+    @HttpController(path = "/timing/", actionLanes = "list:heavy")
+    private static class NoLaneController {
+    }
+}